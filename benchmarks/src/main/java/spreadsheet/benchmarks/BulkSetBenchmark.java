@@ -0,0 +1,60 @@
+package spreadsheet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.BetterSpreadSheet;
+
+/**
+ * Benchmarks bulk assignment of square regions of different sizes on every spreadsheet
+ * kind. A fresh sheet is used for every call so that each call pays for creating its
+ * storage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BulkSetBenchmark {
+
+  @Param({"sparse", "tiled", "adaptive", "concurrent", "mapped"})
+  public String kind;
+
+  @Param({"100", "1000", "3000"})
+  public int side;
+
+  private BetterSpreadSheet sheet;
+
+  @Setup(Level.Invocation)
+  public void createSheet() {
+    sheet = Workloads.createSheet(kind);
+  }
+
+  @TearDown(Level.Invocation)
+  public void closeSheet() {
+    Workloads.close(sheet);
+  }
+
+  /**
+   * Assigns one value to a square region with the given side length.
+   */
+  @Benchmark
+  public BetterSpreadSheet largeBulkSet() {
+    sheet.bulkSet(7, 7, 7 + side - 1, 7 + side - 1, 1.5);
+    return sheet;
+  }
+}
@@ -0,0 +1,104 @@
+package spreadsheet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.BetterSpreadSheet;
+
+/**
+ * Benchmarks single-cell get, set and isEmpty on every spreadsheet kind. Run with
+ * {@code -prof gc} to see the allocation rate of each operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellAccessBenchmark {
+  private static final int POPULATED = 1 << 16;
+  private static final int ROW_LENGTH = 1024;
+  private static final int ROWS = 4096;
+
+  @Param({"sparse", "tiled", "adaptive", "concurrent", "mapped"})
+  public String kind;
+
+  private BetterSpreadSheet sheet;
+  private int[] rows;
+  private int[] cols;
+  private int next;
+  private int fillRow;
+  private int fillCol;
+
+  @Setup(Level.Trial)
+  public void generatePositions() {
+    rows = Workloads.randomInts(1, 1 << 20);
+    cols = Workloads.randomInts(2, 1 << 14);
+  }
+
+  @Setup(Level.Iteration)
+  public void createSheet() {
+    sheet = Workloads.createSheet(kind);
+    Workloads.populate(sheet, rows, cols, POPULATED);
+    next = 0;
+    fillRow = 0;
+    fillCol = 0;
+  }
+
+  @TearDown(Level.Iteration)
+  public void closeSheet() {
+    Workloads.close(sheet);
+  }
+
+  /**
+   * Writes to random cells scattered over a million rows.
+   */
+  @Benchmark
+  public void randomSparseWrites() {
+    int i = next++ & (Workloads.POSITIONS - 1);
+    sheet.set(rows[i], cols[i], i);
+  }
+
+  /**
+   * Fills rows from left to right, one row after the other.
+   */
+  @Benchmark
+  public void sequentialRowFill() {
+    sheet.set(fillRow, fillCol, fillCol);
+    if (++fillCol == ROW_LENGTH) {
+      fillCol = 0;
+      fillRow = (fillRow + 1) % ROWS;
+    }
+  }
+
+  /**
+   * Reads random cells that were populated in the setup.
+   */
+  @Benchmark
+  public double readHeavyRandomAccess() {
+    int i = next++ & (POPULATED - 1);
+    return sheet.get(rows[i], cols[i]);
+  }
+
+  /**
+   * Checks random cells, about half of which are populated.
+   */
+  @Benchmark
+  public boolean randomIsEmpty() {
+    int i = next++ & (2 * POPULATED - 1);
+    return sheet.isEmpty(rows[i], cols[i]);
+  }
+}
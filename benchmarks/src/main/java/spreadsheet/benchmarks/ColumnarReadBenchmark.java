@@ -0,0 +1,84 @@
+package spreadsheet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.BetterSpreadSheet;
+import spreadsheet.ColumnarRegion;
+
+/**
+ * Benchmarks pulling the columns of a 1000 by 1000 region out of a 1024 by 1024 block
+ * of values, once with {@link spreadsheet.SpreadSheet#readColumns} and once the way
+ * analytics jobs did before, with isEmpty and get on every cell.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ColumnarReadBenchmark {
+  private static final int SIDE = 1024;
+  private static final int REGION = 1000;
+
+  @Param({"sparse", "tiled", "adaptive", "concurrent", "mapped"})
+  public String kind;
+
+  private BetterSpreadSheet sheet;
+
+  @Setup(Level.Trial)
+  public void fillSheet() {
+    sheet = Workloads.createSheet(kind);
+    for (int row = 0; row < SIDE; row++) {
+      for (int col = 0; col < SIDE; col++) {
+        if ((row + col) % 7 != 0) {
+          sheet.set(row, col, (row * 31 + col) % 101);
+        }
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void closeSheet() {
+    Workloads.close(sheet);
+  }
+
+  /**
+   * Reads the region into columns in one call.
+   */
+  @Benchmark
+  public ColumnarRegion readColumns() {
+    return sheet.readColumns(10, 10, 10 + REGION - 1, 10 + REGION - 1);
+  }
+
+  /**
+   * Builds the same columns with two calls per cell.
+   */
+  @Benchmark
+  public double[][] perCellGet() {
+    double[][] columns = new double[REGION][REGION];
+    long[][] validity = new long[REGION][(REGION + 63) / 64];
+    for (int col = 0; col < REGION; col++) {
+      for (int row = 0; row < REGION; row++) {
+        if (!sheet.isEmpty(10 + row, 10 + col)) {
+          columns[col][row] = sheet.get(10 + row, 10 + col);
+          validity[col][row >>> 6] |= 1L << row;
+        }
+      }
+    }
+    return columns;
+  }
+}
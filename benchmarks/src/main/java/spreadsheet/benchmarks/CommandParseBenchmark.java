@@ -0,0 +1,137 @@
+package spreadsheet.benchmarks;
+
+import java.io.StringReader;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetController;
+
+/**
+ * Benchmarks running a stream of assign-value and print-value commands through the batch
+ * mode of the basic controller, which parses them with its command parser, against the
+ * loop the controllers used before: a Scanner with next, nextInt and nextDouble and the
+ * row letters decoded from a String. Both apply the commands to a sparse spreadsheet and
+ * write the same messages to an Appendable that discards them, so the difference is the
+ * parsing. The times are per command.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParseBenchmark {
+  private static final int COMMANDS = 100000;
+
+  private String input;
+
+  /**
+   * An Appendable that drops everything written to it.
+   */
+  private static final class Discard implements Appendable {
+    @Override
+    public Appendable append(CharSequence text) {
+      return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence text, int start, int end) {
+      return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+      return this;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void writeCommands() {
+    SplittableRandom random = new SplittableRandom(21);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < COMMANDS; i++) {
+      String row = rowLetters(random.nextInt(20000));
+      int col = 1 + random.nextInt(500);
+      if (i % 4 == 3) {
+        text.append("print-value ").append(row).append(' ').append(col).append('\n');
+      } else {
+        text.append("assign-value ").append(row).append(' ').append(col).append(' ')
+                .append(random.nextInt(10000000) / 100.0).append('\n');
+      }
+    }
+    input = text.toString();
+  }
+
+  private static String rowLetters(int row) {
+    StringBuilder letters = new StringBuilder();
+    for (int n = row + 1; n > 0; n = (n - 1) / 26) {
+      letters.insert(0, (char) ('A' + (n - 1) % 26));
+    }
+    return letters.toString();
+  }
+
+  /**
+   * Runs the commands through the batch mode of the controller.
+   */
+  @Benchmark
+  @OperationsPerInvocation(COMMANDS)
+  public SpreadSheet controller() {
+    SpreadSheet sheet = new SparseSpreadSheet();
+    new SpreadSheetController(sheet, new StringReader(input), new Discard()).executeBatch();
+    return sheet;
+  }
+
+  /**
+   * Runs the commands through a Scanner loop.
+   */
+  @Benchmark
+  @OperationsPerInvocation(COMMANDS)
+  public SpreadSheet scanner() {
+    SpreadSheet sheet = new SparseSpreadSheet();
+    Discard output = new Discard();
+    Scanner scanner = new Scanner(new StringReader(input));
+    StringBuilder message = new StringBuilder();
+    while (scanner.hasNext()) {
+      String command = scanner.next();
+      int row = getRowNum(scanner.next());
+      int col = scanner.nextInt();
+      if ("assign-value".equals(command)) {
+        sheet.set(row, col - 1, scanner.nextDouble());
+      } else {
+        message.setLength(0);
+        message.append("Value: ").append(sheet.get(row, col - 1))
+                .append(System.lineSeparator());
+        output.append(message);
+      }
+    }
+    return sheet;
+  }
+
+  private static int getRowNum(String rowLetters) {
+    int rownumber = 0;
+    for (int i = 0; i < rowLetters.length(); i++) {
+      char c = rowLetters.charAt(i);
+      if (!Character.isAlphabetic(c)) {
+        throw new IllegalArgumentException("Invalid row");
+      }
+      rownumber = 26 * rownumber + ((int) Character.toLowerCase(c) - 'a' + 1);
+    }
+    return rownumber - 1;
+  }
+}
@@ -0,0 +1,95 @@
+package spreadsheet.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.BetterSpreadSheetController;
+import spreadsheet.SpreadSheetController;
+import spreadsheet.SpreadSheetFactory;
+
+/**
+ * Benchmarks replaying a recorded session of assign-value, print-value and sum commands
+ * through the interactive mode of a controller whose output goes to a PrintStream on a
+ * file, set up the way System.out is: line-flushed, over an 8 KB buffer. The time is per
+ * command and includes every prompt and message the controller writes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CommandReplayBenchmark {
+  private static final int COMMANDS = 20000;
+
+  @Param({"basic", "better"})
+  public String controller;
+
+  private String session;
+  private Path file;
+
+  @Setup(Level.Trial)
+  public void recordSession() throws IOException {
+    SplittableRandom random = new SplittableRandom(22);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < COMMANDS; i++) {
+      char row = (char) ('A' + random.nextInt(26));
+      int col = 1 + random.nextInt(50);
+      if (("better".equals(controller)) && (i % 10 == 9)) {
+        text.append("sum A 1 Z 50\n");
+      } else if (i % 3 == 2) {
+        text.append("print-value ").append(row).append(' ').append(col).append('\n');
+      } else {
+        text.append("assign-value ").append(row).append(' ').append(col).append(' ')
+                .append(random.nextInt(100000) / 100.0).append('\n');
+      }
+    }
+    session = text.append("q\n").toString();
+    file = Files.createTempFile("replay-benchmark", ".out");
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteFile() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  /**
+   * Replays the session in interactive mode.
+   */
+  @Benchmark
+  @OperationsPerInvocation(COMMANDS)
+  public void replay() throws IOException {
+    try (PrintStream out = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(file.toFile()), 8192), true)) {
+      if ("better".equals(controller)) {
+        new BetterSpreadSheetController(SpreadSheetFactory.createBetterSheet("tiled"),
+                new StringReader(session), out).executeBetterProgram();
+      } else {
+        new SpreadSheetController(SpreadSheetFactory.createBetterSheet("tiled"),
+                new StringReader(session), out).executeProgram();
+      }
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package spreadsheet.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.BetterSpreadSheet;
+import spreadsheet.SheetCsv;
+
+/**
+ * Benchmarks CSV import and export of a 4000 by 500 block of values with two decimal
+ * places, about 16 MB of text. Divide that size by the time per operation to get the
+ * throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CsvBenchmark {
+  private static final int ROWS = 4000;
+  private static final int COLS = 500;
+
+  @Param({"sparse", "tiled", "adaptive", "concurrent", "mapped"})
+  public String kind;
+
+  private Path input;
+  private Path output;
+  private BetterSpreadSheet sheet;
+
+  @Setup(Level.Trial)
+  public void writeFile() throws IOException {
+    input = Files.createTempFile("csv-benchmark", ".csv");
+    output = Files.createTempFile("csv-benchmark-out", ".csv");
+    SplittableRandom random = new SplittableRandom(42);
+    StringBuilder line = new StringBuilder();
+    try (BufferedWriter writer = Files.newBufferedWriter(input)) {
+      for (int row = 0; row < ROWS; row++) {
+        line.setLength(0);
+        for (int col = 0; col < COLS; col++) {
+          if (col > 0) {
+            line.append(',');
+          }
+          line.append(random.nextInt(1000000) / 100.0);
+        }
+        writer.write(line.append('\n').toString());
+      }
+    }
+    sheet = Workloads.createSheet(kind);
+    SheetCsv.load(input, sheet);
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteFiles() throws IOException {
+    Workloads.close(sheet);
+    Files.deleteIfExists(input);
+    Files.deleteIfExists(output);
+  }
+
+  /**
+   * The empty spreadsheet an import loads into, created before and closed after every
+   * invocation, outside the measurement.
+   */
+  @State(Scope.Thread)
+  public static class ImportTarget {
+    private BetterSpreadSheet sheet;
+
+    @Setup(Level.Invocation)
+    public void createSheet(CsvBenchmark benchmark) {
+      sheet = Workloads.createSheet(benchmark.kind);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeSheet() {
+      Workloads.close(sheet);
+    }
+  }
+
+  /**
+   * Imports the file into an empty spreadsheet.
+   */
+  @Benchmark
+  public long importCsv(ImportTarget target) throws IOException {
+    return SheetCsv.load(input, target.sheet);
+  }
+
+  /**
+   * Exports the imported spreadsheet.
+   */
+  @Benchmark
+  public long exportCsv() throws IOException {
+    return SheetCsv.save(sheet, output);
+  }
+}
@@ -0,0 +1,96 @@
+package spreadsheet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.FormulaBetterSpreadSheet;
+
+/**
+ * Benchmarks evaluating formulas the way a what-if or Monte Carlo model does: the same
+ * mix of arithmetic and range formulas over a 32 by 32 block of numbers is recomputed
+ * every time the block is assigned. One benchmark only recomputes the formulas, which runs
+ * the form each was compiled to when it was assigned; the other assigns every formula
+ * again with a different text first, so each is also parsed and compiled, as it would be
+ * if formulas were interpreted from their text on every change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormulaEvaluationBenchmark {
+  private static final int SIZE = 32;
+  // the formulas are assigned to the row below the block, so they depend on all of it
+  private static final int FORMULA_ROW = SIZE;
+  private static final String[] FORMULAS = {
+    "(A1+B1)*(C1-D1)/(E1+1)+F1*2-3",
+    "A1*A2+B1*B2+C1*C2+D1*D2-1.5*(E1+E2)",
+    "-(A3-B3)/(C3*C3+1)+2*3",
+    "SUM(A1:H8)*0.5+B3*C4-MAX(A1:A10)/2",
+    "SUM(A1:P16)",
+    "AVERAGE(C1:C32)+MIN(D1:D32)",
+    "PRODUCT(A1:B2)/SUM(A1:B2,1)",
+    "(A5+A6+A7+A8)/4-(B5+B6+B7+B8)/4"
+  };
+
+  private FormulaBetterSpreadSheet sheet;
+  private boolean flip;
+
+  @Setup(Level.Trial)
+  public void assignFormulas() {
+    sheet = new FormulaBetterSpreadSheet(new BetterSparseSpreadSheet());
+    for (int row = 0; row < SIZE; row++) {
+      for (int col = 0; col < SIZE; col++) {
+        sheet.set(row, col, 1.0 + (row * 31 + col * 17) % 97 / 10.0);
+      }
+    }
+    for (int i = 0; i < FORMULAS.length; i++) {
+      sheet.setFormula(FORMULA_ROW, i, FORMULAS[i]);
+    }
+  }
+
+  /**
+   * Assigns a new value to the block, so every formula is recomputed.
+   */
+  @Benchmark
+  public double recompute() {
+    flip = !flip;
+    sheet.bulkSet(0, 0, SIZE - 1, SIZE - 1, flip ? 2.5 : 1.5);
+    return sum();
+  }
+
+  /**
+   * Assigns every formula again with a text that differs from the last one, then assigns
+   * the block in the same way.
+   */
+  @Benchmark
+  public double reassign() {
+    flip = !flip;
+    for (int i = 0; i < FORMULAS.length; i++) {
+      sheet.setFormula(FORMULA_ROW, i, FORMULAS[i] + (flip ? "+0" : "-0"));
+    }
+    sheet.bulkSet(0, 0, SIZE - 1, SIZE - 1, flip ? 2.5 : 1.5);
+    return sum();
+  }
+
+  private double sum() {
+    double total = 0.0;
+    for (int i = 0; i < FORMULAS.length; i++) {
+      total += sheet.get(FORMULA_ROW, i);
+    }
+    return total;
+  }
+}
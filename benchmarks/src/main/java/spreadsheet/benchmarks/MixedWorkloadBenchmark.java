@@ -0,0 +1,77 @@
+package spreadsheet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.BetterSpreadSheet;
+
+/**
+ * Benchmarks a random mix of reads and writes with a configurable read ratio on every
+ * spreadsheet kind.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixedWorkloadBenchmark {
+  private static final int WORKING_SET = 1 << 18;
+
+  @Param({"sparse", "tiled", "adaptive", "concurrent", "mapped"})
+  public String kind;
+
+  @Param({"50", "90", "99"})
+  public int readPercent;
+
+  private BetterSpreadSheet sheet;
+  private int[] rows;
+  private int[] cols;
+  private int[] choices;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void generatePositions() {
+    rows = Workloads.randomInts(3, 1 << 16);
+    cols = Workloads.randomInts(4, 1 << 10);
+    choices = Workloads.randomInts(5, 100);
+  }
+
+  @Setup(Level.Iteration)
+  public void createSheet() {
+    sheet = Workloads.createSheet(kind);
+    Workloads.populate(sheet, rows, cols, WORKING_SET / 2);
+    next = 0;
+  }
+
+  @TearDown(Level.Iteration)
+  public void closeSheet() {
+    Workloads.close(sheet);
+  }
+
+  /**
+   * Reads or writes one random cell of the working set.
+   */
+  @Benchmark
+  public double mixedReadWrite() {
+    int i = next++ & (WORKING_SET - 1);
+    if (choices[i] < readPercent) {
+      return sheet.get(rows[i], cols[i]);
+    }
+    sheet.set(rows[i], cols[i], i);
+    return 0;
+  }
+}
@@ -0,0 +1,106 @@
+package spreadsheet.benchmarks;
+
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetController;
+
+/**
+ * Benchmarks the throughput of the three ways SpreadSheetController runs a large command
+ * stream: the interactive loop, the single-threaded batch mode and the pipelined mode,
+ * which parses, applies and prints on three threads. The stream is mostly assign-value
+ * commands with a print-value after every fourth one, and the output is discarded. The
+ * time is per command; the pipelined mode can only gain on a machine with at least three
+ * free cores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PipelinedControllerBenchmark {
+  private static final int COMMANDS = 200000;
+
+  @Param({"sparse", "tiled", "mapped"})
+  public String kind;
+
+  private String commands;
+  private SpreadSheet sheet;
+
+  @Setup(Level.Trial)
+  public void writeCommands() {
+    SplittableRandom random = new SplittableRandom(23);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < COMMANDS; i++) {
+      char row = (char) ('A' + random.nextInt(26));
+      int col = 1 + random.nextInt(1000);
+      if (i % 5 == 4) {
+        text.append("print-value ").append(row).append(' ').append(col).append('\n');
+      } else {
+        text.append("assign-value ").append(row).append(' ').append(col).append(' ')
+                .append(random.nextInt(1000000) / 100.0).append('\n');
+      }
+    }
+    commands = text.append("q\n").toString();
+  }
+
+  @Setup(Level.Invocation)
+  public void createSheet() {
+    sheet = Workloads.createSheet(kind);
+  }
+
+  @TearDown(Level.Invocation)
+  public void closeSheet() {
+    Workloads.close(sheet);
+  }
+
+  private SpreadSheetController controller() {
+    return new SpreadSheetController(sheet, new StringReader(commands), Writer.nullWriter());
+  }
+
+  /**
+   * Runs the stream through the interactive loop.
+   */
+  @Benchmark
+  @OperationsPerInvocation(COMMANDS)
+  public void program() {
+    controller().executeProgram();
+  }
+
+  /**
+   * Runs the stream in batch mode.
+   */
+  @Benchmark
+  @OperationsPerInvocation(COMMANDS)
+  public void batch() {
+    controller().executeBatch();
+  }
+
+  /**
+   * Runs the stream in pipelined mode.
+   */
+  @Benchmark
+  @OperationsPerInvocation(COMMANDS)
+  public void pipelined() {
+    controller().executePipelined();
+  }
+}
@@ -0,0 +1,93 @@
+package spreadsheet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.FormulaBetterSpreadSheet;
+
+/**
+ * Benchmarks sequential against parallel recalculation of synthetic dependency graphs of
+ * about 100,000 formulas, all of which depend on cell A1. Each call changes A1, which
+ * recomputes every formula.
+ *
+ * <p>The shapes are "wide", where every formula reads A1 directly and the whole graph is
+ * a single level; "deep", a single chain in which every formula reads the one before it;
+ * and "layered", 100 layers of 1,000 formulas in which every formula reads two formulas
+ * of the layer above. Both modes store their values in a ConcurrentSpreadSheet, so they
+ * only differ in how the formulas are scheduled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RecalculationBenchmark {
+  private static final int FORMULAS = 100_000;
+  private static final int WIDTH = 1_000;
+
+  @Param({"wide", "deep", "layered"})
+  public String shape;
+
+  @Param({"sequential", "parallel"})
+  public String mode;
+
+  private FormulaBetterSpreadSheet sheet;
+  private double input;
+
+  @Setup(Level.Trial)
+  public void buildGraph() {
+    sheet = "parallel".equals(mode)
+            ? new FormulaBetterSpreadSheet(new ConcurrentSpreadSheet(),
+                    FormulaBetterSpreadSheet.DEFAULT_PARALLEL_THRESHOLD)
+            : new FormulaBetterSpreadSheet(new ConcurrentSpreadSheet());
+    sheet.set(0, 0, 1.0);
+    switch (shape) {
+      case "wide":
+        for (int i = 0; i < FORMULAS; i++) {
+          sheet.setFormula(1 + i / WIDTH, i % WIDTH, "A1*" + i + "+1");
+        }
+        break;
+      case "deep":
+        for (int row = 1; row <= FORMULAS; row++) {
+          sheet.setFormula(row, 0, Workloads.cellName(row - 1, 0) + "*0.5+1");
+        }
+        break;
+      default:
+        for (int col = 0; col < WIDTH; col++) {
+          sheet.setFormula(1, col, "A1+" + col);
+        }
+        for (int row = 2; row <= FORMULAS / WIDTH; row++) {
+          for (int col = 0; col < WIDTH; col++) {
+            sheet.setFormula(row, col, Workloads.cellName(row - 1, col) + "*0.5+"
+                    + Workloads.cellName(row - 1, (col * 7 + 1) % WIDTH) + "*0.25");
+          }
+        }
+        break;
+    }
+    input = 1.0;
+  }
+
+  /**
+   * Changes A1, which recomputes every formula of the graph.
+   */
+  @Benchmark
+  public double recalculateAll() {
+    input += 1.0;
+    sheet.set(0, 0, input);
+    return sheet.get(1, WIDTH - 1);
+  }
+}
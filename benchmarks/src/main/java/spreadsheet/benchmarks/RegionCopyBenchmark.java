@@ -0,0 +1,127 @@
+package spreadsheet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.BetterSpreadSheet;
+
+/**
+ * Benchmarks copying a 500 by 500 block of values to an overlapping position 37 rows
+ * down and 21 columns right, once with {@link BetterSpreadSheet#copyRegion} and once the
+ * way scripts did it before, with isEmpty, get and set or clear on every cell, and
+ * filling the same block with a series through {@link BetterSpreadSheet#fillSeries} and
+ * through set. The copies alternate direction, so the sheet stays the same size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RegionCopyBenchmark {
+  private static final int SIDE = 500;
+  private static final int SHIFT_ROWS = 37;
+  private static final int SHIFT_COLS = 21;
+
+  @Param({"sparse", "tiled", "adaptive", "concurrent", "mapped"})
+  public String kind;
+
+  private BetterSpreadSheet sheet;
+  private boolean forward;
+
+  @Setup(Level.Trial)
+  public void fillSheet() {
+    sheet = Workloads.createSheet(kind);
+    for (int row = 0; row < SIDE; row++) {
+      for (int col = 0; col < SIDE; col++) {
+        if ((row + col) % 7 != 0) {
+          sheet.set(row, col, (row * 31 + col) % 101);
+        }
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void closeSheet() {
+    Workloads.close(sheet);
+  }
+
+  /**
+   * Copies the block in one call.
+   */
+  @Benchmark
+  public void copyRegion() {
+    forward = !forward;
+    if (forward) {
+      sheet.copyRegion(0, 0, SIDE - 1, SIDE - 1, SHIFT_ROWS, SHIFT_COLS);
+    } else {
+      sheet.copyRegion(SHIFT_ROWS, SHIFT_COLS, SHIFT_ROWS + SIDE - 1, SHIFT_COLS + SIDE - 1,
+              0, 0);
+    }
+  }
+
+  /**
+   * Copies the block one cell at a time, walking away from the destination so no cell
+   * is overwritten before it is read.
+   */
+  @Benchmark
+  public void perCellCopy() {
+    forward = !forward;
+    if (forward) {
+      for (int row = SIDE - 1; row >= 0; row--) {
+        for (int col = SIDE - 1; col >= 0; col--) {
+          copyCell(row, col, row + SHIFT_ROWS, col + SHIFT_COLS);
+        }
+      }
+    } else {
+      for (int row = 0; row < SIDE; row++) {
+        for (int col = 0; col < SIDE; col++) {
+          copyCell(row + SHIFT_ROWS, col + SHIFT_COLS, row, col);
+        }
+      }
+    }
+  }
+
+  /**
+   * Fills the block with a series in one call.
+   */
+  @Benchmark
+  public void fillSeries() {
+    sheet.fillSeries(0, 0, SIDE - 1, SIDE - 1, 1.0, 0.25);
+  }
+
+  /**
+   * Fills the block with the same series one cell at a time.
+   */
+  @Benchmark
+  public void perCellSeries() {
+    long index = 0;
+    for (int row = 0; row < SIDE; row++) {
+      for (int col = 0; col < SIDE; col++) {
+        sheet.set(row, col, 1.0 + index * 0.25);
+        index++;
+      }
+    }
+  }
+
+  private void copyCell(int fromRow, int fromCol, int toRow, int toCol) {
+    if (sheet.isEmpty(fromRow, fromCol)) {
+      sheet.clear(toRow, toCol);
+    } else {
+      sheet.set(toRow, toCol, sheet.get(fromRow, fromCol));
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package spreadsheet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.BetterSpreadSheet;
+
+/**
+ * Benchmarks region summaries on a 1024 by 1024 block of values, the way a dashboard
+ * re-reads its totals after every edit: each call writes one cell inside the block and
+ * then summarizes a 1000 by 1000 region. Kinds that keep per-tile summaries rebuild only
+ * the tile that was written; the others read every cell of the region.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RegionSummaryBenchmark {
+  private static final int SIDE = 1024;
+  private static final int REGION = 1000;
+
+  @Param({"sparse", "tiled", "adaptive", "concurrent", "mapped"})
+  public String kind;
+
+  private BetterSpreadSheet sheet;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void fillSheet() {
+    sheet = Workloads.createSheet(kind);
+    for (int row = 0; row < SIDE; row++) {
+      for (int col = 0; col < SIDE; col++) {
+        sheet.set(row, col, (row * 31 + col) % 101);
+      }
+    }
+    next = 0;
+  }
+
+  @TearDown(Level.Trial)
+  public void closeSheet() {
+    Workloads.close(sheet);
+  }
+
+  /**
+   * Overwrites one cell and sums a region that contains it.
+   */
+  @Benchmark
+  public double editAndSum() {
+    next = (next + 4099) % (REGION * REGION);
+    sheet.set(next / REGION, next % REGION, next % 97);
+    return sheet.summarize(0, 0, REGION - 1, REGION - 1).getSum();
+  }
+}
@@ -0,0 +1,108 @@
+package spreadsheet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spreadsheet.BetterSpreadSheet;
+import spreadsheet.ColumnarRegion;
+import spreadsheet.UndoableSpreadSheet;
+
+/**
+ * Benchmarks making and undoing a bulk assignment of a 600 by 600 block of a 1000 by 1000
+ * spreadsheet whose cells are one in five filled, through {@link UndoableSpreadSheet},
+ * against keeping a copy of the whole spreadsheet before the change and writing it back,
+ * and against making the change without a way to undo it. A second pair of benchmarks
+ * does the same over a block that already holds a single value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UndoBenchmark {
+  private static final int SIDE = 1000;
+  private static final int BLOCK = 600;
+
+  @Param({"sparse", "tiled", "adaptive", "concurrent", "mapped"})
+  public String kind;
+
+  private BetterSpreadSheet model;
+  private UndoableSpreadSheet sheet;
+
+  @Setup(Level.Trial)
+  public void fillSheet() {
+    model = Workloads.createSheet(kind);
+    for (int row = 0; row < SIDE; row++) {
+      for (int col = 0; col < SIDE; col++) {
+        if ((row * 7 + col) % 5 == 0) {
+          model.set(row, col, (row * 31 + col) % 101);
+        }
+      }
+    }
+    model.bulkSet(SIDE - BLOCK, SIDE - BLOCK, SIDE - 1, SIDE - 1, 2.5);
+    sheet = new UndoableSpreadSheet(model);
+  }
+
+  @TearDown(Level.Trial)
+  public void closeSheet() {
+    Workloads.close(model);
+  }
+
+  /**
+   * Assigns the scattered block and undoes it through the history.
+   */
+  @Benchmark
+  public void undoBulkSet() {
+    sheet.bulkSet(0, 0, BLOCK - 1, BLOCK - 1, 1.0);
+    sheet.undo();
+  }
+
+  /**
+   * Copies the whole spreadsheet, assigns the scattered block, and writes the copy back.
+   */
+  @Benchmark
+  public void snapshotBulkSet() {
+    ColumnarRegion snapshot = model.readColumns(0, 0, SIDE - 1, SIDE - 1);
+    model.bulkSet(0, 0, BLOCK - 1, BLOCK - 1, 1.0);
+    model.clearRange(0, 0, SIDE - 1, SIDE - 1);
+    for (int col = 0; col < snapshot.getColumnCount(); col++) {
+      for (int row = 0; row < snapshot.getRowCount(); row++) {
+        if (!snapshot.isEmpty(row, col)) {
+          model.set(row, col, snapshot.get(row, col));
+        }
+      }
+    }
+  }
+
+  /**
+   * Assigns the scattered block with no way to undo it, as a baseline.
+   */
+  @Benchmark
+  public void plainBulkSet() {
+    model.bulkSet(0, 0, BLOCK - 1, BLOCK - 1, 1.0);
+  }
+
+  /**
+   * Assigns the block that holds a single value and undoes it through the history,
+   * which describes the block by its value alone.
+   */
+  @Benchmark
+  public void undoUniformBulkSet() {
+    sheet.bulkSet(SIDE - BLOCK, SIDE - BLOCK, SIDE - 1, SIDE - 1, 1.0);
+    sheet.undo();
+  }
+}
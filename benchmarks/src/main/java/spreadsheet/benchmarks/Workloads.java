@@ -0,0 +1,92 @@
+package spreadsheet.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+import spreadsheet.BetterSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetFactory;
+
+/**
+ * Shared helpers for the spreadsheet benchmarks. Cell positions are generated up front
+ * from a fixed seed, so every run and every spreadsheet kind sees the same workload and
+ * the random number generator does not show up in the measurements.
+ */
+final class Workloads {
+  /**
+   * The number of precomputed positions; a power of two so it can be cycled by masking.
+   */
+  static final int POSITIONS = 1 << 20;
+
+  private Workloads() {
+  }
+
+  /**
+   * Creates an empty spreadsheet of the given kind, as {@link SpreadSheetFactory} names
+   * them, or "mapped" for a memory-mapped spreadsheet in a new temporary file. The file
+   * is deleted at once; its space is given back when the spreadsheet is closed with
+   * {@link #close}.
+   */
+  static BetterSpreadSheet createSheet(String kind) {
+    if (!"mapped".equals(kind)) {
+      return SpreadSheetFactory.createBetterSheet(kind);
+    }
+    try {
+      Path file = Files.createTempFile("benchmark", ".map");
+      BetterSpreadSheet sheet = SpreadSheetFactory.createBetterSheet("mapped:" + file);
+      Files.delete(file);
+      return sheet;
+    } catch (IOException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+  }
+
+  /**
+   * Closes a spreadsheet created by {@link #createSheet} if it is backed by a file, so
+   * that its mapping, its file descriptor and the space of its file are released.
+   */
+  static void close(SpreadSheet sheet) {
+    if (sheet instanceof Closeable) {
+      try {
+        ((Closeable) sheet).close();
+      } catch (IOException e) {
+        throw new IllegalStateException(e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Returns random numbers in [0, bound), generated from the given seed.
+   */
+  static int[] randomInts(long seed, int bound) {
+    SplittableRandom random = new SplittableRandom(seed);
+    int[] result = new int[POSITIONS];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = random.nextInt(bound);
+    }
+    return result;
+  }
+
+  /**
+   * Writes a value to the given number of the precomputed positions.
+   */
+  static void populate(BetterSpreadSheet sheet, int[] rows, int[] cols, int count) {
+    for (int i = 0; i < count; i++) {
+      sheet.set(rows[i], cols[i], i);
+    }
+  }
+
+  /**
+   * Returns the name of a cell as formulas refer to it, such as "AB12".
+   */
+  static String cellName(int row, int col) {
+    StringBuilder letters = new StringBuilder();
+    for (int n = row + 1; n > 0; n = (n - 1) / 26) {
+      letters.insert(0, (char) ('A' + (n - 1) % 26));
+    }
+    return letters.append(col + 1).toString();
+  }
+}
@@ -0,0 +1,339 @@
+package spreadsheet;
+
+/**
+ * This class represents a tiled spreadsheet that chooses the storage of each tile by
+ * itself. The grid is split into tiles of 64 by 64 cells. A tile starts out as a small
+ * sparse map and is converted to a dense primitive array once the fraction of its cells
+ * that are non-empty rises above a configurable ratio. A tile only goes back to sparse
+ * form after its fill ratio has dropped below a second, lower ratio, so that a tile
+ * hovering around one threshold does not flip back and forth. Clearing cells is what
+ * lowers the fill ratio; a tile is dropped altogether once its last cell is cleared, and
+ * the width and height stay exact (see {@link SheetBounds}).
+ *
+ * <p>Scattered values therefore cost what they would in a sparse spreadsheet, and dense
+ * blocks cost what they would in a {@link TiledSpreadSheet}, without the user having to
+ * choose between them.
+ */
+public class AdaptiveSpreadSheet implements BetterSpreadSheet {
+  /**
+   * The default fill ratio above which a tile becomes dense. At about a quarter full a
+   * sparse tile uses as much memory as a dense one.
+   */
+  public static final double DEFAULT_DENSE_RATIO = 0.25;
+
+  /**
+   * The default fill ratio below which a dense tile becomes sparse again.
+   */
+  public static final double DEFAULT_SPARSE_RATIO = 0.125;
+
+  private final TileIndex<Tile> tiles;
+  private final int denseCount;
+  private final int sparseCount;
+  private final SheetBounds bounds;
+
+  /**
+   * Constructs a new, empty AdaptiveSpreadSheet that uses the default ratios.
+   */
+  public AdaptiveSpreadSheet() {
+    this(DEFAULT_DENSE_RATIO, DEFAULT_SPARSE_RATIO);
+  }
+
+  /**
+   * Constructs a new, empty AdaptiveSpreadSheet with the specified ratios.
+   *
+   * @param denseRatio  the fill ratio of a tile above which it is stored densely
+   * @param sparseRatio the fill ratio of a tile below which it is stored sparsely again
+   * @throws IllegalArgumentException if either ratio is outside [0, 1] or the sparse
+   *                                  ratio is not less than the dense ratio
+   */
+  public AdaptiveSpreadSheet(double denseRatio, double sparseRatio)
+          throws IllegalArgumentException {
+    if (!(denseRatio >= 0 && denseRatio <= 1) || !(sparseRatio >= 0 && sparseRatio <= 1)) {
+      throw new IllegalArgumentException("Ratios must be between 0 and 1");
+    }
+    if (sparseRatio >= denseRatio) {
+      throw new IllegalArgumentException("Sparse ratio must be less than dense ratio");
+    }
+    this.tiles = new TileIndex<Tile>();
+    this.denseCount = (int) (denseRatio * DenseTile.CELLS);
+    this.sparseCount = (int) (sparseRatio * DenseTile.CELLS);
+    this.bounds = new SheetBounds();
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Tile tile = tiles.get(row >> DenseTile.SHIFT, col >> DenseTile.SHIFT);
+    return (tile == null) ? 0.0 : tile.get(row & DenseTile.MASK, col & DenseTile.MASK);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    int tileRow = row >> DenseTile.SHIFT;
+    int tileCol = col >> DenseTile.SHIFT;
+    Tile tile = tile(tileRow, tileCol);
+    if (tile.set(row & DenseTile.MASK, col & DenseTile.MASK, value)) {
+      bounds.add(row, col);
+      promoteIfDense(tileRow, tileCol, tile, 0);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The representation of each tile the run crosses is decided before the run is
+   * written into it, as for {@link #bulkSet}.
+   */
+  @Override
+  public void setRow(int row, int startCol, double[] values, int offset, int length)
+          throws IllegalArgumentException {
+    if ((row < 0) || (startCol < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if ((values == null) || (offset < 0) || (length < 0) || (offset > values.length - length)
+            || ((long) startCol + length - 1 > Integer.MAX_VALUE)) {
+      throw new IllegalArgumentException("Run of values is out of range");
+    }
+    int col = startCol;
+    int end = offset + length;
+    for (int from = offset; from < end; ) {
+      int local = col & DenseTile.MASK;
+      int count = Math.min(end - from, DenseTile.SIZE - local);
+      int tileRow = row >> DenseTile.SHIFT;
+      int tileCol = col >> DenseTile.SHIFT;
+      Tile tile = promoteIfDense(tileRow, tileCol, tile(tileRow, tileCol), count);
+      bounds.addRow(row, col - local,
+              tile.setRow(row & DenseTile.MASK, local, values, from, count));
+      col += count;
+      from += count;
+    }
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Tile tile = tiles.get(row >> DenseTile.SHIFT, col >> DenseTile.SHIFT);
+    return (tile == null) || !tile.isSet(row & DenseTile.MASK, col & DenseTile.MASK);
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    int tileRow = row >> DenseTile.SHIFT;
+    int tileCol = col >> DenseTile.SHIFT;
+    Tile tile = tiles.get(tileRow, tileCol);
+    if ((tile != null) && tile.clear(row & DenseTile.MASK, col & DenseTile.MASK)) {
+      bounds.remove(row, col);
+      demoteIfSparse(tileRow, tileCol, tile);
+    }
+  }
+
+  @Override
+  public void clearRange(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    TileRegion.forEachStoredTile(tiles, startRow, startCol, endRow, endCol,
+        (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+          Tile tile = tiles.get(tileRow, tileCol);
+          tile.clear(fromRow, fromCol, toRow, toCol, tileRow << DenseTile.SHIFT,
+                  tileCol << DenseTile.SHIFT, bounds);
+          demoteIfSparse(tileRow, tileCol, tile);
+        });
+  }
+
+  @Override
+  public int getWidth() {
+    return bounds.width();
+  }
+
+  @Override
+  public int getHeight() {
+    return bounds.height();
+  }
+
+  @Override
+  public void bulkSet(int startRow, int startCol, int endRow, int endCol, double value)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    TileRegion.forEachTile(startRow, startCol, endRow, endCol,
+        (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+          int area = (toRow - fromRow + 1) * (toCol - fromCol + 1);
+          // Decide on the representation before filling, so a large fill goes straight
+          // into a dense tile instead of growing a sparse one first
+          Tile tile = promoteIfDense(tileRow, tileCol, tile(tileRow, tileCol), area);
+          tile.countFill(fromRow, fromCol, toRow, toCol, tileRow << DenseTile.SHIFT,
+                  tileCol << DenseTile.SHIFT, bounds);
+          tile.fill(fromRow, fromCol, toRow, toCol, value);
+        });
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The region is copied one destination tile at a time (see {@link TileBlock}). The
+   * representation of each destination tile is decided before the tile is written, as
+   * for {@link #bulkSet}, and a tile left nearly empty goes back to sparse form.
+   */
+  @Override
+  public void copyRegion(int startRow, int startCol, int endRow, int endCol, int toRow,
+                         int toCol) throws IllegalArgumentException {
+    TileBlock.copy(this, startRow, startCol, endRow, endCol, toRow, toCol, this::readBlock,
+            this::writeBlock);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The values of each tile are computed into a block and written into the tile one
+   * row at a time, after the representation of the tile has been decided.
+   */
+  @Override
+  public void fillSeries(int startRow, int startCol, int endRow, int endCol, double start,
+                         double step) throws IllegalArgumentException {
+    TileBlock.fillSeries(startRow, startCol, endRow, endCol, start, step, this::writeBlock);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Every stored tile the region overlaps copies its part of the region through its
+   * own cell layout, and tiles that were never written are skipped.
+   */
+  @Override
+  public ColumnarRegion readColumns(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    ColumnarRegion columns = ColumnarRegion.allocate(this, startRow, startCol, endRow,
+            endCol);
+    if ((columns.getRowCount() > 0) && (columns.getColumnCount() > 0)) {
+      TileRegion.forEachStoredTile(tiles, startRow, startCol,
+              startRow + columns.getRowCount() - 1, startCol + columns.getColumnCount() - 1,
+          (tileRow, tileCol, fromRow, fromCol, toRow, toCol) ->
+                  tiles.get(tileRow, tileCol).copyTo(fromRow, fromCol, toRow, toCol,
+                          tileRow << DenseTile.SHIFT, tileCol << DenseTile.SHIFT, columns));
+    }
+    return columns;
+  }
+
+  @Override
+  public void forEachCell(CellVisitor visitor) {
+    for (int slot = 0; slot < tiles.slotCount(); slot++) {
+      long key = tiles.keyAt(slot);
+      if (key >= 0) {
+        tiles.tileAt(slot).forEachCell(CellMap.row(key) << DenseTile.SHIFT,
+                CellMap.col(key) << DenseTile.SHIFT, visitor);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Every tile keeps a summary of its own cells, so a tile the region covers
+   * completely is answered from its summary and only the tiles on the edges of the region
+   * are scanned, through their occupancy bits.
+   */
+  @Override
+  public RegionSummary summarize(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    CellSummary summary = new CellSummary();
+    int lastRow = Math.min(endRow, bounds.height() - 1);
+    int lastCol = Math.min(endCol, bounds.width() - 1);
+    if ((startRow <= lastRow) && (startCol <= lastCol)) {
+      TileRegion.summarize(tiles, startRow, startCol, lastRow, lastCol, summary);
+    }
+    return summary.toRegionSummary();
+  }
+
+  /**
+   * Returns whether the tile containing the specified cell is currently stored densely.
+   * This is mainly useful to observe the adaptive behavior.
+   *
+   * @param row the row number of the cell, starting with 0
+   * @param col the column number of the cell, starting with 0
+   * @return true if the tile exists and is dense, false otherwise
+   * @throws IllegalArgumentException if the row or column are negative
+   */
+  public boolean isDenseAt(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    return tiles.get(row >> DenseTile.SHIFT, col >> DenseTile.SHIFT) instanceof DenseTile;
+  }
+
+  private Tile tile(int tileRow, int tileCol) {
+    Tile tile = tiles.get(tileRow, tileCol);
+    if (tile == null) {
+      tile = new SparseTile();
+      tiles.put(tileRow, tileCol, tile);
+    }
+    return tile;
+  }
+
+  private void readBlock(int tileRow, int tileCol, TileBlock block) {
+    Tile tile = tiles.get(tileRow, tileCol);
+    if (tile != null) {
+      block.readFrom(tile);
+    }
+  }
+
+  private void writeBlock(int tileRow, int tileCol, TileBlock block) {
+    Tile tile = tiles.get(tileRow, tileCol);
+    if ((tile == null) && block.isEmpty()) {
+      return;
+    }
+    tile = promoteIfDense(tileRow, tileCol, tile(tileRow, tileCol), block.count());
+    block.writeTo(tile, bounds);
+    demoteIfSparse(tileRow, tileCol, tile);
+  }
+
+  private Tile promoteIfDense(int tileRow, int tileCol, Tile tile, int incoming) {
+    if ((tile instanceof SparseTile) && (tile.count() + incoming > denseCount)) {
+      DenseTile dense = ((SparseTile) tile).toDense();
+      tiles.put(tileRow, tileCol, dense);
+      return dense;
+    }
+    return tile;
+  }
+
+  private void demoteIfSparse(int tileRow, int tileCol, Tile tile) {
+    if (tile.count() == 0) {
+      tiles.remove(tileRow, tileCol);
+    } else if ((tile instanceof DenseTile) && (tile.count() < sparseCount)) {
+      tiles.put(tileRow, tileCol, ((DenseTile) tile).toSparse());
+    }
+  }
+}
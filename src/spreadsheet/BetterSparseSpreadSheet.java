@@ -1,16 +1,103 @@
 package spreadsheet;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This class extends SparseSpreadSheet to implement the BetterSpreadSheet interface.
  * It adds support for bulk operations on rectangular regions.
+ *
+ * <p>A bulk assignment over a large region is stored as a single region record instead
+ * of one entry per cell, so its cost does not depend on the size of the region. The
+ * region is cut out of the regions it overlaps and the cells it covers are removed from
+ * the cell map, so the regions never overlap and a cell in the cell map was always
+ * written after the region that holds it: reading a cell returns its own value if it has
+ * one, and otherwise the value of the only region that holds it, which the
+ * {@link RegionIndex} finds in logarithmic time. Assigning the same region over and over
+ * therefore leaves a single region behind.
+ *
+ * <p>The sheet is also divided into tiles of 64 by 64 cells, and every tile that holds a
+ * cell keeps a cached count, sum, minimum and maximum of its cells. A write only marks
+ * its own tile as dirty, and a dirty tile is summarized again the next time a query
+ * covers it completely. A {@link #summarize} query combines the summaries of the tiles
+ * it covers and reads only the cells of the tiles on its edges. A tile that a single
+ * bulk assignment covers, and that holds no cells of its own, is summarized from that
+ * assignment alone, so summaries over large bulk assignments do not read their cells.
+ *
+ * <p>Clearing a region removes its cells from the cell map and cuts it out of every
+ * bulk assignment it overlaps in the same way, leaving up to four smaller assignments
+ * around it. Every
+ * cell of a remaining assignment is therefore non-empty, so the width and height are the
+ * larger of those of the cell map and those of the assignments, which are counted the
+ * same way the cells are.
  */
 public class BetterSparseSpreadSheet extends SparseSpreadSheet implements BetterSpreadSheet {
+  private static final long SMALL_REGION_CELLS = 64;
+
+  private final RegionIndex regions;
+  // the last row and column of every region, so the sheet knows how far they reach
+  private final SheetBounds regionBounds;
+  // the regions that overlap a block being summarized
+  private final List<RegionIndex.Region> found;
+  // summaries of the tiles that hold cells, or whose cells had to be read one by one
+  private final TileIndex<TileStats> tileStats;
+  private long lastStatsKey;
+  private TileStats lastStats;
+  private final CellSummary scratch;
+
+  /**
+   * An action applied to the cached summary of a tile.
+   */
+  private interface StatsAction {
+    void apply(int tileRow, int tileCol, TileStats stats);
+  }
+
+  /**
+   * The cached summary of one tile.
+   */
+  private static final class TileStats {
+    private final CellSummary summary = new CellSummary();
+    // the number of cells of the tile held in the cell map
+    private int cells;
+    private boolean dirty = true;
+  }
 
   /**
    * Constructs a new BetterSparseSpreadSheet instance.
    */
   public BetterSparseSpreadSheet() {
     super();
+    this.regions = new RegionIndex();
+    this.regionBounds = new SheetBounds();
+    this.found = new ArrayList<RegionIndex.Region>();
+    this.tileStats = new TileIndex<TileStats>();
+    this.lastStatsKey = -1L;
+    this.lastStats = null;
+    this.scratch = new CellSummary();
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    if (regions.isEmpty() || !super.isEmpty(row, col)) {
+      return super.get(row, col);
+    }
+    RegionIndex.Region region = regions.top(row, col);
+    return (region == null) ? 0.0 : region.value;
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    boolean added = store(row, col, value);
+    TileStats stats = stats(row >> DenseTile.SHIFT, col >> DenseTile.SHIFT);
+    if (added) {
+      stats.cells++;
+    }
+    stats.dirty = true;
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    return super.isEmpty(row, col) && (regions.isEmpty() || (regions.top(row, col) == null));
   }
 
   @Override
@@ -25,11 +112,362 @@ public class BetterSparseSpreadSheet extends SparseSpreadSheet implements Better
               + "to start coordinates");
     }
 
-    // Set all cells in the specified region to the given value
+    long cells = ((long) endRow - startRow + 1) * ((long) endCol - startCol + 1);
+    if (cells <= SMALL_REGION_CELLS) {
+      // Small regions are cheaper to store cell by cell than to keep in the index
+      for (int row = startRow; row <= endRow; row++) {
+        for (int col = startCol; col <= endCol; col++) {
+          set(row, col, value);
+        }
+      }
+      return;
+    }
+
+    removeStoredCells(startRow, startCol, endRow, endCol);
+    cutRegions(startRow, startCol, endRow, endCol);
+    addRegion(new RegionIndex.Region(startRow, startCol, endRow, endCol, value));
+    markDirty(startRow, startCol, endRow, endCol);
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    clearRange(row, col, row, col);
+  }
+
+  @Override
+  public void clearRange(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    SheetRegions.check(startRow, startCol, endRow, endCol);
+    removeStoredCells(startRow, startCol, endRow, endCol);
+    if (regions.isEmpty()) {
+      return;
+    }
+    long reach = cutRegions(startRow, startCol, endRow, endCol);
+    if (reach >= 0) {
+      markDirty(startRow, startCol, CellMap.row(reach), CellMap.col(reach));
+    }
+  }
+
+  @Override
+  public int getWidth() {
+    return Math.max(super.getWidth(), regionBounds.width());
+  }
+
+  @Override
+  public int getHeight() {
+    return Math.max(super.getHeight(), regionBounds.height());
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Tiles the region covers completely are answered from their cached summaries, or
+   * from the bulk assignment that covers them, and only the cells of the tiles on the
+   * edges of the region are read.
+   */
+  @Override
+  public RegionSummary summarize(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    CellSummary summary = new CellSummary();
+    int lastRow = Math.min(endRow, getHeight() - 1);
+    int lastCol = Math.min(endCol, getWidth() - 1);
+    if ((startRow > lastRow) || (startCol > lastCol)) {
+      return summary.toRegionSummary();
+    }
+    if (regions.isEmpty() && (TileRegion.tiles(startRow, startCol, lastRow, lastCol)
+            > tileStats.size())) {
+      // without regions only the tiles that hold cells can contribute
+      for (int slot = 0; slot < tileStats.slotCount(); slot++) {
+        long key = tileStats.keyAt(slot);
+        if (key < 0) {
+          continue;
+        }
+        int top = CellMap.row(key) << DenseTile.SHIFT;
+        int left = CellMap.col(key) << DenseTile.SHIFT;
+        int fromRow = Math.max(startRow, top);
+        int fromCol = Math.max(startCol, left);
+        int toRow = Math.min(lastRow, top + DenseTile.MASK);
+        int toCol = Math.min(lastCol, left + DenseTile.MASK);
+        if ((fromRow <= toRow) && (fromCol <= toCol)) {
+          summarizeTile(CellMap.row(key), CellMap.col(key), fromRow - top, fromCol - left,
+                  toRow - top, toCol - left, summary);
+        }
+      }
+    } else {
+      TileRegion.forEachTile(startRow, startCol, lastRow, lastCol,
+          (tileRow, tileCol, fromRow, fromCol, toRow, toCol) ->
+                  summarizeTile(tileRow, tileCol, fromRow, fromCol, toRow, toCol, summary));
+    }
+    return summary.toRegionSummary();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The bulk regions that overlap the region are filled in a block at a time, and
+   * then the stored cells are copied over them.
+   */
+  @Override
+  public ColumnarRegion readColumns(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (regions.isEmpty()) {
+      return super.readColumns(startRow, startCol, endRow, endCol);
+    }
+    ColumnarRegion columns = ColumnarRegion.allocate(this, startRow, startCol, endRow,
+            endCol);
+    if ((columns.getRowCount() == 0) || (columns.getColumnCount() == 0)) {
+      return columns;
+    }
+    List<RegionIndex.Region> overlapping = new ArrayList<RegionIndex.Region>();
+    regions.overlapping(startRow, startCol, startRow + columns.getRowCount() - 1,
+            startCol + columns.getColumnCount() - 1, overlapping);
+    for (RegionIndex.Region region : overlapping) {
+      columns.fill(region.startRow, region.startCol, region.endRow, region.endCol,
+              region.value);
+    }
+    forEachStoredCell(columns, columns::put);
+    return columns;
+  }
+
+  @Override
+  public void forEachCell(CellVisitor visitor) {
+    if (regions.isEmpty()) {
+      super.forEachCell(visitor);
+      return;
+    }
+    super.forEachCell(visitor);
+    // the cells of every region that no stored cell hides
+    regions.forEach(region -> {
+      for (int row = region.startRow; row <= region.endRow; row++) {
+        for (int col = region.startCol; col <= region.endCol; col++) {
+          if (super.isEmpty(row, col)) {
+            visitor.visit(row, col, region.value);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Adds the part of a region inside one tile to the summary, in tile-local coordinates.
+   */
+  private void summarizeTile(int tileRow, int tileCol, int fromRow, int fromCol, int toRow,
+                             int toCol, CellSummary summary) {
+    TileStats stats = tileStats.get(tileRow, tileCol);
+    int top = tileRow << DenseTile.SHIFT;
+    int left = tileCol << DenseTile.SHIFT;
+    if ((fromRow != 0) || (fromCol != 0) || (toRow != DenseTile.MASK)
+            || (toCol != DenseTile.MASK)) {
+      addBlock(top + fromRow, left + fromCol, top + toRow, left + toCol, stats, summary);
+      return;
+    }
+    if ((stats != null) && !stats.dirty) {
+      summary.add(stats.summary);
+      return;
+    }
+    scratch.clear();
+    boolean read = addBlock(top, left, top + DenseTile.MASK, left + DenseTile.MASK, stats,
+            scratch);
+    if ((stats == null) && read) {
+      // remember tiles whose cells had to be read, however they got their values
+      stats = new TileStats();
+      tileStats.put(tileRow, tileCol, stats);
+    }
+    if (stats != null) {
+      stats.summary.clear();
+      stats.summary.add(scratch);
+      stats.dirty = false;
+    }
+    summary.add(scratch);
+  }
+
+  /**
+   * Adds the non-empty cells of a block inside one tile to the summary.
+   *
+   * @return true if the cells had to be read one by one, false if the block was
+   *         summarized without reading them
+   */
+  private boolean addBlock(int startRow, int startCol, int endRow, int endCol,
+                           TileStats stats, CellSummary summary) {
+    boolean noCells = (stats == null) || (stats.cells == 0);
+    found.clear();
+    if (!regions.isEmpty()) {
+      regions.overlapping(startRow, startCol, endRow, endCol, found);
+    }
+    if (found.isEmpty()) {
+      if (noCells) {
+        return false;
+      }
+      for (int row = startRow; row <= endRow; row++) {
+        for (int col = startCol; col <= endCol; col++) {
+          if (!super.isEmpty(row, col)) {
+            summary.add(super.get(row, col));
+          }
+        }
+      }
+      return true;
+    }
+    if (noCells) {
+      // the regions do not overlap, so each adds the cells it shares with the block
+      for (RegionIndex.Region region : found) {
+        summary.add(region.value, TileRegion.cells(Math.max(startRow, region.startRow),
+                Math.max(startCol, region.startCol), Math.min(endRow, region.endRow),
+                Math.min(endCol, region.endCol)));
+      }
+      return false;
+    }
     for (int row = startRow; row <= endRow; row++) {
       for (int col = startCol; col <= endCol; col++) {
-        set(row, col, value);
+        if (!super.isEmpty(row, col)) {
+          summary.add(super.get(row, col));
+        } else {
+          RegionIndex.Region region = regions.top(row, col);
+          if (region != null) {
+            summary.add(region.value);
+          }
+        }
       }
     }
+    return true;
+  }
+
+  private void addRegion(RegionIndex.Region region) {
+    regions.add(region);
+    regionBounds.add(region.endRow, region.endCol);
+  }
+
+  /**
+   * Adds the part of a region that survives a cut, with the value of the whole region.
+   */
+  private void addPiece(RegionIndex.Region region, int startRow, int startCol, int endRow,
+                        int endCol) {
+    addRegion(new RegionIndex.Region(startRow, startCol, endRow, endCol, region.value));
+  }
+
+  /**
+   * Removes the cells of the cell map that lie within a rectangle. Only the tiles that
+   * hold cells are searched, by visiting either the tiles of the rectangle or every tile
+   * with a summary, whichever are fewer.
+   */
+  private void removeStoredCells(int startRow, int startCol, int endRow, int endCol) {
+    CellVisitor removed = (row, col, value) -> {
+      TileStats stats = stats(row >> DenseTile.SHIFT, col >> DenseTile.SHIFT);
+      stats.cells--;
+      stats.dirty = true;
+    };
+    forEachStatsTile(startRow, startCol, endRow, endCol, (tileRow, tileCol, stats) -> {
+      if (stats.cells > 0) {
+        int top = tileRow << DenseTile.SHIFT;
+        int left = tileCol << DenseTile.SHIFT;
+        removeCells(Math.max(startRow, top), Math.max(startCol, left),
+                Math.min(endRow, top + DenseTile.MASK), Math.min(endCol, left + DenseTile.MASK),
+                removed);
+      }
+    });
+  }
+
+  /**
+   * Cuts a rectangle out of every region it overlaps, keeping the parts of each region
+   * above, below, left and right of it.
+   *
+   * @return the packed last row and column of the cut parts, or -1 if no region was cut
+   */
+  private long cutRegions(int startRow, int startCol, int endRow, int endCol) {
+    if (regions.isEmpty()) {
+      return -1L;
+    }
+    List<RegionIndex.Region> overlapping = new ArrayList<RegionIndex.Region>();
+    regions.overlapping(startRow, startCol, endRow, endCol, overlapping);
+    if (overlapping.isEmpty()) {
+      return -1L;
+    }
+    int lastRow = startRow;
+    int lastCol = startCol;
+    for (RegionIndex.Region region : overlapping) {
+      lastRow = Math.max(lastRow, Math.min(endRow, region.endRow));
+      lastCol = Math.max(lastCol, Math.min(endCol, region.endCol));
+      regions.remove(region);
+      regionBounds.remove(region.endRow, region.endCol);
+      int fromRow = Math.max(region.startRow, startRow);
+      int toRow = Math.min(region.endRow, endRow);
+      if (region.startRow < startRow) {
+        addPiece(region, region.startRow, region.startCol, startRow - 1, region.endCol);
+      }
+      if (region.endRow > endRow) {
+        addPiece(region, endRow + 1, region.startCol, region.endRow, region.endCol);
+      }
+      if (region.startCol < startCol) {
+        addPiece(region, fromRow, region.startCol, toRow, startCol - 1);
+      }
+      if (region.endCol > endCol) {
+        addPiece(region, fromRow, endCol + 1, toRow, region.endCol);
+      }
+    }
+    return CellMap.key(lastRow, lastCol);
+  }
+
+  /**
+   * Marks the cached summaries of the tiles a bulk assignment or a clear overlaps as
+   * dirty.
+   */
+  private void markDirty(int startRow, int startCol, int endRow, int endCol) {
+    forEachStatsTile(startRow, startCol, endRow, endCol,
+        (tileRow, tileCol, stats) -> stats.dirty = true);
+  }
+
+  /**
+   * Applies the action to the summary of every tile that overlaps a rectangle and has
+   * one, visiting either the tiles of the rectangle or every summary, whichever are
+   * fewer. The action must not add or remove summaries.
+   */
+  private void forEachStatsTile(int startRow, int startCol, int endRow, int endCol,
+                                StatsAction action) {
+    if (TileRegion.tiles(startRow, startCol, endRow, endCol) <= tileStats.size()) {
+      TileRegion.forEachTile(startRow, startCol, endRow, endCol,
+          (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+            TileStats stats = tileStats.get(tileRow, tileCol);
+            if (stats != null) {
+              action.apply(tileRow, tileCol, stats);
+            }
+          });
+      return;
+    }
+    for (int slot = 0; slot < tileStats.slotCount(); slot++) {
+      long key = tileStats.keyAt(slot);
+      if (key < 0) {
+        continue;
+      }
+      int tileRow = CellMap.row(key);
+      int tileCol = CellMap.col(key);
+      if ((tileRow >= startRow >> DenseTile.SHIFT) && (tileRow <= endRow >> DenseTile.SHIFT)
+              && (tileCol >= startCol >> DenseTile.SHIFT)
+              && (tileCol <= endCol >> DenseTile.SHIFT)) {
+        action.apply(tileRow, tileCol, tileStats.tileAt(slot));
+      }
+    }
+  }
+
+  private TileStats stats(int tileRow, int tileCol) {
+    long key = CellMap.key(tileRow, tileCol);
+    if (key == lastStatsKey) {
+      return lastStats;
+    }
+    TileStats stats = tileStats.get(tileRow, tileCol);
+    if (stats == null) {
+      stats = new TileStats();
+      tileStats.put(tileRow, tileCol, stats);
+    }
+    lastStatsKey = key;
+    lastStats = stats;
+    return stats;
   }
-}
\ No newline at end of file
+}
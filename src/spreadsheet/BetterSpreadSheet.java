@@ -19,4 +19,115 @@ public interface BetterSpreadSheet extends SpreadSheet {
    */
   void bulkSet(int startRow, int startCol, int endRow, int endCol, double value)
           throws IllegalArgumentException;
+
+  /**
+   * Copies a rectangular region to the region of the same size whose top-left cell is
+   * the given destination. Every cell of the destination ends up with the value of the
+   * matching source cell, or empty if that cell is empty, as if the whole source had been
+   * read before anything was written, so the two regions may overlap.
+   *
+   * <p>This default implementation reads the source region, clears the destination and
+   * sets its cells one at a time. Implementations that store cells in blocks copy whole
+   * runs of cells between blocks instead.
+   *
+   * @param startRow the starting row of the region (inclusive), 0-based
+   * @param startCol the starting column of the region (inclusive), 0-based
+   * @param endRow   the ending row of the region (inclusive), 0-based
+   * @param endCol   the ending column of the region (inclusive), 0-based
+   * @param toRow    the top row of the destination, 0-based
+   * @param toCol    the left column of the destination, 0-based
+   * @throws IllegalArgumentException if any row or column is negative, if the end
+   *                                  coordinates are less than the start coordinates or
+   *                                  if the destination reaches beyond the largest row or
+   *                                  column
+   */
+  default void copyRegion(int startRow, int startCol, int endRow, int endCol, int toRow,
+                          int toCol) throws IllegalArgumentException {
+    SheetRegions.copy(this, startRow, startCol, endRow, endCol, toRow, toCol);
+  }
+
+  /**
+   * Moves a rectangular region to the region of the same size whose top-left cell is the
+   * given destination. The destination is written as by {@link #copyRegion}, and the
+   * cells of the source that the destination does not cover are emptied.
+   *
+   * <p>This default implementation copies the region and then clears the uncovered parts
+   * of the source.
+   *
+   * @param startRow the starting row of the region (inclusive), 0-based
+   * @param startCol the starting column of the region (inclusive), 0-based
+   * @param endRow   the ending row of the region (inclusive), 0-based
+   * @param endCol   the ending column of the region (inclusive), 0-based
+   * @param toRow    the top row of the destination, 0-based
+   * @param toCol    the left column of the destination, 0-based
+   * @throws IllegalArgumentException if any row or column is negative, if the end
+   *                                  coordinates are less than the start coordinates or
+   *                                  if the destination reaches beyond the largest row or
+   *                                  column
+   */
+  default void moveRegion(int startRow, int startCol, int endRow, int endCol, int toRow,
+                          int toCol) throws IllegalArgumentException {
+    copyRegion(startRow, startCol, endRow, endCol, toRow, toCol);
+    SheetRegions.clearUncovered(this, startRow, startCol, endRow, endCol, toRow, toCol);
+  }
+
+  /**
+   * Fills a rectangular region with an arithmetic series in row-major order: the cell
+   * that is k cells after the top-left cell, counting along the rows, gets
+   * start + k * step.
+   *
+   * <p>This default implementation sets the cells one at a time. Implementations that
+   * store cells in blocks write whole runs of cells at once.
+   *
+   * @param startRow the starting row of the region (inclusive), 0-based
+   * @param startCol the starting column of the region (inclusive), 0-based
+   * @param endRow   the ending row of the region (inclusive), 0-based
+   * @param endCol   the ending column of the region (inclusive), 0-based
+   * @param start    the value of the top-left cell
+   * @param step     the difference between the values of consecutive cells
+   * @throws IllegalArgumentException if any row or column is negative or if
+   *                                  the end coordinates are less than the start coordinates
+   */
+  default void fillSeries(int startRow, int startCol, int endRow, int endCol, double start,
+                          double step) throws IllegalArgumentException {
+    SheetRegions.fillSeries(this, startRow, startCol, endRow, endCol, start, step);
+  }
+
+  /**
+   * Returns the count, sum, minimum, maximum and average of the non-empty cells in a
+   * rectangular region. Empty cells are ignored.
+   *
+   * <p>This default implementation looks at every cell of the region that lies within
+   * the width and height of the spreadsheet. Implementations that keep summaries of
+   * blocks of cells answer in time that depends on the number of blocks instead.
+   *
+   * @param startRow the starting row of the region (inclusive), 0-based
+   * @param startCol the starting column of the region (inclusive), 0-based
+   * @param endRow   the ending row of the region (inclusive), 0-based
+   * @param endCol   the ending column of the region (inclusive), 0-based
+   * @return the summary of the region
+   * @throws IllegalArgumentException if any row or column is negative or if
+   *                                  the end coordinates are less than the start coordinates
+   */
+  default RegionSummary summarize(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+    CellSummary summary = new CellSummary();
+    int lastRow = Math.min(endRow, getHeight() - 1);
+    int lastCol = Math.min(endCol, getWidth() - 1);
+    for (int row = startRow; row <= lastRow; row++) {
+      for (int col = startCol; col <= lastCol; col++) {
+        if (!isEmpty(row, col)) {
+          summary.add(get(row, col));
+        }
+      }
+    }
+    return summary.toRegionSummary();
+  }
 }
\ No newline at end of file
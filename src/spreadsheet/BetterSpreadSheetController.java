@@ -1,17 +1,25 @@
 package spreadsheet;
 
 import java.io.IOException;
-import java.util.Scanner;
+import java.nio.file.Paths;
 
 /**
  * This class represents the controller for a BetterSpreadSheet application.
- * It extends the basic SpreadSheetController and adds support for bulk operations.
+ * It extends the basic SpreadSheetController and adds support for bulk operations: bulk
+ * assignments, region copies and moves, series fills, region aggregates, and undoing and
+ * redoing changes on a spreadsheet that keeps a history of them.
+ * Like the basic controller, it collects its output in a buffer that is written to the
+ * Appendable before the controller waits for more input and when it stops.
  */
 public class BetterSpreadSheetController {
+  private static final String[] COMMANDS = {"assign-value", "assign-formula", "print-value",
+    "bulk-assign", "copy-region", "move-region", "fill-series", "undo", "redo", "sum", "min",
+    "max", "count", "average", "save", "load", "import-csv", "export-csv", "menu", "q",
+    "quit"};
 
   private BetterSpreadSheet betterSheet;
   private Readable readable;
-  private Appendable appendable;
+  private OutputBuffer output;
 
   /**
    * Constructs a controller for a BetterSpreadSheet.
@@ -29,116 +37,398 @@ public class BetterSpreadSheetController {
     }
     this.betterSheet = sheet;
     this.readable = readable;
-    this.appendable = appendable;
+    this.output = new OutputBuffer(appendable);
   }
 
   /**
-   * Starts the controller, processing user input until the user quits.
+   * Starts the controller, processing user input until the user quits or the input ends.
    *
-   * @throws IllegalStateException if there is an error writing output
+   * @throws IllegalStateException if there is an error reading input or writing output
    */
   public void executeBetterProgram() throws IllegalStateException {
-    Scanner sc = new Scanner(readable);
-    boolean quit = false;
-    int row;
-    int col;
-    int startRow;
-    int startCol;
-    int endRow;
-    int endCol;
-    double value;
-
-    welcomeMessage();
-
-    while (!quit) {
-      writeMessage("Type instruction: ");
-      String userInstruction = sc.next();
-
-      switch (userInstruction) {
-        case "assign-value":
-          try {
-            row = getRowNum(sc.next());
-            col = sc.nextInt();
-            value = sc.nextDouble();
-            betterSheet.set(row, col - 1, value);
-            writeMessage("Set cell (" + row + "," + (col - 1) + ") to "
-                    + value + System.lineSeparator());
-          } catch (IllegalArgumentException e) {
-            writeMessage("Error: " + e.getMessage() + System.lineSeparator());
-          }
+    execute(true);
+  }
+
+  /**
+   * Runs the controller in headless batch mode. The commands and their messages are the
+   * same as in {@link #executeBetterProgram()}, but no welcome message, prompts or
+   * farewell message are written. Processing stops at a quit command or at the end of the
+   * input, whichever comes first.
+   *
+   * @throws IllegalStateException if there is an error reading the input or writing to the
+   *                               output destination
+   */
+  public void executeBatch() throws IllegalStateException {
+    execute(false);
+  }
+
+  /**
+   * Reads and runs commands until a quit command or the end of the input.
+   *
+   * @param interactive whether to write the welcome message, a prompt before every
+   *                    command and the farewell message
+   * @throws IllegalStateException if there is an error reading the input or writing to the
+   *                               output destination
+   */
+  private void execute(boolean interactive) throws IllegalStateException {
+    CommandParser parser = new CommandParser(readable, output::flush, COMMANDS);
+    if (interactive) {
+      welcomeMessage();
+    }
+    while (true) {
+      if (interactive) {
+        writeMessage("Type instruction: ");
+      }
+      String instruction = parser.nextCommand();
+      if ((instruction == null) || "q".equals(instruction) || "quit".equals(instruction)) {
+        break;
+      }
+      runCommand(instruction, parser);
+      output.endCommand();
+    }
+    if (interactive) {
+      farewellMessage();
+    }
+    output.flush();
+  }
+
+  /**
+   * Reads the arguments of one command, runs it and writes its message. Nothing is run
+   * if the input ends in the middle of the command.
+   *
+   * @param instruction the name of the command
+   * @param parser      the parser to read the arguments from
+   * @throws IllegalStateException if there is an error reading the input or writing to the
+   *                               output destination
+   */
+  private void runCommand(String instruction, CommandParser parser)
+          throws IllegalStateException {
+    switch (instruction) {
+      case "assign-value": {
+        int row = parser.nextRow();
+        int col = parser.nextInt();
+        double value = parser.nextDouble();
+        if (!parser.complete()) {
+          // the input ended in the middle of the command
           break;
-        case "print-value":
-          try {
-            row = getRowNum(sc.next());
-            col = sc.nextInt();
-            writeMessage("Value: " + betterSheet.get(row, col - 1) + System.lineSeparator());
-          } catch (IllegalArgumentException e) {
-            writeMessage("Error: " + e.getMessage() + System.lineSeparator());
-          }
+        }
+        try {
+          parser.check();
+          betterSheet.set(row, col - 1, value);
+          output.append("Set cell (").append(row).append(',').append(col - 1)
+                  .append(") to ").append(value).append(System.lineSeparator());
+        } catch (IllegalArgumentException e) {
+          output.append("Error: ").append(e.getMessage()).append(System.lineSeparator());
+        }
+        break;
+      }
+      case "assign-formula": {
+        int row = parser.nextRow();
+        int col = parser.nextInt();
+        String formula = parser.nextString();
+        if (!parser.complete()) {
           break;
-        case "bulk-assign":
-          try {
-            startRow = getRowNum(sc.next());
-            startCol = sc.nextInt();
-            endRow = getRowNum(sc.next());
-            endCol = sc.nextInt();
-            value = sc.nextDouble();
-
-            betterSheet.bulkSet(startRow, startCol - 1, endRow, endCol - 1, value);
-            writeMessage("Bulk assigned " + value + " to region ("
-                    + startRow + "," + (startCol - 1) + ") to ("
-                    + endRow + "," + (endCol - 1) + ")" + System.lineSeparator());
-          } catch (IllegalArgumentException e) {
-            writeMessage("Error: " + e.getMessage() + System.lineSeparator());
-          }
+        }
+        try {
+          parser.check();
+          assignFormula(row, col - 1, formula);
+        } catch (IllegalArgumentException e) {
+          output.append("Error: ").append(e.getMessage()).append(System.lineSeparator());
+        }
+        break;
+      }
+      case "print-value": {
+        int row = parser.nextRow();
+        int col = parser.nextInt();
+        if (!parser.complete()) {
           break;
-        case "menu":
-          printMenu();
+        }
+        try {
+          parser.check();
+          double value = betterSheet.get(row, col - 1);
+          output.append("Value: ").append(value).append(System.lineSeparator());
+        } catch (IllegalArgumentException e) {
+          output.append("Error: ").append(e.getMessage()).append(System.lineSeparator());
+        }
+        break;
+      }
+      case "bulk-assign": {
+        int startRow = parser.nextRow();
+        int startCol = parser.nextInt();
+        int endRow = parser.nextRow();
+        int endCol = parser.nextInt();
+        double value = parser.nextDouble();
+        if (!parser.complete()) {
           break;
-        case "q":
-        case "quit":
-          quit = true;
+        }
+        try {
+          parser.check();
+          betterSheet.bulkSet(startRow, startCol - 1, endRow, endCol - 1, value);
+          output.append("Bulk assigned ").append(value).append(" to region (")
+                  .append(startRow).append(',').append(startCol - 1).append(") to (")
+                  .append(endRow).append(',').append(endCol - 1).append(')')
+                  .append(System.lineSeparator());
+        } catch (IllegalArgumentException e) {
+          output.append("Error: ").append(e.getMessage()).append(System.lineSeparator());
+        }
+        break;
+      }
+      case "copy-region":
+      case "move-region": {
+        int startRow = parser.nextRow();
+        int startCol = parser.nextInt();
+        int endRow = parser.nextRow();
+        int endCol = parser.nextInt();
+        int toRow = parser.nextRow();
+        int toCol = parser.nextInt();
+        if (!parser.complete()) {
+          break;
+        }
+        try {
+          parser.check();
+          String verb = copyRegion(instruction, startRow, startCol - 1, endRow, endCol - 1,
+                  toRow, toCol - 1);
+          output.append(verb).append(" region (").append(startRow).append(',')
+                  .append(startCol - 1).append(") to (").append(endRow).append(',')
+                  .append(endCol - 1).append(") to cell (").append(toRow).append(',')
+                  .append(toCol - 1).append(')').append(System.lineSeparator());
+        } catch (IllegalArgumentException e) {
+          output.append("Error: ").append(e.getMessage()).append(System.lineSeparator());
+        }
+        break;
+      }
+      case "fill-series": {
+        int startRow = parser.nextRow();
+        int startCol = parser.nextInt();
+        int endRow = parser.nextRow();
+        int endCol = parser.nextInt();
+        double start = parser.nextDouble();
+        double step = parser.nextDouble();
+        if (!parser.complete()) {
           break;
-        default:
-          writeMessage("Undefined instruction: " + userInstruction + System.lineSeparator());
+        }
+        try {
+          parser.check();
+          betterSheet.fillSeries(startRow, startCol - 1, endRow, endCol - 1, start, step);
+          output.append("Filled region (").append(startRow).append(',')
+                  .append(startCol - 1).append(") to (").append(endRow).append(',')
+                  .append(endCol - 1).append(") with a series from ").append(start)
+                  .append(" by ").append(step).append(System.lineSeparator());
+        } catch (IllegalArgumentException e) {
+          output.append("Error: ").append(e.getMessage()).append(System.lineSeparator());
+        }
+        break;
+      }
+      case "undo":
+      case "redo":
+        try {
+          output.append(undoOrRedo(instruction)).append(System.lineSeparator());
+        } catch (IllegalArgumentException e) {
+          output.append("Error: ").append(e.getMessage()).append(System.lineSeparator());
+        }
+        break;
+      case "sum":
+      case "min":
+      case "max":
+      case "count":
+      case "average": {
+        int startRow = parser.nextRow();
+        int startCol = parser.nextInt();
+        int endRow = parser.nextRow();
+        int endCol = parser.nextInt();
+        if (!parser.complete()) {
           break;
+        }
+        try {
+          parser.check();
+          RegionSummary summary = betterSheet.summarize(startRow, startCol - 1, endRow,
+                  endCol - 1);
+          output.append(describe(instruction, summary)).append(System.lineSeparator());
+        } catch (IllegalArgumentException e) {
+          output.append("Error: ").append(e.getMessage()).append(System.lineSeparator());
+        }
+        break;
+      }
+      case "save":
+      case "load":
+      case "import-csv":
+      case "export-csv": {
+        String path = parser.nextString();
+        if (path != null) {
+          output.append(runFileCommand(instruction, path)).append(System.lineSeparator());
+        }
+        break;
       }
+      case "menu":
+        printMenu();
+        break;
+      default:
+        output.append("Undefined instruction: ").append(instruction)
+                .append(System.lineSeparator());
+        break;
     }
-    farewellMessage();
   }
 
   /**
-   * Converts a row string (like "A", "B", "AA") to a row number starting with 0.
+   * Runs one of the commands that take a file path.
    *
-   * @param rowLetters the row string to convert
-   * @return the row number (0-based)
-   * @throws IllegalArgumentException if the row string is invalid
+   * @param instruction save, load, import-csv or export-csv
+   * @param path        the path of the file
+   * @return the message describing the outcome
    */
-  private int getRowNum(String rowLetters) throws IllegalArgumentException {
-    int rownumber = 0;
+  private String runFileCommand(String instruction, String path) {
+    switch (instruction) {
+      case "save":
+        return saveSnapshot(path);
+      case "load":
+        return loadSnapshot(path);
+      case "import-csv":
+        return importCsv(path);
+      default:
+        return exportCsv(path);
+    }
+  }
 
-    for (int i = 0; i < rowLetters.length(); i++) {
-      char c = rowLetters.charAt(i);
-      if (!Character.isAlphabetic(c)) {
-        throw new IllegalArgumentException("Invalid row");
-      }
-      rownumber = 26 * rownumber + ((int) Character.toLowerCase(c) - 'a' + 1);
+  /**
+   * Copies or moves a region of the spreadsheet.
+   *
+   * @param instruction copy-region or move-region
+   * @return the verb describing what was done
+   * @throws IllegalArgumentException if the region or the destination is invalid
+   */
+  private String copyRegion(String instruction, int startRow, int startCol, int endRow,
+                            int endCol, int toRow, int toCol) throws IllegalArgumentException {
+    if ("move-region".equals(instruction)) {
+      betterSheet.moveRegion(startRow, startCol, endRow, endCol, toRow, toCol);
+      return "Moved";
+    }
+    betterSheet.copyRegion(startRow, startCol, endRow, endCol, toRow, toCol);
+    return "Copied";
+  }
+
+  /**
+   * Describes one aggregate of a region summary.
+   *
+   * @param aggregate the name of the aggregate: sum, min, max, count or average
+   * @param summary   the summary of the region
+   * @return the message showing the aggregate
+   */
+  private static String describe(String aggregate, RegionSummary summary) {
+    switch (aggregate) {
+      case "sum":
+        return "Sum: " + summary.getSum();
+      case "min":
+        return "Min: " + summary.getMin();
+      case "max":
+        return "Max: " + summary.getMax();
+      case "count":
+        return "Count: " + summary.getCount();
+      default:
+        return "Average: " + summary.getAverage();
+    }
+  }
+
+  /**
+   * Sets a cell of the spreadsheet to a formula.
+   *
+   * @param row     the row of the cell
+   * @param col     the column of the cell
+   * @param formula the formula
+   * @throws IllegalArgumentException if the spreadsheet does not support formulas or the
+   *                                  formula cannot be assigned
+   */
+  private void assignFormula(int row, int col, String formula)
+          throws IllegalArgumentException {
+    if (!(betterSheet instanceof FormulaSpreadSheet)) {
+      throw new IllegalArgumentException("Formulas are not supported by this spreadsheet");
+    }
+    ((FormulaSpreadSheet) betterSheet).setFormula(row, col, formula);
+  }
+
+  /**
+   * Undoes the last change or redoes the last undone change of the spreadsheet.
+   *
+   * @param instruction "undo" or "redo"
+   * @return the message describing the outcome
+   * @throws IllegalArgumentException if the spreadsheet does not keep a history of changes
+   */
+  private String undoOrRedo(String instruction) throws IllegalArgumentException {
+    if (!(betterSheet instanceof UndoableSpreadSheet)) {
+      throw new IllegalArgumentException("Undo is not supported by this spreadsheet");
+    }
+    UndoableSpreadSheet history = (UndoableSpreadSheet) betterSheet;
+    if ("undo".equals(instruction)) {
+      return history.undo() ? "Undid the last change" : "Nothing to undo";
+    }
+    return history.redo() ? "Redid the last undone change" : "Nothing to redo";
+  }
+
+  /**
+   * Saves the spreadsheet to a snapshot file.
+   *
+   * @param path the path of the snapshot file
+   * @return the message describing the outcome
+   */
+  private String saveSnapshot(String path) {
+    try {
+      SheetSnapshot.save(betterSheet, Paths.get(path));
+      return "Saved snapshot to " + path;
+    } catch (IOException | IllegalArgumentException e) {
+      return "Error: " + e.getMessage();
+    }
+  }
+
+  /**
+   * Loads the cells of a snapshot file into the spreadsheet.
+   *
+   * @param path the path of the snapshot file
+   * @return the message describing the outcome
+   */
+  private String loadSnapshot(String path) {
+    try {
+      SheetSnapshot.load(Paths.get(path), betterSheet);
+      return "Loaded snapshot from " + path;
+    } catch (IOException | IllegalArgumentException e) {
+      return "Error: " + e.getMessage();
     }
-    return rownumber - 1;
   }
 
   /**
-   * Writes a message to the appendable.
+   * Imports the cells of a CSV file into the spreadsheet.
+   *
+   * @param path the path of the CSV file
+   * @return the message describing the outcome
+   */
+  private String importCsv(String path) {
+    try {
+      return "Imported " + SheetCsv.load(Paths.get(path), betterSheet) + " cells from " + path;
+    } catch (IOException | IllegalArgumentException e) {
+      return "Error: " + e.getMessage();
+    }
+  }
+
+  /**
+   * Exports the cells of the spreadsheet to a CSV file.
+   *
+   * @param path the path of the CSV file
+   * @return the message describing the outcome
+   */
+  private String exportCsv(String path) {
+    try {
+      return "Exported " + SheetCsv.save(betterSheet, Paths.get(path)) + " cells to " + path;
+    } catch (IOException | IllegalArgumentException e) {
+      return "Error: " + e.getMessage();
+    }
+  }
+
+  /**
+   * Writes a message to the output buffer.
    *
    * @param message the message to write
    * @throws IllegalStateException if there is an error writing to the appendable
    */
   private void writeMessage(String message) throws IllegalStateException {
-    try {
-      appendable.append(message);
-    } catch (IOException e) {
-      throw new IllegalStateException(e.getMessage());
-    }
+    output.append(message);
   }
 
   /**
@@ -150,10 +440,32 @@ public class BetterSpreadSheetController {
     writeMessage("Supported user instructions are: " + System.lineSeparator());
     writeMessage("assign-value row-num col-num value (set a cell to a value)"
             + System.lineSeparator());
+    writeMessage("assign-formula row-num col-num formula (set a cell to a formula, "
+            + "such as SUM(A1:B3)*2, written without spaces)" + System.lineSeparator());
     writeMessage("print-value row-num col-num (print the value at a given cell)"
             + System.lineSeparator());
     writeMessage("bulk-assign start-row start-col end-row end-col value (set a region to a value)"
             + System.lineSeparator());
+    writeMessage("copy-region start-row start-col end-row end-col to-row to-col "
+            + "(copy a region so its top-left cell lands on a given cell)"
+            + System.lineSeparator());
+    writeMessage("move-region start-row start-col end-row end-col to-row to-col "
+            + "(move a region, emptying the cells it leaves)" + System.lineSeparator());
+    writeMessage("fill-series start-row start-col end-row end-col start step "
+            + "(fill a region row by row with start, start + step, ...)"
+            + System.lineSeparator());
+    writeMessage("undo (undo the last change)" + System.lineSeparator());
+    writeMessage("redo (redo the last undone change)" + System.lineSeparator());
+    writeMessage("sum, min, max, count or average start-row start-col end-row end-col "
+            + "(aggregate the non-empty cells of a region)" + System.lineSeparator());
+    writeMessage("save file-path (save the spreadsheet to a snapshot file)"
+            + System.lineSeparator());
+    writeMessage("load file-path (load the cells of a snapshot file)"
+            + System.lineSeparator());
+    writeMessage("import-csv file-path (load the cells of a CSV file)"
+            + System.lineSeparator());
+    writeMessage("export-csv file-path (save the spreadsheet to a CSV file)"
+            + System.lineSeparator());
     writeMessage("menu (Print supported instruction list)" + System.lineSeparator());
     writeMessage("q or quit (quit the program) " + System.lineSeparator());
   }
@@ -1,6 +1,9 @@
 package spreadsheet;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Paths;
 
 /**
  * Main program class for the better spreadsheet application.
@@ -11,16 +14,75 @@ public class BetterSpreadSheetRunner {
    * Initializes the enhanced spreadsheet components and starts the application.
    * Creates a better spreadsheet model with advanced features, sets up input/output streams,
    * creates the controller, and begins processing user input.
+   * A command-line argument naming a kind of spreadsheet ("sparse", "tiled", "adaptive"
+   * or "concurrent", or "mapped:" followed by a file path) chooses how the cells are
+   * stored; the default is "sparse". The argument "--batch" runs the controller in
+   * headless batch mode, and the argument "--log=" followed by a directory makes every
+   * change durable with a write-ahead log in that directory, recovering the contents
+   * left there by a previous run. Cells may hold formulas, which are recomputed in
+   * parallel on a "concurrent" spreadsheet, unless "--log=" or "--undo" is given. The
+   * write-ahead log records values only, so a logged spreadsheet rejects formulas rather
+   * than bring them back as constants after a restart. The argument "--undo" keeps a
+   * history of changes that the undo and redo commands step through, in place of
+   * formulas, since undoing a change must also undo the values it caused to be
+   * recomputed. A spreadsheet backed by a file is closed when the program ends.
    *
    * @param args Command line arguments
    */
   public static void main(String[] args) {
-    BetterSpreadSheet model = new BetterSparseSpreadSheet();
+    String kind = "sparse";
+    String logDirectory = null;
+    boolean batch = false;
+    boolean undo = false;
+    for (String arg : args) {
+      if ("--batch".equals(arg)) {
+        batch = true;
+      } else if ("--undo".equals(arg)) {
+        undo = true;
+      } else if (arg.startsWith("--log=")) {
+        logDirectory = arg.substring("--log=".length());
+      } else {
+        kind = arg;
+      }
+    }
+    BetterSpreadSheet model = SpreadSheetFactory.createBetterSheet(kind);
+    if (logDirectory != null) {
+      try {
+        model = new LoggedBetterSpreadSheet(model, Paths.get(logDirectory));
+      } catch (IOException e) {
+        throw new IllegalStateException(e.getMessage());
+      }
+    }
 
     Readable rd = new InputStreamReader(System.in);
     Appendable ap = System.out;
 
-    BetterSpreadSheetController controller = new BetterSpreadSheetController(model, rd, ap);
-    controller.executeBetterProgram();
+    BetterSpreadSheet sheet;
+    if (undo) {
+      sheet = new UndoableSpreadSheet(model);
+    } else if (logDirectory != null) {
+      // the log records values, not formulas, so formulas are not offered
+      sheet = model;
+    } else if (model instanceof ConcurrentSpreadSheet) {
+      // a sheet that can be shared between threads lets formulas be recomputed in parallel
+      sheet = new FormulaBetterSpreadSheet(model,
+              FormulaBetterSpreadSheet.DEFAULT_PARALLEL_THRESHOLD);
+    } else {
+      sheet = new FormulaBetterSpreadSheet(model);
+    }
+    BetterSpreadSheetController controller =
+            new BetterSpreadSheetController(sheet, rd, ap);
+    if (batch) {
+      controller.executeBatch();
+    } else {
+      controller.executeBetterProgram();
+    }
+    if (model instanceof Closeable) {
+      try {
+        ((Closeable) model).close();
+      } catch (IOException e) {
+        throw new IllegalStateException(e.getMessage());
+      }
+    }
   }
 }
\ No newline at end of file
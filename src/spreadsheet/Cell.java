@@ -0,0 +1,75 @@
+package spreadsheet;
+
+/**
+ * This class represents a non-empty cell of a spreadsheet: its position and its value.
+ * Cells are handed out by {@link CellSpliterator} to streams; visiting cells through a
+ * {@link CellVisitor} avoids creating them.
+ */
+public final class Cell {
+  private final int row;
+  private final int col;
+  private final double value;
+
+  /**
+   * Constructs a cell.
+   *
+   * @param row   the row number of the cell, starting with 0
+   * @param col   the column number of the cell, starting with 0
+   * @param value the value of the cell
+   */
+  public Cell(int row, int col, double value) {
+    this.row = row;
+    this.col = col;
+    this.value = value;
+  }
+
+  /**
+   * Returns the row number of this cell.
+   *
+   * @return the row number, starting with 0
+   */
+  public int getRow() {
+    return row;
+  }
+
+  /**
+   * Returns the column number of this cell.
+   *
+   * @return the column number, starting with 0
+   */
+  public int getCol() {
+    return col;
+  }
+
+  /**
+   * Returns the value of this cell.
+   *
+   * @return the value
+   */
+  public double getValue() {
+    return value;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof Cell)) {
+      return false;
+    }
+    Cell that = (Cell) other;
+    return (row == that.row) && (col == that.col)
+            && (Double.compare(value, that.value) == 0);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * row + col) + Double.hashCode(value);
+  }
+
+  @Override
+  public String toString() {
+    return "(" + row + "," + col + ")=" + value;
+  }
+}
@@ -0,0 +1,273 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a map from cell positions to double values that is specialized
+ * for primitives. A cell position (row, column) is packed into a single long key and the
+ * keys and values are stored in parallel arrays using open addressing with linear probing.
+ * Removed entries leave a tombstone behind so that probe sequences stay intact.
+ *
+ * <p>None of the lookup or update operations allocate objects, with the exception of
+ * {@link #put(int, int, double)} when the table has to grow. Every slot costs 16 bytes
+ * (an 8-byte key and an 8-byte value) and the table is kept between 3/8 and 3/4 full,
+ * which comes to roughly 21 to 43 bytes per stored cell. The equivalent
+ * {@code HashMap<CellPosition, Double>} costs at least 80 bytes per cell (a 32-byte node,
+ * a 24-byte key object, a 16-byte boxed value and the table slot).
+ *
+ * <p>Rows and columns must not be negative. This class is not thread-safe.
+ */
+public final class CellMap {
+  private static final long EMPTY = -1L;
+  private static final long TOMBSTONE = -2L;
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private long[] keys;
+  private double[] values;
+  private int mask;
+  private int size;
+  private int used;
+  private int threshold;
+
+  /**
+   * Constructs an empty cell map with a small default capacity.
+   */
+  public CellMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs an empty cell map that can hold the given number of cells without
+   * growing.
+   *
+   * @param expectedCells the number of cells expected to be stored
+   * @throws IllegalArgumentException if the expected number of cells is negative
+   */
+  public CellMap(int expectedCells) throws IllegalArgumentException {
+    if (expectedCells < 0) {
+      throw new IllegalArgumentException("Expected number of cells cannot be negative");
+    }
+    allocate(capacityFor(expectedCells));
+  }
+
+  /**
+   * Packs a cell position into a single long key. The row occupies the upper 32 bits
+   * and the column the lower 32 bits.
+   *
+   * @param row the row of the cell, starting with 0
+   * @param col the column of the cell, starting with 0
+   * @return the packed key
+   */
+  public static long key(int row, int col) {
+    return ((long) row << 32) | (col & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Returns the row of a packed key.
+   *
+   * @param key a key created by {@link #key(int, int)}
+   * @return the row of the cell
+   */
+  public static int row(long key) {
+    return (int) (key >>> 32);
+  }
+
+  /**
+   * Returns the column of a packed key.
+   *
+   * @param key a key created by {@link #key(int, int)}
+   * @return the column of the cell
+   */
+  public static int col(long key) {
+    return (int) key;
+  }
+
+  /**
+   * Returns the value stored for the specified cell.
+   *
+   * @param row          the row of the cell, starting with 0
+   * @param col          the column of the cell, starting with 0
+   * @param defaultValue the value to return if the cell is not present
+   * @return the stored value, or the default value if the cell is not present
+   */
+  public double get(int row, int col, double defaultValue) {
+    int slot = find(key(row, col));
+    return slot < 0 ? defaultValue : values[slot];
+  }
+
+  /**
+   * Returns whether a value is stored for the specified cell.
+   *
+   * @param row the row of the cell, starting with 0
+   * @param col the column of the cell, starting with 0
+   * @return true if the cell is present, false otherwise
+   */
+  public boolean containsKey(int row, int col) {
+    return find(key(row, col)) >= 0;
+  }
+
+  /**
+   * Stores a value for the specified cell, replacing any previous value.
+   *
+   * @param row   the row of the cell, starting with 0
+   * @param col   the column of the cell, starting with 0
+   * @param value the value to store
+   * @return true if the cell was not present before, false if its value was replaced
+   */
+  public boolean put(int row, int col, double value) {
+    long key = key(row, col);
+    int slot = mix(key) & mask;
+    int firstTombstone = -1;
+    while (true) {
+      long k = keys[slot];
+      if (k == key) {
+        values[slot] = value;
+        return false;
+      }
+      if (k == EMPTY) {
+        break;
+      }
+      if ((k == TOMBSTONE) && (firstTombstone < 0)) {
+        firstTombstone = slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    if (firstTombstone >= 0) {
+      slot = firstTombstone;
+    } else {
+      used++;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    size++;
+    if (used > threshold) {
+      // grow only if live cells dominate; otherwise just sweep the tombstones
+      rehash(size > (threshold >> 1) ? keys.length << 1 : keys.length);
+    }
+    return true;
+  }
+
+  /**
+   * Removes the specified cell from this map.
+   *
+   * @param row the row of the cell, starting with 0
+   * @param col the column of the cell, starting with 0
+   * @return true if the cell was present, false otherwise
+   */
+  public boolean remove(int row, int col) {
+    int slot = find(key(row, col));
+    if (slot < 0) {
+      return false;
+    }
+    keys[slot] = TOMBSTONE;
+    size--;
+    return true;
+  }
+
+  /**
+   * Removes every cell from this map, keeping its current capacity.
+   */
+  public void clear() {
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+    used = 0;
+  }
+
+  /**
+   * Returns the number of cells stored in this map.
+   *
+   * @return the number of cells
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of slots in this map. Together with {@link #keyAt(int)} and
+   * {@link #valueAt(int)} this lets callers in this package walk every cell without
+   * allocating an iterator.
+   *
+   * @return the number of slots
+   */
+  int slotCount() {
+    return keys.length;
+  }
+
+  /**
+   * Returns the packed key of the cell in the given slot, or a negative number if the
+   * slot holds no cell.
+   *
+   * @param slot the slot, between 0 and {@link #slotCount()} - 1
+   * @return the packed key, or a negative number
+   */
+  long keyAt(int slot) {
+    return keys[slot];
+  }
+
+  /**
+   * Returns the value of the cell in the given slot.
+   *
+   * @param slot the slot, between 0 and {@link #slotCount()} - 1
+   * @return the value in that slot
+   */
+  double valueAt(int slot) {
+    return values[slot];
+  }
+
+  private int find(long key) {
+    int slot = mix(key) & mask;
+    while (true) {
+      long k = keys[slot];
+      if (k == key) {
+        return slot;
+      }
+      if (k == EMPTY) {
+        return -1;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    double[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      long k = oldKeys[i];
+      if (k >= 0) {
+        int slot = mix(k) & mask;
+        while (keys[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = k;
+        values[slot] = oldValues[i];
+        used++;
+      }
+    }
+    size = used;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new double[capacity];
+    Arrays.fill(keys, EMPTY);
+    mask = capacity - 1;
+    threshold = (capacity >> 1) + (capacity >> 2);
+    size = 0;
+    used = 0;
+  }
+
+  private static int capacityFor(int expectedCells) {
+    long needed = Math.max(DEFAULT_CAPACITY, ((long) expectedCells * 4 + 2) / 3 + 1);
+    if (needed > (1 << 30)) {
+      throw new IllegalArgumentException("Too many cells");
+    }
+    return Integer.highestOneBit((int) needed - 1) << 1;
+  }
+
+  private static int mix(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
@@ -0,0 +1,17 @@
+package spreadsheet;
+
+/**
+ * This enumeration represents the orders in which the non-empty cells of a spreadsheet
+ * can be visited.
+ */
+public enum CellOrder {
+  /**
+   * Row by row from the top, and from left to right within a row.
+   */
+  ROW_MAJOR,
+
+  /**
+   * Column by column from the left, and from top to bottom within a column.
+   */
+  COLUMN_MAJOR
+}
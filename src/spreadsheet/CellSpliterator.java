@@ -0,0 +1,220 @@
+package spreadsheet;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * This class represents a spliterator over the non-empty cells of a spreadsheet, in row-
+ * major or column-major order. It works on a snapshot of the cells taken when it is
+ * created, kept as a sorted array of packed positions and an array of values, so later
+ * changes to the spreadsheet do not affect it. Splitting halves the remaining range of
+ * the arrays, which makes parallel streams over the cells well balanced.
+ *
+ * <p>Besides the usual methods that hand out {@link Cell} objects, {@link
+ * #tryAdvance(CellVisitor)} and {@link #forEachRemaining(CellVisitor)} pass each cell to
+ * a {@link CellVisitor} as primitive values, without allocating.
+ */
+public final class CellSpliterator implements Spliterator<Cell> {
+  private static final int INSERTION_SORT_CELLS = 16;
+
+  private final CellOrder order;
+  // (major << 32) | minor, where the major position is the row in row-major order
+  private final long[] keys;
+  private final double[] values;
+  private int index;
+  private final int fence;
+
+  private CellSpliterator(CellOrder order, long[] keys, double[] values, int index,
+                          int fence) {
+    this.order = order;
+    this.keys = keys;
+    this.values = values;
+    this.index = index;
+    this.fence = fence;
+  }
+
+  /**
+   * Creates a spliterator over a snapshot of the non-empty cells of a spreadsheet. The
+   * cells are collected with {@link SpreadSheet#forEachCell(CellVisitor)} and sorted, so
+   * the cost is proportional to the number of cells, not the size of the sheet.
+   *
+   * @param sheet the spreadsheet
+   * @param order the order of the cells
+   * @return the spliterator
+   * @throws IllegalArgumentException if the order is null
+   */
+  static CellSpliterator of(SpreadSheet sheet, CellOrder order)
+          throws IllegalArgumentException {
+    if (order == null) {
+      throw new IllegalArgumentException("Cell order cannot be null");
+    }
+    Collector collector = new Collector(order == CellOrder.ROW_MAJOR);
+    sheet.forEachCell(collector);
+    sort(collector.keys, collector.values, collector.size);
+    return new CellSpliterator(order, collector.keys, collector.values, 0, collector.size);
+  }
+
+  /**
+   * Passes the next cell to the visitor, if there is one.
+   *
+   * @param visitor the action to apply to the cell
+   * @return true if a cell was visited, false if there are no cells left
+   */
+  public boolean tryAdvance(CellVisitor visitor) {
+    if (index >= fence) {
+      return false;
+    }
+    visit(index++, visitor);
+    return true;
+  }
+
+  /**
+   * Passes every remaining cell to the visitor, in order.
+   *
+   * @param visitor the action to apply to each cell
+   */
+  public void forEachRemaining(CellVisitor visitor) {
+    for (int i = index; i < fence; i++) {
+      visit(i, visitor);
+    }
+    index = fence;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super Cell> action) {
+    return tryAdvance((row, col, value) -> action.accept(new Cell(row, col, value)));
+  }
+
+  @Override
+  public void forEachRemaining(Consumer<? super Cell> action) {
+    forEachRemaining((row, col, value) -> action.accept(new Cell(row, col, value)));
+  }
+
+  @Override
+  public CellSpliterator trySplit() {
+    int middle = (index + fence) >>> 1;
+    if (middle <= index) {
+      return null;
+    }
+    CellSpliterator prefix = new CellSpliterator(order, keys, values, index, middle);
+    index = middle;
+    return prefix;
+  }
+
+  @Override
+  public long estimateSize() {
+    return fence - index;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE | DISTINCT;
+  }
+
+  private void visit(int i, CellVisitor visitor) {
+    int major = CellMap.row(keys[i]);
+    int minor = CellMap.col(keys[i]);
+    if (order == CellOrder.ROW_MAJOR) {
+      visitor.visit(major, minor, values[i]);
+    } else {
+      visitor.visit(minor, major, values[i]);
+    }
+  }
+
+  /**
+   * Sorts the first size keys, moving the values along with them. Models usually visit
+   * their cells tile by tile, so the keys are often nearly sorted already.
+   */
+  private static void sort(long[] keys, double[] values, int size) {
+    for (int i = 1; i < size; i++) {
+      if (keys[i - 1] > keys[i]) {
+        quickSort(keys, values, 0, size - 1);
+        return;
+      }
+    }
+  }
+
+  private static void quickSort(long[] keys, double[] values, int low, int high) {
+    while (high - low >= INSERTION_SORT_CELLS) {
+      int middle = (low + high) >>> 1;
+      // the median of three keeps sorted runs from degrading the partitioning
+      if (keys[middle] < keys[low]) {
+        swap(keys, values, middle, low);
+      }
+      if (keys[high] < keys[low]) {
+        swap(keys, values, high, low);
+      }
+      if (keys[high] < keys[middle]) {
+        swap(keys, values, high, middle);
+      }
+      long pivot = keys[middle];
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (keys[i] < pivot) {
+          i++;
+        }
+        while (keys[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(keys, values, i++, j--);
+        }
+      }
+      // recurse into the smaller half, so the stack stays logarithmic
+      if (j - low < high - i) {
+        quickSort(keys, values, low, j);
+        low = i;
+      } else {
+        quickSort(keys, values, i, high);
+        high = j;
+      }
+    }
+    for (int i = low + 1; i <= high; i++) {
+      long key = keys[i];
+      double value = values[i];
+      int j = i - 1;
+      while ((j >= low) && (keys[j] > key)) {
+        keys[j + 1] = keys[j];
+        values[j + 1] = values[j];
+        j--;
+      }
+      keys[j + 1] = key;
+      values[j + 1] = value;
+    }
+  }
+
+  private static void swap(long[] keys, double[] values, int i, int j) {
+    long key = keys[i];
+    keys[i] = keys[j];
+    keys[j] = key;
+    double value = values[i];
+    values[i] = values[j];
+    values[j] = value;
+  }
+
+  /**
+   * Collects cells as packed positions and values.
+   */
+  private static final class Collector implements CellVisitor {
+    private final boolean rowMajor;
+    private long[] keys = new long[64];
+    private double[] values = new double[64];
+    private int size;
+
+    private Collector(boolean rowMajor) {
+      this.rowMajor = rowMajor;
+    }
+
+    @Override
+    public void visit(int row, int col, double value) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      keys[size] = rowMajor ? CellMap.key(row, col) : CellMap.key(col, row);
+      values[size++] = value;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package spreadsheet;
+
+/**
+ * This class accumulates the count, sum, minimum and maximum of a set of cell values. It
+ * is used both to build the answer to a region query and to cache the summary of a whole
+ * tile, so a query can combine cached summaries without looking at their cells.
+ */
+final class CellSummary {
+  long count;
+  double sum;
+  double min;
+  double max;
+
+  /**
+   * Constructs an empty summary.
+   */
+  CellSummary() {
+    clear();
+  }
+
+  /**
+   * Forgets every value added so far.
+   */
+  void clear() {
+    count = 0;
+    sum = 0.0;
+    min = Double.POSITIVE_INFINITY;
+    max = Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * Adds one value.
+   */
+  void add(double value) {
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Adds every value of another summary.
+   */
+  void add(CellSummary other) {
+    if (other.count == 0) {
+      return;
+    }
+    count += other.count;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * Adds the given number of copies of one value.
+   */
+  void add(double value, long copies) {
+    if (copies == 0) {
+      return;
+    }
+    count += copies;
+    sum += value * copies;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Returns the public form of this summary.
+   */
+  RegionSummary toRegionSummary() {
+    return (count == 0) ? new RegionSummary(0, 0.0, Double.NaN, Double.NaN)
+            : new RegionSummary(count, sum, min, max);
+  }
+}
@@ -0,0 +1,19 @@
+package spreadsheet;
+
+/**
+ * This interface represents an action that is applied to non-empty cells of a
+ * spreadsheet, one cell at a time. The cell is passed as primitive values, so visiting
+ * cells does not allocate.
+ */
+@FunctionalInterface
+public interface CellVisitor {
+
+  /**
+   * Visits one non-empty cell.
+   *
+   * @param row   the row number of the cell, starting with 0
+   * @param col   the column number of the cell, starting with 0
+   * @param value the value of the cell
+   */
+  void visit(int row, int col, double value);
+}
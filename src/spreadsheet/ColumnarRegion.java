@@ -0,0 +1,365 @@
+package spreadsheet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class represents the cells of a rectangular region of a spreadsheet laid out by
+ * column, the way analytics code consumes them: one primitive array of values per
+ * column, in which empty cells read as 0, and one validity bitmap per column, in which
+ * bit (r % 64) of word (r / 64) is set when the cell in row r is non-empty. Rows and
+ * columns are counted from the top left corner of the region.
+ *
+ * <p>A region is read with {@link SpreadSheet#readColumns}, which tiled spreadsheets
+ * fill a tile at a time rather than one cell at a time. The columns are handed out as
+ * read-only buffers over the arrays, so no copy is made.
+ *
+ * <p>A region can be written to a simple columnar file and read back. All numbers are
+ * little-endian. The file consists of a 32-byte header (the magic number, the format
+ * version, the start row, the start column, the number of rows, the number of columns
+ * and a reserved long), followed by one block per column: its validity words and then
+ * its values. Every block has the same size, so a reader can seek straight to one column.
+ */
+public final class ColumnarRegion {
+  static final int MAGIC = 0x4C4F4353;
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 32;
+
+  private static final int BUFFER_BYTES = 1 << 18;
+
+  private final int startRow;
+  private final int startCol;
+  private final int rows;
+  private final double[][] values;
+  private final long[][] validity;
+
+  private ColumnarRegion(int startRow, int startCol, int rows, int cols) {
+    this.startRow = startRow;
+    this.startCol = startCol;
+    this.rows = rows;
+    this.values = new double[cols][rows];
+    this.validity = new long[cols][words(rows)];
+  }
+
+  /**
+   * Creates an empty region for the cells of a spreadsheet in the given rectangle. The
+   * rectangle is cut down to the width and height of the spreadsheet, since there are
+   * no non-empty cells beyond them.
+   *
+   * @throws IllegalArgumentException if any row or column is negative or if the end
+   *                                  coordinates are less than the start coordinates
+   */
+  static ColumnarRegion allocate(SpreadSheet sheet, int startRow, int startCol, int endRow,
+                                 int endCol) throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+    int rows = Math.max(0, Math.min(endRow, sheet.getHeight() - 1) - startRow + 1);
+    int cols = Math.max(0, Math.min(endCol, sheet.getWidth() - 1) - startCol + 1);
+    return new ColumnarRegion(startRow, startCol, rows, cols);
+  }
+
+  /**
+   * Returns the row of the spreadsheet that the first row of this region comes from.
+   *
+   * @return the start row, 0-based
+   */
+  public int getStartRow() {
+    return startRow;
+  }
+
+  /**
+   * Returns the column of the spreadsheet that the first column of this region comes
+   * from.
+   *
+   * @return the start column, 0-based
+   */
+  public int getStartCol() {
+    return startCol;
+  }
+
+  /**
+   * Returns the number of rows in this region.
+   *
+   * @return the number of rows
+   */
+  public int getRowCount() {
+    return rows;
+  }
+
+  /**
+   * Returns the number of columns in this region.
+   *
+   * @return the number of columns
+   */
+  public int getColumnCount() {
+    return values.length;
+  }
+
+  /**
+   * Returns the values of one column, one per row. Empty cells read as 0.
+   *
+   * @param col the column within this region, starting with 0
+   * @return a read-only buffer over the values of the column
+   * @throws IllegalArgumentException if the column is outside this region
+   */
+  public DoubleBuffer values(int col) throws IllegalArgumentException {
+    checkColumn(col);
+    return DoubleBuffer.wrap(values[col]).asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns the validity bitmap of one column: bit (r % 64) of word (r / 64) is set
+   * when the cell in row r is non-empty.
+   *
+   * @param col the column within this region, starting with 0
+   * @return a read-only buffer over the words of the bitmap
+   * @throws IllegalArgumentException if the column is outside this region
+   */
+  public LongBuffer validity(int col) throws IllegalArgumentException {
+    checkColumn(col);
+    return LongBuffer.wrap(validity[col]).asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns the value of a cell of this region.
+   *
+   * @param row the row within this region, starting with 0
+   * @param col the column within this region, starting with 0
+   * @return the value of the cell, or 0 if it is empty
+   * @throws IllegalArgumentException if the cell is outside this region
+   */
+  public double get(int row, int col) throws IllegalArgumentException {
+    checkCell(row, col);
+    return values[col][row];
+  }
+
+  /**
+   * Returns whether a cell of this region is empty.
+   *
+   * @param row the row within this region, starting with 0
+   * @param col the column within this region, starting with 0
+   * @return true if the cell is empty, false otherwise
+   * @throws IllegalArgumentException if the cell is outside this region
+   */
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    checkCell(row, col);
+    return (validity[col][row >>> 6] & (1L << row)) == 0;
+  }
+
+  /**
+   * Stores the value of a non-empty cell, given in the coordinates of the spreadsheet.
+   * The cell must lie within this region.
+   */
+  void put(int row, int col, double value) {
+    int r = row - startRow;
+    int c = col - startCol;
+    values[c][r] = value;
+    validity[c][r >>> 6] |= 1L << r;
+  }
+
+  /**
+   * Returns the array of values of a column, given in the coordinates of the spreadsheet,
+   * for callers in this package that fill it directly. Index r of the array holds the
+   * cell in row getStartRow() + r.
+   */
+  double[] column(int col) {
+    return values[col - startCol];
+  }
+
+  /**
+   * Marks cells of a column as non-empty, given in the coordinates of the spreadsheet.
+   * Bit b of bits stands for the cell in row top + b; every marked cell must lie within
+   * this region.
+   */
+  void markRows(int col, int top, long bits) {
+    if (bits == 0) {
+      return;
+    }
+    long[] words = validity[col - startCol];
+    int first = top - startRow;
+    if (first < 0) {
+      // the block starts above this region, so its marked rows all fall in the first word
+      words[0] |= bits >>> -first;
+      return;
+    }
+    int word = first >>> 6;
+    int shift = first & 63;
+    words[word] |= bits << shift;
+    if ((shift != 0) && ((bits >>> (64 - shift)) != 0)) {
+      words[word + 1] |= bits >>> (64 - shift);
+    }
+  }
+
+  /**
+   * Stores the same value in every cell of a rectangle, given in the coordinates of the
+   * spreadsheet. The part of the rectangle outside this region is ignored.
+   */
+  void fill(int fromRow, int fromCol, int toRow, int toCol, double value) {
+    int firstRow = Math.max(fromRow, startRow) - startRow;
+    int lastRow = Math.min(toRow, startRow + rows - 1) - startRow;
+    int firstCol = Math.max(fromCol, startCol) - startCol;
+    int lastCol = Math.min(toCol, startCol + values.length - 1) - startCol;
+    if ((firstRow > lastRow) || (firstCol > lastCol)) {
+      return;
+    }
+    for (int c = firstCol; c <= lastCol; c++) {
+      Arrays.fill(values[c], firstRow, lastRow + 1, value);
+      long[] words = validity[c];
+      for (int word = firstRow >>> 6; word <= lastRow >>> 6; word++) {
+        int from = Math.max(firstRow, word << 6) & 63;
+        int to = Math.min(lastRow, (word << 6) + 63) & 63;
+        words[word] |= DenseTile.rangeMask(from, to);
+      }
+    }
+  }
+
+  /**
+   * Writes this region to the specified columnar file, replacing the file if it
+   * exists.
+   *
+   * @param file the file to write
+   * @throws IOException if the file cannot be written
+   */
+  public void write(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES)
+              .order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(startRow).putInt(startCol).putInt(rows)
+              .putInt(values.length).putLong(0L);
+      for (int c = 0; c < values.length; c++) {
+        long[] words = validity[c];
+        double[] column = values[c];
+        for (int i = 0; i < words.length; ) {
+          if (buffer.remaining() < Long.BYTES) {
+            drain(channel, buffer);
+          }
+          int count = Math.min(words.length - i, buffer.remaining() / Long.BYTES);
+          buffer.asLongBuffer().put(words, i, count);
+          buffer.position(buffer.position() + count * Long.BYTES);
+          i += count;
+        }
+        for (int i = 0; i < column.length; ) {
+          if (buffer.remaining() < Double.BYTES) {
+            drain(channel, buffer);
+          }
+          int count = Math.min(column.length - i, buffer.remaining() / Double.BYTES);
+          buffer.asDoubleBuffer().put(column, i, count);
+          buffer.position(buffer.position() + count * Double.BYTES);
+          i += count;
+        }
+      }
+      drain(channel, buffer);
+    }
+  }
+
+  /**
+   * Reads a region from the specified columnar file.
+   *
+   * @param file the file to read
+   * @return the region
+   * @throws IOException if the file cannot be read or is not a valid columnar file
+   */
+  public static ColumnarRegion read(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES)
+              .order(ByteOrder.LITTLE_ENDIAN);
+      buffer.limit(HEADER_BYTES);
+      while (buffer.hasRemaining() && (channel.read(buffer) >= 0)) {
+        // keep reading until the header is complete or the file ends
+      }
+      if (buffer.hasRemaining() || (buffer.getInt(0) != MAGIC)) {
+        throw new IOException("Not a columnar file: " + file);
+      }
+      if (buffer.getInt(4) != VERSION) {
+        throw new IOException("Unsupported columnar file version " + buffer.getInt(4));
+      }
+      int startRow = buffer.getInt(8);
+      int startCol = buffer.getInt(12);
+      int rows = buffer.getInt(16);
+      int cols = buffer.getInt(20);
+      if ((startRow < 0) || (startCol < 0) || (rows < 0) || (cols < 0)
+              || (HEADER_BYTES + (long) cols * (words(rows) + (long) rows) * Long.BYTES
+              != channel.size())) {
+        throw new IOException("Corrupt columnar file: " + file);
+      }
+      ColumnarRegion region = new ColumnarRegion(startRow, startCol, rows, cols);
+      buffer.clear();
+      buffer.flip();
+      for (int c = 0; c < cols; c++) {
+        long[] words = region.validity[c];
+        double[] column = region.values[c];
+        for (int i = 0; i < words.length; ) {
+          if (buffer.remaining() < Long.BYTES) {
+            refill(channel, buffer, file);
+          }
+          int count = Math.min(words.length - i, buffer.remaining() / Long.BYTES);
+          buffer.asLongBuffer().get(words, i, count);
+          buffer.position(buffer.position() + count * Long.BYTES);
+          i += count;
+        }
+        for (int i = 0; i < column.length; ) {
+          if (buffer.remaining() < Double.BYTES) {
+            refill(channel, buffer, file);
+          }
+          int count = Math.min(column.length - i, buffer.remaining() / Double.BYTES);
+          buffer.asDoubleBuffer().get(column, i, count);
+          buffer.position(buffer.position() + count * Double.BYTES);
+          i += count;
+        }
+      }
+      return region;
+    }
+  }
+
+  private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Moves the unread bytes to the front of the buffer and reads more after them.
+   */
+  private static void refill(FileChannel channel, ByteBuffer buffer, Path file)
+          throws IOException {
+    buffer.compact();
+    int read = channel.read(buffer);
+    buffer.flip();
+    if (read < 0) {
+      throw new IOException("Corrupt columnar file: " + file);
+    }
+  }
+
+  private static int words(int rows) {
+    return (int) ((rows + 63L) >>> 6);
+  }
+
+  private void checkColumn(int col) throws IllegalArgumentException {
+    if ((col < 0) || (col >= values.length)) {
+      throw new IllegalArgumentException("Column is outside the region");
+    }
+  }
+
+  private void checkCell(int row, int col) throws IllegalArgumentException {
+    checkColumn(col);
+    if ((row < 0) || (row >= rows)) {
+      throw new IllegalArgumentException("Row is outside the region");
+    }
+  }
+}
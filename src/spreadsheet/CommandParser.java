@@ -0,0 +1,329 @@
+package spreadsheet;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * This class reads the commands of the spreadsheet controllers from a Readable. The input
+ * is read in large blocks into a CharBuffer, split into whitespace-separated tokens by
+ * hand, and each token is decoded in place: row letters, column numbers and values are
+ * computed straight from the characters in the buffer, and known command names are
+ * matched against the buffer and returned as the constants they were given as, so
+ * ordinary commands are parsed without creating a single String. Only file paths,
+ * formulas and unknown command names are turned into Strings.
+ *
+ * <p>The arguments of a command are read one after the other with {@link #nextRow()},
+ * {@link #nextInt()}, {@link #nextDouble()} and {@link #nextString()}. An argument that
+ * cannot be decoded does not stop the command: its token is consumed like the others and
+ * the first error is kept until {@link #check()} is called, so a bad command never
+ * leaves its remaining arguments behind to be taken for the next command.
+ */
+final class CommandParser {
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int MAX_INT_DIGITS = 9;
+
+  private final Readable source;
+  private final Runnable beforeRead;
+  private final String[] commands;
+  private final byte[] number;
+  private CharBuffer buffer;
+  private boolean exhausted;
+  private int start;
+  private int end;
+  private boolean truncated;
+  private IllegalArgumentException error;
+
+  /**
+   * Constructs a parser over the specified source.
+   *
+   * @param source   the source of the characters
+   * @param commands the names of the commands that {@link #nextCommand()} returns without
+   *                 creating a String
+   */
+  CommandParser(Readable source, String... commands) {
+    this(source, () -> { }, commands);
+  }
+
+  /**
+   * Constructs a parser over the specified source that runs an action every time before
+   * it reads from the source, such as writing out buffered prompts before the source
+   * blocks to wait for the user.
+   *
+   * @param source     the source of the characters
+   * @param beforeRead the action to run before each read
+   * @param commands   the names of the commands that {@link #nextCommand()} returns
+   *                   without creating a String
+   */
+  CommandParser(Readable source, Runnable beforeRead, String... commands) {
+    this.source = source;
+    this.beforeRead = beforeRead;
+    this.commands = commands.clone();
+    this.number = new byte[64];
+    this.buffer = CharBuffer.allocate(BUFFER_SIZE);
+    this.buffer.flip();
+    this.exhausted = false;
+  }
+
+  /**
+   * Reads the name of the next command and forgets the state of the previous command.
+   *
+   * @return the name of the command, which is one of the known command names whenever it
+   *         matches one, or null if the input is exhausted
+   * @throws IllegalStateException if the source cannot be read
+   */
+  String nextCommand() throws IllegalStateException {
+    truncated = false;
+    error = null;
+    if (!advance()) {
+      return null;
+    }
+    char[] chars = buffer.array();
+    int length = end - start;
+    for (String command : commands) {
+      if (command.length() == length) {
+        int i = 0;
+        while ((i < length) && (command.charAt(i) == chars[start + i])) {
+          i++;
+        }
+        if (i == length) {
+          return command;
+        }
+      }
+    }
+    return new String(chars, start, length);
+  }
+
+  /**
+   * Reads a row given as letters, where A is row 0, Z is row 25, AA is row 26 and so on,
+   * ignoring case.
+   *
+   * @return the row, or 0 if the token is missing or is not made of letters
+   * @throws IllegalStateException if the source cannot be read
+   */
+  int nextRow() throws IllegalStateException {
+    if (!argument()) {
+      return 0;
+    }
+    char[] chars = buffer.array();
+    int row = 0;
+    for (int i = start; i < end; i++) {
+      char c = chars[i];
+      int letter = (c | 0x20) - 'a';
+      if ((letter < 0) || (letter >= 26)) {
+        if (!Character.isAlphabetic(c)) {
+          fail(new IllegalArgumentException("Invalid row"));
+          return 0;
+        }
+        letter = Character.toLowerCase(c) - 'a';
+      }
+      row = 26 * row + letter + 1;
+    }
+    return row - 1;
+  }
+
+  /**
+   * Reads a decimal integer, which is accepted exactly when
+   * {@link Integer#parseInt(String)} accepts it.
+   *
+   * @return the integer, or 0 if the token is missing or is not an integer
+   * @throws IllegalStateException if the source cannot be read
+   */
+  int nextInt() throws IllegalStateException {
+    if (!argument()) {
+      return 0;
+    }
+    char[] chars = buffer.array();
+    int i = start;
+    boolean negative = (chars[i] == '-');
+    if (negative || (chars[i] == '+')) {
+      i++;
+    }
+    if ((i < end) && (end - i <= MAX_INT_DIGITS)) {
+      int value = 0;
+      while ((i < end) && (chars[i] >= '0') && (chars[i] <= '9')) {
+        value = value * 10 + (chars[i++] - '0');
+      }
+      if (i == end) {
+        return negative ? -value : value;
+      }
+    }
+    // long numbers, non-ASCII digits and errors, with the messages of parseInt
+    try {
+      return Integer.parseInt(new String(chars, start, end - start));
+    } catch (NumberFormatException e) {
+      fail(e);
+      return 0;
+    }
+  }
+
+  /**
+   * Reads a number, which is accepted exactly when {@link Double#parseDouble(String)}
+   * accepts it.
+   *
+   * @return the number, or 0 if the token is missing or is not a number
+   * @throws IllegalStateException if the source cannot be read
+   */
+  double nextDouble() throws IllegalStateException {
+    if (!argument()) {
+      return 0;
+    }
+    char[] chars = buffer.array();
+    int length = end - start;
+    try {
+      if (length <= number.length) {
+        int i = 0;
+        while ((i < length) && (chars[start + i] < 0x80)) {
+          number[i] = (byte) chars[start + i];
+          i++;
+        }
+        if (i == length) {
+          return DecimalParser.parse(number, 0, length);
+        }
+      }
+      return Double.parseDouble(new String(chars, start, length));
+    } catch (NumberFormatException e) {
+      fail(e);
+      return 0;
+    }
+  }
+
+  /**
+   * Reads a token as it is, such as a file path or a formula.
+   *
+   * @return the token, or null if it is missing
+   * @throws IllegalStateException if the source cannot be read
+   */
+  String nextString() throws IllegalStateException {
+    if (!argument()) {
+      return null;
+    }
+    return new String(buffer.array(), start, end - start);
+  }
+
+  /**
+   * Returns whether the input held every argument read since the last command name. When
+   * it did not, the input ended in the middle of the command.
+   *
+   * @return true if no argument was missing
+   */
+  boolean complete() {
+    return !truncated;
+  }
+
+  /**
+   * Throws the first error found in the arguments read since the last command name.
+   *
+   * @throws IllegalArgumentException if an argument could not be decoded
+   */
+  void check() throws IllegalArgumentException {
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  private boolean argument() throws IllegalStateException {
+    if (truncated) {
+      return false;
+    }
+    if (!advance()) {
+      truncated = true;
+      return false;
+    }
+    return true;
+  }
+
+  private void fail(IllegalArgumentException e) {
+    if (error == null) {
+      error = e;
+    }
+  }
+
+  /**
+   * Marks the next token in the buffer, reading more input as needed. A token that runs
+   * past the end of the buffer is moved to the front before more input is read, and the
+   * buffer grows if the token fills all of it.
+   *
+   * @return false if the input is exhausted before the next token
+   */
+  private boolean advance() throws IllegalStateException {
+    char[] chars = buffer.array();
+    int i = buffer.position();
+    int limit = buffer.limit();
+    while (true) {
+      while ((i < limit) && isWhitespace(chars[i])) {
+        i++;
+      }
+      if (i < limit) {
+        break;
+      }
+      buffer.position(i);
+      if (!fill(i)) {
+        return false;
+      }
+      chars = buffer.array();
+      i = buffer.position();
+      limit = buffer.limit();
+    }
+    start = i;
+    while (true) {
+      while ((i < limit) && !isWhitespace(chars[i])) {
+        i++;
+      }
+      buffer.position(i);
+      if ((i < limit) || !fill(start)) {
+        end = buffer.position();
+        return true;
+      }
+      chars = buffer.array();
+      i = buffer.position();
+      limit = buffer.limit();
+    }
+  }
+
+  /**
+   * Returns whether the character is whitespace in the sense of
+   * {@link Character#isWhitespace(char)}, without a table lookup for printable ASCII.
+   */
+  private static boolean isWhitespace(char c) {
+    return ((c <= ' ') || (c >= 0x80)) && Character.isWhitespace(c);
+  }
+
+  /**
+   * Reads more input into the buffer, keeping the characters from the specified index to
+   * the limit, which end up at the front of the buffer. The position is left just after
+   * the kept characters, and start is moved along with them.
+   *
+   * @return false if no more input could be read
+   */
+  private boolean fill(int keep) throws IllegalStateException {
+    if (exhausted) {
+      return false;
+    }
+    int kept = buffer.limit() - keep;
+    if (kept == buffer.capacity()) {
+      CharBuffer larger = CharBuffer.allocate(2 * buffer.capacity());
+      System.arraycopy(buffer.array(), keep, larger.array(), 0, kept);
+      buffer = larger;
+    } else {
+      System.arraycopy(buffer.array(), keep, buffer.array(), 0, kept);
+    }
+    start -= keep;
+    buffer.limit(buffer.capacity());
+    buffer.position(kept);
+    beforeRead.run();
+    int count = 0;
+    try {
+      while (count == 0) {
+        count = source.read(buffer);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    if (count < 0) {
+      exhausted = true;
+    }
+    buffer.flip();
+    buffer.position(kept);
+    return count > 0;
+  }
+}
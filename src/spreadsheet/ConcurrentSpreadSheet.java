@@ -0,0 +1,468 @@
+package spreadsheet;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class represents a tiled spreadsheet that can be shared between threads. The
+ * grid is split into dense tiles of 64 by 64 cells, and the tiles are spread over a
+ * fixed number of stripes. Each stripe has its own tile index and its own read-write
+ * lock, so threads that work on different parts of the sheet rarely wait for each other
+ * and any number of readers can query a stripe at the same time.
+ *
+ * <p>Every stripe counts the cells of its own tiles per row and column (see
+ * {@link SheetBounds}) under its write lock and publishes its own width and height, so
+ * writers never contend on the bounds and clearing cells shrinks them exactly. The
+ * width and height of the sheet are the largest of those of its stripes.
+ * A single {@link #set(int, int, double)} or {@link #clear(int, int)} is atomic; a
+ * {@link #bulkSet}, {@link #clearRange} or region copy is atomic per tile but not as a
+ * whole, so a concurrent reader may see part of a region filled, cleared or copied.
+ * A bulk assignment over more cells than a configurable threshold fills its tiles in
+ * parallel on the common fork/join pool.
+ */
+public class ConcurrentSpreadSheet implements BetterSpreadSheet {
+  private final Stripe[] stripes;
+  private final long parallelThreshold;
+  private final int stripeMask;
+
+  private static final class Stripe {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TileIndex<DenseTile> tiles = new TileIndex<DenseTile>();
+    private final SheetBounds bounds = new SheetBounds();
+    // copies of the bounds, which readers see without taking the lock
+    private volatile int width;
+    private volatile int height;
+
+    /**
+     * Publishes the bounds after a change. Called with the write lock held.
+     */
+    private void publish() {
+      width = bounds.width();
+      height = bounds.height();
+    }
+  }
+
+  /**
+   * Constructs a new, empty ConcurrentSpreadSheet with a number of stripes suited to
+   * the number of available processors.
+   */
+  public ConcurrentSpreadSheet() {
+    this(4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructs a new, empty ConcurrentSpreadSheet with at least the given number of
+   * stripes. The number is rounded up to a power of two.
+   *
+   * @param stripes the minimum number of stripes
+   * @throws IllegalArgumentException if the number of stripes is not positive
+   */
+  public ConcurrentSpreadSheet(int stripes) throws IllegalArgumentException {
+    this(stripes, TiledSpreadSheet.DEFAULT_PARALLEL_THRESHOLD);
+  }
+
+  /**
+   * Constructs a new, empty ConcurrentSpreadSheet with at least the given number of
+   * stripes, which fills bulk assignments over more than the given number of cells in
+   * parallel.
+   *
+   * @param stripes           the minimum number of stripes
+   * @param parallelThreshold the number of cells above which bulk assignments are
+   *                          filled in parallel
+   * @throws IllegalArgumentException if the number of stripes or the threshold is not
+   *                                  positive
+   */
+  public ConcurrentSpreadSheet(int stripes, long parallelThreshold)
+          throws IllegalArgumentException {
+    if ((stripes <= 0) || (stripes > (1 << 16))) {
+      throw new IllegalArgumentException("Number of stripes must be between 1 and 65536");
+    }
+    if (parallelThreshold <= 0) {
+      throw new IllegalArgumentException("Parallel threshold must be positive");
+    }
+    this.parallelThreshold = parallelThreshold;
+    int count = Integer.highestOneBit(stripes);
+    if (count < stripes) {
+      count <<= 1;
+    }
+    this.stripes = new Stripe[count];
+    for (int i = 0; i < count; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    this.stripeMask = count - 1;
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    int tileRow = row >> DenseTile.SHIFT;
+    int tileCol = col >> DenseTile.SHIFT;
+    Stripe stripe = stripe(tileRow, tileCol);
+    stripe.lock.readLock().lock();
+    try {
+      DenseTile tile = stripe.tiles.get(tileRow, tileCol);
+      return (tile == null) ? 0.0 : tile.get(row & DenseTile.MASK, col & DenseTile.MASK);
+    } finally {
+      stripe.lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    int tileRow = row >> DenseTile.SHIFT;
+    int tileCol = col >> DenseTile.SHIFT;
+    Stripe stripe = stripe(tileRow, tileCol);
+    stripe.lock.writeLock().lock();
+    try {
+      if (tile(stripe, tileRow, tileCol).set(row & DenseTile.MASK, col & DenseTile.MASK,
+              value)) {
+        stripe.bounds.add(row, col);
+        stripe.publish();
+      }
+    } finally {
+      stripe.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The run is written tile by tile, taking the lock of each tile's stripe once,
+   * so it is atomic per tile but not as a whole.
+   */
+  @Override
+  public void setRow(int row, int startCol, double[] values, int offset, int length)
+          throws IllegalArgumentException {
+    if ((row < 0) || (startCol < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if ((values == null) || (offset < 0) || (length < 0) || (offset > values.length - length)
+            || ((long) startCol + length - 1 > Integer.MAX_VALUE)) {
+      throw new IllegalArgumentException("Run of values is out of range");
+    }
+    int col = startCol;
+    int end = offset + length;
+    for (int from = offset; from < end; ) {
+      int local = col & DenseTile.MASK;
+      int count = Math.min(end - from, DenseTile.SIZE - local);
+      int tileRow = row >> DenseTile.SHIFT;
+      int tileCol = col >> DenseTile.SHIFT;
+      Stripe stripe = stripe(tileRow, tileCol);
+      stripe.lock.writeLock().lock();
+      try {
+        long added = tile(stripe, tileRow, tileCol).setRow(row & DenseTile.MASK, local,
+                values, from, count);
+        if (added != 0) {
+          stripe.bounds.addRow(row, col - local, added);
+          stripe.publish();
+        }
+      } finally {
+        stripe.lock.writeLock().unlock();
+      }
+      col += count;
+      from += count;
+    }
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    int tileRow = row >> DenseTile.SHIFT;
+    int tileCol = col >> DenseTile.SHIFT;
+    Stripe stripe = stripe(tileRow, tileCol);
+    stripe.lock.readLock().lock();
+    try {
+      DenseTile tile = stripe.tiles.get(tileRow, tileCol);
+      return (tile == null) || !tile.isSet(row & DenseTile.MASK, col & DenseTile.MASK);
+    } finally {
+      stripe.lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    int tileRow = row >> DenseTile.SHIFT;
+    int tileCol = col >> DenseTile.SHIFT;
+    Stripe stripe = stripe(tileRow, tileCol);
+    stripe.lock.writeLock().lock();
+    try {
+      DenseTile tile = stripe.tiles.get(tileRow, tileCol);
+      if ((tile != null) && tile.clear(row & DenseTile.MASK, col & DenseTile.MASK)) {
+        stripe.bounds.remove(row, col);
+        stripe.publish();
+        if (tile.count() == 0) {
+          stripe.tiles.remove(tileRow, tileCol);
+        }
+      }
+    } finally {
+      stripe.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Each stripe is cleared under its write lock, walking either the tiles of the
+   * region or the tiles of the stripe, whichever are fewer.
+   */
+  @Override
+  public void clearRange(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    for (Stripe stripe : stripes) {
+      stripe.lock.writeLock().lock();
+      try {
+        TileRegion.forEachStoredTile(stripe.tiles, startRow, startCol, endRow, endCol,
+            (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+              DenseTile tile = stripe.tiles.get(tileRow, tileCol);
+              tile.clear(fromRow, fromCol, toRow, toCol, tileRow << DenseTile.SHIFT,
+                      tileCol << DenseTile.SHIFT, stripe.bounds);
+              if (tile.count() == 0) {
+                stripe.tiles.remove(tileRow, tileCol);
+              }
+            });
+        stripe.publish();
+      } finally {
+        stripe.lock.writeLock().unlock();
+      }
+    }
+  }
+
+  @Override
+  public int getWidth() {
+    int width = 0;
+    for (Stripe stripe : stripes) {
+      width = Math.max(width, stripe.width);
+    }
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    int height = 0;
+    for (Stripe stripe : stripes) {
+      height = Math.max(height, stripe.height);
+    }
+    return height;
+  }
+
+  @Override
+  public void bulkSet(int startRow, int startCol, int endRow, int endCol, double value)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    TileRegion.forEachTile(startRow, startCol, endRow, endCol, parallelThreshold,
+        (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+          Stripe stripe = stripe(tileRow, tileCol);
+          stripe.lock.writeLock().lock();
+          try {
+            DenseTile tile = tile(stripe, tileRow, tileCol);
+            tile.countFill(fromRow, fromCol, toRow, toCol, tileRow << DenseTile.SHIFT,
+                    tileCol << DenseTile.SHIFT, stripe.bounds);
+            tile.fill(fromRow, fromCol, toRow, toCol, value);
+            stripe.publish();
+          } finally {
+            stripe.lock.writeLock().unlock();
+          }
+        });
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The region is copied one destination tile at a time (see {@link TileBlock}): the
+   * source tiles are read under the read locks of their stripes, one at a time, and the
+   * destination tile is written under the write lock of its stripe. The copy is therefore
+   * atomic per destination tile but not as a whole.
+   */
+  @Override
+  public void copyRegion(int startRow, int startCol, int endRow, int endCol, int toRow,
+                         int toCol) throws IllegalArgumentException {
+    TileBlock.copy(this, startRow, startCol, endRow, endCol, toRow, toCol, this::readBlock,
+            this::writeBlock);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The values of each tile are computed into a block and written into the tile under
+   * the write lock of its stripe, so the fill is atomic per tile but not as a whole.
+   */
+  @Override
+  public void fillSeries(int startRow, int startCol, int endRow, int endCol, double start,
+                         double step) throws IllegalArgumentException {
+    TileBlock.fillSeries(startRow, startCol, endRow, endCol, start, step, this::writeBlock);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Every tile the region overlaps copies its part of the region under the read lock
+   * of its stripe, so each tile is seen in a consistent state, but different tiles may
+   * be seen at different times.
+   */
+  @Override
+  public ColumnarRegion readColumns(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    ColumnarRegion columns = ColumnarRegion.allocate(this, startRow, startCol, endRow,
+            endCol);
+    if ((columns.getRowCount() == 0) || (columns.getColumnCount() == 0)) {
+      return columns;
+    }
+    TileRegion.forEachTile(startRow, startCol, startRow + columns.getRowCount() - 1,
+            startCol + columns.getColumnCount() - 1,
+        (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+          Stripe stripe = stripe(tileRow, tileCol);
+          stripe.lock.readLock().lock();
+          try {
+            DenseTile tile = stripe.tiles.get(tileRow, tileCol);
+            if (tile != null) {
+              tile.copyTo(fromRow, fromCol, toRow, toCol, tileRow << DenseTile.SHIFT,
+                      tileCol << DenseTile.SHIFT, columns);
+            }
+          } finally {
+            stripe.lock.readLock().unlock();
+          }
+        });
+    return columns;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Each stripe is visited under its read lock, so the visitor sees every tile of a
+   * stripe in a consistent state, but the cells of different stripes may be seen at
+   * different times. The visitor must not write to this spreadsheet.
+   */
+  @Override
+  public void forEachCell(CellVisitor visitor) {
+    for (Stripe stripe : stripes) {
+      stripe.lock.readLock().lock();
+      try {
+        for (int slot = 0; slot < stripe.tiles.slotCount(); slot++) {
+          long key = stripe.tiles.keyAt(slot);
+          if (key >= 0) {
+            stripe.tiles.tileAt(slot).forEachCell(CellMap.row(key) << DenseTile.SHIFT,
+                    CellMap.col(key) << DenseTile.SHIFT, visitor);
+          }
+        }
+      } finally {
+        stripe.lock.readLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Every tile keeps a summary of its own cells, so a tile the region covers
+   * completely is answered from its summary and only the tiles on the edges of the region
+   * are scanned. Reading a summary may rebuild it, so each tile is read under the write
+   * lock of its stripe; the result is consistent per tile but not for the region as a
+   * whole.
+   */
+  @Override
+  public RegionSummary summarize(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    CellSummary summary = new CellSummary();
+    int lastRow = Math.min(endRow, getHeight() - 1);
+    int lastCol = Math.min(endCol, getWidth() - 1);
+    if ((startRow > lastRow) || (startCol > lastCol)) {
+      return summary.toRegionSummary();
+    }
+    TileRegion.forEachTile(startRow, startCol, lastRow, lastCol,
+        (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+          Stripe stripe = stripe(tileRow, tileCol);
+          stripe.lock.writeLock().lock();
+          try {
+            DenseTile tile = stripe.tiles.get(tileRow, tileCol);
+            if (tile != null) {
+              tile.summarize(fromRow, fromCol, toRow, toCol, summary);
+            }
+          } finally {
+            stripe.lock.writeLock().unlock();
+          }
+        });
+    return summary.toRegionSummary();
+  }
+
+  private void readBlock(int tileRow, int tileCol, TileBlock block) {
+    Stripe stripe = stripe(tileRow, tileCol);
+    stripe.lock.readLock().lock();
+    try {
+      DenseTile tile = stripe.tiles.get(tileRow, tileCol);
+      if (tile != null) {
+        block.readFrom(tile);
+      }
+    } finally {
+      stripe.lock.readLock().unlock();
+    }
+  }
+
+  private void writeBlock(int tileRow, int tileCol, TileBlock block) {
+    Stripe stripe = stripe(tileRow, tileCol);
+    stripe.lock.writeLock().lock();
+    try {
+      DenseTile tile = stripe.tiles.get(tileRow, tileCol);
+      if ((tile == null) && block.isEmpty()) {
+        return;
+      }
+      tile = tile(stripe, tileRow, tileCol);
+      block.writeTo(tile, stripe.bounds);
+      if (tile.count() == 0) {
+        stripe.tiles.remove(tileRow, tileCol);
+      }
+      stripe.publish();
+    } finally {
+      stripe.lock.writeLock().unlock();
+    }
+  }
+
+  private Stripe stripe(int tileRow, int tileCol) {
+    int h = tileRow * 0x9E3779B1 + tileCol;
+    return stripes[(h ^ (h >>> 16)) & stripeMask];
+  }
+
+  private static DenseTile tile(Stripe stripe, int tileRow, int tileCol) {
+    DenseTile tile = stripe.tiles.get(tileRow, tileCol);
+    if (tile == null) {
+      tile = new DenseTile();
+      stripe.tiles.put(tileRow, tileCol, tile);
+    }
+    return tile;
+  }
+}
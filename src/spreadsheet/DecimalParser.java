@@ -0,0 +1,113 @@
+package spreadsheet;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class parses decimal numbers straight out of a byte array, without creating a
+ * String. A number with at most 18 significant digits and a decimal exponent of at most
+ * 22 in magnitude, which covers nearly every number found in data files, is computed
+ * with a single multiplication or division of two exactly representable doubles, so the
+ * result is correctly rounded. Any other text, such as a longer number, NaN or Infinity,
+ * is handed to {@link Double#parseDouble(String)}, so the accepted syntax and the
+ * results are exactly those of that method.
+ */
+final class DecimalParser {
+  private static final int MAX_DIGITS = 18;
+  private static final long MAX_EXACT = 1L << 53;
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15,
+    1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private DecimalParser() {
+    // static methods only
+  }
+
+  /**
+   * Parses the number in the given range of bytes, which must not contain surrounding
+   * whitespace.
+   *
+   * @param bytes the bytes that hold the number, in ASCII
+   * @param from  the index of the first byte of the number
+   * @param to    the index after the last byte of the number
+   * @return the value of the number
+   * @throws NumberFormatException if the bytes do not hold a number
+   */
+  static double parse(byte[] bytes, int from, int to) throws NumberFormatException {
+    int i = from;
+    boolean negative = false;
+    if ((i < to) && ((bytes[i] == '-') || (bytes[i] == '+'))) {
+      negative = bytes[i] == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean any = false;
+    boolean exact = true;
+    while ((i < to) && (bytes[i] >= '0') && (bytes[i] <= '9')) {
+      int digit = bytes[i++] - '0';
+      any = true;
+      if (digits < MAX_DIGITS) {
+        mantissa = mantissa * 10 + digit;
+        if (mantissa != 0) {
+          digits++;
+        }
+      } else {
+        exponent++;
+        exact &= (digit == 0);
+      }
+    }
+    if ((i < to) && (bytes[i] == '.')) {
+      i++;
+      while ((i < to) && (bytes[i] >= '0') && (bytes[i] <= '9')) {
+        int digit = bytes[i++] - '0';
+        any = true;
+        if (digits < MAX_DIGITS) {
+          mantissa = mantissa * 10 + digit;
+          if (mantissa != 0) {
+            digits++;
+          }
+          exponent--;
+        } else {
+          exact &= (digit == 0);
+        }
+      }
+    }
+    if (any && (i < to) && ((bytes[i] == 'e') || (bytes[i] == 'E'))) {
+      i++;
+      boolean negativeExponent = false;
+      if ((i < to) && ((bytes[i] == '-') || (bytes[i] == '+'))) {
+        negativeExponent = bytes[i] == '-';
+        i++;
+      }
+      if ((i == to) || (bytes[i] < '0') || (bytes[i] > '9')) {
+        return slow(bytes, from, to);
+      }
+      int written = 0;
+      while ((i < to) && (bytes[i] >= '0') && (bytes[i] <= '9')) {
+        // larger exponents are left to the slow path anyway
+        written = Math.min(written * 10 + (bytes[i++] - '0'), 100000);
+      }
+      exponent += negativeExponent ? -written : written;
+    }
+    if (!any || (i != to) || !exact || (mantissa >= MAX_EXACT)
+            || (exponent < -22) || (exponent > 22)) {
+      return slow(bytes, from, to);
+    }
+    double value = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent]
+            : mantissa / POWERS_OF_TEN[-exponent];
+    return negative ? -value : value;
+  }
+
+  /**
+   * Returns 10 raised to the given power, exactly, for a power between 0 and 22.
+   */
+  static double powerOfTen(int exponent) {
+    return POWERS_OF_TEN[exponent];
+  }
+
+  private static double slow(byte[] bytes, int from, int to) throws NumberFormatException {
+    return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+  }
+}
@@ -0,0 +1,274 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a square block of cells stored densely. The values are kept in
+ * a row-major primitive array and a bitset records which cells are non-empty, so a fully
+ * populated tile costs a little over 8 bytes per cell.
+ *
+ * <p>All row and column arguments are local to the tile, between 0 and {@link #SIZE} - 1.
+ */
+final class DenseTile implements Tile {
+  static final int SHIFT = 6;
+  static final int SIZE = 1 << SHIFT;
+  static final int MASK = SIZE - 1;
+  static final int CELLS = SIZE * SIZE;
+
+  private final double[] values;
+  // one word per tile row; bit c is set when column c of that row is non-empty
+  private final long[] occupied;
+  private int count;
+  // the summary of the whole tile, valid while summarized is true
+  private final CellSummary cached;
+  private boolean summarized;
+
+  /**
+   * Constructs an empty tile.
+   */
+  DenseTile() {
+    this.values = new double[CELLS];
+    this.occupied = new long[SIZE];
+    this.count = 0;
+    this.cached = new CellSummary();
+    this.summarized = true;
+  }
+
+  @Override
+  public double get(int row, int col) {
+    return values[(row << SHIFT) | col];
+  }
+
+  @Override
+  public boolean isSet(int row, int col) {
+    return (occupied[row] & (1L << col)) != 0;
+  }
+
+  @Override
+  public boolean set(int row, int col, double value) {
+    values[(row << SHIFT) | col] = value;
+    long bit = 1L << col;
+    if ((occupied[row] & bit) != 0) {
+      // the old value may have been the minimum or maximum
+      summarized = false;
+      return false;
+    }
+    occupied[row] |= bit;
+    count++;
+    if (summarized) {
+      cached.add(value);
+    }
+    return true;
+  }
+
+  @Override
+  public long setRow(int row, int startCol, double[] source, int offset, int length) {
+    System.arraycopy(source, offset, values, (row << SHIFT) | startCol, length);
+    long bits = rangeMask(startCol, startCol + length - 1);
+    long added = bits & ~occupied[row];
+    occupied[row] |= bits;
+    count += Long.bitCount(added);
+    if (added != bits) {
+      summarized = false;
+    } else if (summarized) {
+      for (int i = offset; i < offset + length; i++) {
+        cached.add(source[i]);
+      }
+    }
+    return added;
+  }
+
+  @Override
+  public long getRow(int row, int startCol, double[] target, int offset, int length) {
+    // empty cells always hold 0, so the values can be copied as they are
+    System.arraycopy(values, (row << SHIFT) | startCol, target, offset, length);
+    return occupied[row] & rangeMask(startCol, startCol + length - 1);
+  }
+
+  @Override
+  public long copyRow(int row, int startCol, double[] source, int offset, int length,
+                      long present) {
+    int base = row << SHIFT;
+    System.arraycopy(source, offset, values, base | startCol, length);
+    long bits = rangeMask(startCol, startCol + length - 1);
+    long kept = present & bits;
+    for (long gaps = bits & ~kept; gaps != 0; gaps &= gaps - 1) {
+      values[base | Long.numberOfTrailingZeros(gaps)] = 0.0;
+    }
+    long before = occupied[row] & bits;
+    occupied[row] = (occupied[row] & ~bits) | kept;
+    count += Long.bitCount(kept) - Long.bitCount(before);
+    if (before != 0) {
+      cleared();
+    } else if (summarized) {
+      for (long rest = kept; rest != 0; rest &= rest - 1) {
+        cached.add(values[base | Long.numberOfTrailingZeros(rest)]);
+      }
+    }
+    return before;
+  }
+
+  @Override
+  public void fill(int startRow, int startCol, int endRow, int endCol, double value) {
+    long bits = rangeMask(startCol, endCol);
+    long overwritten = 0;
+    for (int row = startRow; row <= endRow; row++) {
+      int base = row << SHIFT;
+      Arrays.fill(values, base + startCol, base + endCol + 1, value);
+      overwritten |= bits & occupied[row];
+      count += Long.bitCount(bits & ~occupied[row]);
+      occupied[row] |= bits;
+    }
+    if ((startRow == 0) && (startCol == 0) && (endRow == MASK) && (endCol == MASK)) {
+      // every cell now holds the same value
+      cached.clear();
+      cached.add(value, CELLS);
+      summarized = true;
+    } else if (overwritten != 0) {
+      summarized = false;
+    } else if (summarized) {
+      cached.add(value, (long) (endRow - startRow + 1) * (endCol - startCol + 1));
+    }
+  }
+
+  @Override
+  public void countFill(int startRow, int startCol, int endRow, int endCol, int top,
+                        int left, SheetBounds bounds) {
+    long bits = rangeMask(startCol, endCol);
+    long[] added = new long[SIZE];
+    for (int row = startRow; row <= endRow; row++) {
+      added[row] = bits & ~occupied[row];
+    }
+    bounds.addTile(top, left, added, startRow, endRow, 1);
+  }
+
+  @Override
+  public boolean clear(int row, int col) {
+    long bit = 1L << col;
+    if ((occupied[row] & bit) == 0) {
+      return false;
+    }
+    occupied[row] &= ~bit;
+    // an empty cell reads as 0
+    values[(row << SHIFT) | col] = 0.0;
+    count--;
+    cleared();
+    return true;
+  }
+
+  @Override
+  public void clear(int startRow, int startCol, int endRow, int endCol, int top, int left,
+                    SheetBounds bounds) {
+    long bits = rangeMask(startCol, endCol);
+    long[] removed = new long[SIZE];
+    boolean any = false;
+    for (int row = startRow; row <= endRow; row++) {
+      removed[row] = bits & occupied[row];
+      if (removed[row] != 0) {
+        int base = row << SHIFT;
+        Arrays.fill(values, base + startCol, base + endCol + 1, 0.0);
+        occupied[row] &= ~bits;
+        count -= Long.bitCount(removed[row]);
+        any = true;
+      }
+    }
+    if (any) {
+      bounds.addTile(top, left, removed, startRow, endRow, -1);
+      cleared();
+    }
+  }
+
+  @Override
+  public void copyTo(int startRow, int startCol, int endRow, int endCol, int top, int left,
+                     ColumnarRegion columns) {
+    // column by column, so the region's arrays are written in order, gathering the
+    // occupancy bits of each column into one word for its validity bitmap
+    int offset = top - columns.getStartRow();
+    for (int col = startCol; col <= endCol; col++) {
+      double[] column = columns.column(left + col);
+      long present = 0;
+      for (int row = startRow; row <= endRow; row++) {
+        if (((occupied[row] >>> col) & 1) != 0) {
+          column[offset + row] = values[(row << SHIFT) | col];
+          present |= 1L << row;
+        }
+      }
+      columns.markRows(left + col, top, present);
+    }
+  }
+
+  @Override
+  public int count() {
+    return count;
+  }
+
+  @Override
+  public void summarize(int startRow, int startCol, int endRow, int endCol,
+                        CellSummary summary) {
+    if ((startRow == 0) && (startCol == 0) && (endRow == MASK) && (endCol == MASK)) {
+      if (!summarized) {
+        cached.clear();
+        addCells(0, 0, MASK, MASK, cached);
+        summarized = true;
+      }
+      summary.add(cached);
+      return;
+    }
+    addCells(startRow, startCol, endRow, endCol, summary);
+  }
+
+  @Override
+  public void forEachCell(int top, int left, CellVisitor visitor) {
+    for (int row = 0; row < SIZE; row++) {
+      int base = row << SHIFT;
+      for (long bits = occupied[row]; bits != 0; bits &= bits - 1) {
+        int col = Long.numberOfTrailingZeros(bits);
+        visitor.visit(top + row, left + col, values[base | col]);
+      }
+    }
+  }
+
+  private void addCells(int startRow, int startCol, int endRow, int endCol,
+                        CellSummary summary) {
+    long mask = rangeMask(startCol, endCol);
+    for (int row = startRow; row <= endRow; row++) {
+      int base = row << SHIFT;
+      for (long bits = occupied[row] & mask; bits != 0; bits &= bits - 1) {
+        summary.add(values[base | Long.numberOfTrailingZeros(bits)]);
+      }
+    }
+  }
+
+  /**
+   * Drops the cached summary after cells were cleared, since one of them may have been
+   * the minimum or maximum. An empty tile has an empty summary.
+   */
+  private void cleared() {
+    if (count == 0) {
+      cached.clear();
+      summarized = true;
+    } else {
+      summarized = false;
+    }
+  }
+
+  /**
+   * Returns a sparse copy of this tile.
+   */
+  SparseTile toSparse() {
+    SparseTile sparse = new SparseTile();
+    forEachCell(0, 0, sparse::set);
+    return sparse;
+  }
+
+  /**
+   * Returns the occupancy word of the given tile row.
+   */
+  long occupancy(int row) {
+    return occupied[row];
+  }
+
+  static long rangeMask(int startCol, int endCol) {
+    return (-1L >>> (MASK - endCol + startCol)) << startCol;
+  }
+}
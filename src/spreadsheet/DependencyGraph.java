@@ -0,0 +1,282 @@
+package spreadsheet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class records which formula cells read which cells, so that the formulas that
+ * depend on a changed cell can be found without looking at the rest of the sheet.
+ *
+ * <p>A reference to a single cell is indexed by that cell. A reference to a range is
+ * indexed by every 64 by 64 tile the range overlaps, so finding the ranges that contain
+ * a cell only looks at the ranges near it; the few ranges that overlap a very large
+ * number of tiles are kept in a separate list instead. Iteration follows insertion
+ * order, so the order of recalculation is deterministic.
+ */
+final class DependencyGraph {
+  private static final int WIDE_RANGE_TILES = 1024;
+
+  private final Map<Long, Set<FormulaCell>> cellReaders;
+  private final Map<Long, Set<RangeEdge>> tileReaders;
+  private final Set<RangeEdge> wideRanges;
+  private int epoch;
+
+  /**
+   * A range read by a formula cell.
+   */
+  static final class RangeEdge {
+    final int startRow;
+    final int startCol;
+    final int endRow;
+    final int endCol;
+    final FormulaCell reader;
+
+    RangeEdge(int startRow, int startCol, int endRow, int endCol, FormulaCell reader) {
+      this.startRow = startRow;
+      this.startCol = startCol;
+      this.endRow = endRow;
+      this.endCol = endCol;
+      this.reader = reader;
+    }
+
+    boolean intersects(int fromRow, int fromCol, int toRow, int toCol) {
+      return (startRow <= toRow) && (fromRow <= endRow) && (startCol <= toCol)
+              && (fromCol <= endCol);
+    }
+  }
+
+  /**
+   * Constructs an empty dependency graph.
+   */
+  DependencyGraph() {
+    this.cellReaders = new HashMap<Long, Set<FormulaCell>>();
+    this.tileReaders = new HashMap<Long, Set<RangeEdge>>();
+    this.wideRanges = new LinkedHashSet<RangeEdge>();
+    this.epoch = 0;
+  }
+
+  /**
+   * Records every cell the formula reads.
+   *
+   * @param formula the formula cell to add
+   */
+  void add(FormulaCell formula) {
+    formula.expression.references((startRow, startCol, endRow, endCol) -> {
+      if ((startRow == endRow) && (startCol == endCol)) {
+        cellReaders.computeIfAbsent(CellMap.key(startRow, startCol),
+            k -> new LinkedHashSet<FormulaCell>()).add(formula);
+        return;
+      }
+      RangeEdge edge = new RangeEdge(startRow, startCol, endRow, endCol, formula);
+      formula.ranges.add(edge);
+      if (tiles(startRow, startCol, endRow, endCol) > WIDE_RANGE_TILES) {
+        wideRanges.add(edge);
+        return;
+      }
+      forEachTileKey(startRow, startCol, endRow, endCol, key ->
+              tileReaders.computeIfAbsent(key, k -> new LinkedHashSet<RangeEdge>()).add(edge));
+    });
+  }
+
+  /**
+   * Forgets every cell the formula reads.
+   *
+   * @param formula the formula cell to remove
+   */
+  void remove(FormulaCell formula) {
+    formula.expression.references((startRow, startCol, endRow, endCol) -> {
+      if ((startRow == endRow) && (startCol == endCol)) {
+        long key = CellMap.key(startRow, startCol);
+        Set<FormulaCell> readers = cellReaders.get(key);
+        if ((readers != null) && readers.remove(formula) && readers.isEmpty()) {
+          cellReaders.remove(key);
+        }
+      }
+    });
+    for (RangeEdge edge : formula.ranges) {
+      if (!wideRanges.remove(edge)) {
+        forEachTileKey(edge.startRow, edge.startCol, edge.endRow, edge.endCol, key -> {
+          Set<RangeEdge> readers = tileReaders.get(key);
+          if ((readers != null) && readers.remove(edge) && readers.isEmpty()) {
+            tileReaders.remove(key);
+          }
+        });
+      }
+    }
+    formula.ranges.clear();
+  }
+
+  /**
+   * Adds the formula cells that read the given cell directly to the list.
+   *
+   * @param row     the row of the cell
+   * @param col     the column of the cell
+   * @param readers the list to add the formula cells to
+   */
+  void readersOf(int row, int col, List<FormulaCell> readers) {
+    Set<FormulaCell> direct = cellReaders.get(CellMap.key(row, col));
+    if (direct != null) {
+      readers.addAll(direct);
+    }
+    Set<RangeEdge> near = tileReaders.get(CellMap.key(row >> DenseTile.SHIFT,
+            col >> DenseTile.SHIFT));
+    if (near != null) {
+      addIntersecting(near, row, col, row, col, readers);
+    }
+    addIntersecting(wideRanges, row, col, row, col, readers);
+  }
+
+  /**
+   * Adds the formula cells that read any cell of the given region directly to the list.
+   * A formula cell may be added more than once.
+   *
+   * @param startRow the first row of the region
+   * @param startCol the first column of the region
+   * @param endRow   the last row of the region
+   * @param endCol   the last column of the region
+   * @param readers  the list to add the formula cells to
+   */
+  void readersOf(int startRow, int startCol, int endRow, int endCol,
+                 List<FormulaCell> readers) {
+    // walk whichever is smaller: the region or the index
+    long cells = ((long) endRow - startRow + 1) * ((long) endCol - startCol + 1);
+    if (cells <= cellReaders.size()) {
+      for (int row = startRow; row <= endRow; row++) {
+        for (int col = startCol; col <= endCol; col++) {
+          Set<FormulaCell> direct = cellReaders.get(CellMap.key(row, col));
+          if (direct != null) {
+            readers.addAll(direct);
+          }
+        }
+      }
+    } else {
+      for (Map.Entry<Long, Set<FormulaCell>> entry : cellReaders.entrySet()) {
+        int row = CellMap.row(entry.getKey());
+        int col = CellMap.col(entry.getKey());
+        if ((row >= startRow) && (row <= endRow) && (col >= startCol) && (col <= endCol)) {
+          readers.addAll(entry.getValue());
+        }
+      }
+    }
+    if (tiles(startRow, startCol, endRow, endCol) <= tileReaders.size()) {
+      forEachTileKey(startRow, startCol, endRow, endCol, key -> {
+        Set<RangeEdge> near = tileReaders.get(key);
+        if (near != null) {
+          addIntersecting(near, startRow, startCol, endRow, endCol, readers);
+        }
+      });
+    } else {
+      for (Set<RangeEdge> near : tileReaders.values()) {
+        addIntersecting(near, startRow, startCol, endRow, endCol, readers);
+      }
+    }
+    addIntersecting(wideRanges, startRow, startCol, endRow, endCol, readers);
+  }
+
+  /**
+   * Returns the given formula cells and every formula cell that depends on them,
+   * directly or indirectly, in an order in which each cell comes after all the cells it
+   * reads. The cost is proportional to the number of cells returned and the references
+   * between them. The walk also sets the height of every returned cell: the number of
+   * cells on the longest chain of returned cells that depend on it, so a cell always has
+   * a greater height than the cells that read it.
+   *
+   * @param roots the formula cells to start from
+   * @return the cells to recalculate, in topological order
+   * @throws IllegalArgumentException if the cells depend on each other in a cycle
+   */
+  List<FormulaCell> order(List<FormulaCell> roots) throws IllegalArgumentException {
+    if (roots.isEmpty()) {
+      return Collections.emptyList();
+    }
+    int mark = ++epoch;
+    List<FormulaCell> finished = new ArrayList<FormulaCell>();
+    ArrayDeque<FormulaCell> stack = new ArrayDeque<FormulaCell>();
+    for (FormulaCell root : roots) {
+      if (root.visited == mark) {
+        continue;
+      }
+      enter(root, mark, stack);
+      while (!stack.isEmpty()) {
+        FormulaCell top = stack.peek();
+        if (top.next < top.successors.size()) {
+          FormulaCell successor = top.successors.get(top.next++);
+          if (successor.onStack) {
+            abandon(stack);
+            throw new IllegalArgumentException("Circular reference at cell ("
+                    + successor.row + "," + successor.col + ")");
+          }
+          if (successor.visited != mark) {
+            enter(successor, mark, stack);
+          }
+        } else {
+          stack.pop();
+          // every successor has finished, so the heights below this cell are known
+          int height = 0;
+          for (FormulaCell successor : top.successors) {
+            height = Math.max(height, successor.height + 1);
+          }
+          top.height = height;
+          top.onStack = false;
+          top.successors = null;
+          finished.add(top);
+        }
+      }
+    }
+    // a cell finishes after everything that depends on it
+    Collections.reverse(finished);
+    return finished;
+  }
+
+  private void enter(FormulaCell cell, int mark, ArrayDeque<FormulaCell> stack) {
+    cell.visited = mark;
+    cell.onStack = true;
+    cell.successors = new ArrayList<FormulaCell>();
+    cell.next = 0;
+    readersOf(cell.row, cell.col, cell.successors);
+    stack.push(cell);
+  }
+
+  private static void abandon(ArrayDeque<FormulaCell> stack) {
+    for (FormulaCell cell : stack) {
+      cell.onStack = false;
+      cell.successors = null;
+    }
+    stack.clear();
+  }
+
+  private static void addIntersecting(Set<RangeEdge> edges, int startRow, int startCol,
+                                      int endRow, int endCol, List<FormulaCell> readers) {
+    for (RangeEdge edge : edges) {
+      if (edge.intersects(startRow, startCol, endRow, endCol)) {
+        readers.add(edge.reader);
+      }
+    }
+  }
+
+  private static long tiles(int startRow, int startCol, int endRow, int endCol) {
+    return ((long) (endRow >> DenseTile.SHIFT) - (startRow >> DenseTile.SHIFT) + 1)
+            * ((long) (endCol >> DenseTile.SHIFT) - (startCol >> DenseTile.SHIFT) + 1);
+  }
+
+  private interface TileKeyAction {
+    void apply(long key);
+  }
+
+  private static void forEachTileKey(int startRow, int startCol, int endRow, int endCol,
+                                     TileKeyAction action) {
+    for (int tileRow = startRow >> DenseTile.SHIFT; tileRow <= endRow >> DenseTile.SHIFT;
+         tileRow++) {
+      for (int tileCol = startCol >> DenseTile.SHIFT; tileCol <= endCol >> DenseTile.SHIFT;
+           tileCol++) {
+        action.apply(CellMap.key(tileRow, tileCol));
+      }
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package spreadsheet;
+
+/**
+ * This interface represents a parsed formula expression. An expression computes a number
+ * from constants and the values of other cells, and can list the cells it reads so that
+ * the cells depending on a given cell can be found.
+ */
+interface Expression {
+
+  /**
+   * A visitor for the cells an expression reads.
+   */
+  interface ReferenceVisitor {
+    /**
+     * Visits a rectangular range of cells read by an expression. A single cell is a
+     * range whose start and end coincide.
+     *
+     * @param startRow the first row of the range
+     * @param startCol the first column of the range
+     * @param endRow   the last row of the range
+     * @param endCol   the last column of the range
+     */
+    void reference(int startRow, int startCol, int endRow, int endCol);
+  }
+
+  /**
+   * Computes the value of this expression from the cells of the given spreadsheet.
+   *
+   * @param sheet the spreadsheet to read cell values from
+   * @return the value of this expression
+   */
+  double evaluate(SpreadSheet sheet);
+
+  /**
+   * Passes every cell or range of cells this expression reads to the visitor.
+   *
+   * @param visitor the visitor to pass the references to
+   */
+  void references(ReferenceVisitor visitor);
+}
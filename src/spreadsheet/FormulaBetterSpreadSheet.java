@@ -0,0 +1,88 @@
+package spreadsheet;
+
+/**
+ * This class extends FormulaSpreadSheet to implement the BetterSpreadSheet interface. A
+ * bulk assignment is passed to the wrapped spreadsheet as a whole; it removes the
+ * formulas inside the region, and the formulas that read any cell of the region are
+ * recomputed once. Region copies, moves and series fills are handled the same way: a
+ * copy carries the current values of formula cells, not their formulas, and a move
+ * removes the formulas of the source as well as those of the destination.
+ *
+ * <p>When the wrapped spreadsheet can be shared between threads, a change that affects
+ * many formulas can be recomputed in parallel: the affected formulas are grouped into
+ * levels that do not read each other, and each level is evaluated on the common
+ * fork/join pool. The results are the same as those of a sequential recalculation.
+ */
+public class FormulaBetterSpreadSheet extends FormulaSpreadSheet implements BetterSpreadSheet {
+  /**
+   * The default number of affected formulas above which a change is recomputed in
+   * parallel.
+   */
+  public static final long DEFAULT_PARALLEL_THRESHOLD = 4096;
+
+  /**
+   * Constructs a FormulaBetterSpreadSheet that keeps its values in the specified
+   * spreadsheet.
+   *
+   * @param sheet the spreadsheet that holds the values
+   * @throws IllegalArgumentException if the spreadsheet is null
+   */
+  public FormulaBetterSpreadSheet(BetterSpreadSheet sheet) throws IllegalArgumentException {
+    super(sheet);
+  }
+
+  /**
+   * Constructs a FormulaBetterSpreadSheet that keeps its values in the specified
+   * spreadsheet and recomputes changes that affect more than the given number of
+   * formulas in parallel. The spreadsheet must allow several threads to read and write
+   * different cells at once, as a {@link ConcurrentSpreadSheet} does.
+   *
+   * @param sheet             the spreadsheet that holds the values
+   * @param parallelThreshold the number of affected formulas above which a change is
+   *                          recomputed in parallel
+   * @throws IllegalArgumentException if the spreadsheet is null or the threshold is not
+   *                                  positive
+   */
+  public FormulaBetterSpreadSheet(BetterSpreadSheet sheet, long parallelThreshold)
+          throws IllegalArgumentException {
+    super(sheet, parallelThreshold);
+  }
+
+  @Override
+  public void bulkSet(int startRow, int startCol, int endRow, int endCol, double value)
+          throws IllegalArgumentException {
+    ((BetterSpreadSheet) sheet()).bulkSet(startRow, startCol, endRow, endCol, value);
+    regionAssigned(startRow, startCol, endRow, endCol);
+  }
+
+  @Override
+  public void copyRegion(int startRow, int startCol, int endRow, int endCol, int toRow,
+                         int toCol) throws IllegalArgumentException {
+    ((BetterSpreadSheet) sheet()).copyRegion(startRow, startCol, endRow, endCol, toRow,
+            toCol);
+    regionAssigned(toRow, toCol, toRow + (endRow - startRow), toCol + (endCol - startCol));
+  }
+
+  @Override
+  public void moveRegion(int startRow, int startCol, int endRow, int endCol, int toRow,
+                         int toCol) throws IllegalArgumentException {
+    ((BetterSpreadSheet) sheet()).moveRegion(startRow, startCol, endRow, endCol, toRow,
+            toCol);
+    regionAssigned(startRow, startCol, endRow, endCol);
+    regionAssigned(toRow, toCol, toRow + (endRow - startRow), toCol + (endCol - startCol));
+  }
+
+  @Override
+  public void fillSeries(int startRow, int startCol, int endRow, int endCol, double start,
+                         double step) throws IllegalArgumentException {
+    ((BetterSpreadSheet) sheet()).fillSeries(startRow, startCol, endRow, endCol, start, step);
+    regionAssigned(startRow, startCol, endRow, endCol);
+  }
+
+  @Override
+  public RegionSummary summarize(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    // the wrapped spreadsheet holds the current value of every formula cell
+    return ((BetterSpreadSheet) sheet()).summarize(startRow, startCol, endRow, endCol);
+  }
+}
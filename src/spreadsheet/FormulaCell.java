@@ -0,0 +1,47 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents a cell whose value is computed by a formula. Besides the formula,
+ * parsed and compiled, it carries the bookkeeping the dependency graph needs to walk the cells that
+ * depend on it without allocating per visit.
+ */
+final class FormulaCell {
+  final int row;
+  final int col;
+  final String text;
+  final Expression expression;
+  final FormulaCompiler.Compiled compiled;
+
+  // the range references of this formula, as registered in the dependency graph
+  final List<DependencyGraph.RangeEdge> ranges;
+
+  // state of the depth-first walk that orders the cells for recalculation
+  int visited;
+  boolean onStack;
+  List<FormulaCell> successors;
+  int next;
+  // the length of the longest path of dependents below this cell in the last walk
+  int height;
+
+  /**
+   * Constructs a formula cell.
+   *
+   * @param row        the row of the cell
+   * @param col        the column of the cell
+   * @param text       the text of the formula
+   * @param expression the parsed formula
+   * @param compiled   the compiled formula
+   */
+  FormulaCell(int row, int col, String text, Expression expression,
+              FormulaCompiler.Compiled compiled) {
+    this.row = row;
+    this.col = col;
+    this.text = text;
+    this.expression = expression;
+    this.compiled = compiled;
+    this.ranges = new ArrayList<DependencyGraph.RangeEdge>(0);
+  }
+}
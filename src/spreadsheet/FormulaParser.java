@@ -0,0 +1,444 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class parses formula text into an {@link Expression} tree. A formula may start
+ * with "=" and is made of:
+ * <ul>
+ *   <li>numbers, such as 2, 0.5 or 1e-3;</li>
+ *   <li>cell references, written as the row letters followed by the column number the
+ *   way the controllers refer to cells, but without a space: A1 is the first row and
+ *   column and AD26 is the 30th row and 26th column;</li>
+ *   <li>the operators +, -, * and / with the usual precedence, unary minus and
+ *   parentheses;</li>
+ *   <li>the functions SUM, PRODUCT, MIN, MAX and AVERAGE, whose arguments are
+ *   expressions or ranges such as A1:C10. Empty cells in a range are ignored.</li>
+ * </ul>
+ */
+final class FormulaParser {
+
+  /**
+   * The functions a formula can call.
+   */
+  enum Function {
+    SUM, PRODUCT, MIN, MAX, AVERAGE
+  }
+
+  private final String text;
+  private int position;
+
+  private FormulaParser(String text) {
+    this.text = text;
+    this.position = 0;
+  }
+
+  /**
+   * Parses the specified formula.
+   *
+   * @param text the formula text
+   * @return the expression tree of the formula
+   * @throws IllegalArgumentException if the text is not a valid formula
+   */
+  static Expression parse(String text) throws IllegalArgumentException {
+    if (text == null) {
+      throw new IllegalArgumentException("Formula is null");
+    }
+    FormulaParser parser = new FormulaParser(text);
+    parser.skipSpaces();
+    if (parser.peek() == '=') {
+      parser.position++;
+    }
+    Expression expression = parser.expression();
+    parser.skipSpaces();
+    if (parser.position < text.length()) {
+      throw parser.error("unexpected '" + text.charAt(parser.position) + "'");
+    }
+    return expression;
+  }
+
+  private Expression expression() {
+    Expression left = term();
+    while (true) {
+      skipSpaces();
+      char c = peek();
+      if ((c != '+') && (c != '-')) {
+        return left;
+      }
+      position++;
+      left = new Binary(c, left, term());
+    }
+  }
+
+  private Expression term() {
+    Expression left = unary();
+    while (true) {
+      skipSpaces();
+      char c = peek();
+      if ((c != '*') && (c != '/')) {
+        return left;
+      }
+      position++;
+      left = new Binary(c, left, unary());
+    }
+  }
+
+  private Expression unary() {
+    skipSpaces();
+    if (peek() == '-') {
+      position++;
+      return new Negate(unary());
+    }
+    if (peek() == '+') {
+      position++;
+      return unary();
+    }
+    return primary();
+  }
+
+  private Expression primary() {
+    skipSpaces();
+    char c = peek();
+    if (c == '(') {
+      position++;
+      Expression inner = expression();
+      expect(')');
+      return inner;
+    }
+    if (Character.isDigit(c) || (c == '.')) {
+      return number();
+    }
+    if (Character.isLetter(c)) {
+      int start = position;
+      while (Character.isLetter(peek())) {
+        position++;
+      }
+      if (Character.isDigit(peek())) {
+        position = start;
+        int row = row();
+        return new Reference(row, column());
+      }
+      String name = text.substring(start, position);
+      skipSpaces();
+      if (peek() == '(') {
+        return function(name);
+      }
+      throw error("unknown name " + name);
+    }
+    throw error((position < text.length()) ? "unexpected '" + c + "'" : "unexpected end");
+  }
+
+  private Expression number() {
+    int start = position;
+    while (Character.isDigit(peek()) || (peek() == '.')) {
+      position++;
+    }
+    if ((peek() == 'e') || (peek() == 'E')) {
+      position++;
+      if ((peek() == '+') || (peek() == '-')) {
+        position++;
+      }
+      while (Character.isDigit(peek())) {
+        position++;
+      }
+    }
+    try {
+      return new Constant(Double.parseDouble(text.substring(start, position)));
+    } catch (NumberFormatException e) {
+      throw error("bad number " + text.substring(start, position));
+    }
+  }
+
+  private Expression function(String name) {
+    Function function;
+    try {
+      function = Function.valueOf(name.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw error("unknown function " + name);
+    }
+    expect('(');
+    List<Expression> arguments = new ArrayList<Expression>();
+    do {
+      arguments.add(argument());
+      skipSpaces();
+    } while (consume(','));
+    expect(')');
+    return new Call(function, arguments.toArray(new Expression[0]));
+  }
+
+  private Expression argument() {
+    skipSpaces();
+    int start = position;
+    if (Character.isLetter(peek())) {
+      while (Character.isLetter(peek())) {
+        position++;
+      }
+      boolean reference = Character.isDigit(peek());
+      while (Character.isDigit(peek())) {
+        position++;
+      }
+      if (reference && (peek() == ':')) {
+        position = start;
+        int startRow = row();
+        int startCol = column();
+        expect(':');
+        skipSpaces();
+        int endRow = row();
+        int endCol = column();
+        return new Range(Math.min(startRow, endRow), Math.min(startCol, endCol),
+                Math.max(startRow, endRow), Math.max(startCol, endCol));
+      }
+      position = start;
+    }
+    return expression();
+  }
+
+  private int row() {
+    int start = position;
+    long row = 0;
+    while (Character.isLetter(peek())) {
+      row = 26 * row + (Character.toLowerCase(text.charAt(position)) - 'a' + 1);
+      if (row > Integer.MAX_VALUE) {
+        throw error("row out of range");
+      }
+      position++;
+    }
+    if (position == start) {
+      throw error("missing row letters");
+    }
+    return (int) row - 1;
+  }
+
+  private int column() {
+    int start = position;
+    long column = 0;
+    while (Character.isDigit(peek())) {
+      column = 10 * column + (text.charAt(position) - '0');
+      if (column > Integer.MAX_VALUE) {
+        throw error("column out of range");
+      }
+      position++;
+    }
+    if ((position == start) || (column == 0)) {
+      throw error("missing column number");
+    }
+    return (int) column - 1;
+  }
+
+  private void skipSpaces() {
+    while (Character.isWhitespace(peek())) {
+      position++;
+    }
+  }
+
+  private char peek() {
+    return (position < text.length()) ? text.charAt(position) : '\0';
+  }
+
+  private boolean consume(char c) {
+    skipSpaces();
+    if (peek() == c) {
+      position++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(char c) {
+    if (!consume(c)) {
+      throw error("expected '" + c + "'");
+    }
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException("Invalid formula " + text + ": " + message);
+  }
+
+  /**
+   * A number.
+   */
+  static final class Constant implements Expression {
+    final double value;
+
+    Constant(double value) {
+      this.value = value;
+    }
+
+    @Override
+    public double evaluate(SpreadSheet sheet) {
+      return value;
+    }
+
+    @Override
+    public void references(ReferenceVisitor visitor) {
+      // a constant reads no cells
+    }
+  }
+
+  /**
+   * The value of a single cell.
+   */
+  static final class Reference implements Expression {
+    final int row;
+    final int col;
+
+    Reference(int row, int col) {
+      this.row = row;
+      this.col = col;
+    }
+
+    @Override
+    public double evaluate(SpreadSheet sheet) {
+      return sheet.get(row, col);
+    }
+
+    @Override
+    public void references(ReferenceVisitor visitor) {
+      visitor.reference(row, col, row, col);
+    }
+  }
+
+  /**
+   * A range of cells, which may only appear as a function argument.
+   */
+  static final class Range implements Expression {
+    final int startRow;
+    final int startCol;
+    final int endRow;
+    final int endCol;
+
+    Range(int startRow, int startCol, int endRow, int endCol) {
+      this.startRow = startRow;
+      this.startCol = startCol;
+      this.endRow = endRow;
+      this.endCol = endCol;
+    }
+
+    @Override
+    public double evaluate(SpreadSheet sheet) {
+      throw new IllegalStateException("A range has no single value");
+    }
+
+    @Override
+    public void references(ReferenceVisitor visitor) {
+      visitor.reference(startRow, startCol, endRow, endCol);
+    }
+  }
+
+  /**
+   * The negation of an expression.
+   */
+  static final class Negate implements Expression {
+    final Expression operand;
+
+    Negate(Expression operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    public double evaluate(SpreadSheet sheet) {
+      return -operand.evaluate(sheet);
+    }
+
+    @Override
+    public void references(ReferenceVisitor visitor) {
+      operand.references(visitor);
+    }
+  }
+
+  /**
+   * An arithmetic operation on two expressions.
+   */
+  static final class Binary implements Expression {
+    final char operator;
+    final Expression left;
+    final Expression right;
+
+    Binary(char operator, Expression left, Expression right) {
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public double evaluate(SpreadSheet sheet) {
+      double a = left.evaluate(sheet);
+      double b = right.evaluate(sheet);
+      switch (operator) {
+        case '+':
+          return a + b;
+        case '-':
+          return a - b;
+        case '*':
+          return a * b;
+        default:
+          return a / b;
+      }
+    }
+
+    @Override
+    public void references(ReferenceVisitor visitor) {
+      left.references(visitor);
+      right.references(visitor);
+    }
+  }
+
+  /**
+   * A call of a function on a list of arguments.
+   */
+  static final class Call implements Expression {
+    final Function function;
+    final Expression[] arguments;
+
+    Call(Function function, Expression[] arguments) {
+      this.function = function;
+      this.arguments = arguments;
+    }
+
+    @Override
+    public double evaluate(SpreadSheet sheet) {
+      double result = (function == Function.PRODUCT) ? 1.0 : 0.0;
+      long count = 0;
+      for (Expression argument : arguments) {
+        if (argument instanceof Range) {
+          Range range = (Range) argument;
+          for (int row = range.startRow; row <= range.endRow; row++) {
+            for (int col = range.startCol; col <= range.endCol; col++) {
+              if (!sheet.isEmpty(row, col)) {
+                result = combine(result, sheet.get(row, col), count++);
+              }
+            }
+          }
+        } else {
+          result = combine(result, argument.evaluate(sheet), count++);
+        }
+      }
+      if (function == Function.AVERAGE) {
+        return (count == 0) ? Double.NaN : result / count;
+      }
+      return (count == 0) ? 0.0 : result;
+    }
+
+    private double combine(double result, double value, long count) {
+      switch (function) {
+        case PRODUCT:
+          return result * value;
+        case MIN:
+          return (count == 0) ? value : Math.min(result, value);
+        case MAX:
+          return (count == 0) ? value : Math.max(result, value);
+        default:
+          return result + value;
+      }
+    }
+
+    @Override
+    public void references(ReferenceVisitor visitor) {
+      for (Expression argument : arguments) {
+        argument.references(visitor);
+      }
+    }
+  }
+}
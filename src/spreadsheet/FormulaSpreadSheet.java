@@ -0,0 +1,237 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class represents a spreadsheet in which cells may hold formulas computed from
+ * other cells, as well as plain numbers. It wraps another spreadsheet, which holds the
+ * numbers and the current value of every formula cell, so reading a cell costs the same
+ * as in the wrapped spreadsheet.
+ *
+ * <p>A dependency graph records which cells every formula reads. When a cell changes,
+ * only the formulas that depend on it, directly or through other formulas, are
+ * recomputed, each after all the formulas it reads; cells that do not depend on the
+ * changed cell are left alone, so the cost of a change grows with the number of affected
+ * formulas rather than the size of the sheet. A formula that would make a cell depend on
+ * itself is rejected. Assigning a number to a formula cell or clearing it removes its
+ * formula. See {@link FormulaParser} for the syntax of formulas.
+ *
+ * <p>A formula is parsed and compiled once, when it is assigned, and the compiled form
+ * is kept until the cell is given a different formula, so recalculation only runs the
+ * compiled code (see {@link FormulaCompiler}).
+ */
+public class FormulaSpreadSheet implements SpreadSheet {
+  private final SpreadSheet sheet;
+  private final Map<Long, FormulaCell> formulas;
+  private final DependencyGraph graph;
+  private final long parallelThreshold;
+
+  /**
+   * Constructs a FormulaSpreadSheet that keeps its values in the specified spreadsheet.
+   *
+   * @param sheet the spreadsheet that holds the values
+   * @throws IllegalArgumentException if the spreadsheet is null
+   */
+  public FormulaSpreadSheet(SpreadSheet sheet) throws IllegalArgumentException {
+    this(sheet, Long.MAX_VALUE);
+  }
+
+  /**
+   * Constructs a FormulaSpreadSheet that keeps its values in the specified spreadsheet
+   * and recomputes more than the given number of formulas at once in parallel.
+   */
+  FormulaSpreadSheet(SpreadSheet sheet, long parallelThreshold)
+          throws IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Spreadsheet cannot be null");
+    }
+    if (parallelThreshold <= 0) {
+      throw new IllegalArgumentException("Parallel threshold must be positive");
+    }
+    this.sheet = sheet;
+    this.parallelThreshold = parallelThreshold;
+    this.formulas = new HashMap<Long, FormulaCell>();
+    this.graph = new DependencyGraph();
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    return sheet.get(row, col);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    sheet.set(row, col, value);
+    if (formulas.isEmpty()) {
+      return;
+    }
+    FormulaCell previous = formulas.remove(CellMap.key(row, col));
+    if (previous != null) {
+      graph.remove(previous);
+    }
+    List<FormulaCell> readers = new ArrayList<FormulaCell>();
+    graph.readersOf(row, col, readers);
+    recalculate(graph.order(readers));
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    sheet.clear(row, col);
+    regionAssigned(row, col, row, col);
+  }
+
+  @Override
+  public void clearRange(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    sheet.clearRange(startRow, startCol, endRow, endCol);
+    regionAssigned(startRow, startCol, endRow, endCol);
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    return sheet.isEmpty(row, col);
+  }
+
+  @Override
+  public int getWidth() {
+    return sheet.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    return sheet.getHeight();
+  }
+
+  @Override
+  public void forEachCell(CellVisitor visitor) {
+    sheet.forEachCell(visitor);
+  }
+
+  @Override
+  public ColumnarRegion readColumns(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    return sheet.readColumns(startRow, startCol, endRow, endCol);
+  }
+
+  /**
+   * Sets the specified cell to a formula, computes its value and recomputes every
+   * formula that depends on the cell.
+   *
+   * @param row     the row number of the cell, starting with 0
+   * @param col     the column number of the cell, starting with 0
+   * @param formula the formula
+   * @throws IllegalArgumentException if the row or column are negative, the formula is
+   *                                  not valid, or the cell would depend on itself
+   */
+  public void setFormula(int row, int col, String formula) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    long key = CellMap.key(row, col);
+    FormulaCell previous = formulas.get(key);
+    FormulaCell cell;
+    if ((previous != null) && previous.text.equals(formula)) {
+      // the text has not changed, so the compiled formula can be kept
+      cell = new FormulaCell(row, col, formula, previous.expression, previous.compiled);
+    } else {
+      Expression expression = FormulaParser.parse(formula);
+      cell = new FormulaCell(row, col, formula, expression,
+              FormulaCompiler.compile(expression));
+    }
+    formulas.put(key, cell);
+    if (previous != null) {
+      graph.remove(previous);
+    }
+    graph.add(cell);
+    List<FormulaCell> order;
+    try {
+      List<FormulaCell> roots = new ArrayList<FormulaCell>(1);
+      roots.add(cell);
+      order = graph.order(roots);
+    } catch (IllegalArgumentException e) {
+      // put the previous contents of the cell back
+      graph.remove(cell);
+      if (previous != null) {
+        formulas.put(key, previous);
+        graph.add(previous);
+      } else {
+        formulas.remove(key);
+      }
+      throw e;
+    }
+    recalculate(order);
+  }
+
+  /**
+   * Returns the formula of the specified cell.
+   *
+   * @param row the row number of the cell, starting with 0
+   * @param col the column number of the cell, starting with 0
+   * @return the formula of the cell, or null if the cell does not hold a formula
+   * @throws IllegalArgumentException if the row or column are negative
+   */
+  public String getFormula(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    FormulaCell cell = formulas.get(CellMap.key(row, col));
+    return (cell == null) ? null : cell.text;
+  }
+
+  /**
+   * Returns the wrapped spreadsheet.
+   */
+  SpreadSheet sheet() {
+    return sheet;
+  }
+
+  /**
+   * Removes the formulas of every cell in the given region and recomputes the formulas
+   * that read the region. This is called after the region has been assigned numbers or
+   * cleared.
+   */
+  void regionAssigned(int startRow, int startCol, int endRow, int endCol) {
+    if (formulas.isEmpty()) {
+      return;
+    }
+    long cells = ((long) endRow - startRow + 1) * ((long) endCol - startCol + 1);
+    if (cells <= formulas.size()) {
+      for (int row = startRow; row <= endRow; row++) {
+        for (int col = startCol; col <= endCol; col++) {
+          FormulaCell previous = formulas.remove(CellMap.key(row, col));
+          if (previous != null) {
+            graph.remove(previous);
+          }
+        }
+      }
+    } else {
+      List<FormulaCell> inside = new ArrayList<FormulaCell>();
+      for (FormulaCell cell : formulas.values()) {
+        if ((cell.row >= startRow) && (cell.row <= endRow) && (cell.col >= startCol)
+                && (cell.col <= endCol)) {
+          inside.add(cell);
+        }
+      }
+      for (FormulaCell cell : inside) {
+        formulas.remove(CellMap.key(cell.row, cell.col));
+        graph.remove(cell);
+      }
+    }
+    List<FormulaCell> readers = new ArrayList<FormulaCell>();
+    graph.readersOf(startRow, startCol, endRow, endCol, readers);
+    recalculate(graph.order(readers));
+  }
+
+  private void recalculate(List<FormulaCell> order) {
+    if (order.size() > parallelThreshold) {
+      ParallelRecalculation.run(order, sheet);
+      return;
+    }
+    for (FormulaCell cell : order) {
+      sheet.set(cell.row, cell.col, cell.compiled.evaluate(sheet));
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package spreadsheet;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * This class extends LoggedSpreadSheet to implement the BetterSpreadSheet interface. A
+ * bulk assignment, region copy, region move or series fill is logged as a single record,
+ * however large the region is, and then applied to the wrapped spreadsheet as a whole.
+ */
+public class LoggedBetterSpreadSheet extends LoggedSpreadSheet implements BetterSpreadSheet {
+
+  /**
+   * Constructs a LoggedBetterSpreadSheet that keeps its snapshot and log in the specified
+   * directory and forces log records in groups of the default size. The previous
+   * contents stored in the directory, if any, are recovered into the spreadsheet.
+   *
+   * @param sheet     the spreadsheet that holds the cells, normally empty
+   * @param directory the directory for the snapshot and the log, created if needed
+   * @throws IOException if the directory cannot be created or its contents read
+   */
+  public LoggedBetterSpreadSheet(BetterSpreadSheet sheet, Path directory) throws IOException {
+    super(sheet, directory);
+  }
+
+  /**
+   * Constructs a LoggedBetterSpreadSheet that keeps its snapshot and log in the specified
+   * directory and forces log records in groups of the given size. The previous
+   * contents stored in the directory, if any, are recovered into the spreadsheet.
+   *
+   * @param sheet     the spreadsheet that holds the cells, normally empty
+   * @param directory the directory for the snapshot and the log, created if needed
+   * @param groupSize the number of log records forced to the storage device together
+   * @throws IOException              if the directory cannot be created or its contents
+   *                                  read
+   * @throws IllegalArgumentException if the spreadsheet is null or the group size is not
+   *                                  positive
+   */
+  public LoggedBetterSpreadSheet(BetterSpreadSheet sheet, Path directory, int groupSize)
+          throws IOException, IllegalArgumentException {
+    super(sheet, directory, groupSize);
+  }
+
+  @Override
+  public synchronized void bulkSet(int startRow, int startCol, int endRow, int endCol,
+                                   double value) throws IllegalArgumentException {
+    SheetRegions.check(startRow, startCol, endRow, endCol);
+    try {
+      log().logBulkSet(startRow, startCol, endRow, endCol, value);
+    } catch (IOException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    ((BetterSpreadSheet) sheet()).bulkSet(startRow, startCol, endRow, endCol, value);
+  }
+
+  @Override
+  public synchronized void copyRegion(int startRow, int startCol, int endRow, int endCol,
+                                      int toRow, int toCol) throws IllegalArgumentException {
+    SheetRegions.check(startRow, startCol, endRow, endCol, toRow, toCol);
+    try {
+      log().logCopy(WriteAheadLog.COPY, startRow, startCol, endRow, endCol, toRow, toCol);
+    } catch (IOException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    ((BetterSpreadSheet) sheet()).copyRegion(startRow, startCol, endRow, endCol, toRow,
+            toCol);
+  }
+
+  @Override
+  public synchronized void moveRegion(int startRow, int startCol, int endRow, int endCol,
+                                      int toRow, int toCol) throws IllegalArgumentException {
+    SheetRegions.check(startRow, startCol, endRow, endCol, toRow, toCol);
+    try {
+      log().logCopy(WriteAheadLog.MOVE, startRow, startCol, endRow, endCol, toRow, toCol);
+    } catch (IOException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    ((BetterSpreadSheet) sheet()).moveRegion(startRow, startCol, endRow, endCol, toRow,
+            toCol);
+  }
+
+  @Override
+  public synchronized void fillSeries(int startRow, int startCol, int endRow, int endCol,
+                                      double start, double step)
+          throws IllegalArgumentException {
+    SheetRegions.check(startRow, startCol, endRow, endCol);
+    try {
+      log().logFillSeries(startRow, startCol, endRow, endCol, start, step);
+    } catch (IOException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    ((BetterSpreadSheet) sheet()).fillSeries(startRow, startCol, endRow, endCol, start, step);
+  }
+
+  @Override
+  public synchronized RegionSummary summarize(int startRow, int startCol, int endRow,
+                                              int endCol) throws IllegalArgumentException {
+    return ((BetterSpreadSheet) sheet()).summarize(startRow, startCol, endRow, endCol);
+  }
+}
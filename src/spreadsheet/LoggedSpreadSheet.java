@@ -0,0 +1,206 @@
+package spreadsheet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * This class represents a spreadsheet that makes every change to another spreadsheet
+ * durable. Each assignment or clear is checked, appended to a write-ahead log as a
+ * compact binary record, and only then applied to the wrapped spreadsheet, so a change
+ * that cannot be logged is never made; a checkpoint saves a snapshot of the whole
+ * spreadsheet and empties the log.
+ *
+ * <p>The snapshot and the log are kept in a directory. Opening a spreadsheet on a
+ * directory that already holds them recovers the previous contents: the snapshot is
+ * loaded and the log is replayed on top of it, ignoring a record torn by a crash.
+ *
+ * <p>Log records are forced to the storage device in groups. With a group size of 1
+ * every assignment is durable once it returns; with a group size of n, a crash may lose
+ * up to n - 1 of the most recent assignments in exchange for far fewer forced writes.
+ * {@link #sync()} forces the pending records at any time, and {@link #close()} forces
+ * them before closing the log. Every operation is serialized, so that the log records
+ * the assignments in the order they are applied and reads never see one half made.
+ */
+public class LoggedSpreadSheet implements SpreadSheet, Closeable {
+  /**
+   * The default number of log records forced to the storage device together.
+   */
+  public static final int DEFAULT_GROUP_SIZE = 64;
+
+  static final String SNAPSHOT_FILE = "sheet.snapshot";
+  static final String LOG_FILE = "sheet.log";
+
+  private final SpreadSheet sheet;
+  private final Path directory;
+  private final WriteAheadLog log;
+
+  /**
+   * Constructs a LoggedSpreadSheet that keeps its snapshot and log in the specified
+   * directory and forces log records in groups of the default size. The previous
+   * contents stored in the directory, if any, are recovered into the spreadsheet.
+   *
+   * @param sheet     the spreadsheet that holds the cells, normally empty
+   * @param directory the directory for the snapshot and the log, created if needed
+   * @throws IOException if the directory cannot be created or its contents read
+   */
+  public LoggedSpreadSheet(SpreadSheet sheet, Path directory) throws IOException {
+    this(sheet, directory, DEFAULT_GROUP_SIZE);
+  }
+
+  /**
+   * Constructs a LoggedSpreadSheet that keeps its snapshot and log in the specified
+   * directory and forces log records in groups of the given size. The previous
+   * contents stored in the directory, if any, are recovered into the spreadsheet.
+   *
+   * @param sheet     the spreadsheet that holds the cells, normally empty
+   * @param directory the directory for the snapshot and the log, created if needed
+   * @param groupSize the number of log records forced to the storage device together
+   * @throws IOException              if the directory cannot be created or its contents
+   *                                  read
+   * @throws IllegalArgumentException if the spreadsheet is null or the group size is not
+   *                                  positive
+   */
+  public LoggedSpreadSheet(SpreadSheet sheet, Path directory, int groupSize)
+          throws IOException, IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Spreadsheet cannot be null");
+    }
+    if (groupSize <= 0) {
+      throw new IllegalArgumentException("Group size must be positive");
+    }
+    this.sheet = sheet;
+    this.directory = directory;
+    Files.createDirectories(directory);
+    Path snapshot = directory.resolve(SNAPSHOT_FILE);
+    if (Files.exists(snapshot)) {
+      SheetSnapshot.load(snapshot, sheet);
+    }
+    this.log = new WriteAheadLog(directory.resolve(LOG_FILE), groupSize);
+    try {
+      log.replay(sheet);
+    } catch (IOException | RuntimeException e) {
+      log.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public synchronized double get(int row, int col) throws IllegalArgumentException {
+    return sheet.get(row, col);
+  }
+
+  @Override
+  public synchronized void set(int row, int col, double value)
+          throws IllegalArgumentException {
+    SheetRegions.check(row, col, row, col);
+    try {
+      log.logSet(row, col, value);
+    } catch (IOException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    sheet.set(row, col, value);
+  }
+
+  @Override
+  public synchronized void clear(int row, int col) throws IllegalArgumentException {
+    clearRange(row, col, row, col);
+  }
+
+  @Override
+  public synchronized void clearRange(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    SheetRegions.check(startRow, startCol, endRow, endCol);
+    try {
+      log.logClear(startRow, startCol, endRow, endCol);
+    } catch (IOException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    sheet.clearRange(startRow, startCol, endRow, endCol);
+  }
+
+  @Override
+  public synchronized boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    return sheet.isEmpty(row, col);
+  }
+
+  @Override
+  public synchronized int getWidth() {
+    return sheet.getWidth();
+  }
+
+  @Override
+  public synchronized int getHeight() {
+    return sheet.getHeight();
+  }
+
+  @Override
+  public synchronized void forEachCell(CellVisitor visitor) {
+    sheet.forEachCell(visitor);
+  }
+
+  @Override
+  public synchronized ColumnarRegion readColumns(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    return sheet.readColumns(startRow, startCol, endRow, endCol);
+  }
+
+  /**
+   * Forces every assignment made so far onto the storage device.
+   *
+   * @throws IOException if the log cannot be written
+   */
+  public synchronized void sync() throws IOException {
+    log.sync();
+  }
+
+  /**
+   * Saves a snapshot of the whole spreadsheet and empties the log. The snapshot is
+   * written to a temporary file and then renamed over the previous one, so a crash at
+   * any point leaves a snapshot and a log that recover the current contents.
+   *
+   * @throws IOException if the snapshot cannot be written or the log emptied
+   */
+  public synchronized void checkpoint() throws IOException {
+    Path snapshot = directory.resolve(SNAPSHOT_FILE);
+    Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+    SheetSnapshot.save(sheet, temporary);
+    Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    // replaying the old log over the new snapshot is harmless, so it is emptied last
+    log.reset();
+  }
+
+  /**
+   * Forces the pending log records onto the storage device and closes the log. A
+   * wrapped spreadsheet that is itself backed by a file is closed as well.
+   *
+   * @throws IOException if the log cannot be written or closed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      log.close();
+    } finally {
+      if (sheet instanceof Closeable) {
+        ((Closeable) sheet).close();
+      }
+    }
+  }
+
+  /**
+   * Returns the wrapped spreadsheet.
+   */
+  SpreadSheet sheet() {
+    return sheet;
+  }
+
+  /**
+   * Returns the write-ahead log.
+   */
+  WriteAheadLog log() {
+    return log;
+  }
+}
@@ -0,0 +1,877 @@
+package spreadsheet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class represents a spreadsheet that lives in a memory-mapped file instead of on
+ * the heap. The file is divided into fixed-size slots. Slot 0 holds a header, every
+ * tile of 64 by 64 cells occupies one slot (64 occupancy words followed by the 4096
+ * values), and a hash directory from tile positions to slots occupies a run of slots of
+ * its own. All numbers are little-endian.
+ *
+ * <p>The file is mapped in large segments, and nothing is read until a cell is touched:
+ * the operating system faults in the pages of a tile when it is first accessed and
+ * evicts them from its page cache when memory is needed. The heap only holds one
+ * mapping per segment, so sheets much larger than the heap can be opened. Tiles that
+ * are never written take no space, and since the file is extended without writing, a
+ * sparsely used tile only occupies the pages that were actually written.
+ *
+ * <p>The file records the width and height, which are read from its header when it is
+ * opened, and they stay exact when cells are cleared. Clearing cells away from the last
+ * row and column cannot shrink them; the first clear that reaches the last row or
+ * column, or the first copy, counts the cells of every row and column by reading the
+ * occupancy words of every tile (see {@link SheetBounds}), and from then on the counts
+ * follow every change. The slot of a tile whose cells are all cleared is not reused.
+ *
+ * <p>Region operations work a tile slot at a time: summaries and columnar reads look only
+ * at the occupied cells of the tiles the region overlaps, found through the directory,
+ * and bulk assignments, copies and series move whole runs of values through a
+ * {@link DoubleBuffer} view of the slot.
+ *
+ * <p>Writes go to the page cache and reach the disk whenever the operating system
+ * writes them back; {@link #flush()} forces them to the disk. This class is not safe
+ * for use by several threads at once.
+ */
+public class MappedSpreadSheet implements BetterSpreadSheet, Closeable {
+  static final int MAGIC = 0x504E534D;
+  static final int VERSION = 1;
+  static final int SLOT_BYTES = (DenseTile.SIZE + DenseTile.CELLS) * Long.BYTES;
+
+  private static final int OCCUPANCY_BYTES = DenseTile.SIZE * Long.BYTES;
+  private static final int HEADER_BYTES = 32;
+  private static final int WIDTH_AT = 8;
+  private static final int HEIGHT_AT = 12;
+  private static final int SLOTS_AT = 16;
+  private static final int TILES_AT = 20;
+  private static final int DIRECTORY_AT = 24;
+  private static final int DIRECTORY_SLOTS_AT = 28;
+
+  // a directory entry is the tile key plus one (0 marks a free entry) and the tile slot
+  private static final int ENTRY_BYTES = 16;
+  private static final int ENTRY_SHIFT = 11;
+  private static final int ENTRY_MASK = (1 << ENTRY_SHIFT) - 1;
+
+  private static final int DEFAULT_SEGMENT_SHIFT = 15;
+  private static final int MIN_MAPPED_SLOTS = 64;
+
+  private final FileChannel channel;
+  private final int segmentShift;
+  private final int segmentMask;
+  private final long segmentBytes;
+  private MappedByteBuffer[] segments;
+  private long fileBytes;
+  private boolean closed;
+
+  private int width;
+  private int height;
+  // the cell counts of the rows and columns, built when a change could shrink the bounds
+  private SheetBounds bounds;
+  private final SlotRows slotRows;
+  private int slotCount;
+  private int tileCount;
+  private int directorySlot;
+  private int directorySlots;
+  // the most recently used tile, which makes scans over one tile skip the directory
+  private long lastKey;
+  private int lastSlot;
+
+  /**
+   * Opens the spreadsheet stored in the specified file, creating an empty spreadsheet
+   * if the file does not exist or is empty.
+   *
+   * @param file the file that holds the spreadsheet
+   * @throws IOException if the file cannot be opened or does not hold a spreadsheet
+   */
+  public MappedSpreadSheet(Path file) throws IOException {
+    this(file, DEFAULT_SEGMENT_SHIFT);
+  }
+
+  /**
+   * Opens the spreadsheet stored in the specified file, mapping it in segments of
+   * 2 to the power of the given shift slots.
+   */
+  MappedSpreadSheet(Path file, int segmentShift) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    this.segmentShift = segmentShift;
+    this.segmentMask = (1 << segmentShift) - 1;
+    this.segmentBytes = (long) SLOT_BYTES << segmentShift;
+    this.segments = new MappedByteBuffer[4];
+    this.closed = false;
+    this.lastKey = -1L;
+    this.lastSlot = -1;
+    this.slotRows = new SlotRows();
+    try {
+      this.fileBytes = channel.size();
+      if (fileBytes == 0) {
+        create();
+      } else {
+        open(file);
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private void create() {
+    bounds = new SheetBounds();
+    slotCount = 1;
+    directorySlots = 1;
+    directorySlot = allocate(directorySlots);
+    MappedByteBuffer header = buffer(0);
+    header.putInt(0, MAGIC);
+    header.putInt(4, VERSION);
+    header.putInt(WIDTH_AT, 0);
+    header.putInt(HEIGHT_AT, 0);
+    header.putInt(TILES_AT, 0);
+    header.putInt(DIRECTORY_AT, directorySlot);
+    header.putInt(DIRECTORY_SLOTS_AT, directorySlots);
+  }
+
+  private void open(Path file) throws IOException {
+    // read the header without mapping, so that a file of another kind is left untouched
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    while (header.hasRemaining()) {
+      if (channel.read(header, header.position()) < 0) {
+        break;
+      }
+    }
+    if (header.hasRemaining() || (header.getInt(0) != MAGIC)) {
+      throw new IOException("Not a mapped spreadsheet: " + file);
+    }
+    if (header.getInt(4) != VERSION) {
+      throw new IOException("Unsupported spreadsheet version " + header.getInt(4));
+    }
+    width = header.getInt(WIDTH_AT);
+    height = header.getInt(HEIGHT_AT);
+    slotCount = header.getInt(SLOTS_AT);
+    tileCount = header.getInt(TILES_AT);
+    directorySlot = header.getInt(DIRECTORY_AT);
+    directorySlots = header.getInt(DIRECTORY_SLOTS_AT);
+    if ((width < 0) || (height < 0) || (slotCount < 2) || (tileCount < 0)
+            || (directorySlots <= 0) || (Integer.bitCount(directorySlots) != 1)
+            || (directorySlot <= 0) || ((long) directorySlot + directorySlots > slotCount)
+            || ((long) slotCount * SLOT_BYTES > fileBytes)) {
+      throw new IOException("Corrupt spreadsheet file: " + file);
+    }
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    check(row, col);
+    int slot = slot(row >> DenseTile.SHIFT, col >> DenseTile.SHIFT, false);
+    if (slot < 0) {
+      return 0.0;
+    }
+    return buffer(slot).getDouble(valueAt(slot, row, col));
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    check(row, col);
+    int slot = slot(row >> DenseTile.SHIFT, col >> DenseTile.SHIFT, true);
+    MappedByteBuffer tile = buffer(slot);
+    tile.putDouble(valueAt(slot, row, col), value);
+    int occupancy = offset(slot) + (row & DenseTile.MASK) * Long.BYTES;
+    long bits = tile.getLong(occupancy);
+    long bit = 1L << (col & DenseTile.MASK);
+    if ((bits & bit) == 0) {
+      tile.putLong(occupancy, bits | bit);
+      if (bounds == null) {
+        growBounds(row, col);
+      } else {
+        bounds.add(row, col);
+        storeBounds();
+      }
+    }
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    check(row, col);
+    int slot = slot(row >> DenseTile.SHIFT, col >> DenseTile.SHIFT, false);
+    if (slot < 0) {
+      return true;
+    }
+    long bits = buffer(slot).getLong(offset(slot) + (row & DenseTile.MASK) * Long.BYTES);
+    return (bits & (1L << (col & DenseTile.MASK))) == 0;
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    check(row, col);
+    int slot = slot(row >> DenseTile.SHIFT, col >> DenseTile.SHIFT, false);
+    if (slot < 0) {
+      return;
+    }
+    MappedByteBuffer tile = buffer(slot);
+    int occupancy = offset(slot) + (row & DenseTile.MASK) * Long.BYTES;
+    long bits = tile.getLong(occupancy);
+    long bit = 1L << (col & DenseTile.MASK);
+    if ((bits & bit) == 0) {
+      return;
+    }
+    SheetBounds counts = countsFor(row, col);
+    tile.putLong(occupancy, bits & ~bit);
+    // an empty cell reads as 0
+    tile.putDouble(valueAt(slot, row, col), 0.0);
+    if (counts != null) {
+      counts.remove(row, col);
+      storeBounds();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The tiles are found by walking the region or the directory, whichever holds
+   * fewer tiles.
+   */
+  @Override
+  public void clearRange(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    ensureOpen();
+    if ((startRow >= height) || (startCol >= width)) {
+      return;
+    }
+    SheetBounds counts = countsFor(endRow, endCol);
+    forEachSlotIn(startRow, startCol, endRow, endCol,
+        (slot, top, left, fromRow, fromCol, toRow, toCol) ->
+                clearTile(slot, top, left, fromRow, fromCol, toRow, toCol, counts));
+    storeBounds();
+  }
+
+  @Override
+  public int getWidth() {
+    return this.width;
+  }
+
+  @Override
+  public int getHeight() {
+    return this.height;
+  }
+
+  @Override
+  public void bulkSet(int startRow, int startCol, int endRow, int endCol, double value)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    ensureOpen();
+    // one run of the value, long enough for the part of the region in any tile
+    double[] run = new double[(int) Math.min(DenseTile.CELLS,
+            ((long) endRow - startRow + 1) * ((long) endCol - startCol + 1))];
+    Arrays.fill(run, value);
+    long[] added = new long[DenseTile.SIZE];
+    TileRegion.forEachTile(startRow, startCol, endRow, endCol,
+        (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+          int slot = slot(tileRow, tileCol, true);
+          MappedByteBuffer tile = buffer(slot);
+          int base = offset(slot);
+          long bits = DenseTile.rangeMask(fromCol, toCol);
+          for (int row = fromRow; row <= toRow; row++) {
+            int occupancy = base + row * Long.BYTES;
+            long word = tile.getLong(occupancy);
+            added[row] = bits & ~word;
+            tile.putLong(occupancy, word | bits);
+          }
+          int length = toCol - fromCol + 1;
+          DoubleBuffer cells = values(slot, (fromRow << DenseTile.SHIFT) | fromCol);
+          if (length == DenseTile.SIZE) {
+            // whole rows of a tile follow each other, so they take a single write
+            cells.put(run, 0, (toRow - fromRow + 1) << DenseTile.SHIFT);
+          } else {
+            for (int row = fromRow; row <= toRow; row++) {
+              cells.position((row - fromRow) << DenseTile.SHIFT);
+              cells.put(run, 0, length);
+            }
+          }
+          if (bounds != null) {
+            bounds.addTile(tileRow << DenseTile.SHIFT, tileCol << DenseTile.SHIFT, added,
+                    fromRow, toRow, 1);
+          }
+        });
+    if (bounds == null) {
+      growBounds(endRow, endCol);
+    } else {
+      storeBounds();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Each destination tile is gathered from its source tiles a run of values at a time
+   * through a block, as in a {@link TiledSpreadSheet}, and tiles that were never written
+   * are skipped.
+   */
+  @Override
+  public void copyRegion(int startRow, int startCol, int endRow, int endCol, int toRow,
+                         int toCol) throws IllegalArgumentException {
+    SheetRegions.check(startRow, startCol, endRow, endCol, toRow, toCol);
+    ensureOpen();
+    // a copy may empty cells of the destination, so it needs the cell counts
+    SheetBounds counts = bounds();
+    TileBlock.copy(this, startRow, startCol, endRow, endCol, toRow, toCol, this::readBlock,
+        (tileRow, tileCol, block) -> writeBlock(tileRow, tileCol, block, counts));
+    storeBounds();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The values of each tile are computed into a block and written into the slot a
+   * run of values at a time.
+   */
+  @Override
+  public void fillSeries(int startRow, int startCol, int endRow, int endCol, double start,
+                         double step) throws IllegalArgumentException {
+    ensureOpen();
+    // a series only fills cells, so without cell counts the bounds just grow
+    SheetBounds counts = (bounds == null) ? new SheetBounds() : bounds;
+    TileBlock.fillSeries(startRow, startCol, endRow, endCol, start, step,
+        (tileRow, tileCol, block) -> writeBlock(tileRow, tileCol, block, counts));
+    if (bounds == null) {
+      growBounds(endRow, endCol);
+    } else {
+      storeBounds();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Only the occupied cells of the tiles the region overlaps are read.
+   */
+  @Override
+  public RegionSummary summarize(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    SheetRegions.check(startRow, startCol, endRow, endCol);
+    ensureOpen();
+    CellSummary summary = new CellSummary();
+    forEachSlotIn(startRow, startCol, endRow, endCol,
+        (slot, top, left, fromRow, fromCol, toRow, toCol) -> {
+          MappedByteBuffer tile = buffer(slot);
+          int base = offset(slot);
+          long mask = DenseTile.rangeMask(fromCol, toCol);
+          for (int row = fromRow; row <= toRow; row++) {
+            for (long bits = tile.getLong(base + row * Long.BYTES) & mask; bits != 0;
+                 bits &= bits - 1) {
+              summary.add(tile.getDouble(base + OCCUPANCY_BYTES
+                      + ((row << DenseTile.SHIFT) | Long.numberOfTrailingZeros(bits))
+                      * Double.BYTES));
+            }
+          }
+        });
+    return summary.toRegionSummary();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Only the occupied cells of the tiles the region overlaps are read, a row of a
+   * tile at a time, and the validity bits of each column are set once per tile.
+   */
+  @Override
+  public ColumnarRegion readColumns(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    ColumnarRegion columns = ColumnarRegion.allocate(this, startRow, startCol, endRow,
+            endCol);
+    ensureOpen();
+    if ((columns.getRowCount() == 0) || (columns.getColumnCount() == 0)) {
+      return columns;
+    }
+    long[] present = new long[DenseTile.SIZE];
+    forEachSlotIn(startRow, startCol, startRow + columns.getRowCount() - 1,
+            startCol + columns.getColumnCount() - 1,
+        (slot, top, left, fromRow, fromCol, toRow, toCol) -> {
+          MappedByteBuffer tile = buffer(slot);
+          int base = offset(slot);
+          long mask = DenseTile.rangeMask(fromCol, toCol);
+          int offset = top - columns.getStartRow();
+          for (int row = fromRow; row <= toRow; row++) {
+            for (long bits = tile.getLong(base + row * Long.BYTES) & mask; bits != 0;
+                 bits &= bits - 1) {
+              int col = Long.numberOfTrailingZeros(bits);
+              columns.column(left + col)[offset + row] = tile.getDouble(base
+                      + OCCUPANCY_BYTES + ((row << DenseTile.SHIFT) | col) * Double.BYTES);
+              present[col] |= 1L << row;
+            }
+          }
+          for (int col = fromCol; col <= toCol; col++) {
+            columns.markRows(left + col, top, present[col]);
+            present[col] = 0;
+          }
+        });
+    return columns;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The tiles are found through the directory, and the cells of each tile through its
+   * occupancy words, so empty parts of the file are never read.
+   */
+  @Override
+  public void forEachCell(CellVisitor visitor) {
+    ensureOpen();
+    forEachTileSlot((top, left, tile) -> {
+      MappedByteBuffer cells = buffer(tile);
+      int base = offset(tile);
+      for (int row = 0; row < DenseTile.SIZE; row++) {
+        for (long bits = cells.getLong(base + row * Long.BYTES); bits != 0;
+             bits &= bits - 1) {
+          int col = Long.numberOfTrailingZeros(bits);
+          visitor.visit(top + row, left + col, cells.getDouble(base + OCCUPANCY_BYTES
+                  + ((row << DenseTile.SHIFT) | col) * Double.BYTES));
+        }
+      }
+    });
+  }
+
+  /**
+   * Forces every change made to this spreadsheet so far onto the storage device, so
+   * that it survives a crash of the machine.
+   *
+   * @throws IOException if the changes cannot be written
+   */
+  public void flush() throws IOException {
+    ensureOpen();
+    for (MappedByteBuffer segment : segments) {
+      if (segment != null) {
+        segment.force();
+      }
+    }
+    channel.force(true);
+  }
+
+  /**
+   * Flushes this spreadsheet and closes its file. Closing a closed spreadsheet has no
+   * effect; any other operation on it throws an IllegalStateException.
+   *
+   * @throws IOException if the changes cannot be written or the file cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      flush();
+    } finally {
+      closed = true;
+      segments = null;
+      channel.close();
+    }
+  }
+
+  private void check(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    ensureOpen();
+  }
+
+  private void ensureOpen() throws IllegalStateException {
+    if (closed) {
+      throw new IllegalStateException("Spreadsheet is closed");
+    }
+  }
+
+  /**
+   * Returns the slot of the tile at the given tile position, creating the tile if it
+   * does not exist and create is true.
+   *
+   * @return the slot of the tile, or -1 if there is no such tile
+   */
+  private int slot(int tileRow, int tileCol, boolean create) {
+    long key = CellMap.key(tileRow, tileCol);
+    if (key == lastKey) {
+      return lastSlot;
+    }
+    int mask = (directorySlots << ENTRY_SHIFT) - 1;
+    int entry = mix(key) & mask;
+    while (true) {
+      int slot = directorySlot + (entry >>> ENTRY_SHIFT);
+      MappedByteBuffer directory = buffer(slot);
+      int at = offset(slot) + (entry & ENTRY_MASK) * ENTRY_BYTES;
+      long stored = directory.getLong(at);
+      if (stored == key + 1) {
+        lastSlot = directory.getInt(at + 8);
+        break;
+      }
+      if (stored == 0) {
+        if (!create) {
+          return -1;
+        }
+        lastSlot = addTile(key, slot, at);
+        break;
+      }
+      entry = (entry + 1) & mask;
+    }
+    lastKey = key;
+    return lastSlot;
+  }
+
+  private int addTile(long key, int directory, int at) {
+    int tile = allocate(1);
+    // the slot is written before the key, so an entry is never seen half-written
+    MappedByteBuffer entries = buffer(directory);
+    entries.putInt(at + 8, tile);
+    entries.putLong(at, key + 1);
+    tileCount++;
+    buffer(0).putInt(TILES_AT, tileCount);
+    if (tileCount > (directorySlots << (ENTRY_SHIFT - 1))) {
+      growDirectory();
+    }
+    return tile;
+  }
+
+  private void growDirectory() {
+    int oldSlot = directorySlot;
+    int oldEntries = directorySlots << ENTRY_SHIFT;
+    int newSlots = directorySlots << 1;
+    int newSlot = allocate(newSlots);
+    int mask = (newSlots << ENTRY_SHIFT) - 1;
+    for (int entry = 0; entry < oldEntries; entry++) {
+      int from = oldSlot + (entry >>> ENTRY_SHIFT);
+      int fromAt = offset(from) + (entry & ENTRY_MASK) * ENTRY_BYTES;
+      long stored = buffer(from).getLong(fromAt);
+      if (stored == 0) {
+        continue;
+      }
+      int target = mix(stored - 1) & mask;
+      while (true) {
+        int to = newSlot + (target >>> ENTRY_SHIFT);
+        int toAt = offset(to) + (target & ENTRY_MASK) * ENTRY_BYTES;
+        MappedByteBuffer entries = buffer(to);
+        if (entries.getLong(toAt) == 0) {
+          entries.putInt(toAt + 8, buffer(from).getInt(fromAt + 8));
+          entries.putLong(toAt, stored);
+          break;
+        }
+        target = (target + 1) & mask;
+      }
+    }
+    // switching the header over is the last step, so the old directory stays valid
+    // until the new one is complete; its slots are not reused
+    directorySlot = newSlot;
+    directorySlots = newSlots;
+    MappedByteBuffer header = buffer(0);
+    header.putInt(DIRECTORY_AT, directorySlot);
+    header.putInt(DIRECTORY_SLOTS_AT, directorySlots);
+  }
+
+  /**
+   * Appends the given number of zero-filled slots to the file.
+   *
+   * @return the first of the new slots
+   */
+  private int allocate(int count) {
+    int first = slotCount;
+    slotCount += count;
+    for (int slot = first; slot < slotCount; slot++) {
+      buffer(slot);
+    }
+    buffer(0).putInt(SLOTS_AT, slotCount);
+    return first;
+  }
+
+  /**
+   * Returns the mapped segment that contains the given slot, mapping or enlarging it
+   * if needed.
+   */
+  private MappedByteBuffer buffer(int slot) {
+    int index = slot >>> segmentShift;
+    if (index >= segments.length) {
+      segments = Arrays.copyOf(segments, Math.max(index + 1, segments.length << 1));
+    }
+    MappedByteBuffer segment = segments[index];
+    long end = (long) ((slot & segmentMask) + 1) * SLOT_BYTES;
+    if ((segment == null) || (segment.capacity() < end)) {
+      segment = map(index, end);
+    }
+    return segment;
+  }
+
+  private MappedByteBuffer map(int index, long end) {
+    MappedByteBuffer segment = segments[index];
+    long start = index * segmentBytes;
+    // grow mappings geometrically, and map whatever part of the file already exists
+    long size = Math.max(end, (long) MIN_MAPPED_SLOTS * SLOT_BYTES);
+    if (segment != null) {
+      size = Math.max(size, 2L * segment.capacity());
+    }
+    size = Math.min(segmentBytes, Math.max(size, fileBytes - start));
+    try {
+      segment = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot map spreadsheet file: " + e.getMessage());
+    }
+    segment.order(ByteOrder.LITTLE_ENDIAN);
+    segments[index] = segment;
+    fileBytes = Math.max(fileBytes, start + size);
+    return segment;
+  }
+
+  private int offset(int slot) {
+    return (slot & segmentMask) * SLOT_BYTES;
+  }
+
+  private int valueAt(int slot, int row, int col) {
+    int cell = ((row & DenseTile.MASK) << DenseTile.SHIFT) | (col & DenseTile.MASK);
+    return offset(slot) + OCCUPANCY_BYTES + cell * Double.BYTES;
+  }
+
+  /**
+   * An action applied to a tile found in the directory.
+   */
+  private interface TileSlotAction {
+    void apply(int top, int left, int slot);
+  }
+
+  /**
+   * Applies the action to every tile in the directory, passing the first row and column
+   * of the tile and its slot.
+   */
+  private void forEachTileSlot(TileSlotAction action) {
+    int entries = directorySlots << ENTRY_SHIFT;
+    for (int entry = 0; entry < entries; entry++) {
+      int slot = directorySlot + (entry >>> ENTRY_SHIFT);
+      int at = offset(slot) + (entry & ENTRY_MASK) * ENTRY_BYTES;
+      long stored = buffer(slot).getLong(at);
+      if (stored != 0) {
+        action.apply(CellMap.row(stored - 1) << DenseTile.SHIFT,
+                CellMap.col(stored - 1) << DenseTile.SHIFT, buffer(slot).getInt(at + 8));
+      }
+    }
+  }
+
+  /**
+   * Empties the cells of a rectangle inside one tile, given in tile-local coordinates.
+   */
+  private void clearTile(int slot, int top, int left, int fromRow, int fromCol, int toRow,
+                         int toCol, SheetBounds counts) {
+    MappedByteBuffer tile = buffer(slot);
+    int base = offset(slot);
+    long bits = DenseTile.rangeMask(fromCol, toCol);
+    long[] removed = new long[DenseTile.SIZE];
+    for (int row = fromRow; row <= toRow; row++) {
+      int occupancy = base + row * Long.BYTES;
+      long word = tile.getLong(occupancy);
+      removed[row] = word & bits;
+      if (removed[row] == 0) {
+        continue;
+      }
+      tile.putLong(occupancy, word & ~bits);
+      int cell = base + OCCUPANCY_BYTES + ((row << DenseTile.SHIFT) | fromCol) * Double.BYTES;
+      for (int col = fromCol; col <= toCol; col++, cell += Double.BYTES) {
+        tile.putDouble(cell, 0.0);
+      }
+    }
+    if (counts != null) {
+      counts.addTile(top, left, removed, fromRow, toRow, -1);
+    }
+  }
+
+  /**
+   * An action applied to the part of a region that lies in one stored tile.
+   */
+  private interface TilePartAction {
+    /**
+     * Applies the action to a part of a tile.
+     *
+     * @param slot the slot of the tile
+     * @param top  the first row of the tile
+     * @param left the first column of the tile
+     */
+    void apply(int slot, int top, int left, int fromRow, int fromCol, int toRow, int toCol);
+  }
+
+  /**
+   * Applies the action to the part of the region, clipped to the width and height, in
+   * each stored tile, passing the part in tile-local coordinates. The tiles are found by
+   * walking the region or the directory, whichever holds fewer tiles.
+   */
+  private void forEachSlotIn(int startRow, int startCol, int endRow, int endCol,
+                             TilePartAction action) {
+    int lastRow = Math.min(endRow, height - 1);
+    int lastCol = Math.min(endCol, width - 1);
+    if ((startRow > lastRow) || (startCol > lastCol)) {
+      return;
+    }
+    if (TileRegion.tiles(startRow, startCol, lastRow, lastCol) <= tileCount) {
+      TileRegion.forEachTile(startRow, startCol, lastRow, lastCol,
+          (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+            int slot = slot(tileRow, tileCol, false);
+            if (slot >= 0) {
+              action.apply(slot, tileRow << DenseTile.SHIFT, tileCol << DenseTile.SHIFT,
+                      fromRow, fromCol, toRow, toCol);
+            }
+          });
+    } else {
+      forEachTileSlot((top, left, slot) -> {
+        int fromRow = Math.max(startRow, top);
+        int fromCol = Math.max(startCol, left);
+        int toRow = Math.min(lastRow, top + DenseTile.MASK);
+        int toCol = Math.min(lastCol, left + DenseTile.MASK);
+        if ((fromRow <= toRow) && (fromCol <= toCol)) {
+          action.apply(slot, top, left, fromRow - top, fromCol - left, toRow - top,
+                  toCol - left);
+        }
+      });
+    }
+  }
+
+  /**
+   * Returns a view of the values of a tile, starting at the given cell of the tile, for
+   * reading or writing runs of values at once.
+   */
+  private DoubleBuffer values(int slot, int cell) {
+    ByteBuffer view = buffer(slot).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    view.position(offset(slot) + OCCUPANCY_BYTES + cell * Double.BYTES);
+    return view.asDoubleBuffer();
+  }
+
+  private void readBlock(int tileRow, int tileCol, TileBlock block) {
+    int slot = slot(tileRow, tileCol, false);
+    if (slot >= 0) {
+      slotRows.slot = slot;
+      block.readFrom(slotRows);
+    }
+  }
+
+  private void writeBlock(int tileRow, int tileCol, TileBlock block, SheetBounds counts) {
+    int slot = slot(tileRow, tileCol, !block.isEmpty());
+    if (slot >= 0) {
+      slotRows.slot = slot;
+      block.writeTo(slotRows, counts);
+    }
+  }
+
+  /**
+   * The rows of the tile in one slot, read and written a run of values at a time.
+   */
+  private final class SlotRows implements TileRows {
+    private int slot;
+
+    @Override
+    public long getRow(int row, int startCol, double[] target, int offset, int length) {
+      // empty cells always hold 0, so the values can be copied as they are
+      values(slot, (row << DenseTile.SHIFT) | startCol).get(target, offset, length);
+      return buffer(slot).getLong(offset(slot) + row * Long.BYTES)
+              & DenseTile.rangeMask(startCol, startCol + length - 1);
+    }
+
+    @Override
+    public long copyRow(int row, int startCol, double[] source, int offset, int length,
+                        long present) {
+      DoubleBuffer cells = values(slot, (row << DenseTile.SHIFT) | startCol);
+      cells.put(source, offset, length);
+      long bits = DenseTile.rangeMask(startCol, startCol + length - 1);
+      long kept = present & bits;
+      for (long gaps = bits & ~kept; gaps != 0; gaps &= gaps - 1) {
+        cells.put(Long.numberOfTrailingZeros(gaps) - startCol, 0.0);
+      }
+      MappedByteBuffer tile = buffer(slot);
+      int occupancy = offset(slot) + row * Long.BYTES;
+      long before = tile.getLong(occupancy);
+      tile.putLong(occupancy, (before & ~bits) | kept);
+      return before & bits;
+    }
+  }
+
+  /**
+   * Returns the cell counts of the rows and columns, counting the cells of every tile
+   * the first time they are needed.
+   */
+  private SheetBounds bounds() {
+    if (bounds == null) {
+      SheetBounds counts = new SheetBounds();
+      long[] words = new long[DenseTile.SIZE];
+      forEachTileSlot((top, left, slot) -> {
+        MappedByteBuffer tile = buffer(slot);
+        int base = offset(slot);
+        for (int row = 0; row < DenseTile.SIZE; row++) {
+          words[row] = tile.getLong(base + row * Long.BYTES);
+        }
+        counts.addTile(top, left, words, 0, DenseTile.MASK, 1);
+      });
+      bounds = counts;
+    }
+    return bounds;
+  }
+
+  /**
+   * Returns the cell counts for a clear that reaches the given row and column: null if
+   * they have not been counted yet and the clear cannot shrink the width or height, since
+   * it stays away from the last row and column, or else the counts, counting them first
+   * if needed.
+   */
+  private SheetBounds countsFor(int endRow, int endCol) {
+    if ((bounds == null) && (endRow < height - 1) && (endCol < width - 1)) {
+      return null;
+    }
+    return bounds();
+  }
+
+  /**
+   * Copies the width and height from the cell counts, if they have been counted, into the
+   * header.
+   */
+  private void storeBounds() {
+    if (bounds == null) {
+      return;
+    }
+    if (height != bounds.height()) {
+      height = bounds.height();
+      buffer(0).putInt(HEIGHT_AT, height);
+    }
+    if (width != bounds.width()) {
+      width = bounds.width();
+      buffer(0).putInt(WIDTH_AT, width);
+    }
+  }
+
+  private void growBounds(int row, int col) {
+    if ((row + 1) > height) {
+      height = row + 1;
+      buffer(0).putInt(HEIGHT_AT, height);
+    }
+
+    if ((col + 1) > width) {
+      width = col + 1;
+      buffer(0).putInt(WIDTH_AT, width);
+    }
+  }
+
+  private static int mix(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
@@ -46,4 +46,62 @@ public class MockBetterSpreadSheet extends MockSpreadSheet implements BetterSpre
     log.append(String.format("bulkSet(%d, %d, %d, %d, %.1f)\n",
             startRow, startCol, endRow, endCol, value));
   }
-}
\ No newline at end of file
+
+  @Override
+  public void copyRegion(int startRow, int startCol, int endRow, int endCol, int toRow,
+                         int toCol) throws IllegalArgumentException {
+    checkCopy(startRow, startCol, endRow, endCol, toRow, toCol);
+    log.append(String.format("copyRegion(%d, %d, %d, %d, %d, %d)\n",
+            startRow, startCol, endRow, endCol, toRow, toCol));
+  }
+
+  @Override
+  public void moveRegion(int startRow, int startCol, int endRow, int endCol, int toRow,
+                         int toCol) throws IllegalArgumentException {
+    checkCopy(startRow, startCol, endRow, endCol, toRow, toCol);
+    log.append(String.format("moveRegion(%d, %d, %d, %d, %d, %d)\n",
+            startRow, startCol, endRow, endCol, toRow, toCol));
+  }
+
+  @Override
+  public void fillSeries(int startRow, int startCol, int endRow, int endCol, double start,
+                         double step) throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    log.append(String.format("fillSeries(%d, %d, %d, %d, %.1f, %.1f)\n",
+            startRow, startCol, endRow, endCol, start, step));
+  }
+
+  @Override
+  public RegionSummary summarize(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    log.append(String.format("summarize(%d, %d, %d, %d)\n",
+            startRow, startCol, endRow, endCol));
+    return new RegionSummary(0, 0.0, Double.NaN, Double.NaN);
+  }
+
+  private static void checkCopy(int startRow, int startCol, int endRow, int endCol,
+                                int toRow, int toCol) throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0 || toRow < 0 || toCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+  }
+}
@@ -58,6 +58,30 @@ public class MockSpreadSheet implements SpreadSheet {
     log.append(String.format("set(%d, %d, %.1f)\n", row, col, value));
   }
 
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if (row < 0 || col < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    log.append(String.format("clear(%d, %d)\n", row, col));
+  }
+
+  @Override
+  public void clearRange(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    log.append(String.format("clearRange(%d, %d, %d, %d)\n",
+            startRow, startCol, endRow, endCol));
+  }
+
   @Override
   public boolean isEmpty(int row, int col) throws IllegalArgumentException {
     if (row < 0 || col < 0) {
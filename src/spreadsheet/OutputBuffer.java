@@ -0,0 +1,96 @@
+package spreadsheet;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class collects the messages of a controller in a reusable buffer and writes them to
+ * the controller's Appendable in large pieces, instead of one fragment at a time. The
+ * buffer is written when it has grown past {@link #SIZE} characters or has held output for
+ * longer than a tenth of a second at the end of a command, and whenever
+ * {@link #flush()} is called, which the controllers do before they wait for more input
+ * and when they stop. After writing, a Flushable Appendable such as System.out is
+ * flushed too, so a prompt is always visible while the user types.
+ */
+final class OutputBuffer {
+  static final int SIZE = 1 << 16;
+  private static final long MAX_DELAY = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final Appendable destination;
+  private final StringBuilder text;
+  private long oldest;
+
+  /**
+   * Constructs an empty buffer in front of the specified Appendable.
+   *
+   * @param destination where the output is written
+   */
+  OutputBuffer(Appendable destination) {
+    this.destination = destination;
+    this.text = new StringBuilder(SIZE);
+  }
+
+  OutputBuffer append(CharSequence message) {
+    start();
+    text.append(message);
+    return this;
+  }
+
+  OutputBuffer append(char c) {
+    start();
+    text.append(c);
+    return this;
+  }
+
+  OutputBuffer append(int value) {
+    start();
+    text.append(value);
+    return this;
+  }
+
+  OutputBuffer append(double value) {
+    start();
+    text.append(value);
+    return this;
+  }
+
+  /**
+   * Marks the end of the output of one command, and writes the buffer if it has grown too
+   * large or has held output for too long.
+   *
+   * @throws IllegalStateException if there is an error writing to the Appendable
+   */
+  void endCommand() throws IllegalStateException {
+    if ((text.length() >= SIZE)
+            || ((text.length() > 0) && (System.nanoTime() - oldest >= MAX_DELAY))) {
+      flush();
+    }
+  }
+
+  /**
+   * Writes the buffered output to the Appendable, if there is any, and empties the buffer.
+   *
+   * @throws IllegalStateException if there is an error writing to the Appendable
+   */
+  void flush() throws IllegalStateException {
+    if (text.length() == 0) {
+      return;
+    }
+    try {
+      destination.append(text);
+      if (destination instanceof Flushable) {
+        ((Flushable) destination).flush();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    text.setLength(0);
+  }
+
+  private void start() {
+    if (text.length() == 0) {
+      oldest = System.nanoTime();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package spreadsheet;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class recomputes a set of formula cells on the common fork/join pool. The cells
+ * are grouped into levels by their height in the dependency graph, and the levels are
+ * processed from the greatest height down. A cell only reads cells of greater height, so
+ * the cells of one level never read each other: each level is split into chunks that
+ * are evaluated in parallel, with idle threads stealing chunks from busy ones, and the
+ * next level only starts once the whole level is done.
+ *
+ * <p>Every cell is computed from the same inputs as in a sequential recalculation, so
+ * the results do not depend on how the work is scheduled. Small levels, such as those of
+ * a long chain of cells, are evaluated on the calling thread.
+ */
+final class ParallelRecalculation extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  private static final int GRAIN = 256;
+
+  private final FormulaCell[] cells;
+  private final int from;
+  private final int to;
+  private final SpreadSheet sheet;
+
+  private ParallelRecalculation(FormulaCell[] cells, int from, int to, SpreadSheet sheet) {
+    this.cells = cells;
+    this.from = from;
+    this.to = to;
+    this.sheet = sheet;
+  }
+
+  /**
+   * Recomputes the given cells, which must have been ordered by the dependency graph, and
+   * stores their values in the spreadsheet. The spreadsheet must allow several threads to
+   * read and write different cells at once.
+   *
+   * @param order the cells to recompute, as returned by {@link DependencyGraph#order}
+   * @param sheet the spreadsheet to read inputs from and store values in
+   */
+  static void run(List<FormulaCell> order, SpreadSheet sheet) {
+    int maxHeight = 0;
+    for (FormulaCell cell : order) {
+      maxHeight = Math.max(maxHeight, cell.height);
+    }
+    // counting sort by decreasing height, keeping the topological order within a level
+    int[] starts = new int[maxHeight + 2];
+    for (FormulaCell cell : order) {
+      starts[maxHeight - cell.height + 1]++;
+    }
+    for (int level = 1; level < starts.length; level++) {
+      starts[level] += starts[level - 1];
+    }
+    FormulaCell[] levels = new FormulaCell[order.size()];
+    int[] next = starts.clone();
+    for (FormulaCell cell : order) {
+      levels[next[maxHeight - cell.height]++] = cell;
+    }
+
+    for (int level = 0; level <= maxHeight; level++) {
+      int from = starts[level];
+      int to = starts[level + 1];
+      if (to - from <= GRAIN) {
+        evaluate(levels, from, to, sheet);
+      } else {
+        ForkJoinPool.commonPool().invoke(new ParallelRecalculation(levels, from, to, sheet));
+      }
+    }
+  }
+
+  @Override
+  protected void compute() {
+    if (to - from <= GRAIN) {
+      evaluate(cells, from, to, sheet);
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    invokeAll(new ParallelRecalculation(cells, from, middle, sheet),
+            new ParallelRecalculation(cells, middle, to, sheet));
+  }
+
+  private static void evaluate(FormulaCell[] cells, int from, int to, SpreadSheet sheet) {
+    for (int i = from; i < to; i++) {
+      FormulaCell cell = cells[i];
+      sheet.set(cell.row, cell.col, cell.compiled.evaluate(sheet));
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package spreadsheet;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * This class represents a bounded ring of reusable slots that a fixed chain of stages
+ * passes along, each stage running on its own thread. Stage 0 fills a slot, stage 1 takes
+ * it once stage 0 is done with it, and so on, and stage 0 reuses a slot once the last stage
+ * is done with it. Every stage has a single writer cursor that only the stage after it
+ * reads, so each hand-off is a single-producer, single-consumer queue without locks, the
+ * slots are allocated once, and the order of the slots is kept through every stage.
+ *
+ * <p>A stage that has to wait spins briefly, then yields, and then parks for short
+ * periods, calling {@link Stage#idle()} once before it parks. When a stage throws, the
+ * ring remembers the first exception and every other stage stops at its next wait.
+ *
+ * @param <T> the type of the slots
+ */
+final class PipelineRing<T> {
+  private static final int SPINS = 200;
+  private static final int YIELDS = 100;
+  private static final long PARK_NANOS = 20000;
+
+  /**
+   * This interface represents the work of one stage of the ring.
+   *
+   * @param <T> the type of the slots
+   */
+  interface Stage<T> {
+    /**
+     * Processes the next slot.
+     *
+     * @param slot the slot
+     * @return false if this was the last slot
+     */
+    boolean process(T slot);
+
+    /**
+     * Called before the stage parks to wait for its next slot.
+     */
+    default void idle() {
+      // nothing to do by default
+    }
+  }
+
+  private final Object[] slots;
+  private final int mask;
+  private final AtomicLong[] cursors;
+  private volatile Throwable failure;
+
+  /**
+   * Constructs a ring.
+   *
+   * @param capacity the number of slots, which must be a power of two
+   * @param stages   the number of stages
+   * @param factory  the maker of the slots
+   */
+  PipelineRing(int capacity, int stages, Supplier<T> factory) {
+    this.slots = new Object[capacity];
+    this.mask = capacity - 1;
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = factory.get();
+    }
+    this.cursors = new AtomicLong[stages];
+    for (int i = 0; i < stages; i++) {
+      cursors[i] = new AtomicLong();
+    }
+  }
+
+  /**
+   * Runs one stage on the calling thread until it has processed its last slot or the ring
+   * has failed. The first stage publishes every slot as soon as it is filled, since its
+   * input may keep it waiting; later stages publish the slots they were given in a batch.
+   *
+   * @param stage   the index of the stage
+   * @param handler the work of the stage
+   */
+  @SuppressWarnings("unchecked")
+  void run(int stage, Stage<T> handler) {
+    AtomicLong own = cursors[stage];
+    long next = 0;
+    try {
+      while (true) {
+        long available = (stage == 0)
+                ? await(cursors[cursors.length - 1], next - slots.length + 1, handler)
+                        + slots.length
+                : await(cursors[stage - 1], next + 1, handler);
+        for (; next < available; next++) {
+          boolean more = handler.process((T) slots[(int) next & mask]);
+          if (!more) {
+            own.lazySet(next + 1);
+            return;
+          }
+          if (stage == 0) {
+            own.lazySet(next + 1);
+          }
+        }
+        own.lazySet(next);
+      }
+    } catch (RuntimeException | Error e) {
+      fail(e);
+    }
+  }
+
+  /**
+   * Returns the first exception thrown by a stage.
+   *
+   * @return the exception, or null if no stage has failed
+   */
+  Throwable failure() {
+    return failure;
+  }
+
+  private synchronized void fail(Throwable e) {
+    if (failure == null) {
+      failure = e;
+    }
+  }
+
+  private long await(AtomicLong cursor, long needed, Stage<T> handler) {
+    long value = cursor.get();
+    int waits = 0;
+    while (value < needed) {
+      if (failure != null) {
+        throw new IllegalStateException("Pipeline stopped");
+      }
+      if (waits < SPINS) {
+        Thread.onSpinWait();
+      } else if (waits < SPINS + YIELDS) {
+        Thread.yield();
+      } else {
+        if (waits == SPINS + YIELDS) {
+          handler.idle();
+        }
+        LockSupport.parkNanos(PARK_NANOS);
+      }
+      if (waits <= SPINS + YIELDS) {
+        waits++;
+      }
+      value = cursor.get();
+    }
+    return value;
+  }
+}
@@ -0,0 +1,256 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * This class represents the contents of a rectangular region of a spreadsheet at one
+ * moment, kept so the region can be put back the way it was. It uses the smallest of
+ * three forms:
+ *
+ * <ul>
+ *   <li>uniform: every cell was empty, or every cell held the same value, which is
+ *   recognised from a summary of the region without reading its cells and costs a few
+ *   dozen bytes however large the region is;</li>
+ *   <li>sparse: the positions and values of the non-empty cells, in primitive arrays;</li>
+ *   <li>dense: the value of every cell, row by row, and a bitset of the non-empty
+ *   ones.</li>
+ * </ul>
+ *
+ * <p>Only the part of the region within the width and height of the spreadsheet is
+ * read, since every cell beyond them is empty, and it is read in bands of rows so that
+ * no more than a bounded number of cells is held twice while it is read.
+ */
+final class RegionDelta {
+  // the estimated size of a delta without its arrays
+  static final long BASE_BYTES = 64;
+  private static final int BAND_CELLS = 1 << 16;
+  private static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+  private final int startRow;
+  private final int startCol;
+  private final int endRow;
+  private final int endCol;
+  // uniform form: whether the cells held a value, and the value
+  private final boolean uniform;
+  private final boolean filled;
+  private final double value;
+  // sparse form: the non-empty cells
+  private final int[] rows;
+  private final int[] cols;
+  // sparse and dense forms: the values; dense form: the width read and the occupancy
+  private final double[] values;
+  private final int width;
+  private final long[] present;
+
+  private RegionDelta(int startRow, int startCol, int endRow, int endCol, boolean filled,
+                      double value) {
+    this.startRow = startRow;
+    this.startCol = startCol;
+    this.endRow = endRow;
+    this.endCol = endCol;
+    this.uniform = true;
+    this.filled = filled;
+    this.value = value;
+    this.rows = null;
+    this.cols = null;
+    this.values = null;
+    this.width = 0;
+    this.present = null;
+  }
+
+  private RegionDelta(int startRow, int startCol, int endRow, int endCol, int[] rows,
+                      int[] cols, double[] values, int width, long[] present) {
+    this.startRow = startRow;
+    this.startCol = startCol;
+    this.endRow = endRow;
+    this.endCol = endCol;
+    this.uniform = false;
+    this.filled = false;
+    this.value = 0.0;
+    this.rows = rows;
+    this.cols = cols;
+    this.values = values;
+    this.width = width;
+    this.present = present;
+  }
+
+  /**
+   * Captures the current contents of a region.
+   *
+   * @param sheet    the spreadsheet
+   * @param maxBytes the largest size the delta may have
+   * @return the delta, or null if it would be larger than maxBytes
+   * @throws IllegalArgumentException if the region is invalid
+   */
+  static RegionDelta capture(BetterSpreadSheet sheet, int startRow, int startCol,
+                             int endRow, int endCol, long maxBytes)
+          throws IllegalArgumentException {
+    if ((startRow == endRow) && (startCol == endCol)) {
+      boolean empty = sheet.isEmpty(startRow, startCol);
+      return new RegionDelta(startRow, startCol, endRow, endCol, !empty,
+              empty ? 0.0 : sheet.get(startRow, startCol));
+    }
+    SheetRegions.check(startRow, startCol, endRow, endCol);
+    int lastRow = Math.min(endRow, sheet.getHeight() - 1);
+    int lastCol = Math.min(endCol, sheet.getWidth() - 1);
+    if ((startRow > lastRow) || (startCol > lastCol)) {
+      return new RegionDelta(startRow, startCol, endRow, endCol, false, 0.0);
+    }
+    RegionSummary summary = sheet.summarize(startRow, startCol, lastRow, lastCol);
+    long count = summary.getCount();
+    if (count == 0) {
+      return new RegionDelta(startRow, startCol, endRow, endCol, false, 0.0);
+    }
+    long area = TileRegion.cells(startRow, startCol, lastRow, lastCol);
+    if ((count == area) && (lastRow == endRow) && (lastCol == endCol)
+            && (Double.compare(summary.getMin(), summary.getMax()) == 0)) {
+      return new RegionDelta(startRow, startCol, endRow, endCol, true, summary.getMin());
+    }
+    long sparseBytes = count * (2 * Integer.BYTES + Double.BYTES);
+    long denseBytes = area * Double.BYTES + (area + 63) / 64 * Long.BYTES;
+    if ((BASE_BYTES + Math.min(sparseBytes, denseBytes) > maxBytes)
+            || (Math.min(count, area) > MAX_ARRAY)) {
+      return null;
+    }
+    if (sparseBytes <= denseBytes) {
+      return captureSparse(sheet, startRow, startCol, endRow, endCol, lastRow, lastCol,
+              (int) count);
+    }
+    return captureDense(sheet, startRow, startCol, endRow, endCol, lastRow, lastCol,
+            (int) area);
+  }
+
+  /**
+   * Captures the current contents of the region of this delta.
+   *
+   * @param sheet    the spreadsheet
+   * @param maxBytes the largest size the new delta may have
+   * @return the delta, or null if it would be larger than maxBytes
+   */
+  RegionDelta recapture(BetterSpreadSheet sheet, long maxBytes) {
+    return capture(sheet, startRow, startCol, endRow, endCol, maxBytes);
+  }
+
+  /**
+   * Returns the estimated number of bytes this delta occupies.
+   */
+  long bytes() {
+    if (uniform) {
+      return BASE_BYTES;
+    }
+    long bytes = BASE_BYTES + (long) values.length * Double.BYTES;
+    if (rows != null) {
+      bytes += 2L * rows.length * Integer.BYTES;
+    } else {
+      bytes += (long) present.length * Long.BYTES;
+    }
+    return bytes;
+  }
+
+  /**
+   * Puts the contents of the region back into the spreadsheet: the region is cleared,
+   * and its cells are written in blocks where the form allows it.
+   */
+  void restore(BetterSpreadSheet sheet) {
+    sheet.clearRange(startRow, startCol, endRow, endCol);
+    if (uniform) {
+      if (filled) {
+        sheet.bulkSet(startRow, startCol, endRow, endCol, value);
+      }
+    } else if (rows != null) {
+      for (int i = 0; i < rows.length; i++) {
+        sheet.set(rows[i], cols[i], values[i]);
+      }
+    } else {
+      // each run of non-empty cells in a row is written with one setRow
+      int height = values.length / width;
+      for (int row = 0; row < height; row++) {
+        int base = row * width;
+        int col = 0;
+        while (col < width) {
+          if (!isPresent(base + col)) {
+            col++;
+            continue;
+          }
+          int run = col;
+          while ((col < width) && isPresent(base + col)) {
+            col++;
+          }
+          sheet.setRow(startRow + row, startCol + run, values, base + run, col - run);
+        }
+      }
+    }
+  }
+
+  private boolean isPresent(int index) {
+    return (present[index >>> 6] & (1L << index)) != 0;
+  }
+
+  private static RegionDelta captureSparse(BetterSpreadSheet sheet, int startRow,
+                                           int startCol, int endRow, int endCol,
+                                           int lastRow, int lastCol, int count) {
+    int[] rows = new int[count];
+    int[] cols = new int[count];
+    double[] values = new double[count];
+    int found = 0;
+    int band = bandHeight(startCol, lastCol);
+    for (int top = startRow; top <= lastRow; top += band) {
+      ColumnarRegion columns = sheet.readColumns(top, startCol,
+              (int) Math.min(lastRow, (long) top + band - 1), lastCol);
+      for (int col = 0; col < columns.getColumnCount(); col++) {
+        for (int row = 0; row < columns.getRowCount(); row++) {
+          // the summary may be stale if another thread writes to the sheet meanwhile
+          if (!columns.isEmpty(row, col) && (found < count)) {
+            rows[found] = top + row;
+            cols[found] = startCol + col;
+            values[found] = columns.get(row, col);
+            found++;
+          }
+        }
+      }
+      if (top > lastRow - band) {
+        break;
+      }
+    }
+    if (found < count) {
+      rows = Arrays.copyOf(rows, found);
+      cols = Arrays.copyOf(cols, found);
+      values = Arrays.copyOf(values, found);
+    }
+    return new RegionDelta(startRow, startCol, endRow, endCol, rows, cols, values, 0, null);
+  }
+
+  private static RegionDelta captureDense(BetterSpreadSheet sheet, int startRow,
+                                          int startCol, int endRow, int endCol,
+                                          int lastRow, int lastCol, int area) {
+    int width = lastCol - startCol + 1;
+    double[] values = new double[area];
+    long[] present = new long[(area + 63) / 64];
+    int band = bandHeight(startCol, lastCol);
+    for (int top = startRow; top <= lastRow; top += band) {
+      ColumnarRegion columns = sheet.readColumns(top, startCol,
+              (int) Math.min(lastRow, (long) top + band - 1), lastCol);
+      for (int col = 0; col < columns.getColumnCount(); col++) {
+        for (int row = 0; row < columns.getRowCount(); row++) {
+          if (!columns.isEmpty(row, col)) {
+            int index = (top - startRow + row) * width + col;
+            values[index] = columns.get(row, col);
+            present[index >>> 6] |= 1L << index;
+          }
+        }
+      }
+      if (top > lastRow - band) {
+        break;
+      }
+    }
+    return new RegionDelta(startRow, startCol, endRow, endCol, null, null, values, width,
+            present);
+  }
+
+  /**
+   * Returns the number of rows read at once, so a band holds about BAND_CELLS cells.
+   */
+  private static int bandHeight(int startCol, int lastCol) {
+    return Math.max(1, BAND_CELLS / (lastCol - startCol + 1));
+  }
+}
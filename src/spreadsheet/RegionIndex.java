@@ -0,0 +1,231 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * This class represents an index of disjoint rectangular regions that have each been
+ * assigned a single value. It answers which region holds a given cell.
+ *
+ * <p>The index is an interval tree over rows whose node boundaries come from bisecting
+ * the whole range of non-negative rows. A region is stored at the highest node whose
+ * middle row lies within the region, so insertion and lookup visit at most 31 nodes. The
+ * regions of a node all cross its middle row and do not overlap, so their columns do not
+ * overlap either: each node keeps them ordered by their first column, and finds the only
+ * one that can hold a cell with a binary search. Lookup therefore takes logarithmic time
+ * in the number of regions, however the regions were assigned.
+ *
+ * <p>Callers must cut a new region out of the regions it overlaps before adding it.
+ */
+final class RegionIndex {
+
+  /**
+   * A rectangular region of cells that holds one value.
+   */
+  static final class Region {
+    final int startRow;
+    final int startCol;
+    final int endRow;
+    final int endCol;
+    final double value;
+
+    Region(int startRow, int startCol, int endRow, int endCol, double value) {
+      this.startRow = startRow;
+      this.startCol = startCol;
+      this.endRow = endRow;
+      this.endCol = endCol;
+      this.value = value;
+    }
+
+    boolean contains(int row, int col) {
+      return (row >= startRow) && (row <= endRow) && (col >= startCol) && (col <= endCol);
+    }
+
+    boolean intersects(int fromRow, int fromCol, int toRow, int toCol) {
+      return (startRow <= toRow) && (fromRow <= endRow) && (startCol <= toCol)
+              && (fromCol <= endCol);
+    }
+
+    boolean covers(int fromRow, int fromCol, int toRow, int toCol) {
+      return (startRow <= fromRow) && (toRow <= endRow) && (startCol <= fromCol)
+              && (toCol <= endCol);
+    }
+  }
+
+  private static final class Node {
+    private final int low;
+    private final int high;
+    private final int middle;
+    // the regions that cross the middle row, by their first column
+    private final TreeMap<Integer, Region> regions;
+    private Node left;
+    private Node right;
+
+    private Node(int low, int high) {
+      this.low = low;
+      this.high = high;
+      this.middle = (int) (((long) low + high) >>> 1);
+      this.regions = new TreeMap<Integer, Region>();
+    }
+  }
+
+  private final Node root;
+  private int size;
+
+  /**
+   * Constructs an empty region index.
+   */
+  RegionIndex() {
+    this.root = new Node(0, Integer.MAX_VALUE);
+    this.size = 0;
+  }
+
+  /**
+   * Adds a region to this index. The region must not overlap any region it holds.
+   *
+   * @param region the region to add
+   */
+  void add(Region region) {
+    Node node = root;
+    while (true) {
+      if (region.endRow < node.middle) {
+        if (node.left == null) {
+          node.left = new Node(node.low, node.middle - 1);
+        }
+        node = node.left;
+      } else if (region.startRow > node.middle) {
+        if (node.right == null) {
+          node.right = new Node(node.middle + 1, node.high);
+        }
+        node = node.right;
+      } else {
+        node.regions.put(region.startCol, region);
+        size++;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Removes a region from this index. Nothing happens if the index does not hold it.
+   *
+   * @param region the region to remove
+   */
+  void remove(Region region) {
+    Node node = root;
+    while (node != null) {
+      if (region.endRow < node.middle) {
+        node = node.left;
+      } else if (region.startRow > node.middle) {
+        node = node.right;
+      } else {
+        if (node.regions.remove(region.startCol, region)) {
+          size--;
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the region that contains the specified cell.
+   *
+   * @param row the row of the cell, starting with 0
+   * @param col the column of the cell, starting with 0
+   * @return the containing region, or null if there is none
+   */
+  Region top(int row, int col) {
+    Node node = root;
+    while (node != null) {
+      Map.Entry<Integer, Region> entry = node.regions.floorEntry(col);
+      if ((entry != null) && entry.getValue().contains(row, col)) {
+        return entry.getValue();
+      }
+      if (row < node.middle) {
+        node = node.left;
+      } else if (row > node.middle) {
+        node = node.right;
+      } else {
+        node = null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds every region that overlaps the specified rectangle to the list.
+   *
+   * @param startRow the first row of the rectangle
+   * @param startCol the first column of the rectangle
+   * @param endRow   the last row of the rectangle
+   * @param endCol   the last column of the rectangle
+   * @param found    the list to add the overlapping regions to
+   */
+  void overlapping(int startRow, int startCol, int endRow, int endCol, List<Region> found) {
+    List<Node> pending = new ArrayList<Node>();
+    pending.add(root);
+    while (!pending.isEmpty()) {
+      Node node = pending.remove(pending.size() - 1);
+      // the regions of a node are ordered by their last columns too, so the ones that
+      // reach the rectangle start at the one holding its first column
+      Integer from = node.regions.floorKey(startCol);
+      for (Region region : node.regions.tailMap(from == null ? startCol : from).values()) {
+        if (region.startCol > endCol) {
+          break;
+        }
+        if (region.intersects(startRow, startCol, endRow, endCol)) {
+          found.add(region);
+        }
+      }
+      if ((startRow < node.middle) && (node.left != null)) {
+        pending.add(node.left);
+      }
+      if ((endRow > node.middle) && (node.right != null)) {
+        pending.add(node.right);
+      }
+    }
+  }
+
+  /**
+   * Applies the action to every region in this index, in no particular order.
+   *
+   * @param action the action to apply to each region
+   */
+  void forEach(Consumer<Region> action) {
+    List<Node> pending = new ArrayList<Node>();
+    pending.add(root);
+    while (!pending.isEmpty()) {
+      Node node = pending.remove(pending.size() - 1);
+      for (Region region : node.regions.values()) {
+        action.accept(region);
+      }
+      if (node.left != null) {
+        pending.add(node.left);
+      }
+      if (node.right != null) {
+        pending.add(node.right);
+      }
+    }
+  }
+
+  /**
+   * Returns whether this index holds no regions.
+   *
+   * @return true if there are no regions, false otherwise
+   */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the number of regions in this index.
+   *
+   * @return the number of regions
+   */
+  int size() {
+    return size;
+  }
+}
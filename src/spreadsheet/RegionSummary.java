@@ -0,0 +1,73 @@
+package spreadsheet;
+
+/**
+ * This class represents the aggregate values of the non-empty cells in a rectangular
+ * region of a spreadsheet: how many there are, their sum, their smallest and largest
+ * value and their average. Empty cells are not counted.
+ */
+public final class RegionSummary {
+  private final long count;
+  private final double sum;
+  private final double min;
+  private final double max;
+
+  /**
+   * Constructs a summary of the given values.
+   *
+   * @param count the number of non-empty cells
+   * @param sum   the sum of their values
+   * @param min   the smallest value, or NaN if there are no cells
+   * @param max   the largest value, or NaN if there are no cells
+   */
+  RegionSummary(long count, double sum, double min, double max) {
+    this.count = count;
+    this.sum = sum;
+    this.min = min;
+    this.max = max;
+  }
+
+  /**
+   * Returns the number of non-empty cells in the region.
+   *
+   * @return the number of non-empty cells
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the sum of the non-empty cells in the region.
+   *
+   * @return the sum, or 0 if the region has no non-empty cells
+   */
+  public double getSum() {
+    return sum;
+  }
+
+  /**
+   * Returns the smallest value in the region.
+   *
+   * @return the smallest value, or NaN if the region has no non-empty cells
+   */
+  public double getMin() {
+    return min;
+  }
+
+  /**
+   * Returns the largest value in the region.
+   *
+   * @return the largest value, or NaN if the region has no non-empty cells
+   */
+  public double getMax() {
+    return max;
+  }
+
+  /**
+   * Returns the average of the non-empty cells in the region.
+   *
+   * @return the average, or NaN if the region has no non-empty cells
+   */
+  public double getAverage() {
+    return (count == 0) ? Double.NaN : sum / count;
+  }
+}
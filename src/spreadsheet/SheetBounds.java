@@ -0,0 +1,291 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps the width and height of a spreadsheet exact while cells are written
+ * and cleared. It counts the non-empty cells of every row and every column that holds
+ * any, and keeps those rows and columns in max-heaps, so the last non-empty row and
+ * column are always known and reading the width or height costs nothing.
+ *
+ * <p>Changing the count of a row or column costs one hash lookup. A row or column that
+ * becomes occupied is pushed onto its heap, and one that becomes empty stays there until
+ * it reaches the top, so only clearing the last row or column pops the heap, in
+ * logarithmic time. Empty rows and columns are swept out once they outnumber the
+ * occupied ones, which keeps the memory in proportion to the occupied ones.
+ *
+ * <p>Rows and columns must not be negative. This class is not thread-safe.
+ */
+final class SheetBounds {
+  private final Lines rows;
+  private final Lines cols;
+
+  /**
+   * Constructs the bounds of an empty spreadsheet.
+   */
+  SheetBounds() {
+    this.rows = new Lines();
+    this.cols = new Lines();
+  }
+
+  /**
+   * Counts a cell that has become non-empty.
+   */
+  void add(int row, int col) {
+    rows.add(row, 1);
+    cols.add(col, 1);
+  }
+
+  /**
+   * Counts a cell that has become empty.
+   */
+  void remove(int row, int col) {
+    rows.add(row, -1);
+    cols.add(col, -1);
+  }
+
+  /**
+   * Counts the cells of one row of a tile that have become non-empty. Bit c of bits
+   * stands for the cell at column left + c.
+   */
+  void addRow(int row, int left, long bits) {
+    if (bits == 0) {
+      return;
+    }
+    rows.add(row, Long.bitCount(bits));
+    for (long rest = bits; rest != 0; rest &= rest - 1) {
+      cols.add(left + Long.numberOfTrailingZeros(rest), 1);
+    }
+  }
+
+  /**
+   * Counts the cells of one tile that have become non-empty (with a sign of 1) or empty
+   * (with a sign of -1). Bit c of words[r] stands for the cell at row top + r and column
+   * left + c; only the words from fromRow to toRow are looked at.
+   */
+  void addTile(int top, int left, long[] words, int fromRow, int toRow, int sign) {
+    long union = 0;
+    boolean uniform = true;
+    for (int row = fromRow; row <= toRow; row++) {
+      long word = words[row];
+      if (word != 0) {
+        rows.add(top + row, sign * Long.bitCount(word));
+      }
+      union |= word;
+      uniform &= (word == words[fromRow]);
+    }
+    for (long bits = union; bits != 0; bits &= bits - 1) {
+      int col = Long.numberOfTrailingZeros(bits);
+      int count;
+      if (uniform) {
+        // a rectangle, the common case for bulk assignments
+        count = toRow - fromRow + 1;
+      } else {
+        count = 0;
+        for (int row = fromRow; row <= toRow; row++) {
+          count += (int) ((words[row] >>> col) & 1);
+        }
+      }
+      cols.add(left + col, sign * count);
+    }
+  }
+
+  /**
+   * Returns the width: one more than the last column that holds a cell, or 0.
+   */
+  int width() {
+    return cols.last() + 1;
+  }
+
+  /**
+   * Returns the height: one more than the last row that holds a cell, or 0.
+   */
+  int height() {
+    return rows.last() + 1;
+  }
+
+  /**
+   * The cell counts of the rows or the columns, in a primitive hash map with linear
+   * probing, and a max-heap of the lines in the map. A line is in the heap exactly as
+   * long as it is in the map.
+   */
+  private static final class Lines {
+    private static final int EMPTY = -1;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] lines;
+    private int[] counts;
+    private int mask;
+    // lines in the map, and lines in the map with a count above 0
+    private int size;
+    private int live;
+    private int[] heap;
+
+    private Lines() {
+      allocate(DEFAULT_CAPACITY);
+      this.heap = new int[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Adds the given number, which may be negative, to the count of a line.
+     */
+    void add(int line, int delta) {
+      if (delta == 0) {
+        return;
+      }
+      int slot = mix(line) & mask;
+      while ((lines[slot] != line) && (lines[slot] != EMPTY)) {
+        slot = (slot + 1) & mask;
+      }
+      if (lines[slot] == EMPTY) {
+        lines[slot] = line;
+        counts[slot] = 0;
+        size++;
+        push(line);
+      }
+      int before = counts[slot];
+      counts[slot] = before + delta;
+      if ((before == 0) && (counts[slot] > 0)) {
+        live++;
+      } else if ((before > 0) && (counts[slot] == 0)) {
+        live--;
+        if (line == heap[0]) {
+          trim();
+        }
+      }
+      if (size > (lines.length >> 1)) {
+        rebuild(live > (size >> 1) ? lines.length << 1 : lines.length);
+      } else if (size > 2 * live + DEFAULT_CAPACITY) {
+        rebuild(lines.length);
+      }
+    }
+
+    /**
+     * Returns the last line with a count above 0, or -1 if there is none.
+     */
+    int last() {
+      return (size == 0) ? -1 : heap[0];
+    }
+
+    /**
+     * Pops the empty lines off the top of the heap and out of the map.
+     */
+    private void trim() {
+      while (size > 0) {
+        int slot = find(heap[0]);
+        if (counts[slot] > 0) {
+          return;
+        }
+        delete(slot);
+        heap[0] = heap[size];
+        siftDown(0);
+      }
+    }
+
+    private void push(int line) {
+      if (size > heap.length) {
+        heap = Arrays.copyOf(heap, heap.length << 1);
+      }
+      int index = size - 1;
+      while (index > 0) {
+        int parent = (index - 1) >>> 1;
+        if (heap[parent] >= line) {
+          break;
+        }
+        heap[index] = heap[parent];
+        index = parent;
+      }
+      heap[index] = line;
+    }
+
+    private void siftDown(int index) {
+      int line = heap[index];
+      while (true) {
+        int child = 2 * index + 1;
+        if (child >= size) {
+          break;
+        }
+        if ((child + 1 < size) && (heap[child + 1] > heap[child])) {
+          child++;
+        }
+        if (heap[child] <= line) {
+          break;
+        }
+        heap[index] = heap[child];
+        index = child;
+      }
+      heap[index] = line;
+    }
+
+    /**
+     * Rebuilds the map with the given capacity and the heap, keeping only the lines
+     * whose count is above 0.
+     */
+    private void rebuild(int capacity) {
+      int[] oldLines = lines;
+      int[] oldCounts = counts;
+      allocate(capacity);
+      heap = new int[Math.max(DEFAULT_CAPACITY, live)];
+      for (int i = 0; i < oldLines.length; i++) {
+        if ((oldLines[i] != EMPTY) && (oldCounts[i] > 0)) {
+          int slot = mix(oldLines[i]) & mask;
+          while (lines[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+          }
+          lines[slot] = oldLines[i];
+          counts[slot] = oldCounts[i];
+          heap[size++] = oldLines[i];
+        }
+      }
+      for (int index = (size >>> 1) - 1; index >= 0; index--) {
+        siftDown(index);
+      }
+    }
+
+    private int find(int line) {
+      int slot = mix(line) & mask;
+      while (lines[slot] != line) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    /**
+     * Removes the line in the given slot from the map, moving later lines of its probe
+     * sequence back so that no tombstone is needed.
+     */
+    private void delete(int slot) {
+      int hole = slot;
+      int next = slot;
+      while (true) {
+        next = (next + 1) & mask;
+        int line = lines[next];
+        if (line == EMPTY) {
+          break;
+        }
+        int home = mix(line) & mask;
+        // move the line unless its home lies cyclically after the hole
+        if (((next - home) & mask) >= ((next - hole) & mask)) {
+          lines[hole] = line;
+          counts[hole] = counts[next];
+          hole = next;
+        }
+      }
+      lines[hole] = EMPTY;
+      size--;
+    }
+
+    private void allocate(int capacity) {
+      lines = new int[capacity];
+      counts = new int[capacity];
+      Arrays.fill(lines, EMPTY);
+      mask = capacity - 1;
+      size = 0;
+    }
+
+    private static int mix(int line) {
+      int h = line * 0x9E3779B1;
+      return h ^ (h >>> 16);
+    }
+  }
+}
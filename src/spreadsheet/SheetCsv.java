@@ -0,0 +1,414 @@
+package spreadsheet;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This class imports the cells of a spreadsheet from a CSV file and exports them to
+ * one. Line r of the file holds row r of the spreadsheet and field c of a line holds
+ * column c, both counted from 0; an empty field stands for an empty cell. A field is a
+ * number in the syntax of {@link Double#parseDouble(String)}, optionally surrounded by
+ * spaces or double quotes, and lines may end with "\n" or "\r\n".
+ *
+ * <p>An import streams the file through a FileChannel in chunks of whole lines. The
+ * chunks are parsed in parallel on the common fork/join pool, straight from the bytes
+ * (see {@link DecimalParser}), while the calling thread reads ahead and writes the cells
+ * of parsed chunks into the spreadsheet in file order, each run of adjacent fields with
+ * one {@link SpreadSheet#setRow} call. Only a few chunks per worker are in flight at
+ * once, so the memory used does not grow with the file.
+ *
+ * <p>An export visits the non-empty cells in row-major order and writes them through a
+ * direct buffer to a FileChannel, so its cost depends on the number of non-empty cells
+ * rather than the size of the sheet. An empty row is written as an empty line, which
+ * keeps the rows in place when the file is imported again.
+ */
+public final class SheetCsv {
+  static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+
+  private static final int OUTPUT_BUFFER_BYTES = 1 << 18;
+  // the longest number Double.toString produces is 24 bytes
+  private static final int MAX_NUMBER_BYTES = 32;
+  // values are written in plain decimal notation when they have at most MAX_SCALE
+  // decimal places and fewer than 16 digits
+  private static final int MAX_SCALE = 6;
+  private static final double MAX_INTEGRAL = 1e15;
+
+  private SheetCsv() {
+  }
+
+  /**
+   * Saves every non-empty cell of the spreadsheet to the specified CSV file, replacing
+   * the file if it exists.
+   *
+   * @param sheet the spreadsheet to save
+   * @param file  the file to write
+   * @return the number of cells written
+   * @throws IOException if the file cannot be written
+   */
+  public static long save(SpreadSheet sheet, Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      CsvWriter writer = new CsvWriter(channel);
+      try {
+        sheet.forEachCell(CellOrder.ROW_MAJOR, writer);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      writer.finish();
+      return writer.cells;
+    }
+  }
+
+  /**
+   * Loads every field of the specified CSV file into the spreadsheet. The cells of the
+   * file overwrite the cells already in the spreadsheet; other cells are kept. If a
+   * field is not a number, the cells on the lines before it are loaded and an exception
+   * names its line.
+   *
+   * @param file  the CSV file to read
+   * @param sheet the spreadsheet to load the cells into
+   * @return the number of cells read
+   * @throws IOException if the file cannot be read or holds a field that is not a number
+   */
+  public static long load(Path file, SpreadSheet sheet) throws IOException {
+    return load(file, sheet, DEFAULT_CHUNK_BYTES);
+  }
+
+  /**
+   * Loads a CSV file into the spreadsheet, reading it in chunks of about the given
+   * number of bytes. A line longer than a chunk gets a chunk of its own.
+   */
+  static long load(Path file, SpreadSheet sheet, int chunkBytes) throws IOException {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int depth = 2 * pool.getParallelism() + 1;
+    ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+    ArrayDeque<Chunk> free = new ArrayDeque<Chunk>();
+    Applier applier = new Applier(sheet);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      Chunk next = new Chunk(chunkBytes);
+      boolean eof = false;
+      while (!eof) {
+        Chunk chunk = next;
+        while ((chunk.length < chunk.bytes.length) && !eof) {
+          int read = channel.read(ByteBuffer.wrap(chunk.bytes, chunk.length,
+                  chunk.bytes.length - chunk.length));
+          if (read < 0) {
+            eof = true;
+          } else {
+            chunk.length += read;
+          }
+        }
+        int end = eof ? chunk.length : chunk.lastLineEnd();
+        if ((end == 0) && !eof) {
+          // a line longer than the chunk
+          chunk.bytes = Arrays.copyOf(chunk.bytes, 2 * chunk.bytes.length);
+          continue;
+        }
+        // the partial line at the end starts the next chunk
+        next = free.isEmpty() ? new Chunk(chunkBytes) : free.poll();
+        next.take(chunk.bytes, end, chunk.length);
+        chunk.length = end;
+        pending.add(pool.submit(chunk::parse));
+        while ((pending.size() >= depth) || (eof && !pending.isEmpty())) {
+          Chunk parsed = await(pending.poll());
+          applier.apply(parsed);
+          free.add(parsed);
+        }
+      }
+    } finally {
+      for (Future<Chunk> future : pending) {
+        future.cancel(false);
+      }
+    }
+    return applier.cells;
+  }
+
+  private static Chunk await(Future<Chunk> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("CSV import interrupted");
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  /**
+   * A run of whole lines of the file and, once parsed, the cells they hold, with rows
+   * counted from the first line of the chunk. Chunks are reused once applied.
+   */
+  private static final class Chunk {
+    private byte[] bytes;
+    private int length;
+    private int lines;
+    private int[] rows;
+    private int[] cols;
+    private double[] values;
+    private int size;
+    // the line of the first field that is not a number, or -1
+    private int errorLine;
+    private String errorField;
+
+    private Chunk(int capacity) {
+      this.bytes = new byte[capacity];
+      this.rows = new int[1024];
+      this.cols = new int[1024];
+      this.values = new double[1024];
+    }
+
+    /**
+     * Starts this chunk with the given bytes of another.
+     */
+    private void take(byte[] source, int from, int to) {
+      if (bytes.length < to - from) {
+        bytes = new byte[Math.max(to - from, bytes.length * 2)];
+      }
+      System.arraycopy(source, from, bytes, 0, to - from);
+      length = to - from;
+    }
+
+    /**
+     * Returns the index after the last line feed, or 0 if there is none.
+     */
+    private int lastLineEnd() {
+      for (int i = length - 1; i >= 0; i--) {
+        if (bytes[i] == '\n') {
+          return i + 1;
+        }
+      }
+      return 0;
+    }
+
+    private Chunk parse() {
+      size = 0;
+      lines = 0;
+      errorLine = -1;
+      errorField = null;
+      int line = 0;
+      int col = 0;
+      int start = 0;
+      for (int i = 0; i < length; i++) {
+        byte b = bytes[i];
+        if ((b == ',') || (b == '\n')) {
+          if (!field(line, col, start, i)) {
+            return this;
+          }
+          if (b == ',') {
+            col++;
+          } else {
+            line++;
+            col = 0;
+          }
+          start = i + 1;
+        }
+      }
+      // the last line of the file may lack a line feed
+      if ((start < length) || (col > 0)) {
+        if (!field(line, col, start, length)) {
+          return this;
+        }
+        line++;
+      }
+      lines = line;
+      return this;
+    }
+
+    /**
+     * Parses one field and adds its cell, unless the field is empty.
+     *
+     * @return false if the field is not a number
+     */
+    private boolean field(int line, int col, int from, int to) {
+      while ((from < to) && isBlank(bytes[from])) {
+        from++;
+      }
+      while ((to > from) && isBlank(bytes[to - 1])) {
+        to--;
+      }
+      if ((to - from >= 2) && (bytes[from] == '"') && (bytes[to - 1] == '"')) {
+        from++;
+        to--;
+      }
+      if (from == to) {
+        return true;
+      }
+      double value;
+      try {
+        value = DecimalParser.parse(bytes, from, to);
+      } catch (NumberFormatException e) {
+        errorLine = line;
+        errorField = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        return false;
+      }
+      if (size == rows.length) {
+        rows = Arrays.copyOf(rows, size * 2);
+        cols = Arrays.copyOf(cols, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      rows[size] = line;
+      cols[size] = col;
+      values[size++] = value;
+      return true;
+    }
+
+    private static boolean isBlank(byte b) {
+      return (b == ' ') || (b == '\t') || (b == '\r');
+    }
+  }
+
+  /**
+   * Writes parsed chunks into the spreadsheet in file order.
+   */
+  private static final class Applier {
+    private final SpreadSheet sheet;
+    // the row of the first line of the next chunk
+    private long row;
+    private long cells;
+
+    private Applier(SpreadSheet sheet) {
+      this.sheet = sheet;
+    }
+
+    private void apply(Chunk chunk) throws IOException {
+      if (row + chunk.lines > Integer.MAX_VALUE + 1L) {
+        throw new IOException("Too many lines for a spreadsheet");
+      }
+      int first = 0;
+      while (first < chunk.size) {
+        // a run of adjacent fields on one line
+        int last = first;
+        while ((last + 1 < chunk.size) && (chunk.rows[last + 1] == chunk.rows[first])
+                && (chunk.cols[last + 1] == chunk.cols[last] + 1)) {
+          last++;
+        }
+        sheet.setRow((int) row + chunk.rows[first], chunk.cols[first], chunk.values, first,
+                last - first + 1);
+        first = last + 1;
+      }
+      cells += chunk.size;
+      if (chunk.errorLine >= 0) {
+        throw new IOException("Invalid number on line " + (row + chunk.errorLine + 1) + ": "
+                + chunk.errorField);
+      }
+      row += chunk.lines;
+    }
+  }
+
+  /**
+   * Writes cells visited in row-major order as CSV text.
+   */
+  private static final class CsvWriter implements CellVisitor {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] digits;
+    // the line and the field the output is at
+    private int row;
+    private int col;
+    private long cells;
+
+    private CsvWriter(FileChannel channel) {
+      this.channel = channel;
+      this.buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_BYTES);
+      this.digits = new byte[20];
+    }
+
+    @Override
+    public void visit(int row, int col, double value) {
+      try {
+        if (row != this.row) {
+          repeat((byte) '\n', row - this.row);
+          this.row = row;
+          this.col = 0;
+        }
+        repeat((byte) ',', col - this.col);
+        this.col = col;
+        number(value);
+        cells++;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void finish() throws IOException {
+      if (cells > 0) {
+        repeat((byte) '\n', 1);
+      }
+      flush();
+    }
+
+    private void repeat(byte b, int count) throws IOException {
+      for (int i = 0; i < count; i++) {
+        if (!buffer.hasRemaining()) {
+          flush();
+        }
+        buffer.put(b);
+      }
+    }
+
+    private void number(double value) throws IOException {
+      if (buffer.remaining() < MAX_NUMBER_BYTES) {
+        flush();
+      }
+      if ((Math.abs(value) < MAX_INTEGRAL)
+              && (Double.doubleToRawLongBits(value) != Long.MIN_VALUE)) {
+        // most data has few decimal places, which are written without a String; parsing
+        // the digits of value * 10^scale with the point put back divides them by
+        // 10^scale, so they round-trip whenever that division gives the value back
+        for (int scale = 0; scale <= MAX_SCALE; scale++) {
+          double power = DecimalParser.powerOfTen(scale);
+          double scaled = value * power;
+          if ((scaled == Math.rint(scaled)) && (Math.abs(scaled) < MAX_INTEGRAL)
+                  && (scaled / power == value)) {
+            decimal((long) scaled, scale);
+            return;
+          }
+        }
+      }
+      String text = Double.toString(value);
+      for (int i = 0; i < text.length(); i++) {
+        buffer.put((byte) text.charAt(i));
+      }
+    }
+
+    /**
+     * Writes unscaled / 10^scale in plain decimal notation.
+     */
+    private void decimal(long unscaled, int scale) {
+      if (unscaled < 0) {
+        buffer.put((byte) '-');
+        unscaled = -unscaled;
+      }
+      int length = 0;
+      do {
+        digits[length++] = (byte) ('0' + unscaled % 10);
+        unscaled /= 10;
+      } while ((unscaled != 0) || (length <= scale));
+      for (int i = length - 1; i >= 0; i--) {
+        if (i == scale - 1) {
+          buffer.put((byte) '.');
+        }
+        buffer.put(digits[i]);
+      }
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+}
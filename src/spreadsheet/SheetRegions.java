@@ -0,0 +1,136 @@
+package spreadsheet;
+
+/**
+ * This class copies, moves and fills regions of any spreadsheet through its cell-level
+ * operations. It holds the default implementations of the region operations of
+ * {@link BetterSpreadSheet}, which also replay logged region operations into spreadsheets
+ * that lack them, and the checks of their arguments that every implementation shares.
+ *
+ * <p>A copy reads the source region into a {@link ColumnarRegion} before it writes
+ * anything, so the source and the destination may overlap in any direction.
+ */
+final class SheetRegions {
+
+  private SheetRegions() {
+  }
+
+  /**
+   * Checks the arguments of a region operation.
+   *
+   * @throws IllegalArgumentException if any row or column is negative or if the end
+   *                                  coordinates are less than the start coordinates
+   */
+  static void check(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+  }
+
+  /**
+   * Checks the arguments of a region copy or move.
+   *
+   * @throws IllegalArgumentException if any row or column is negative, if the end
+   *                                  coordinates are less than the start coordinates or
+   *                                  if the destination region does not fit in the
+   *                                  spreadsheet
+   */
+  static void check(int startRow, int startCol, int endRow, int endCol, int toRow,
+                    int toCol) throws IllegalArgumentException {
+    check(startRow, startCol, endRow, endCol);
+    if ((toRow < 0) || (toCol < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (((long) toRow + endRow - startRow > Integer.MAX_VALUE)
+            || ((long) toCol + endCol - startCol > Integer.MAX_VALUE)) {
+      throw new IllegalArgumentException("Destination of the region is out of range");
+    }
+  }
+
+  /**
+   * Copies a region of a spreadsheet cell by cell: the destination region is cleared and
+   * the non-empty cells of the source are set in it.
+   *
+   * @throws IllegalArgumentException if the arguments are invalid, as for
+   *                                  {@link #check(int, int, int, int, int, int)}
+   */
+  static void copy(SpreadSheet sheet, int startRow, int startCol, int endRow, int endCol,
+                   int toRow, int toCol) throws IllegalArgumentException {
+    check(startRow, startCol, endRow, endCol, toRow, toCol);
+    if ((toRow == startRow) && (toCol == startCol)) {
+      return;
+    }
+    ColumnarRegion source = sheet.readColumns(startRow, startCol, endRow, endCol);
+    sheet.clearRange(toRow, toCol, toRow + (endRow - startRow), toCol + (endCol - startCol));
+    for (int col = 0; col < source.getColumnCount(); col++) {
+      for (int row = 0; row < source.getRowCount(); row++) {
+        if (!source.isEmpty(row, col)) {
+          sheet.set(toRow + row, toCol + col, source.get(row, col));
+        }
+      }
+    }
+  }
+
+  /**
+   * Empties the cells of a moved region that its destination does not cover. Called
+   * after the region has been copied, with the arguments of the copy.
+   */
+  static void clearUncovered(SpreadSheet sheet, int startRow, int startCol, int endRow,
+                             int endCol, int toRow, int toCol) {
+    if ((toRow == startRow) && (toCol == startCol)) {
+      return;
+    }
+    // the part of the source that the destination covers, which may be empty
+    long firstRow = Math.max(startRow, toRow);
+    long lastRow = Math.min(endRow, (long) toRow + (endRow - startRow));
+    long firstCol = Math.max(startCol, toCol);
+    long lastCol = Math.min(endCol, (long) toCol + (endCol - startCol));
+    if ((firstRow > lastRow) || (firstCol > lastCol)) {
+      sheet.clearRange(startRow, startCol, endRow, endCol);
+      return;
+    }
+    if (startRow < firstRow) {
+      sheet.clearRange(startRow, startCol, (int) firstRow - 1, endCol);
+    }
+    if (lastRow < endRow) {
+      sheet.clearRange((int) lastRow + 1, startCol, endRow, endCol);
+    }
+    if (startCol < firstCol) {
+      sheet.clearRange((int) firstRow, startCol, (int) lastRow, (int) firstCol - 1);
+    }
+    if (lastCol < endCol) {
+      sheet.clearRange((int) firstRow, (int) lastCol + 1, (int) lastRow, endCol);
+    }
+  }
+
+  /**
+   * Fills a region of a spreadsheet with an arithmetic series, one cell at a time.
+   *
+   * @throws IllegalArgumentException if the arguments are invalid, as for
+   *                                  {@link #check(int, int, int, int)}
+   */
+  static void fillSeries(SpreadSheet sheet, int startRow, int startCol, int endRow,
+                         int endCol, double start, double step)
+          throws IllegalArgumentException {
+    check(startRow, startCol, endRow, endCol);
+    long width = (long) endCol - startCol + 1;
+    for (int row = startRow; row <= endRow; row++) {
+      long index = (row - startRow) * width;
+      for (int col = startCol; col <= endCol; col++) {
+        sheet.set(row, col, seriesValue(start, step, index++));
+      }
+    }
+  }
+
+  /**
+   * Returns the value of a series at the given position, computed from the position
+   * rather than by adding up steps, so every implementation gets the same values.
+   */
+  static double seriesValue(double start, double step, long index) {
+    return start + index * step;
+  }
+}
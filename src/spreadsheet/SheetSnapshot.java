@@ -0,0 +1,399 @@
+package spreadsheet;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class saves the contents of a spreadsheet to a compact binary snapshot file and
+ * loads them back. The file is read and written through memory-mapped windows of a
+ * FileChannel, and no object is allocated per cell in either direction.
+ *
+ * <p>A snapshot groups the cells into tiles of 64 by 64 cells. All numbers are
+ * little-endian. The file consists of:
+ * <ul>
+ *   <li>a 32-byte header: the magic number, the format version, the width, the height,
+ *   the number of tiles, a reserved word and the total number of cells as a long;</li>
+ *   <li>a tile index with one 24-byte entry per tile: its tile row, its tile column, the
+ *   file offset of its block, its number of cells and its flags;</li>
+ *   <li>one block per tile: 64 occupancy words, one per tile row with bit c set when
+ *   column c is non-empty, followed by the values of the non-empty cells in row-major
+ *   order; or, for a tile flagged as uniform, whose every cell holds the same value, that
+ *   value alone.</li>
+ * </ul>
+ *
+ * <p>Saving streams the spreadsheet a tile at a time. It first finds the tiles that hold
+ * cells, keeping only their positions and counts, and then reads and writes one tile at a
+ * time, so the memory it needs does not grow with the number of cells. The tiles of a
+ * {@link BetterSpreadSheet} are found from region summaries, skipping empty parts of the
+ * spreadsheet without visiting them, and a tile covered by a single bulk assignment is
+ * saved without reading its cells.
+ */
+public final class SheetSnapshot {
+  static final int MAGIC = 0x504E5353;
+  static final int VERSION = 2;
+  static final int HEADER_BYTES = 32;
+  static final int INDEX_ENTRY_BYTES = 24;
+  static final int OCCUPANCY_BYTES = DenseTile.SIZE * Long.BYTES;
+  // the flag of a full tile whose cells all hold the value that makes up its block
+  static final int UNIFORM = 1;
+
+  private static final int TILE_CELLS = DenseTile.SIZE * DenseTile.SIZE;
+  private static final int MAX_TILES = Integer.MAX_VALUE - 8;
+
+  private SheetSnapshot() {
+  }
+
+  /**
+   * Saves every non-empty cell of the spreadsheet to the specified file, replacing the
+   * file if it exists. The spreadsheet must not change while it is saved.
+   *
+   * @param sheet the spreadsheet to save
+   * @param file  the file to write
+   * @throws IOException if the file cannot be written
+   */
+  public static void save(SpreadSheet sheet, Path file) throws IOException {
+    TileList tiles = new TileList();
+    if (sheet instanceof BetterSpreadSheet) {
+      if ((sheet.getWidth() > 0) && (sheet.getHeight() > 0)) {
+        findTiles((BetterSpreadSheet) sheet, 0, 0, (sheet.getHeight() - 1) >> DenseTile.SHIFT,
+                (sheet.getWidth() - 1) >> DenseTile.SHIFT, tiles);
+      }
+    } else {
+      countTiles(sheet, tiles);
+    }
+
+    long cells = 0;
+    long size = HEADER_BYTES + (long) tiles.size * INDEX_ENTRY_BYTES;
+    for (int i = 0; i < tiles.size; i++) {
+      cells += tiles.counts[i];
+      size += Double.isNaN(tiles.values[i]) ? OCCUPANCY_BYTES
+              + (long) tiles.counts[i] * Double.BYTES : Double.BYTES;
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      // The index and the tile blocks are both written front to back, each through its
+      // own window, so neither keeps moving the other's mapping
+      MappedFile out = new MappedFile(channel, FileChannel.MapMode.READ_WRITE, size);
+      MappedFile blocks = new MappedFile(channel, FileChannel.MapMode.READ_WRITE, size);
+      out.putInt(0, MAGIC);
+      out.putInt(4, VERSION);
+      out.putInt(8, sheet.getWidth());
+      out.putInt(12, sheet.getHeight());
+      out.putInt(16, tiles.size);
+      out.putInt(20, 0);
+      out.putLong(24, cells);
+
+      long entry = HEADER_BYTES;
+      long block = HEADER_BYTES + (long) tiles.size * INDEX_ENTRY_BYTES;
+      for (int i = 0; i < tiles.size; i++) {
+        int tileRow = CellMap.row(tiles.keys[i]);
+        int tileCol = CellMap.col(tiles.keys[i]);
+        boolean uniform = !Double.isNaN(tiles.values[i]);
+        out.putInt(entry, tileRow);
+        out.putInt(entry + 4, tileCol);
+        out.putLong(entry + 8, block);
+        out.putInt(entry + 16, tiles.counts[i]);
+        out.putInt(entry + 20, uniform ? UNIFORM : 0);
+        entry += INDEX_ENTRY_BYTES;
+        if (uniform) {
+          blocks.putDouble(block, tiles.values[i]);
+          block += Double.BYTES;
+        } else {
+          block = writeTile(sheet, tileRow, tileCol, tiles.counts[i], blocks, block);
+        }
+      }
+      out.force();
+      blocks.force();
+    }
+  }
+
+  /**
+   * Loads every cell stored in the specified snapshot file into the spreadsheet. The
+   * snapshot is merged into the spreadsheet: cells in the snapshot overwrite the cells
+   * already in the spreadsheet, and other cells are kept. Each run of adjacent cells in a
+   * row of a tile is written with one {@link SpreadSheet#setRow} call, and a uniform tile
+   * of a {@link BetterSpreadSheet} with one bulk assignment.
+   *
+   * @param file  the snapshot file to read
+   * @param sheet the spreadsheet to load the cells into
+   * @throws IOException if the file cannot be read or is not a valid snapshot
+   */
+  public static void load(Path file, SpreadSheet sheet) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_BYTES) {
+        throw new IOException("Not a spreadsheet snapshot: " + file);
+      }
+      MappedFile in = new MappedFile(channel, FileChannel.MapMode.READ_ONLY, size);
+      MappedFile blocks = new MappedFile(channel, FileChannel.MapMode.READ_ONLY, size);
+      if (in.getInt(0) != MAGIC) {
+        throw new IOException("Not a spreadsheet snapshot: " + file);
+      }
+      if ((in.getInt(4) < 1) || (in.getInt(4) > VERSION)) {
+        throw new IOException("Unsupported snapshot version " + in.getInt(4));
+      }
+      int width = in.getInt(8);
+      int height = in.getInt(12);
+      int tiles = in.getInt(16);
+      if ((width < 0) || (height < 0) || (tiles < 0)
+              || (HEADER_BYTES + (long) tiles * INDEX_ENTRY_BYTES > size)) {
+        throw new IOException("Corrupt snapshot: " + file);
+      }
+
+      double[] run = new double[DenseTile.SIZE];
+      for (long entry = HEADER_BYTES; entry < HEADER_BYTES + (long) tiles * INDEX_ENTRY_BYTES;
+           entry += INDEX_ENTRY_BYTES) {
+        int tileRow = in.getInt(entry);
+        int tileCol = in.getInt(entry + 4);
+        long block = in.getLong(entry + 8);
+        int cells = in.getInt(entry + 16);
+        boolean uniform = (in.getInt(entry + 20) & UNIFORM) != 0;
+        long end = block + (uniform ? Double.BYTES
+                : OCCUPANCY_BYTES + (long) cells * Double.BYTES);
+        // every tile lies within the width and height the snapshot was saved with
+        if ((tileRow < 0) || (tileCol < 0) || (block < 0) || (cells < 0) || (end > size)
+                || ((long) tileRow << DenseTile.SHIFT >= height)
+                || ((long) tileCol << DenseTile.SHIFT >= width)
+                || (uniform && (cells != TILE_CELLS))) {
+          throw new IOException("Corrupt snapshot: " + file);
+        }
+        int top = tileRow << DenseTile.SHIFT;
+        int left = tileCol << DenseTile.SHIFT;
+        if (uniform) {
+          loadUniform(sheet, top, left, blocks.getDouble(block), run);
+          continue;
+        }
+        long value = block + OCCUPANCY_BYTES;
+        for (int row = 0; row < DenseTile.SIZE; row++) {
+          long bits = blocks.getLong(block + (long) row * Long.BYTES);
+          while (bits != 0) {
+            int first = Long.numberOfTrailingZeros(bits);
+            int length = Long.numberOfTrailingZeros(~(bits >>> first));
+            if (value + (long) length * Double.BYTES > end) {
+              throw new IOException("Corrupt snapshot: " + file);
+            }
+            for (int i = 0; i < length; i++) {
+              run[i] = blocks.getDouble(value);
+              value += Double.BYTES;
+            }
+            sheet.setRow(top + row, left + first, run, 0, length);
+            bits &= (length == Long.SIZE) ? 0L : ~(((1L << length) - 1) << first);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a uniform tile into the spreadsheet, with a bulk assignment if it has one or
+   * a row at a time otherwise.
+   */
+  private static void loadUniform(SpreadSheet sheet, int top, int left, double value,
+                                  double[] run) {
+    if (sheet instanceof BetterSpreadSheet) {
+      ((BetterSpreadSheet) sheet).bulkSet(top, left, top + DenseTile.MASK,
+              left + DenseTile.MASK, value);
+      return;
+    }
+    Arrays.fill(run, value);
+    for (int row = 0; row < DenseTile.SIZE; row++) {
+      sheet.setRow(top + row, left, run, 0, DenseTile.SIZE);
+    }
+  }
+
+  /**
+   * Adds the tiles of a rectangle of tiles that hold cells to the list, halving the
+   * rectangle until it is a single tile and skipping the halves its summary shows to be
+   * empty. A full tile whose cells all hold the same value is listed with that value.
+   */
+  private static void findTiles(BetterSpreadSheet sheet, int fromTileRow, int fromTileCol,
+                                int toTileRow, int toTileCol, TileList tiles)
+          throws IOException {
+    RegionSummary summary = sheet.summarize(fromTileRow << DenseTile.SHIFT,
+            fromTileCol << DenseTile.SHIFT, (toTileRow << DenseTile.SHIFT) | DenseTile.MASK,
+            (toTileCol << DenseTile.SHIFT) | DenseTile.MASK);
+    if (summary.getCount() == 0) {
+      return;
+    }
+    if ((fromTileRow == toTileRow) && (fromTileCol == toTileCol)) {
+      boolean uniform = (summary.getCount() == TILE_CELLS) && !Double.isNaN(summary.getMin())
+              && (Double.compare(summary.getMin(), summary.getMax()) == 0);
+      tiles.add(fromTileRow, fromTileCol, (int) summary.getCount(),
+              uniform ? summary.getMin() : Double.NaN);
+      return;
+    }
+    if (toTileRow - fromTileRow >= toTileCol - fromTileCol) {
+      int middle = (int) (((long) fromTileRow + toTileRow) >>> 1);
+      findTiles(sheet, fromTileRow, fromTileCol, middle, toTileCol, tiles);
+      findTiles(sheet, middle + 1, fromTileCol, toTileRow, toTileCol, tiles);
+    } else {
+      int middle = (int) (((long) fromTileCol + toTileCol) >>> 1);
+      findTiles(sheet, fromTileRow, fromTileCol, toTileRow, middle, tiles);
+      findTiles(sheet, fromTileRow, middle + 1, toTileRow, toTileCol, tiles);
+    }
+  }
+
+  /**
+   * Adds the tiles that hold cells to the list, counting the cells of each with one
+   * visit of every cell.
+   */
+  private static void countTiles(SpreadSheet sheet, TileList tiles) throws IOException {
+    CellMap counts = new CellMap();
+    sheet.forEachCell((row, col, value) -> counts.put(row >>> DenseTile.SHIFT,
+            col >>> DenseTile.SHIFT,
+            counts.get(row >>> DenseTile.SHIFT, col >>> DenseTile.SHIFT, 0.0) + 1.0));
+    for (int slot = 0; slot < counts.slotCount(); slot++) {
+      long key = counts.keyAt(slot);
+      if (key >= 0) {
+        tiles.add(CellMap.row(key), CellMap.col(key), (int) counts.valueAt(slot),
+                Double.NaN);
+      }
+    }
+  }
+
+  /**
+   * Reads one tile of the spreadsheet and writes its block.
+   *
+   * @return the file offset just past the block
+   * @throws IllegalStateException if the tile no longer holds the number of cells it
+   *                               was listed with
+   */
+  private static long writeTile(SpreadSheet sheet, int tileRow, int tileCol, int cells,
+                                MappedFile blocks, long block) throws IOException {
+    int top = tileRow << DenseTile.SHIFT;
+    int left = tileCol << DenseTile.SHIFT;
+    ColumnarRegion tile = sheet.readColumns(top, left, top + DenseTile.MASK,
+            left + DenseTile.MASK);
+    long value = block + OCCUPANCY_BYTES;
+    long end = value + (long) cells * Double.BYTES;
+    for (int row = 0; row < DenseTile.SIZE; row++) {
+      long bits = 0;
+      if (row < tile.getRowCount()) {
+        for (int col = 0; col < tile.getColumnCount(); col++) {
+          if (!tile.isEmpty(row, col)) {
+            if (value == end) {
+              throw new IllegalStateException("Spreadsheet changed while it was saved");
+            }
+            bits |= 1L << col;
+            blocks.putDouble(value, tile.get(row, col));
+            value += Double.BYTES;
+          }
+        }
+      }
+      blocks.putLong(block + (long) row * Long.BYTES, bits);
+    }
+    if (value != end) {
+      throw new IllegalStateException("Spreadsheet changed while it was saved");
+    }
+    return end;
+  }
+
+  /**
+   * The tiles of a spreadsheet that hold cells: their packed positions, their numbers of
+   * cells and, for uniform tiles, their value, or NaN for the others.
+   */
+  private static final class TileList {
+    private long[] keys = new long[64];
+    private int[] counts = new int[64];
+    private double[] values = new double[64];
+    private int size;
+
+    void add(int tileRow, int tileCol, int count, double value) throws IOException {
+      if (size == keys.length) {
+        if (size == MAX_TILES) {
+          throw new IOException("Too many tiles for one snapshot");
+        }
+        int capacity = (int) Math.min(MAX_TILES, size + (long) (size >> 1));
+        keys = Arrays.copyOf(keys, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        values = Arrays.copyOf(values, capacity);
+      }
+      keys[size] = CellMap.key(tileRow, tileCol);
+      counts[size] = count;
+      values[size] = value;
+      size++;
+    }
+  }
+
+  /**
+   * A file accessed through a memory-mapped window that is moved along as needed, so
+   * files larger than a single mapping can be read and written.
+   */
+  private static final class MappedFile {
+    private static final long WINDOW_BYTES = 1L << 26;
+
+    private final FileChannel channel;
+    private final FileChannel.MapMode mode;
+    private final long size;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long windowEnd;
+
+    private MappedFile(FileChannel channel, FileChannel.MapMode mode, long size) {
+      this.channel = channel;
+      this.mode = mode;
+      this.size = size;
+      this.windowStart = 0;
+      this.windowEnd = 0;
+    }
+
+    private int at(long position, int bytes) throws IOException {
+      if ((position < windowStart) || (position + bytes > windowEnd)) {
+        if (window != null) {
+          force();
+        }
+        windowStart = position;
+        windowEnd = Math.min(size, position + WINDOW_BYTES);
+        if (position + bytes > windowEnd) {
+          throw new IOException("Snapshot ends unexpectedly");
+        }
+        window = channel.map(mode, windowStart, windowEnd - windowStart);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+      }
+      return (int) (position - windowStart);
+    }
+
+    int getInt(long position) throws IOException {
+      int offset = at(position, Integer.BYTES);
+      return window.getInt(offset);
+    }
+
+    long getLong(long position) throws IOException {
+      int offset = at(position, Long.BYTES);
+      return window.getLong(offset);
+    }
+
+    double getDouble(long position) throws IOException {
+      int offset = at(position, Double.BYTES);
+      return window.getDouble(offset);
+    }
+
+    void putInt(long position, int value) throws IOException {
+      int offset = at(position, Integer.BYTES);
+      window.putInt(offset, value);
+    }
+
+    void putLong(long position, long value) throws IOException {
+      int offset = at(position, Long.BYTES);
+      window.putLong(offset, value);
+    }
+
+    void putDouble(long position, double value) throws IOException {
+      int offset = at(position, Double.BYTES);
+      window.putDouble(offset, value);
+    }
+
+    void force() {
+      if ((window != null) && (mode == FileChannel.MapMode.READ_WRITE)) {
+        window.force();
+      }
+    }
+  }
+}
@@ -1,27 +1,27 @@
 package spreadsheet;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
-
 /**
  * This class represents a sparse spreadsheet. A sparse spreadsheet is a spreadsheet
- * with a large number of empty cells. It represents this efficiently using a hash map.
+ * with a large number of empty cells. It represents this efficiently using a primitive
+ * hash map keyed by the packed cell position, so reading and writing cells does not
+ * allocate any objects.
+ *
+ * <p>The width and height stay exact when cells are cleared: the number of cells in
+ * every row and column is counted as cells come and go (see {@link SheetBounds}), so
+ * the sheet shrinks without scanning its cells.
  */
 public class SparseSpreadSheet implements SpreadSheet {
-  private final Map<CellPosition, Double> sheet;
-  private int width;
-  private int height;
+  private final CellMap sheet;
+  private final SheetBounds bounds;
 
   /**
    * Constructs a new SparseSpreadSheet with an empty cell map and zero dimensions.
-   * A sparse spreadsheet efficiently stores only non-empty cells in a hash map.
+   * A sparse spreadsheet efficiently stores only non-empty cells in a cell map.
    * Initially, the spreadsheet has no cells, so its width and height are both 0.
    */
   public SparseSpreadSheet() {
-    this.sheet = new HashMap<CellPosition, Double>();
-    this.width = 0;
-    this.height = 0;
+    this.sheet = new CellMap();
+    this.bounds = new SheetBounds();
   }
 
   @Override
@@ -29,66 +29,186 @@ public class SparseSpreadSheet implements SpreadSheet {
     if ((row < 0) || (col < 0)) {
       throw new IllegalArgumentException("Row or column cannot be negative");
     }
-    return this.sheet.getOrDefault(new CellPosition(row, col), 0.0);
+    return this.sheet.get(row, col, 0.0);
   }
 
   @Override
   public void set(int row, int col, double value) throws IllegalArgumentException {
+    store(row, col, value);
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
     if ((row < 0) || (col < 0)) {
       throw new IllegalArgumentException("Row or column cannot be negative");
     }
-    this.sheet.put(new CellPosition(row, col), value);
-    if ((row + 1) > height) {
-      height = row + 1;
-    }
-
-    if ((col + 1) > width) {
-      width = col + 1;
-    }
+    return !this.sheet.containsKey(row, col);
   }
 
   @Override
-  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+  public void clear(int row, int col) throws IllegalArgumentException {
     if ((row < 0) || (col < 0)) {
       throw new IllegalArgumentException("Row or column cannot be negative");
     }
-    return !this.sheet.containsKey(new CellPosition(row, col));
+    if (this.sheet.remove(row, col)) {
+      bounds.remove(row, col);
+    }
+  }
+
+  @Override
+  public void clearRange(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    removeCells(startRow, startCol, endRow, endCol, (row, col, value) -> { });
   }
 
   @Override
   public int getWidth() {
-    return this.width;
+    return bounds.width();
   }
 
   @Override
   public int getHeight() {
-    return this.height;
+    return bounds.height();
   }
 
-  private static class CellPosition {
-    private final int row;
-    private final int column;
+  /**
+   * Stores a value in the cell map and grows the dimensions to include its cell.
+   *
+   * @param row   the row number of the cell, starting with 0
+   * @param col   the column number of the cell, starting with 0
+   * @param value the value to store
+   * @return true if the cell map did not hold the cell before, false otherwise
+   * @throws IllegalArgumentException if the row or column are negative
+   */
+  boolean store(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    boolean added = this.sheet.put(row, col, value);
+    if (added) {
+      bounds.add(row, col);
+    }
+    return added;
+  }
 
-    private CellPosition(int row, int column) {
-      this.row = row;
-      this.column = column;
+  /**
+   * Removes every cell of a region from the cell map and shrinks the dimensions to
+   * match. The region is probed cell by cell, or the map is walked if it holds fewer
+   * cells than the region.
+   *
+   * @param startRow the starting row of the region (inclusive), 0-based
+   * @param startCol the starting column of the region (inclusive), 0-based
+   * @param endRow   the ending row of the region (inclusive), 0-based
+   * @param endCol   the ending column of the region (inclusive), 0-based
+   * @param removed  the action to apply to each cell that was removed
+   * @throws IllegalArgumentException if any row or column is negative or if
+   *                                  the end coordinates are less than the start coordinates
+   */
+  void removeCells(int startRow, int startCol, int endRow, int endCol, CellVisitor removed)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
     }
 
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) {
-        return true;
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    int lastRow = Math.min(endRow, bounds.height() - 1);
+    int lastCol = Math.min(endCol, bounds.width() - 1);
+    if ((startRow > lastRow) || (startCol > lastCol)) {
+      return;
+    }
+    if (TileRegion.cells(startRow, startCol, lastRow, lastCol) <= sheet.size()) {
+      for (int row = startRow; row <= lastRow; row++) {
+        for (int col = startCol; col <= lastCol; col++) {
+          double value = sheet.get(row, col, 0.0);
+          if (sheet.remove(row, col)) {
+            bounds.remove(row, col);
+            removed.visit(row, col, value);
+          }
+        }
+      }
+      return;
+    }
+    // removing leaves the other slots where they are, so the map can be walked meanwhile
+    for (int slot = 0; slot < sheet.slotCount(); slot++) {
+      long key = sheet.keyAt(slot);
+      if (key < 0) {
+        continue;
+      }
+      int row = CellMap.row(key);
+      int col = CellMap.col(key);
+      if ((row >= startRow) && (row <= lastRow) && (col >= startCol) && (col <= lastCol)) {
+        double value = sheet.valueAt(slot);
+        sheet.remove(row, col);
+        bounds.remove(row, col);
+        removed.visit(row, col, value);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The region is probed cell by cell, or the cell map is walked if it holds fewer
+   * cells than the region.
+   */
+  @Override
+  public ColumnarRegion readColumns(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    ColumnarRegion columns = ColumnarRegion.allocate(this, startRow, startCol, endRow,
+            endCol);
+    forEachStoredCell(columns, columns::put);
+    return columns;
+  }
+
+  /**
+   * Applies the visitor to every cell in the cell map that lies within a columnar
+   * region. The region is probed column by column, or the map is walked if it holds
+   * fewer cells than the region.
+   *
+   * @param columns the region
+   * @param visitor the action to apply to each cell
+   */
+  void forEachStoredCell(ColumnarRegion columns, CellVisitor visitor) {
+    if ((columns.getRowCount() == 0) || (columns.getColumnCount() == 0)) {
+      return;
+    }
+    int startRow = columns.getStartRow();
+    int startCol = columns.getStartCol();
+    int lastRow = startRow + columns.getRowCount() - 1;
+    int lastCol = startCol + columns.getColumnCount() - 1;
+    if (TileRegion.cells(startRow, startCol, lastRow, lastCol) <= sheet.size()) {
+      for (int col = startCol; col <= lastCol; col++) {
+        for (int row = startRow; row <= lastRow; row++) {
+          if (sheet.containsKey(row, col)) {
+            visitor.visit(row, col, sheet.get(row, col, 0.0));
+          }
+        }
       }
-      if (!(o instanceof CellPosition)) {
-        return false;
+      return;
+    }
+    for (int slot = 0; slot < sheet.slotCount(); slot++) {
+      long key = sheet.keyAt(slot);
+      if (key >= 0) {
+        int row = CellMap.row(key);
+        int col = CellMap.col(key);
+        if ((row >= startRow) && (row <= lastRow) && (col >= startCol) && (col <= lastCol)) {
+          visitor.visit(row, col, sheet.valueAt(slot));
+        }
       }
-      CellPosition other = (CellPosition) o;
-      return this.row == other.row && this.column == other.column;
     }
+  }
 
-    @Override
-    public int hashCode() {
-      return Objects.hash(this.row, this.column);
+  @Override
+  public void forEachCell(CellVisitor visitor) {
+    for (int slot = 0; slot < sheet.slotCount(); slot++) {
+      long key = sheet.keyAt(slot);
+      if (key >= 0) {
+        visitor.visit(CellMap.row(key), CellMap.col(key), sheet.valueAt(slot));
+      }
     }
   }
 }
@@ -0,0 +1,230 @@
+package spreadsheet;
+
+/**
+ * This class represents a square block of cells that stores only its non-empty cells,
+ * in a small primitive cell map. It suits tiles that hold a handful of scattered values.
+ *
+ * <p>All row and column arguments are local to the tile, between 0 and
+ * {@link DenseTile#MASK}.
+ */
+final class SparseTile implements Tile {
+  private final CellMap cells;
+  // the summary of the whole tile, valid while summarized is true
+  private final CellSummary cached;
+  private boolean summarized;
+
+  /**
+   * Constructs an empty tile.
+   */
+  SparseTile() {
+    this.cells = new CellMap();
+    this.cached = new CellSummary();
+    this.summarized = true;
+  }
+
+  @Override
+  public double get(int row, int col) {
+    return cells.get(row, col, 0.0);
+  }
+
+  @Override
+  public boolean isSet(int row, int col) {
+    return cells.containsKey(row, col);
+  }
+
+  @Override
+  public boolean set(int row, int col, double value) {
+    boolean added = cells.put(row, col, value);
+    if (!added) {
+      summarized = false;
+    } else if (summarized) {
+      cached.add(value);
+    }
+    return added;
+  }
+
+  @Override
+  public long setRow(int row, int startCol, double[] source, int offset, int length) {
+    long added = 0;
+    for (int i = 0; i < length; i++) {
+      if (set(row, startCol + i, source[offset + i])) {
+        added |= 1L << (startCol + i);
+      }
+    }
+    return added;
+  }
+
+  @Override
+  public long getRow(int row, int startCol, double[] target, int offset, int length) {
+    long present = 0;
+    for (int i = 0; i < length; i++) {
+      int col = startCol + i;
+      double value = cells.get(row, col, Double.NaN);
+      // only a NaN result needs a second probe to tell a stored NaN from an empty cell
+      if ((value == value) || cells.containsKey(row, col)) {
+        target[offset + i] = value;
+        present |= 1L << col;
+      } else {
+        target[offset + i] = 0.0;
+      }
+    }
+    return present;
+  }
+
+  @Override
+  public long copyRow(int row, int startCol, double[] source, int offset, int length,
+                      long present) {
+    long before = 0;
+    for (int i = 0; i < length; i++) {
+      int col = startCol + i;
+      long bit = 1L << col;
+      if ((present & bit) != 0) {
+        if (!set(row, col, source[offset + i])) {
+          before |= bit;
+        }
+      } else if (clear(row, col)) {
+        before |= bit;
+      }
+    }
+    return before;
+  }
+
+  @Override
+  public void fill(int startRow, int startCol, int endRow, int endCol, double value) {
+    for (int row = startRow; row <= endRow; row++) {
+      for (int col = startCol; col <= endCol; col++) {
+        set(row, col, value);
+      }
+    }
+  }
+
+  @Override
+  public void countFill(int startRow, int startCol, int endRow, int endCol, int top,
+                        int left, SheetBounds bounds) {
+    for (int row = startRow; row <= endRow; row++) {
+      for (int col = startCol; col <= endCol; col++) {
+        if (!cells.containsKey(row, col)) {
+          bounds.add(top + row, left + col);
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean clear(int row, int col) {
+    if (!cells.remove(row, col)) {
+      return false;
+    }
+    cleared();
+    return true;
+  }
+
+  @Override
+  public void clear(int startRow, int startCol, int endRow, int endCol, int top, int left,
+                    SheetBounds bounds) {
+    boolean any = false;
+    // removing leaves the other slots where they are, so the map can be walked meanwhile
+    for (int slot = 0; slot < cells.slotCount(); slot++) {
+      long key = cells.keyAt(slot);
+      if (key >= 0) {
+        int row = CellMap.row(key);
+        int col = CellMap.col(key);
+        if ((row >= startRow) && (row <= endRow) && (col >= startCol) && (col <= endCol)) {
+          cells.remove(row, col);
+          bounds.remove(top + row, left + col);
+          any = true;
+        }
+      }
+    }
+    if (any) {
+      cleared();
+    }
+  }
+
+  @Override
+  public void copyTo(int startRow, int startCol, int endRow, int endCol, int top, int left,
+                     ColumnarRegion columns) {
+    for (int slot = 0; slot < cells.slotCount(); slot++) {
+      long key = cells.keyAt(slot);
+      if (key >= 0) {
+        int row = CellMap.row(key);
+        int col = CellMap.col(key);
+        if ((row >= startRow) && (row <= endRow) && (col >= startCol) && (col <= endCol)) {
+          columns.put(top + row, left + col, cells.valueAt(slot));
+        }
+      }
+    }
+  }
+
+  @Override
+  public int count() {
+    return cells.size();
+  }
+
+  @Override
+  public void summarize(int startRow, int startCol, int endRow, int endCol,
+                        CellSummary summary) {
+    boolean whole = (startRow == 0) && (startCol == 0) && (endRow == DenseTile.MASK)
+            && (endCol == DenseTile.MASK);
+    if (whole && summarized) {
+      summary.add(cached);
+      return;
+    }
+    if (whole) {
+      cached.clear();
+    }
+    CellSummary target = whole ? cached : summary;
+    // the map holds few cells, so walking it beats probing every cell of the rectangle
+    for (int slot = 0; slot < cells.slotCount(); slot++) {
+      long key = cells.keyAt(slot);
+      if (key >= 0) {
+        int row = CellMap.row(key);
+        int col = CellMap.col(key);
+        if ((row >= startRow) && (row <= endRow) && (col >= startCol) && (col <= endCol)) {
+          target.add(cells.valueAt(slot));
+        }
+      }
+    }
+    if (whole) {
+      summarized = true;
+      summary.add(cached);
+    }
+  }
+
+  @Override
+  public void forEachCell(int top, int left, CellVisitor visitor) {
+    for (int slot = 0; slot < cells.slotCount(); slot++) {
+      long key = cells.keyAt(slot);
+      if (key >= 0) {
+        visitor.visit(top + CellMap.row(key), left + CellMap.col(key), cells.valueAt(slot));
+      }
+    }
+  }
+
+  /**
+   * Drops the cached summary after cells were cleared, since one of them may have been
+   * the minimum or maximum. An empty tile has an empty summary.
+   */
+  private void cleared() {
+    if (cells.size() == 0) {
+      cached.clear();
+      summarized = true;
+    } else {
+      summarized = false;
+    }
+  }
+
+  /**
+   * Returns a dense copy of this tile.
+   */
+  DenseTile toDense() {
+    DenseTile dense = new DenseTile();
+    for (int slot = 0; slot < cells.slotCount(); slot++) {
+      long key = cells.keyAt(slot);
+      if (key >= 0) {
+        dense.set(CellMap.row(key), CellMap.col(key), cells.valueAt(slot));
+      }
+    }
+    return dense;
+  }
+}
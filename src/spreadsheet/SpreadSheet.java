@@ -26,6 +26,36 @@ public interface SpreadSheet {
    */
   void set(int row, int col, double value) throws IllegalArgumentException;
 
+  /**
+   * Sets a run of consecutive cells in one row to consecutive values of an array: the
+   * cell at column startCol + i is set to values[offset + i] for every i below length.
+   * Loaders use it to write whole rows of data at once.
+   *
+   * <p>This default implementation sets the cells one at a time. Implementations that
+   * store cells in blocks override it to copy each block's part of the run at once.
+   *
+   * @param row      the row number of the cells, starting with 0
+   * @param startCol the column number of the first cell of the run, starting with 0
+   * @param values   the array that holds the values
+   * @param offset   the index in the array of the value of the first cell
+   * @param length   the number of cells to set
+   * @throws IllegalArgumentException if the row or column are negative, the array is null,
+   *                                  or the run does not lie within the array and the
+   *                                  columns of the spreadsheet
+   */
+  default void setRow(int row, int startCol, double[] values, int offset, int length)
+          throws IllegalArgumentException {
+    if ((row < 0) || (startCol < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if ((values == null) || (offset < 0) || (length < 0) || (offset > values.length - length)
+            || ((long) startCol + length - 1 > Integer.MAX_VALUE)) {
+      throw new IllegalArgumentException("Run of values is out of range");
+    }
+    for (int i = 0; i < length; i++) {
+      set(row, startCol + i, values[offset + i]);
+    }
+  }
 
   /**
    * Returns whether the specified cell is empty.
@@ -37,6 +67,80 @@ public interface SpreadSheet {
    */
   boolean isEmpty(int row, int col) throws IllegalArgumentException;
 
+  /**
+   * Empties the specified cell. Clearing an empty cell has no effect.
+   *
+   * @param row the row number of the cell, starting with 0
+   * @param col the column number of the cell, starting with 0
+   * @throws IllegalArgumentException if the row or column are negative
+   */
+  void clear(int row, int col) throws IllegalArgumentException;
+
+  /**
+   * Empties every cell in a rectangular region. The width and height shrink if the
+   * region held the last non-empty cells.
+   *
+   * <p>This default implementation clears the non-empty cells of the region that lie
+   * within the width and height of the spreadsheet one at a time. Implementations
+   * override it to clear blocks of cells at once.
+   *
+   * @param startRow the starting row of the region (inclusive), 0-based
+   * @param startCol the starting column of the region (inclusive), 0-based
+   * @param endRow   the ending row of the region (inclusive), 0-based
+   * @param endCol   the ending column of the region (inclusive), 0-based
+   * @throws IllegalArgumentException if any row or column is negative or if
+   *                                  the end coordinates are less than the start coordinates
+   */
+  default void clearRange(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+    int lastRow = Math.min(endRow, getHeight() - 1);
+    int lastCol = Math.min(endCol, getWidth() - 1);
+    for (int row = startRow; row <= lastRow; row++) {
+      for (int col = startCol; col <= lastCol; col++) {
+        if (!isEmpty(row, col)) {
+          clear(row, col);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the cells of a rectangular region into columnar arrays, one array of values
+   * and one validity bitmap per column. The region is cut down to the width and height
+   * of this spreadsheet, since no cell beyond them is non-empty.
+   *
+   * <p>This default implementation reads the cells of the region one at a time.
+   * Implementations override it to copy blocks of cells at once.
+   *
+   * @param startRow the starting row of the region (inclusive), 0-based
+   * @param startCol the starting column of the region (inclusive), 0-based
+   * @param endRow   the ending row of the region (inclusive), 0-based
+   * @param endCol   the ending column of the region (inclusive), 0-based
+   * @return the cells of the region
+   * @throws IllegalArgumentException if any row or column is negative or if
+   *                                  the end coordinates are less than the start coordinates
+   */
+  default ColumnarRegion readColumns(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    ColumnarRegion columns = ColumnarRegion.allocate(this, startRow, startCol, endRow,
+            endCol);
+    for (int col = startCol; col < startCol + columns.getColumnCount(); col++) {
+      for (int row = startRow; row < startRow + columns.getRowCount(); row++) {
+        if (!isEmpty(row, col)) {
+          columns.put(row, col, get(row, col));
+        }
+      }
+    }
+    return columns;
+  }
+
   /**
    * Return the width of this spreadsheet. The width is defined by the cell with
    * the highest column number that is not empty.
@@ -52,4 +156,51 @@ public interface SpreadSheet {
    * @return the height of this spreadsheet
    */
   int getHeight();
+
+  /**
+   * Applies the visitor to every non-empty cell of this spreadsheet, in no particular
+   * order. The visitor must not change this spreadsheet.
+   *
+   * <p>This default implementation checks every cell within the width and height of the
+   * spreadsheet. Implementations override it to visit only the cells they store, so the
+   * cost depends on the number of non-empty cells rather than the size of the sheet.
+   *
+   * @param visitor the action to apply to each cell
+   */
+  default void forEachCell(CellVisitor visitor) {
+    for (int row = 0; row < getHeight(); row++) {
+      for (int col = 0; col < getWidth(); col++) {
+        if (!isEmpty(row, col)) {
+          visitor.visit(row, col, get(row, col));
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies the visitor to every non-empty cell of this spreadsheet in the specified
+   * order. The cells are collected and sorted first, so the visitor may change this
+   * spreadsheet; the changes are not visited.
+   *
+   * @param order   the order in which to visit the cells
+   * @param visitor the action to apply to each cell
+   * @throws IllegalArgumentException if the order is null
+   */
+  default void forEachCell(CellOrder order, CellVisitor visitor)
+          throws IllegalArgumentException {
+    cellSpliterator(order).forEachRemaining(visitor);
+  }
+
+  /**
+   * Returns a spliterator over the non-empty cells of this spreadsheet in the specified
+   * order, for use with {@link java.util.stream.StreamSupport#stream}. It works on a
+   * snapshot of the cells and splits evenly, so it is suited to parallel streams.
+   *
+   * @param order the order of the cells
+   * @return the spliterator
+   * @throws IllegalArgumentException if the order is null
+   */
+  default CellSpliterator cellSpliterator(CellOrder order) throws IllegalArgumentException {
+    return CellSpliterator.of(this, order);
+  }
 }
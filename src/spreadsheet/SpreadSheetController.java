@@ -1,7 +1,7 @@
 package spreadsheet;
 
 import java.io.IOException;
-import java.util.Scanner;
+import java.nio.file.Paths;
 
 /**
  * This class represents the controller of an interactive spreadsheet application.
@@ -10,7 +10,10 @@ import java.util.Scanner;
  *
  * <p>This controller works with any Readable to read its inputs and
  * any Appendable to transmit output. This controller directly uses
- * the Appendable object (i.e. there is no official "view")
+ * the Appendable object (i.e. there is no official "view"). The output is collected in a
+ * buffer and written to the Appendable in large pieces: before the controller waits for
+ * more input, when the buffer grows large or has held output for a tenth of a second, and
+ * when the controller stops.
  *
  * <p>A cell in the spreadsheet is referred to using a row-letter and a column number.
  * The row letter starts from A-Z and then AA-ZZ, then AAA-ZZZ and so on.
@@ -23,8 +26,30 @@ import java.util.Scanner;
  * it uses letters for rows, not columns).
  */
 public class SpreadSheetController {
+  private static final String[] COMMANDS = {"assign-value", "assign-formula", "print-value",
+    "save", "load", "import-csv", "export-csv", "menu", "q", "quit"};
+  private static final int PIPELINE_SLOTS = 1 << 12;
+
+  /**
+   * This class represents one command on its way through the controller: the parse stage
+   * fills in the command and its arguments, the apply stage the outcome, and the output
+   * stage turns the outcome into a message. Every mode runs commands through these three
+   * stages, the pipelined mode on three threads and the others one command at a time. A
+   * null command marks the end of the input.
+   */
+  private static final class Command {
+    private String command;
+    private int row;
+    private int col;
+    private double value;
+    private String text;
+    private IllegalArgumentException error;
+    private double result;
+    private String message;
+  }
+
   private Readable readable;
-  private Appendable appendable;
+  private OutputBuffer output;
   private SpreadSheet sheet;
 
   /**
@@ -40,95 +65,367 @@ public class SpreadSheetController {
       throw new IllegalArgumentException("Sheet, readable or appendable is null");
     }
     this.sheet = sheet;
-    this.appendable = appendable;
+    this.output = new OutputBuffer(appendable);
     this.readable = readable;
   }
 
   /**
    * Starts the spreadsheet controller and runs the main program loop.
-   * This method processes user input until the user quits the application.
+   * This method processes user input until the user quits the application
+   * or the input ends.
    * It handles user commands, input validation, and manages interactions
    * between the user and the spreadsheet model.
    *
-   * @throws IllegalStateException if there is an error writing to the output destination
+   * @throws IllegalStateException if there is an error reading the input or writing to the
+   *                               output destination
    */
   public void executeProgram() throws IllegalStateException {
-    Scanner sc = new Scanner(readable);
-    boolean quit = false;
-    int row;
-    int col;
-    double value;
-
-    this.welcomeMessage();
-
-    while (!quit) {
-      writeMessage("Type instruction: ");
-      String userInstruction = sc.next();
-      switch (userInstruction) {
+    execute(true);
+  }
+
+  /**
+   * Runs the controller in headless batch mode. The commands are the same as in
+   * {@link #executeProgram()}, but no welcome message, prompts or farewell message are
+   * written. Processing stops at a quit command or at the end of the input, whichever
+   * comes first.
+   *
+   * @throws IllegalStateException if there is an error reading the input or writing to the
+   *                               output destination
+   */
+  public void executeBatch() throws IllegalStateException {
+    execute(false);
+  }
+
+  /**
+   * Reads and runs commands one at a time, through the same stages as the pipelined
+   * mode, until a quit command or the end of the input.
+   *
+   * @param interactive whether to write the welcome message, a prompt before every
+   *                    command and the farewell message
+   * @throws IllegalStateException if there is an error reading the input or writing to the
+   *                               output destination
+   */
+  private void execute(boolean interactive) throws IllegalStateException {
+    CommandParser parser = new CommandParser(readable, output::flush, COMMANDS);
+    Command command = new Command();
+    if (interactive) {
+      welcomeMessage();
+    }
+    while (true) {
+      if (interactive) {
+        writeMessage("Type instruction: ");
+      }
+      if (!parseCommand(parser, command)) {
+        break;
+      }
+      applyCommand(command);
+      writeCommand(command, interactive);
+    }
+    if (interactive) {
+      farewellMessage();
+    }
+    output.flush();
+  }
+
+  /**
+   * Runs the controller in pipelined batch mode, for very large command streams. The
+   * commands, their effects and the output are exactly those of {@link #executeBatch()},
+   * but the work is split into three stages on three threads: one parses the commands, one
+   * applies them to the spreadsheet and one formats and writes the output. The stages pass
+   * the commands along a bounded ring, in order, so reading and writing overlap with the
+   * changes to the spreadsheet, and each print-value still sees every earlier assignment.
+   * The spreadsheet is only used by the calling thread, which runs the apply stage.
+   *
+   * @throws IllegalStateException if there is an error reading the input or writing to the
+   *                               output destination
+   */
+  public void executePipelined() throws IllegalStateException {
+    CommandParser parser = new CommandParser(readable, COMMANDS);
+    PipelineRing<Command> ring = new PipelineRing<>(PIPELINE_SLOTS, 3,
+            Command::new);
+    Thread parse = new Thread(() -> ring.run(0, slot -> parseCommand(parser, slot)),
+            "spreadsheet-parse");
+    Thread write = new Thread(() -> ring.run(2, new PipelineRing.Stage<Command>() {
+      @Override
+      public boolean process(Command slot) {
+        return writeCommand(slot, false);
+      }
+
+      @Override
+      public void idle() {
+        output.flush();
+      }
+    }), "spreadsheet-output");
+    parse.setDaemon(true);
+    write.setDaemon(true);
+    parse.start();
+    write.start();
+    ring.run(1, this::applyCommand);
+    try {
+      write.join();
+      if (ring.failure() == null) {
+        parse.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the output");
+    }
+    Throwable failure = ring.failure();
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure != null) {
+      throw (Error) failure;
+    }
+    output.flush();
+  }
+
+  /**
+   * Reads the next command into a slot, as the parse stage.
+   *
+   * @return false if the input has ended
+   */
+  private static boolean parseCommand(CommandParser parser, Command slot) {
+    String instruction = parser.nextCommand();
+    slot.command = null;
+    if ((instruction == null) || "q".equals(instruction) || "quit".equals(instruction)) {
+      return false;
+    }
+    switch (instruction) {
+      case "assign-value":
+        slot.row = parser.nextRow();
+        slot.col = parser.nextInt();
+        slot.value = parser.nextDouble();
+        break;
+      case "assign-formula":
+        slot.row = parser.nextRow();
+        slot.col = parser.nextInt();
+        slot.text = parser.nextString();
+        break;
+      case "print-value":
+        slot.row = parser.nextRow();
+        slot.col = parser.nextInt();
+        break;
+      case "save":
+      case "load":
+      case "import-csv":
+      case "export-csv":
+        slot.text = parser.nextString();
+        break;
+      default:
+        break;
+    }
+    if (!parser.complete()) {
+      // the input ended in the middle of the command
+      return false;
+    }
+    slot.error = null;
+    try {
+      parser.check();
+    } catch (IllegalArgumentException e) {
+      slot.error = e;
+    }
+    slot.command = instruction;
+    return true;
+  }
+
+  /**
+   * Applies the command in a slot to the spreadsheet, as the apply stage.
+   *
+   * @return false if the slot marks the end of the input
+   */
+  private boolean applyCommand(Command slot) {
+    if (slot.command == null) {
+      return false;
+    }
+    if (slot.error != null) {
+      return true;
+    }
+    try {
+      switch (slot.command) {
         case "assign-value":
-          try {
-            row = getRowNum(sc.next());
-            col = sc.nextInt();
-            System.out.println("Setting cell (" + row + "," + (col - 1));
-            sheet.set(row, col - 1, sc.nextDouble());
-          } catch (IllegalArgumentException e) {
-            writeMessage("Error: " + e.getMessage() + System.lineSeparator());
-          }
+          sheet.set(slot.row, slot.col - 1, slot.value);
           break;
-        case "print-value":
-          try {
-            row = getRowNum(sc.next());
-            col = sc.nextInt();
-            writeMessage("Value: " + sheet.get(row, col - 1) + System.lineSeparator());
-          } catch (IllegalArgumentException e) {
-            writeMessage("Error: " + e.getMessage() + System.lineSeparator());
-          }
+        case "assign-formula":
+          assignFormula(slot.row, slot.col - 1, slot.text);
           break;
-        case "menu":
-          welcomeMessage();
+        case "print-value":
+          slot.result = sheet.get(slot.row, slot.col - 1);
           break;
-        case "q":
-        case "quit":
-          quit = true;
+        case "save":
+        case "load":
+        case "import-csv":
+        case "export-csv":
+          slot.message = runFileCommand(slot.command, slot.text);
           break;
         default:
-          writeMessage("Undefined instruction: " + userInstruction + System.lineSeparator());
+          break;
       }
+    } catch (IllegalArgumentException e) {
+      slot.error = e;
     }
+    return true;
+  }
 
-    this.farewellMessage();
+  /**
+   * Writes the outcome of the command in a slot, as the output stage.
+   *
+   * @param interactive whether the menu command also writes the welcome message
+   * @return false if the slot marks the end of the input
+   */
+  private boolean writeCommand(Command slot, boolean interactive) {
+    if (slot.command == null) {
+      return false;
+    }
+    if (slot.error != null) {
+      output.append("Error: ").append(slot.error.getMessage())
+              .append(System.lineSeparator());
+    } else {
+      switch (slot.command) {
+        case "assign-value":
+        case "assign-formula":
+          break;
+        case "print-value":
+          output.append("Value: ").append(slot.result).append(System.lineSeparator());
+          break;
+        case "save":
+        case "load":
+        case "import-csv":
+        case "export-csv":
+          output.append(slot.message).append(System.lineSeparator());
+          slot.message = null;
+          break;
+        case "menu":
+          if (interactive) {
+            welcomeMessage();
+          } else {
+            printMenu();
+          }
+          break;
+        default:
+          output.append("Undefined instruction: ").append(slot.command)
+                  .append(System.lineSeparator());
+      }
+    }
+    slot.text = null;
+    output.endCommand();
+    return true;
+  }
 
+  /**
+   * Runs one of the commands that take a file path.
+   *
+   * @param instruction save, load, import-csv or export-csv
+   * @param path        the path of the file
+   * @return the message describing the outcome
+   */
+  private String runFileCommand(String instruction, String path) {
+    switch (instruction) {
+      case "save":
+        return saveSnapshot(path);
+      case "load":
+        return loadSnapshot(path);
+      case "import-csv":
+        return importCsv(path);
+      default:
+        return exportCsv(path);
+    }
   }
 
-  int getRowNum(String rowLetters) throws IllegalArgumentException {
-    int rownumber = 0;
+  /**
+   * Sets a cell of the spreadsheet to a formula.
+   *
+   * @param row     the row of the cell
+   * @param col     the column of the cell
+   * @param formula the formula
+   * @throws IllegalArgumentException if the spreadsheet does not support formulas or the
+   *                                  formula cannot be assigned
+   */
+  private void assignFormula(int row, int col, String formula)
+          throws IllegalArgumentException {
+    if (!(sheet instanceof FormulaSpreadSheet)) {
+      throw new IllegalArgumentException("Formulas are not supported by this spreadsheet");
+    }
+    ((FormulaSpreadSheet) sheet).setFormula(row, col, formula);
+  }
 
-    for (int i = 0; i < rowLetters.length(); i = i + 1) {
-      char c = rowLetters.charAt(i);
-      if (!Character.isAlphabetic(c)) {
-        throw new IllegalArgumentException("Invalid row");
-      }
-      rownumber = 26 * rownumber + ((int) Character.toLowerCase(c) - 'a' + 1);
+  /**
+   * Saves the spreadsheet to a snapshot file.
+   *
+   * @param path the path of the snapshot file
+   * @return the message describing the outcome
+   */
+  private String saveSnapshot(String path) {
+    try {
+      SheetSnapshot.save(sheet, Paths.get(path));
+      return "Saved snapshot to " + path;
+    } catch (IOException | IllegalArgumentException e) {
+      return "Error: " + e.getMessage();
     }
-    return rownumber - 1;
   }
 
+  /**
+   * Loads the cells of a snapshot file into the spreadsheet.
+   *
+   * @param path the path of the snapshot file
+   * @return the message describing the outcome
+   */
+  private String loadSnapshot(String path) {
+    try {
+      SheetSnapshot.load(Paths.get(path), sheet);
+      return "Loaded snapshot from " + path;
+    } catch (IOException | IllegalArgumentException e) {
+      return "Error: " + e.getMessage();
+    }
+  }
 
-  private void writeMessage(String message) throws IllegalStateException {
+  /**
+   * Imports the cells of a CSV file into the spreadsheet.
+   *
+   * @param path the path of the CSV file
+   * @return the message describing the outcome
+   */
+  private String importCsv(String path) {
     try {
-      appendable.append(message);
+      return "Imported " + SheetCsv.load(Paths.get(path), sheet) + " cells from " + path;
+    } catch (IOException | IllegalArgumentException e) {
+      return "Error: " + e.getMessage();
+    }
+  }
 
-    } catch (IOException e) {
-      throw new IllegalStateException(e.getMessage());
+  /**
+   * Exports the cells of the spreadsheet to a CSV file.
+   *
+   * @param path the path of the CSV file
+   * @return the message describing the outcome
+   */
+  private String exportCsv(String path) {
+    try {
+      return "Exported " + SheetCsv.save(sheet, Paths.get(path)) + " cells to " + path;
+    } catch (IOException | IllegalArgumentException e) {
+      return "Error: " + e.getMessage();
     }
   }
 
+  private void writeMessage(String message) throws IllegalStateException {
+    output.append(message);
+  }
+
   void printMenu() throws IllegalStateException {
     writeMessage("Supported user instructions are: " + System.lineSeparator());
     writeMessage("assign-value row-num col-num value (set a cell to a value)"
             + System.lineSeparator());
+    writeMessage("assign-formula row-num col-num formula (set a cell to a formula, "
+            + "such as SUM(A1:B3)*2, written without spaces)" + System.lineSeparator());
     writeMessage("print-value row-num col-num (print the value at a given cell)"
             + System.lineSeparator());
+    writeMessage("save file-path (save the spreadsheet to a snapshot file)"
+            + System.lineSeparator());
+    writeMessage("load file-path (load the cells of a snapshot file)"
+            + System.lineSeparator());
+    writeMessage("import-csv file-path (load the cells of a CSV file)"
+            + System.lineSeparator());
+    writeMessage("export-csv file-path (save the spreadsheet to a CSV file)"
+            + System.lineSeparator());
     writeMessage("menu (Print supported instruction list)" + System.lineSeparator());
     writeMessage("q or quit (quit the program) " + System.lineSeparator());
   }
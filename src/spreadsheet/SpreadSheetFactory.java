@@ -0,0 +1,70 @@
+package spreadsheet;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * This class creates spreadsheet models by name, so that the programs can let the user
+ * choose how the cells are stored.
+ *
+ * <p>The supported names are "sparse", which stores only non-empty cells in a hash map,
+ * "tiled", which stores cells in dense 64 by 64 tiles, "adaptive", which stores
+ * each tile either sparsely or densely depending on how full it is, and "concurrent",
+ * which can be shared between threads. The name "mapped:" followed by a file path opens
+ * the spreadsheet stored in that memory-mapped file, creating it if needed.
+ */
+public final class SpreadSheetFactory {
+  private static final String MAPPED_PREFIX = "mapped:";
+
+  private SpreadSheetFactory() {
+  }
+
+  /**
+   * Creates a spreadsheet of the specified kind.
+   *
+   * @param kind the name of the kind of spreadsheet to create
+   * @return a new, empty spreadsheet
+   * @throws IllegalArgumentException if the kind is null or not supported
+   */
+  public static SpreadSheet createSheet(String kind) throws IllegalArgumentException {
+    if ("sparse".equals(kind)) {
+      return new SparseSpreadSheet();
+    }
+    return createBetterSheet(kind);
+  }
+
+  /**
+   * Creates a better spreadsheet of the specified kind.
+   *
+   * @param kind the name of the kind of spreadsheet to create
+   * @return a new, empty better spreadsheet
+   * @throws IllegalArgumentException if the kind is null or not supported
+   */
+  public static BetterSpreadSheet createBetterSheet(String kind)
+          throws IllegalArgumentException {
+    if (kind == null) {
+      throw new IllegalArgumentException("Spreadsheet kind is null");
+    }
+    if (kind.startsWith(MAPPED_PREFIX)) {
+      String path = kind.substring(MAPPED_PREFIX.length());
+      try {
+        return new MappedSpreadSheet(Paths.get(path));
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Cannot open spreadsheet file " + path + ": "
+                + e.getMessage());
+      }
+    }
+    switch (kind) {
+      case "sparse":
+        return new BetterSparseSpreadSheet();
+      case "tiled":
+        return new TiledSpreadSheet();
+      case "adaptive":
+        return new AdaptiveSpreadSheet();
+      case "concurrent":
+        return new ConcurrentSpreadSheet();
+      default:
+        throw new IllegalArgumentException("Unknown spreadsheet kind: " + kind);
+    }
+  }
+}
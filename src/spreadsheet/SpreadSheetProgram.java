@@ -1,6 +1,9 @@
 package spreadsheet;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Paths;
 
 /**
  * Main entry point for the spreadsheet application.
@@ -10,14 +13,58 @@ public class SpreadSheetProgram {
 
   /**
    * The main method initializes the spreadsheet application and starts the program.
+   * A command-line argument naming a kind of spreadsheet ("sparse", "tiled", "adaptive"
+   * or "concurrent", or "mapped:" followed by a file path) chooses how the cells are
+   * stored; the default is "sparse". The argument "--batch" runs the controller in
+   * headless batch mode, "--pipelined" runs it in the same mode split over three threads,
+   * and the argument "--log=" followed by a directory makes every change durable with a
+   * write-ahead log in that directory, recovering the contents left there by a previous
+   * run. Cells may hold formulas; the write-ahead log records their computed values. A
+   * spreadsheet backed by a file is closed when the program ends.
    *
    * @param args Command-line arguments
    */
   public static void main(String[] args) {
-    SpreadSheet model = new SparseSpreadSheet();
+    String kind = "sparse";
+    String logDirectory = null;
+    boolean batch = false;
+    boolean pipelined = false;
+    for (String arg : args) {
+      if ("--batch".equals(arg)) {
+        batch = true;
+      } else if ("--pipelined".equals(arg)) {
+        pipelined = true;
+      } else if (arg.startsWith("--log=")) {
+        logDirectory = arg.substring("--log=".length());
+      } else {
+        kind = arg;
+      }
+    }
+    SpreadSheet model = SpreadSheetFactory.createSheet(kind);
+    if (logDirectory != null) {
+      try {
+        model = new LoggedSpreadSheet(model, Paths.get(logDirectory));
+      } catch (IOException e) {
+        throw new IllegalStateException(e.getMessage());
+      }
+    }
     Readable rd = new InputStreamReader(System.in);
     Appendable ap = System.out;
-    SpreadSheetController controller = new SpreadSheetController(model, rd, ap);
-    controller.executeProgram();
+    SpreadSheetController controller =
+            new SpreadSheetController(new FormulaSpreadSheet(model), rd, ap);
+    if (pipelined) {
+      controller.executePipelined();
+    } else if (batch) {
+      controller.executeBatch();
+    } else {
+      controller.executeProgram();
+    }
+    if (model instanceof Closeable) {
+      try {
+        ((Closeable) model).close();
+      } catch (IOException e) {
+        throw new IllegalStateException(e.getMessage());
+      }
+    }
   }
 }
@@ -0,0 +1,89 @@
+package spreadsheet;
+
+/**
+ * This interface represents a square block of {@link DenseTile#SIZE} by
+ * {@link DenseTile#SIZE} cells in a tiled spreadsheet. All row and column arguments are
+ * local to the tile, between 0 and {@link DenseTile#MASK}.
+ */
+interface Tile extends TileRows {
+
+  /**
+   * Returns the value of a cell, or 0 if it is empty.
+   */
+  double get(int row, int col);
+
+  /**
+   * Returns whether a cell is non-empty.
+   */
+  boolean isSet(int row, int col);
+
+  /**
+   * Sets the value of a cell.
+   *
+   * @return true if the cell was empty before, false otherwise
+   */
+  boolean set(int row, int col, double value);
+
+  /**
+   * Sets a run of cells in one row of this tile to consecutive values of an array: the
+   * cell at column startCol + i gets source[offset + i] for every i below length.
+   *
+   * @return the cells of the run that were empty before, with bit c set for column c
+   */
+  long setRow(int row, int startCol, double[] source, int offset, int length);
+
+  /**
+   * Sets every cell in the given rectangle of this tile to the same value.
+   */
+  void fill(int startRow, int startCol, int endRow, int endCol, double value);
+
+  /**
+   * Counts the cells that filling the given rectangle would make non-empty in the
+   * bounds of the sheet, before the fill happens. The tile starts at the given top row
+   * and left column of the sheet.
+   */
+  void countFill(int startRow, int startCol, int endRow, int endCol, int top, int left,
+                 SheetBounds bounds);
+
+  /**
+   * Empties a cell.
+   *
+   * @return true if the cell was non-empty before, false otherwise
+   */
+  boolean clear(int row, int col);
+
+  /**
+   * Empties every cell in the given rectangle of this tile, and removes the cells that
+   * were non-empty from the bounds of the sheet. The tile starts at the given top row
+   * and left column of the sheet.
+   */
+  void clear(int startRow, int startCol, int endRow, int endCol, int top, int left,
+             SheetBounds bounds);
+
+  /**
+   * Copies the non-empty cells in the given rectangle of this tile into a columnar
+   * region. The tile starts at the given top row and left column of the sheet.
+   */
+  void copyTo(int startRow, int startCol, int endRow, int endCol, int top, int left,
+              ColumnarRegion columns);
+
+  /**
+   * Returns the number of non-empty cells in this tile.
+   */
+  int count();
+
+  /**
+   * Adds the non-empty cells in the given rectangle of this tile to a summary. The
+   * summary of the whole tile is cached, and kept up to date by writes that only add
+   * cells; any other write or clear drops it, unless it empties the tile, and the next
+   * query over the whole tile rebuilds it.
+   */
+  void summarize(int startRow, int startCol, int endRow, int endCol, CellSummary summary);
+
+  /**
+   * Applies the visitor to every non-empty cell of this tile, in no particular order.
+   * The visitor receives sheet coordinates: the given top row and left column plus the
+   * position of the cell in the tile.
+   */
+  void forEachCell(int top, int left, CellVisitor visitor);
+}
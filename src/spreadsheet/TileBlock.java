@@ -0,0 +1,252 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * This class copies regions of a tiled spreadsheet and fills them with series one
+ * destination tile at a time, through a block of 64 by 64 cells laid out like a
+ * {@link DenseTile}. For a copy, the rows of every source tile that land in the
+ * destination tile are gathered into the block with {@link TileRows#getRow}, and the
+ * block is then written into the destination tile with {@link TileRows#copyRow}; both
+ * are array copies for dense tiles, and the width and height of the sheet are updated
+ * once per tile.
+ *
+ * <p>The destination tiles are visited from the side the region moves towards, so a
+ * tile is always written after every tile that still reads from it, and a tile that
+ * reads from itself reads all of it into the block first. The source and the
+ * destination may therefore overlap in any direction.
+ *
+ * <p>The spreadsheet supplies the tiles through two {@link BlockAction}s, which look up,
+ * create, drop or lock tiles in whatever way the spreadsheet stores them.
+ */
+final class TileBlock {
+
+  /**
+   * An action that moves cells between the block and one tile of the spreadsheet.
+   */
+  interface BlockAction {
+    /**
+     * Reads the given tile into the block, or writes the block into it.
+     *
+     * @param tileRow the row of the tile
+     * @param tileCol the column of the tile
+     * @param block   the block
+     */
+    void apply(int tileRow, int tileCol, TileBlock block);
+  }
+
+  private final double[] values;
+  // one word per row; bit c is set when column c of that row is non-empty
+  private final long[] present;
+  private final long[] added;
+  private final long[] removed;
+  // the destination tile, and the part of it that is written, local to the tile
+  private int top;
+  private int left;
+  private int fromRow;
+  private int fromCol;
+  private int toRow;
+  private int toCol;
+  // the offset from a source cell to its destination cell
+  private long rowShift;
+  private long colShift;
+  // the source tile being read, and the part of it that is read, local to the tile
+  private int sourceTop;
+  private int sourceLeft;
+  private int readFromRow;
+  private int readFromCol;
+  private int readToRow;
+  private int readToCol;
+
+  private TileBlock() {
+    this.values = new double[DenseTile.CELLS];
+    this.present = new long[DenseTile.SIZE];
+    this.added = new long[DenseTile.SIZE];
+    this.removed = new long[DenseTile.SIZE];
+  }
+
+  /**
+   * Copies a region of a tiled spreadsheet, as {@link BetterSpreadSheet#copyRegion} does.
+   * Only the part of the source within the width and height of the spreadsheet is
+   * copied through blocks; the rest of the destination is cleared.
+   *
+   * @param sheet the spreadsheet
+   * @param read  reads a stored tile into the block, and does nothing for a missing one
+   * @param write writes the block into a tile, creating the tile unless the block is
+   *              empty
+   * @throws IllegalArgumentException if the arguments are invalid
+   */
+  static void copy(SpreadSheet sheet, int startRow, int startCol, int endRow, int endCol,
+                   int toRow, int toCol, BlockAction read, BlockAction write)
+          throws IllegalArgumentException {
+    SheetRegions.check(startRow, startCol, endRow, endCol, toRow, toCol);
+    if ((toRow == startRow) && (toCol == startCol)) {
+      return;
+    }
+    // beyond the bounds every cell is empty; the bounds grow as the copy goes on, so
+    // they are taken before anything is written
+    int lastRow = Math.min(endRow, sheet.getHeight() - 1);
+    int lastCol = Math.min(endCol, sheet.getWidth() - 1);
+    if ((startRow <= lastRow) && (startCol <= lastCol)) {
+      new TileBlock().copy(startRow, startCol, lastRow, lastCol, toRow, toCol, read, write);
+    }
+    int destinationEndRow = toRow + (endRow - startRow);
+    int destinationEndCol = toCol + (endCol - startCol);
+    if (lastRow < endRow) {
+      sheet.clearRange(toRow + (Math.max(lastRow + 1, startRow) - startRow), toCol,
+              destinationEndRow, destinationEndCol);
+    }
+    if ((lastCol < endCol) && (startRow <= lastRow)) {
+      sheet.clearRange(toRow, toCol + (Math.max(lastCol + 1, startCol) - startCol),
+              toRow + (lastRow - startRow), destinationEndCol);
+    }
+  }
+
+  /**
+   * Fills a region of a tiled spreadsheet with an arithmetic series, as
+   * {@link BetterSpreadSheet#fillSeries} does, computing the values of each tile into
+   * the block and writing them with one array copy per row.
+   *
+   * @param write writes the block into a tile, creating the tile if needed
+   * @throws IllegalArgumentException if the arguments are invalid
+   */
+  static void fillSeries(int startRow, int startCol, int endRow, int endCol, double start,
+                         double step, BlockAction write) throws IllegalArgumentException {
+    SheetRegions.check(startRow, startCol, endRow, endCol);
+    TileBlock block = new TileBlock();
+    long width = (long) endCol - startCol + 1;
+    TileRegion.forEachTile(startRow, startCol, endRow, endCol,
+        (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+          block.target(tileRow, tileCol, fromRow, fromCol, toRow, toCol);
+          long bits = DenseTile.rangeMask(fromCol, toCol);
+          for (int row = fromRow; row <= toRow; row++) {
+            long index = ((long) block.top + row - startRow) * width
+                    + ((long) block.left + fromCol - startCol);
+            int base = row << DenseTile.SHIFT;
+            for (int col = fromCol; col <= toCol; col++) {
+              block.values[base | col] = SheetRegions.seriesValue(start, step, index++);
+            }
+            block.present[row] = bits;
+          }
+          write.apply(tileRow, tileCol, block);
+        });
+  }
+
+  /**
+   * Returns whether the part of the block to be written holds no cells.
+   */
+  boolean isEmpty() {
+    for (int row = fromRow; row <= toRow; row++) {
+      if (present[row] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of cells in the part of the block to be written.
+   */
+  int count() {
+    int count = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      count += Long.bitCount(present[row]);
+    }
+    return count;
+  }
+
+  /**
+   * Copies the part of a source tile that is being read into the block.
+   */
+  void readFrom(TileRows tile) {
+    // the offsets from a position in the source tile to a position in the block
+    int rows = (int) (sourceTop + rowShift - top);
+    int cols = (int) (sourceLeft + colShift - left);
+    int length = readToCol - readFromCol + 1;
+    for (int row = readFromRow; row <= readToRow; row++) {
+      long bits = tile.getRow(row, readFromCol, values,
+              ((row + rows) << DenseTile.SHIFT) + readFromCol + cols, length);
+      present[row + rows] |= (cols >= 0) ? (bits << cols) : (bits >>> -cols);
+    }
+  }
+
+  /**
+   * Writes the part of the block to be written into a destination tile, and updates the
+   * bounds of the spreadsheet.
+   */
+  void writeTo(TileRows tile, SheetBounds bounds) {
+    int length = toCol - fromCol + 1;
+    for (int row = fromRow; row <= toRow; row++) {
+      long before = tile.copyRow(row, fromCol, values, (row << DenseTile.SHIFT) | fromCol,
+              length, present[row]);
+      added[row] = present[row] & ~before;
+      removed[row] = before & ~present[row];
+    }
+    bounds.addTile(top, left, added, fromRow, toRow, 1);
+    bounds.addTile(top, left, removed, fromRow, toRow, -1);
+  }
+
+  private void copy(int startRow, int startCol, int endRow, int endCol, int toRow,
+                    int toCol, BlockAction read, BlockAction write) {
+    rowShift = (long) toRow - startRow;
+    colShift = (long) toCol - startCol;
+    int firstTileRow = toRow >> DenseTile.SHIFT;
+    int lastTileRow = (toRow + (endRow - startRow)) >> DenseTile.SHIFT;
+    int firstTileCol = toCol >> DenseTile.SHIFT;
+    int lastTileCol = (toCol + (endCol - startCol)) >> DenseTile.SHIFT;
+    for (int i = 0; i <= lastTileRow - firstTileRow; i++) {
+      int tileRow = (rowShift > 0) ? lastTileRow - i : firstTileRow + i;
+      int tileTop = tileRow << DenseTile.SHIFT;
+      int firstRow = Math.max(toRow, tileTop) - tileTop;
+      int lastRow = Math.min(toRow + (endRow - startRow), tileTop + DenseTile.MASK) - tileTop;
+      for (int j = 0; j <= lastTileCol - firstTileCol; j++) {
+        int tileCol = (colShift > 0) ? lastTileCol - j : firstTileCol + j;
+        int tileLeft = tileCol << DenseTile.SHIFT;
+        int firstCol = Math.max(toCol, tileLeft) - tileLeft;
+        int lastCol = Math.min(toCol + (endCol - startCol), tileLeft + DenseTile.MASK)
+                - tileLeft;
+        target(tileRow, tileCol, firstRow, firstCol, lastRow, lastCol);
+        gather(read);
+        write.apply(tileRow, tileCol, this);
+      }
+    }
+  }
+
+  /**
+   * Empties the block and sets the destination tile and the part of it to be written.
+   */
+  private void target(int tileRow, int tileCol, int fromRow, int fromCol, int toRow,
+                      int toCol) {
+    this.top = tileRow << DenseTile.SHIFT;
+    this.left = tileCol << DenseTile.SHIFT;
+    this.fromRow = fromRow;
+    this.fromCol = fromCol;
+    this.toRow = toRow;
+    this.toCol = toCol;
+    for (int row = fromRow; row <= toRow; row++) {
+      int base = row << DenseTile.SHIFT;
+      Arrays.fill(values, base | fromCol, (base | toCol) + 1, 0.0);
+      present[row] = 0;
+    }
+  }
+
+  /**
+   * Reads the source cells of the part to be written from the up to four source tiles
+   * they lie in.
+   */
+  private void gather(BlockAction read) {
+    int sourceRow = (int) (top + fromRow - rowShift);
+    int sourceCol = (int) (left + fromCol - colShift);
+    TileRegion.forEachTile(sourceRow, sourceCol, sourceRow + (toRow - fromRow),
+            sourceCol + (toCol - fromCol),
+        (tileRow, tileCol, firstRow, firstCol, lastRow, lastCol) -> {
+          sourceTop = tileRow << DenseTile.SHIFT;
+          sourceLeft = tileCol << DenseTile.SHIFT;
+          readFromRow = firstRow;
+          readFromCol = firstCol;
+          readToRow = lastRow;
+          readToCol = lastCol;
+          read.apply(tileRow, tileCol, this);
+        });
+  }
+}
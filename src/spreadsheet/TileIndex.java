@@ -0,0 +1,185 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a map from tile positions to tiles. A tile position is packed
+ * into a single long key with {@link CellMap#key(int, int)} and the keys and tiles are
+ * stored in parallel arrays using open addressing with linear probing, so looking up a
+ * tile does not allocate. Removing a tile moves the later tiles of its probe sequence
+ * back, so no tombstones are left behind.
+ *
+ * @param <T> the type of the tiles
+ */
+final class TileIndex<T> {
+  private static final long EMPTY = -1L;
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private long[] keys;
+  private Object[] tiles;
+  private int mask;
+  private int size;
+
+  /**
+   * Constructs an empty tile index.
+   */
+  TileIndex() {
+    allocate(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Returns the tile at the specified tile position.
+   *
+   * @param tileRow the row of the tile, starting with 0
+   * @param tileCol the column of the tile, starting with 0
+   * @return the tile, or null if there is no tile at that position
+   */
+  @SuppressWarnings("unchecked")
+  T get(int tileRow, int tileCol) {
+    long key = CellMap.key(tileRow, tileCol);
+    int slot = mix(key) & mask;
+    while (true) {
+      long k = keys[slot];
+      if (k == key) {
+        return (T) tiles[slot];
+      }
+      if (k == EMPTY) {
+        return null;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * Stores a tile at the specified tile position, replacing any previous tile.
+   *
+   * @param tileRow the row of the tile, starting with 0
+   * @param tileCol the column of the tile, starting with 0
+   * @param tile    the tile to store
+   */
+  void put(int tileRow, int tileCol, T tile) {
+    long key = CellMap.key(tileRow, tileCol);
+    int slot = mix(key) & mask;
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == key) {
+        tiles[slot] = tile;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    tiles[slot] = tile;
+    size++;
+    if (size > (keys.length >> 1)) {
+      rehash(keys.length << 1);
+    }
+  }
+
+  /**
+   * Removes the tile at the specified tile position. Removing tiles moves other tiles
+   * between slots, so it must not be done while walking the slots.
+   *
+   * @param tileRow the row of the tile, starting with 0
+   * @param tileCol the column of the tile, starting with 0
+   */
+  void remove(int tileRow, int tileCol) {
+    long key = CellMap.key(tileRow, tileCol);
+    int hole = mix(key) & mask;
+    while (keys[hole] != key) {
+      if (keys[hole] == EMPTY) {
+        return;
+      }
+      hole = (hole + 1) & mask;
+    }
+    int next = hole;
+    while (true) {
+      next = (next + 1) & mask;
+      long k = keys[next];
+      if (k == EMPTY) {
+        break;
+      }
+      // move the tile unless its home slot lies cyclically after the hole
+      int home = mix(k) & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        keys[hole] = k;
+        tiles[hole] = tiles[next];
+        hole = next;
+      }
+    }
+    keys[hole] = EMPTY;
+    tiles[hole] = null;
+    size--;
+  }
+
+  /**
+   * Returns the number of tiles in this index.
+   *
+   * @return the number of tiles
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the packed key of the tile in the given slot, or a negative number if the
+   * slot is free. Together with {@link #slotCount()} and {@link #tileAt(int)} this lets
+   * callers walk every tile without allocating an iterator.
+   *
+   * @param slot the slot, between 0 and {@link #slotCount()} - 1
+   * @return the packed tile key, or a negative number for a free slot
+   */
+  long keyAt(int slot) {
+    return keys[slot];
+  }
+
+  /**
+   * Returns the tile in the given slot.
+   *
+   * @param slot the slot, between 0 and {@link #slotCount()} - 1
+   * @return the tile, or null for a free slot
+   */
+  @SuppressWarnings("unchecked")
+  T tileAt(int slot) {
+    return (T) tiles[slot];
+  }
+
+  /**
+   * Returns the number of slots in this index.
+   *
+   * @return the number of slots
+   */
+  int slotCount() {
+    return keys.length;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    Object[] oldTiles = tiles;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      long k = oldKeys[i];
+      if (k != EMPTY) {
+        int slot = mix(k) & mask;
+        while (keys[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = k;
+        tiles[slot] = oldTiles[i];
+        size++;
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    tiles = new Object[capacity];
+    Arrays.fill(keys, EMPTY);
+    mask = capacity - 1;
+    size = 0;
+  }
+
+  private static int mix(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
@@ -0,0 +1,177 @@
+package spreadsheet;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class walks a rectangular region of a tiled spreadsheet one tile at a time. For
+ * every tile the region overlaps, it hands the tile position and the part of the region
+ * inside that tile (in tile-local coordinates) to a {@link TileAction}.
+ *
+ * <p>Large regions can be walked in parallel: the region is split in half along its
+ * longer side, in whole tiles, until the pieces are no larger than a threshold, and the
+ * pieces are processed on a fork/join pool. Each tile is then handled by exactly one
+ * thread.
+ */
+final class TileRegion extends RecursiveAction {
+
+  /**
+   * An action applied to the part of a region that falls inside one tile.
+   */
+  interface TileAction {
+    /**
+     * Processes the part of the region inside the given tile.
+     *
+     * @param tileRow the row of the tile
+     * @param tileCol the column of the tile
+     * @param fromRow the first row of the part, local to the tile
+     * @param fromCol the first column of the part, local to the tile
+     * @param toRow   the last row of the part, local to the tile
+     * @param toCol   the last column of the part, local to the tile
+     */
+    void apply(int tileRow, int tileCol, int fromRow, int fromCol, int toRow, int toCol);
+  }
+
+  private static final long serialVersionUID = 1L;
+
+  private final TileAction action;
+  private final int startRow;
+  private final int startCol;
+  private final int endRow;
+  private final int endCol;
+  private final long threshold;
+
+  private TileRegion(TileAction action, int startRow, int startCol, int endRow, int endCol,
+                     long threshold) {
+    this.action = action;
+    this.startRow = startRow;
+    this.startCol = startCol;
+    this.endRow = endRow;
+    this.endCol = endCol;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Applies the action to every tile the region overlaps, in row-major tile order, on
+   * the calling thread.
+   */
+  static void forEachTile(int startRow, int startCol, int endRow, int endCol,
+                          TileAction action) {
+    for (int tileRow = startRow >> DenseTile.SHIFT; tileRow <= endRow >> DenseTile.SHIFT;
+         tileRow++) {
+      int top = tileRow << DenseTile.SHIFT;
+      int fromRow = Math.max(startRow, top) - top;
+      int toRow = Math.min(endRow, top + DenseTile.MASK) - top;
+      for (int tileCol = startCol >> DenseTile.SHIFT; tileCol <= endCol >> DenseTile.SHIFT;
+           tileCol++) {
+        int left = tileCol << DenseTile.SHIFT;
+        int fromCol = Math.max(startCol, left) - left;
+        int toCol = Math.min(endCol, left + DenseTile.MASK) - left;
+        action.apply(tileRow, tileCol, fromRow, fromCol, toRow, toCol);
+      }
+    }
+  }
+
+  /**
+   * Applies the action to every tile the region overlaps. Regions with more cells than
+   * the threshold are split up and processed on the common fork/join pool, so the
+   * action must be safe to call from several threads for different tiles. Smaller
+   * regions are processed on the calling thread.
+   */
+  static void forEachTile(int startRow, int startCol, int endRow, int endCol,
+                          long threshold, TileAction action) {
+    if (cells(startRow, startCol, endRow, endCol) <= threshold) {
+      forEachTile(startRow, startCol, endRow, endCol, action);
+    } else {
+      ForkJoinPool.commonPool().invoke(
+              new TileRegion(action, startRow, startCol, endRow, endCol, threshold));
+    }
+  }
+
+  /**
+   * Adds the non-empty cells of a region to a summary, tile by tile, on the calling
+   * thread. Tiles the region covers completely contribute their cached summaries, so
+   * the cost depends on the number of tiles rather than the number of cells.
+   */
+  static void summarize(TileIndex<? extends Tile> index, int startRow, int startCol,
+                        int endRow, int endCol, CellSummary summary) {
+    forEachStoredTile(index, startRow, startCol, endRow, endCol,
+        (tileRow, tileCol, fromRow, fromCol, toRow, toCol) ->
+                index.get(tileRow, tileCol).summarize(fromRow, fromCol, toRow, toCol,
+                        summary));
+  }
+
+  /**
+   * Applies the action to every tile of the index that a region overlaps, on the
+   * calling thread. When the index holds fewer tiles than the region overlaps, the index
+   * is walked instead of the region, and the tiles are collected before the action runs,
+   * so the action may remove tiles from the index.
+   */
+  static void forEachStoredTile(TileIndex<?> index, int startRow, int startCol, int endRow,
+                                int endCol, TileAction action) {
+    if (tiles(startRow, startCol, endRow, endCol) <= index.size()) {
+      forEachTile(startRow, startCol, endRow, endCol,
+          (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+            if (index.get(tileRow, tileCol) != null) {
+              action.apply(tileRow, tileCol, fromRow, fromCol, toRow, toCol);
+            }
+          });
+      return;
+    }
+    long[] found = new long[index.size()];
+    int count = 0;
+    for (int slot = 0; slot < index.slotCount(); slot++) {
+      long key = index.keyAt(slot);
+      if (key < 0) {
+        continue;
+      }
+      int top = CellMap.row(key) << DenseTile.SHIFT;
+      int left = CellMap.col(key) << DenseTile.SHIFT;
+      if ((startRow <= top + DenseTile.MASK) && (top <= endRow)
+              && (startCol <= left + DenseTile.MASK) && (left <= endCol)) {
+        found[count++] = key;
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      int top = CellMap.row(found[i]) << DenseTile.SHIFT;
+      int left = CellMap.col(found[i]) << DenseTile.SHIFT;
+      action.apply(CellMap.row(found[i]), CellMap.col(found[i]),
+              Math.max(startRow, top) - top, Math.max(startCol, left) - left,
+              Math.min(endRow, top + DenseTile.MASK) - top,
+              Math.min(endCol, left + DenseTile.MASK) - left);
+    }
+  }
+
+  /**
+   * Returns the number of tiles a region overlaps.
+   */
+  static long tiles(int startRow, int startCol, int endRow, int endCol) {
+    return ((long) (endRow >> DenseTile.SHIFT) - (startRow >> DenseTile.SHIFT) + 1)
+            * ((long) (endCol >> DenseTile.SHIFT) - (startCol >> DenseTile.SHIFT) + 1);
+  }
+
+  /**
+   * Returns the number of cells in a region.
+   */
+  static long cells(int startRow, int startCol, int endRow, int endCol) {
+    return ((long) endRow - startRow + 1) * ((long) endCol - startCol + 1);
+  }
+
+  @Override
+  protected void compute() {
+    int tileRows = (endRow >> DenseTile.SHIFT) - (startRow >> DenseTile.SHIFT) + 1;
+    int tileCols = (endCol >> DenseTile.SHIFT) - (startCol >> DenseTile.SHIFT) + 1;
+    if ((cells(startRow, startCol, endRow, endCol) <= threshold)
+            || ((tileRows == 1) && (tileCols == 1))) {
+      forEachTile(startRow, startCol, endRow, endCol, action);
+    } else if (tileRows >= tileCols) {
+      int split = (((startRow >> DenseTile.SHIFT) + tileRows / 2) << DenseTile.SHIFT);
+      invokeAll(new TileRegion(action, startRow, startCol, split - 1, endCol, threshold),
+              new TileRegion(action, split, startCol, endRow, endCol, threshold));
+    } else {
+      int split = (((startCol >> DenseTile.SHIFT) + tileCols / 2) << DenseTile.SHIFT);
+      invokeAll(new TileRegion(action, startRow, startCol, endRow, split - 1, threshold),
+              new TileRegion(action, startRow, split, endRow, endCol, threshold));
+    }
+  }
+}
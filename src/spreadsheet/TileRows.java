@@ -0,0 +1,27 @@
+package spreadsheet;
+
+/**
+ * This interface represents the rows of a block of {@link DenseTile#SIZE} by
+ * {@link DenseTile#SIZE} cells, as {@link TileBlock} reads and writes them. All row and
+ * column arguments are local to the block, between 0 and {@link DenseTile#MASK}.
+ */
+interface TileRows {
+
+  /**
+   * Copies a run of cells in one row of this block to consecutive elements of an array:
+   * target[offset + i] gets the cell at column startCol + i for every i below length, or
+   * 0 if that cell is empty.
+   *
+   * @return the cells of the run that are non-empty, with bit c set for column c
+   */
+  long getRow(int row, int startCol, double[] target, int offset, int length);
+
+  /**
+   * Makes a run of cells in one row of this block match an array and a bitset: the cell
+   * at column startCol + i gets source[offset + i] if bit startCol + i of present is set,
+   * and is emptied otherwise.
+   *
+   * @return the cells of the run that were non-empty before, with bit c set for column c
+   */
+  long copyRow(int row, int startCol, double[] source, int offset, int length, long present);
+}
@@ -0,0 +1,321 @@
+package spreadsheet;
+
+/**
+ * This class represents a spreadsheet that is stored in fixed-size square tiles of
+ * 64 by 64 cells. Each tile keeps its values in a primitive array together with an
+ * occupancy bitset, and tiles are only created once one of their cells is written.
+ *
+ * <p>This representation suits data that is dense within large blocks: a populated
+ * cell costs a little over 8 bytes, and cells that are next to each other in a row are
+ * next to each other in memory, so scanning a row or a block is cache-friendly.
+ *
+ * <p>A bulk assignment over more cells than a configurable threshold fills its tiles in
+ * parallel on the common fork/join pool; smaller assignments stay on the calling thread.
+ * Region copies, moves and series fills write whole rows of a tile with array copies.
+ * Clearing cells keeps the width and height exact (see {@link SheetBounds}), and a tile
+ * is dropped once its last cell is cleared.
+ */
+public class TiledSpreadSheet implements BetterSpreadSheet {
+  /**
+   * The default number of cells above which a bulk assignment is filled in parallel.
+   */
+  public static final long DEFAULT_PARALLEL_THRESHOLD = 1L << 20;
+
+  private final TileIndex<DenseTile> tiles;
+  private final long parallelThreshold;
+  private final SheetBounds bounds;
+  // the most recently used tile, which makes scans over one tile skip the index
+  private long lastKey;
+  private DenseTile lastTile;
+
+  /**
+   * Constructs a new, empty TiledSpreadSheet.
+   */
+  public TiledSpreadSheet() {
+    this(DEFAULT_PARALLEL_THRESHOLD);
+  }
+
+  /**
+   * Constructs a new, empty TiledSpreadSheet that fills bulk assignments over more than
+   * the given number of cells in parallel.
+   *
+   * @param parallelThreshold the number of cells above which bulk assignments are
+   *                          filled in parallel
+   * @throws IllegalArgumentException if the threshold is not positive
+   */
+  public TiledSpreadSheet(long parallelThreshold) throws IllegalArgumentException {
+    if (parallelThreshold <= 0) {
+      throw new IllegalArgumentException("Parallel threshold must be positive");
+    }
+    this.tiles = new TileIndex<DenseTile>();
+    this.parallelThreshold = parallelThreshold;
+    this.bounds = new SheetBounds();
+    this.lastKey = -1L;
+    this.lastTile = null;
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    DenseTile tile = tileAt(row, col, false);
+    return (tile == null) ? 0.0 : tile.get(row & DenseTile.MASK, col & DenseTile.MASK);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (tileAt(row, col, true).set(row & DenseTile.MASK, col & DenseTile.MASK, value)) {
+      bounds.add(row, col);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The run is copied into each tile it crosses with one array copy, and the
+   * width and height are updated once per tile.
+   */
+  @Override
+  public void setRow(int row, int startCol, double[] values, int offset, int length)
+          throws IllegalArgumentException {
+    if ((row < 0) || (startCol < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if ((values == null) || (offset < 0) || (length < 0) || (offset > values.length - length)
+            || ((long) startCol + length - 1 > Integer.MAX_VALUE)) {
+      throw new IllegalArgumentException("Run of values is out of range");
+    }
+    int col = startCol;
+    int end = offset + length;
+    for (int from = offset; from < end; ) {
+      int local = col & DenseTile.MASK;
+      int count = Math.min(end - from, DenseTile.SIZE - local);
+      long added = tileAt(row, col, true).setRow(row & DenseTile.MASK, local, values, from,
+              count);
+      bounds.addRow(row, col - local, added);
+      col += count;
+      from += count;
+    }
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    DenseTile tile = tileAt(row, col, false);
+    return (tile == null) || !tile.isSet(row & DenseTile.MASK, col & DenseTile.MASK);
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    DenseTile tile = tileAt(row, col, false);
+    if ((tile != null) && tile.clear(row & DenseTile.MASK, col & DenseTile.MASK)) {
+      bounds.remove(row, col);
+      dropIfEmpty(row >> DenseTile.SHIFT, col >> DenseTile.SHIFT, tile);
+    }
+  }
+
+  @Override
+  public void clearRange(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    TileRegion.forEachStoredTile(tiles, startRow, startCol, endRow, endCol,
+        (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+          DenseTile tile = tiles.get(tileRow, tileCol);
+          tile.clear(fromRow, fromCol, toRow, toCol, tileRow << DenseTile.SHIFT,
+                  tileCol << DenseTile.SHIFT, bounds);
+          dropIfEmpty(tileRow, tileCol, tile);
+        });
+  }
+
+  @Override
+  public int getWidth() {
+    return bounds.width();
+  }
+
+  @Override
+  public int getHeight() {
+    return bounds.height();
+  }
+
+  @Override
+  public void bulkSet(int startRow, int startCol, int endRow, int endCol, double value)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    if (TileRegion.cells(startRow, startCol, endRow, endCol) <= parallelThreshold) {
+      TileRegion.forEachTile(startRow, startCol, endRow, endCol,
+          (tileRow, tileCol, fromRow, fromCol, toRow, toCol) -> {
+            DenseTile tile = tile(tileRow, tileCol, true);
+            tile.countFill(fromRow, fromCol, toRow, toCol, tileRow << DenseTile.SHIFT,
+                    tileCol << DenseTile.SHIFT, bounds);
+            tile.fill(fromRow, fromCol, toRow, toCol, value);
+          });
+    } else {
+      // Create and count the tiles up front, so the parallel fill only reads the index
+      TileRegion.forEachTile(startRow, startCol, endRow, endCol,
+          (tileRow, tileCol, fromRow, fromCol, toRow, toCol) ->
+                  tile(tileRow, tileCol, true).countFill(fromRow, fromCol, toRow, toCol,
+                          tileRow << DenseTile.SHIFT, tileCol << DenseTile.SHIFT, bounds));
+      TileRegion.forEachTile(startRow, startCol, endRow, endCol, parallelThreshold,
+          (tileRow, tileCol, fromRow, fromCol, toRow, toCol) ->
+                  tiles.get(tileRow, tileCol).fill(fromRow, fromCol, toRow, toCol, value));
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The region is copied one destination tile at a time (see {@link TileBlock}): each
+   * row of a tile is gathered from the source tiles and written into the tile with array
+   * copies, and the width and height are updated once per tile.
+   */
+  @Override
+  public void copyRegion(int startRow, int startCol, int endRow, int endCol, int toRow,
+                         int toCol) throws IllegalArgumentException {
+    TileBlock.copy(this, startRow, startCol, endRow, endCol, toRow, toCol, this::readBlock,
+            this::writeBlock);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The values of each tile are computed into a block and written into the tile with
+   * one array copy per row.
+   */
+  @Override
+  public void fillSeries(int startRow, int startCol, int endRow, int endCol, double start,
+                         double step) throws IllegalArgumentException {
+    TileBlock.fillSeries(startRow, startCol, endRow, endCol, start, step, this::writeBlock);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Every stored tile the region overlaps copies its part of the region through its
+   * own cell layout, and tiles that were never written are skipped.
+   */
+  @Override
+  public ColumnarRegion readColumns(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    ColumnarRegion columns = ColumnarRegion.allocate(this, startRow, startCol, endRow,
+            endCol);
+    if ((columns.getRowCount() > 0) && (columns.getColumnCount() > 0)) {
+      TileRegion.forEachStoredTile(tiles, startRow, startCol,
+              startRow + columns.getRowCount() - 1, startCol + columns.getColumnCount() - 1,
+          (tileRow, tileCol, fromRow, fromCol, toRow, toCol) ->
+                  tiles.get(tileRow, tileCol).copyTo(fromRow, fromCol, toRow, toCol,
+                          tileRow << DenseTile.SHIFT, tileCol << DenseTile.SHIFT, columns));
+    }
+    return columns;
+  }
+
+  @Override
+  public void forEachCell(CellVisitor visitor) {
+    for (int slot = 0; slot < tiles.slotCount(); slot++) {
+      long key = tiles.keyAt(slot);
+      if (key >= 0) {
+        tiles.tileAt(slot).forEachCell(CellMap.row(key) << DenseTile.SHIFT,
+                CellMap.col(key) << DenseTile.SHIFT, visitor);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Every tile keeps a summary of its own cells, so a tile the region covers
+   * completely is answered from its summary and only the tiles on the edges of the region
+   * are scanned, through their occupancy bits.
+   */
+  @Override
+  public RegionSummary summarize(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    if (startRow < 0 || startCol < 0 || endRow < 0 || endCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+
+    if (endRow < startRow || endCol < startCol) {
+      throw new IllegalArgumentException("End coordinates must be greater than or equal "
+              + "to start coordinates");
+    }
+
+    CellSummary summary = new CellSummary();
+    int lastRow = Math.min(endRow, bounds.height() - 1);
+    int lastCol = Math.min(endCol, bounds.width() - 1);
+    if ((startRow <= lastRow) && (startCol <= lastCol)) {
+      TileRegion.summarize(tiles, startRow, startCol, lastRow, lastCol, summary);
+    }
+    return summary.toRegionSummary();
+  }
+
+  private DenseTile tileAt(int row, int col, boolean create) {
+    return tile(row >> DenseTile.SHIFT, col >> DenseTile.SHIFT, create);
+  }
+
+  private DenseTile tile(int tileRow, int tileCol, boolean create) {
+    long key = CellMap.key(tileRow, tileCol);
+    if (key == lastKey) {
+      return lastTile;
+    }
+    DenseTile tile = tiles.get(tileRow, tileCol);
+    if (tile == null) {
+      if (!create) {
+        return null;
+      }
+      tile = new DenseTile();
+      tiles.put(tileRow, tileCol, tile);
+    }
+    lastKey = key;
+    lastTile = tile;
+    return tile;
+  }
+
+  private void readBlock(int tileRow, int tileCol, TileBlock block) {
+    DenseTile tile = tile(tileRow, tileCol, false);
+    if (tile != null) {
+      block.readFrom(tile);
+    }
+  }
+
+  private void writeBlock(int tileRow, int tileCol, TileBlock block) {
+    DenseTile tile = tile(tileRow, tileCol, !block.isEmpty());
+    if (tile != null) {
+      block.writeTo(tile, bounds);
+      dropIfEmpty(tileRow, tileCol, tile);
+    }
+  }
+
+  private void dropIfEmpty(int tileRow, int tileCol, DenseTile tile) {
+    if (tile.count() == 0) {
+      tiles.remove(tileRow, tileCol);
+      if (tile == lastTile) {
+        lastKey = -1L;
+        lastTile = null;
+      }
+    }
+  }
+}
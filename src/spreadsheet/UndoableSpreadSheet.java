@@ -0,0 +1,323 @@
+package spreadsheet;
+
+import java.util.ArrayDeque;
+
+/**
+ * This class represents a BetterSpreadSheet that keeps a history of its changes, so they
+ * can be undone and redone. It wraps another BetterSpreadSheet, which holds the cells.
+ *
+ * <p>Before every change, the previous contents of the cells it is about to write are
+ * captured as a {@link RegionDelta}: a region that was empty or held one value
+ * throughout is described by that fact alone, and any other region by the positions and
+ * values of its non-empty cells or by all of its values and a bitset, whichever is
+ * smaller, in primitive arrays. Undoing a change captures the current contents of the
+ * same regions, for redoing it, and then puts the previous contents back; redoing works
+ * the other way around. Making a new change forgets the changes that were undone.
+ *
+ * <p>The history uses at most a configurable number of bytes. When it grows beyond
+ * that, the oldest changes are forgotten first. A change whose previous contents alone
+ * would not fit cannot be undone, and the changes before it are forgotten as well,
+ * since they could no longer be undone in order.
+ *
+ * <p>Every change and every undo or redo is atomic with respect to the others.
+ */
+public class UndoableSpreadSheet implements BetterSpreadSheet {
+  /**
+   * The default number of bytes the history may use.
+   */
+  public static final long DEFAULT_BUDGET = 64L << 20;
+
+  private final BetterSpreadSheet sheet;
+  private final long budget;
+  // the steps that can be undone and redone, oldest first
+  private final ArrayDeque<RegionDelta[]> undoSteps;
+  private final ArrayDeque<RegionDelta[]> redoSteps;
+  private long usedBytes;
+
+  /**
+   * Constructs an UndoableSpreadSheet over the specified spreadsheet, whose history uses
+   * at most the default number of bytes.
+   *
+   * @param sheet the spreadsheet that holds the cells
+   * @throws IllegalArgumentException if the spreadsheet is null
+   */
+  public UndoableSpreadSheet(BetterSpreadSheet sheet) throws IllegalArgumentException {
+    this(sheet, DEFAULT_BUDGET);
+  }
+
+  /**
+   * Constructs an UndoableSpreadSheet over the specified spreadsheet, whose history uses
+   * at most the given number of bytes.
+   *
+   * @param sheet  the spreadsheet that holds the cells
+   * @param budget the number of bytes the history may use
+   * @throws IllegalArgumentException if the spreadsheet is null or the budget is not
+   *                                  positive
+   */
+  public UndoableSpreadSheet(BetterSpreadSheet sheet, long budget)
+          throws IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet is null");
+    }
+    if (budget <= 0) {
+      throw new IllegalArgumentException("Budget must be positive");
+    }
+    this.sheet = sheet;
+    this.budget = budget;
+    this.undoSteps = new ArrayDeque<RegionDelta[]>();
+    this.redoSteps = new ArrayDeque<RegionDelta[]>();
+    this.usedBytes = 0;
+  }
+
+  @Override
+  public synchronized double get(int row, int col) throws IllegalArgumentException {
+    return sheet.get(row, col);
+  }
+
+  @Override
+  public synchronized void set(int row, int col, double value)
+          throws IllegalArgumentException {
+    RegionDelta[] step = capture(row, col, row, col);
+    sheet.set(row, col, value);
+    record(step);
+  }
+
+  @Override
+  public synchronized void setRow(int row, int startCol, double[] values, int offset,
+                                  int length) throws IllegalArgumentException {
+    if ((values == null) || (offset < 0) || (length <= 0) || (offset > values.length - length)
+            || ((long) startCol + length - 1 > Integer.MAX_VALUE)) {
+      // nothing is written, or the wrapped spreadsheet rejects the run
+      sheet.setRow(row, startCol, values, offset, length);
+      return;
+    }
+    RegionDelta[] step = capture(row, startCol, row, startCol + length - 1);
+    sheet.setRow(row, startCol, values, offset, length);
+    record(step);
+  }
+
+  @Override
+  public synchronized boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    return sheet.isEmpty(row, col);
+  }
+
+  @Override
+  public synchronized void clear(int row, int col) throws IllegalArgumentException {
+    RegionDelta[] step = capture(row, col, row, col);
+    sheet.clear(row, col);
+    record(step);
+  }
+
+  @Override
+  public synchronized void clearRange(int startRow, int startCol, int endRow, int endCol)
+          throws IllegalArgumentException {
+    RegionDelta[] step = capture(startRow, startCol, endRow, endCol);
+    sheet.clearRange(startRow, startCol, endRow, endCol);
+    record(step);
+  }
+
+  @Override
+  public synchronized int getWidth() {
+    return sheet.getWidth();
+  }
+
+  @Override
+  public synchronized int getHeight() {
+    return sheet.getHeight();
+  }
+
+  @Override
+  public synchronized void bulkSet(int startRow, int startCol, int endRow, int endCol,
+                                   double value) throws IllegalArgumentException {
+    RegionDelta[] step = capture(startRow, startCol, endRow, endCol);
+    sheet.bulkSet(startRow, startCol, endRow, endCol, value);
+    record(step);
+  }
+
+  @Override
+  public synchronized void copyRegion(int startRow, int startCol, int endRow, int endCol,
+                                      int toRow, int toCol) throws IllegalArgumentException {
+    SheetRegions.check(startRow, startCol, endRow, endCol, toRow, toCol);
+    RegionDelta[] step = capture(toRow, toCol, toRow + (endRow - startRow),
+            toCol + (endCol - startCol));
+    sheet.copyRegion(startRow, startCol, endRow, endCol, toRow, toCol);
+    record(step);
+  }
+
+  @Override
+  public synchronized void moveRegion(int startRow, int startCol, int endRow, int endCol,
+                                      int toRow, int toCol) throws IllegalArgumentException {
+    SheetRegions.check(startRow, startCol, endRow, endCol, toRow, toCol);
+    RegionDelta[] step = capture(startRow, startCol, endRow, endCol);
+    if (step != null) {
+      RegionDelta destination = RegionDelta.capture(sheet, toRow, toCol,
+              toRow + (endRow - startRow), toCol + (endCol - startCol),
+              budget - step[0].bytes());
+      step = (destination == null) ? null : new RegionDelta[]{step[0], destination};
+    }
+    sheet.moveRegion(startRow, startCol, endRow, endCol, toRow, toCol);
+    record(step);
+  }
+
+  @Override
+  public synchronized void fillSeries(int startRow, int startCol, int endRow, int endCol,
+                                      double start, double step)
+          throws IllegalArgumentException {
+    RegionDelta[] previous = capture(startRow, startCol, endRow, endCol);
+    sheet.fillSeries(startRow, startCol, endRow, endCol, start, step);
+    record(previous);
+  }
+
+  @Override
+  public synchronized ColumnarRegion readColumns(int startRow, int startCol, int endRow,
+                                                 int endCol)
+          throws IllegalArgumentException {
+    return sheet.readColumns(startRow, startCol, endRow, endCol);
+  }
+
+  @Override
+  public synchronized void forEachCell(CellVisitor visitor) {
+    sheet.forEachCell(visitor);
+  }
+
+  @Override
+  public synchronized RegionSummary summarize(int startRow, int startCol, int endRow,
+                                              int endCol) throws IllegalArgumentException {
+    return sheet.summarize(startRow, startCol, endRow, endCol);
+  }
+
+  /**
+   * Undoes the most recent change that has not been undone yet.
+   *
+   * @return true if a change was undone, false if there was none to undo
+   */
+  public synchronized boolean undo() {
+    return replay(undoSteps, redoSteps);
+  }
+
+  /**
+   * Redoes the most recently undone change, if no other change was made after it was
+   * undone.
+   *
+   * @return true if a change was redone, false if there was none to redo
+   */
+  public synchronized boolean redo() {
+    return replay(redoSteps, undoSteps);
+  }
+
+  /**
+   * Returns the number of changes that can be undone.
+   *
+   * @return the number of changes that can be undone
+   */
+  public synchronized int getUndoCount() {
+    return undoSteps.size();
+  }
+
+  /**
+   * Returns the number of undone changes that can be redone.
+   *
+   * @return the number of changes that can be redone
+   */
+  public synchronized int getRedoCount() {
+    return redoSteps.size();
+  }
+
+  /**
+   * Returns the estimated number of bytes the history uses, which is never more than
+   * the budget.
+   *
+   * @return the number of bytes the history uses
+   */
+  public synchronized long getHistoryBytes() {
+    return usedBytes;
+  }
+
+  /**
+   * Captures the previous contents of a region that a change is about to write.
+   *
+   * @return the step, or null if it does not fit in the budget
+   */
+  private RegionDelta[] capture(int startRow, int startCol, int endRow, int endCol) {
+    RegionDelta delta = RegionDelta.capture(sheet, startRow, startCol, endRow, endCol,
+            budget);
+    return (delta == null) ? null : new RegionDelta[]{delta};
+  }
+
+  /**
+   * Adds the step of a change that has been made to the history, and forgets the
+   * changes that were undone.
+   */
+  private void record(RegionDelta[] step) {
+    for (RegionDelta[] undone : redoSteps) {
+      usedBytes -= bytes(undone);
+    }
+    redoSteps.clear();
+    if (step == null) {
+      undoSteps.clear();
+      usedBytes = 0;
+      return;
+    }
+    undoSteps.addLast(step);
+    usedBytes += bytes(step);
+    trim();
+  }
+
+  /**
+   * Takes the newest step from one stack, captures the current contents of its regions
+   * onto the other, and puts the contents of the step back.
+   */
+  private boolean replay(ArrayDeque<RegionDelta[]> from, ArrayDeque<RegionDelta[]> to) {
+    RegionDelta[] step = from.pollLast();
+    if (step == null) {
+      return false;
+    }
+    usedBytes -= bytes(step);
+    RegionDelta[] current = new RegionDelta[step.length];
+    long room = budget;
+    for (int i = 0; (i < step.length) && (current != null); i++) {
+      current[i] = step[i].recapture(sheet, room);
+      if (current[i] == null) {
+        current = null;
+      } else {
+        room -= current[i].bytes();
+      }
+    }
+    for (int i = step.length - 1; i >= 0; i--) {
+      step[i].restore(sheet);
+    }
+    if (current == null) {
+      // the way back does not fit, so nothing beyond this point can be replayed
+      for (RegionDelta[] other : to) {
+        usedBytes -= bytes(other);
+      }
+      to.clear();
+    } else {
+      to.addLast(current);
+      usedBytes += bytes(current);
+      trim();
+    }
+    return true;
+  }
+
+  /**
+   * Forgets the oldest steps until the history fits in the budget: first the oldest
+   * changes, then the undone changes that were undone first.
+   */
+  private void trim() {
+    while ((usedBytes > budget) && !undoSteps.isEmpty()) {
+      usedBytes -= bytes(undoSteps.pollFirst());
+    }
+    while ((usedBytes > budget) && !redoSteps.isEmpty()) {
+      usedBytes -= bytes(redoSteps.pollFirst());
+    }
+  }
+
+  private static long bytes(RegionDelta[] step) {
+    long bytes = 0;
+    for (RegionDelta delta : step) {
+      bytes += delta.bytes();
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,350 @@
+package spreadsheet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * This class represents an append-only log of spreadsheet mutations. Every mutation is
+ * a compact binary record: a type byte, the coordinates and value as little-endian
+ * numbers, and a CRC-32 of the record, so that a record torn by a crash is recognised
+ * and dropped when the log is replayed.
+ *
+ * <p>Records are collected in a buffer and written and forced to the storage device as
+ * a group once the configured number of records is pending, which trades the number of
+ * most recent mutations that a crash can lose for fewer forced writes.
+ */
+final class WriteAheadLog implements Closeable {
+  static final int MAGIC = 0x504E5357;
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 8;
+  static final byte SET = 1;
+  static final byte BULK_SET = 2;
+  static final byte CLEAR = 3;
+  static final byte COPY = 4;
+  static final byte MOVE = 5;
+  static final byte FILL_SERIES = 6;
+  static final int SET_BYTES = 1 + 2 * Integer.BYTES + Double.BYTES + Integer.BYTES;
+  static final int BULK_SET_BYTES = 1 + 4 * Integer.BYTES + Double.BYTES + Integer.BYTES;
+  static final int CLEAR_BYTES = 1 + 4 * Integer.BYTES + Integer.BYTES;
+  static final int COPY_BYTES = 1 + 6 * Integer.BYTES + Integer.BYTES;
+  static final int FILL_SERIES_BYTES = 1 + 4 * Integer.BYTES + 2 * Double.BYTES
+          + Integer.BYTES;
+  // the size of the longest record
+  private static final int MAX_RECORD_BYTES = FILL_SERIES_BYTES;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final int groupSize;
+  private final ByteBuffer buffer;
+  private final CRC32 crc;
+  private int pending;
+
+  /**
+   * Opens the log in the specified file, creating it if it does not exist. Nothing is
+   * appended until the log has been replayed.
+   *
+   * @param file      the file that holds the log
+   * @param groupSize the number of records written and forced together
+   * @throws IOException if the file cannot be opened or does not hold a log
+   */
+  WriteAheadLog(Path file, int groupSize) throws IOException {
+    this.file = file;
+    this.groupSize = groupSize;
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    this.crc = new CRC32();
+    this.pending = 0;
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    try {
+      if (channel.size() == 0) {
+        writeHeader();
+      } else {
+        readHeader();
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Applies every complete record of the log to the spreadsheet, in the order they were
+   * appended, and discards whatever follows the last complete record. Bulk assignments
+   * and region operations are applied cell by cell to spreadsheets that do not support
+   * them.
+   *
+   * @param sheet the spreadsheet to apply the records to
+   * @throws IOException if the log cannot be read
+   */
+  void replay(SpreadSheet sheet) throws IOException {
+    long position = HEADER_BYTES;
+    boolean exhausted = false;
+    buffer.clear();
+    channel.position(position);
+    while (true) {
+      // the buffer is in write mode here; keep at least one whole record in it
+      while (!exhausted && (buffer.position() < MAX_RECORD_BYTES)) {
+        exhausted = channel.read(buffer) < 0;
+      }
+      buffer.flip();
+      int size = recordSize(buffer);
+      if ((size < 0) || !checksumMatches(buffer, size)) {
+        break;
+      }
+      apply(buffer, sheet);
+      position += size;
+      buffer.compact();
+    }
+    buffer.clear();
+    if (position < channel.size()) {
+      channel.truncate(position);
+      channel.force(false);
+    }
+    channel.position(position);
+  }
+
+  /**
+   * Appends a record of a single cell assignment.
+   */
+  void logSet(int row, int col, double value) throws IOException {
+    reserve(SET_BYTES);
+    int start = buffer.position();
+    buffer.put(SET).putInt(row).putInt(col).putDouble(value);
+    seal(start);
+  }
+
+  /**
+   * Appends a record of a bulk assignment over a region.
+   */
+  void logBulkSet(int startRow, int startCol, int endRow, int endCol, double value)
+          throws IOException {
+    reserve(BULK_SET_BYTES);
+    int start = buffer.position();
+    buffer.put(BULK_SET).putInt(startRow).putInt(startCol).putInt(endRow).putInt(endCol)
+            .putDouble(value);
+    seal(start);
+  }
+
+  /**
+   * Appends a record of a region being cleared.
+   */
+  void logClear(int startRow, int startCol, int endRow, int endCol) throws IOException {
+    reserve(CLEAR_BYTES);
+    int start = buffer.position();
+    buffer.put(CLEAR).putInt(startRow).putInt(startCol).putInt(endRow).putInt(endCol);
+    seal(start);
+  }
+
+  /**
+   * Appends a record of a region being copied or moved.
+   *
+   * @param type {@link #COPY} or {@link #MOVE}
+   */
+  void logCopy(byte type, int startRow, int startCol, int endRow, int endCol, int toRow,
+               int toCol) throws IOException {
+    reserve(COPY_BYTES);
+    int start = buffer.position();
+    buffer.put(type).putInt(startRow).putInt(startCol).putInt(endRow).putInt(endCol)
+            .putInt(toRow).putInt(toCol);
+    seal(start);
+  }
+
+  /**
+   * Appends a record of a region being filled with a series.
+   */
+  void logFillSeries(int startRow, int startCol, int endRow, int endCol, double first,
+                     double step) throws IOException {
+    reserve(FILL_SERIES_BYTES);
+    int start = buffer.position();
+    buffer.put(FILL_SERIES).putInt(startRow).putInt(startCol).putInt(endRow).putInt(endCol)
+            .putDouble(first).putDouble(step);
+    seal(start);
+  }
+
+  /**
+   * Writes every pending record and forces the log onto the storage device.
+   *
+   * @throws IOException if the log cannot be written
+   */
+  void sync() throws IOException {
+    write();
+    channel.force(false);
+    pending = 0;
+  }
+
+  /**
+   * Discards every record of the log, including the pending ones.
+   *
+   * @throws IOException if the log cannot be truncated
+   */
+  void reset() throws IOException {
+    buffer.clear();
+    pending = 0;
+    channel.truncate(HEADER_BYTES);
+    channel.position(HEADER_BYTES);
+    channel.force(false);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      sync();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void reserve(int size) throws IOException {
+    if (buffer.remaining() < size) {
+      write();
+    }
+  }
+
+  private void seal(int start) throws IOException {
+    crc.reset();
+    crc.update(buffer.array(), start, buffer.position() - start);
+    buffer.putInt((int) crc.getValue());
+    if (++pending >= groupSize) {
+      sync();
+    }
+  }
+
+  private void write() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private void writeHeader() throws IOException {
+    buffer.clear();
+    buffer.putInt(MAGIC).putInt(VERSION);
+    write();
+    channel.force(true);
+  }
+
+  private void readHeader() throws IOException {
+    buffer.clear().limit(HEADER_BYTES);
+    int read = 0;
+    while (buffer.hasRemaining() && (read >= 0)) {
+      read = channel.read(buffer, buffer.position());
+    }
+    if (buffer.hasRemaining() || (buffer.getInt(0) != MAGIC)) {
+      throw new IOException("Not a spreadsheet log: " + file);
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported log version " + buffer.getInt(4));
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Returns the size of the record at the start of the buffer, or -1 if the buffer does
+   * not hold a complete record of a known type.
+   */
+  private static int recordSize(ByteBuffer records) {
+    if (!records.hasRemaining()) {
+      return -1;
+    }
+    int size;
+    switch (records.get(records.position())) {
+      case SET:
+        size = SET_BYTES;
+        break;
+      case BULK_SET:
+        size = BULK_SET_BYTES;
+        break;
+      case CLEAR:
+        size = CLEAR_BYTES;
+        break;
+      case COPY:
+      case MOVE:
+        size = COPY_BYTES;
+        break;
+      case FILL_SERIES:
+        size = FILL_SERIES_BYTES;
+        break;
+      default:
+        return -1;
+    }
+    return (records.remaining() < size) ? -1 : size;
+  }
+
+  private boolean checksumMatches(ByteBuffer records, int size) {
+    int start = records.position();
+    crc.reset();
+    crc.update(records.array(), start, size - Integer.BYTES);
+    return records.getInt(start + size - Integer.BYTES) == (int) crc.getValue();
+  }
+
+  private static void apply(ByteBuffer records, SpreadSheet sheet) {
+    byte type = records.get();
+    if (type == SET) {
+      sheet.set(records.getInt(), records.getInt(), records.getDouble());
+    } else if (type == CLEAR) {
+      sheet.clearRange(records.getInt(), records.getInt(), records.getInt(), records.getInt());
+    } else if ((type == COPY) || (type == MOVE)) {
+      applyCopy(type, records, sheet);
+    } else if (type == FILL_SERIES) {
+      int startRow = records.getInt();
+      int startCol = records.getInt();
+      int endRow = records.getInt();
+      int endCol = records.getInt();
+      double first = records.getDouble();
+      double step = records.getDouble();
+      if (sheet instanceof BetterSpreadSheet) {
+        ((BetterSpreadSheet) sheet).fillSeries(startRow, startCol, endRow, endCol, first,
+                step);
+      } else {
+        SheetRegions.fillSeries(sheet, startRow, startCol, endRow, endCol, first, step);
+      }
+    } else {
+      int startRow = records.getInt();
+      int startCol = records.getInt();
+      int endRow = records.getInt();
+      int endCol = records.getInt();
+      double value = records.getDouble();
+      if (sheet instanceof BetterSpreadSheet) {
+        ((BetterSpreadSheet) sheet).bulkSet(startRow, startCol, endRow, endCol, value);
+      } else {
+        for (int row = startRow; row <= endRow; row++) {
+          for (int col = startCol; col <= endCol; col++) {
+            sheet.set(row, col, value);
+          }
+        }
+      }
+    }
+    records.getInt();
+  }
+
+  private static void applyCopy(byte type, ByteBuffer records, SpreadSheet sheet) {
+    int startRow = records.getInt();
+    int startCol = records.getInt();
+    int endRow = records.getInt();
+    int endCol = records.getInt();
+    int toRow = records.getInt();
+    int toCol = records.getInt();
+    if (sheet instanceof BetterSpreadSheet) {
+      BetterSpreadSheet better = (BetterSpreadSheet) sheet;
+      if (type == COPY) {
+        better.copyRegion(startRow, startCol, endRow, endCol, toRow, toCol);
+      } else {
+        better.moveRegion(startRow, startCol, endRow, endCol, toRow, toCol);
+      }
+    } else {
+      SheetRegions.copy(sheet, startRow, startCol, endRow, endCol, toRow, toCol);
+      if (type == MOVE) {
+        SheetRegions.clearUncovered(sheet, startRow, startCol, endRow, endCol, toRow, toCol);
+      }
+    }
+  }
+}
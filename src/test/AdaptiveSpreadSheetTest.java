@@ -0,0 +1,128 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import spreadsheet.AdaptiveSpreadSheet;
+import spreadsheet.BetterSpreadSheetController;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for AdaptiveSpreadSheet.
+ */
+public class AdaptiveSpreadSheetTest {
+
+  private AdaptiveSpreadSheet sheet;
+
+  @Before
+  public void setUp() {
+    sheet = new AdaptiveSpreadSheet();
+  }
+
+  @Test
+  public void testNewSpreadsheet() {
+    assertEquals(0, sheet.getWidth());
+    assertEquals(0, sheet.getHeight());
+    assertTrue(sheet.isEmpty(0, 0));
+    assertFalse(sheet.isDenseAt(0, 0));
+  }
+
+  @Test
+  public void testScatteredCellsStaySparse() {
+    sheet.set(0, 0, 1.0);
+    sheet.set(10, 20, 2.0);
+    sheet.set(63, 63, 3.0);
+
+    assertFalse(sheet.isDenseAt(0, 0));
+    assertEquals(1.0, sheet.get(0, 0), 0.001);
+    assertEquals(2.0, sheet.get(10, 20), 0.001);
+    assertEquals(3.0, sheet.get(63, 63), 0.001);
+    assertTrue(sheet.isEmpty(20, 10));
+    assertEquals(64, sheet.getWidth());
+    assertEquals(64, sheet.getHeight());
+  }
+
+  @Test
+  public void testTileBecomesDenseWhenFilled() {
+    for (int row = 0; row < 32; row++) {
+      for (int col = 0; col < 32; col++) {
+        sheet.set(row, col, row * 100 + col);
+      }
+    }
+    assertFalse(sheet.isDenseAt(0, 0));
+
+    sheet.set(32, 0, -1.0);
+    assertTrue(sheet.isDenseAt(0, 0));
+
+    assertEquals(3131.0, sheet.get(31, 31), 0.001);
+    assertEquals(-1.0, sheet.get(32, 0), 0.001);
+    assertTrue(sheet.isEmpty(32, 1));
+    assertFalse(sheet.isDenseAt(64, 0));
+  }
+
+  @Test
+  public void testLargeBulkSetGoesStraightToDenseTiles() {
+    sheet.bulkSet(0, 0, 127, 127, 4.0);
+
+    assertTrue(sheet.isDenseAt(0, 0));
+    assertTrue(sheet.isDenseAt(127, 127));
+    assertEquals(4.0, sheet.get(100, 100), 0.001);
+    assertEquals(128, sheet.getWidth());
+    assertEquals(128, sheet.getHeight());
+  }
+
+  @Test
+  public void testSmallBulkSetStaysSparse() {
+    sheet.set(5, 5, 9.0);
+    sheet.bulkSet(0, 0, 3, 3, 4.0);
+
+    assertFalse(sheet.isDenseAt(0, 0));
+    assertEquals(4.0, sheet.get(3, 3), 0.001);
+    assertEquals(9.0, sheet.get(5, 5), 0.001);
+    assertTrue(sheet.isEmpty(4, 4));
+  }
+
+  @Test
+  public void testCustomRatios() {
+    AdaptiveSpreadSheet eager = new AdaptiveSpreadSheet(0.001, 0.0);
+    for (int col = 0; col < 5; col++) {
+      eager.set(0, col, col);
+    }
+    assertTrue(eager.isDenseAt(0, 0));
+    assertEquals(4.0, eager.get(0, 4), 0.001);
+  }
+
+  @Test
+  public void testWorksWithBetterController() {
+    Readable input = new StringReader("bulk-assign A 1 CV 100 2.5 print-value BA 50 q");
+    StringWriter output = new StringWriter();
+    new BetterSpreadSheetController(sheet, input, output).executeBetterProgram();
+
+    assertTrue(output.toString().contains("Value: 2.5"));
+    assertTrue(sheet.isDenseAt(0, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSparseRatioNotBelowDenseRatio() {
+    new AdaptiveSpreadSheet(0.25, 0.25);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRatioAboveOne() {
+    new AdaptiveSpreadSheet(1.5, 0.1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGetNegativeRow() {
+    sheet.get(-1, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBulkSetEndRowLessThanStartRow() {
+    sheet.bulkSet(5, 0, 4, 1, 1.0);
+  }
+}
@@ -0,0 +1,278 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.BetterSpreadSheetController;
+import spreadsheet.MockBetterSpreadSheet;
+import spreadsheet.MockSpreadSheet;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheetController;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for the headless batch mode of both controllers.
+ */
+public class BatchModeTest {
+
+  private StringBuilder log;
+  private StringWriter output;
+
+  @Before
+  public void setUp() {
+    log = new StringBuilder();
+    output = new StringWriter();
+  }
+
+  @Test
+  public void testBatchWritesNoPromptsOrGreetings() {
+    Readable input = new StringReader("assign-value A 1 4.5\nprint-value A 1\nq\n");
+    new SpreadSheetController(new SparseSpreadSheet(), input, output).executeBatch();
+
+    assertEquals("Value: 4.5" + System.lineSeparator(), output.toString());
+  }
+
+  @Test
+  public void testBatchCallsModelLikeInteractiveMode() {
+    Readable input = new StringReader("assign-value aB 2 15.0 print-value ABC 1 quit");
+    new SpreadSheetController(new MockSpreadSheet(log), input, output).executeBatch();
+
+    assertEquals("set(27, 1, 15.0)\nget(730,0)\n", log.toString());
+  }
+
+  @Test
+  public void testBatchStopsAtEndOfInput() {
+    Readable input = new StringReader("assign-value B 2 3\n  print-value B 2  ");
+    new SpreadSheetController(new SparseSpreadSheet(), input, output).executeBatch();
+
+    assertEquals("Value: 3.0" + System.lineSeparator(), output.toString());
+  }
+
+  @Test
+  public void testBatchIgnoresCommandsAfterQuit() {
+    Readable input = new StringReader("q assign-value A 1 1");
+    new SpreadSheetController(new MockSpreadSheet(log), input, output).executeBatch();
+
+    assertEquals("", log.toString());
+    assertEquals("", output.toString());
+  }
+
+  @Test
+  public void testBatchIgnoresTruncatedCommand() {
+    Readable input = new StringReader("assign-value A 1");
+    new SpreadSheetController(new MockSpreadSheet(log), input, output).executeBatch();
+
+    assertEquals("", log.toString());
+  }
+
+  @Test
+  public void testBatchReportsErrors() {
+    Readable input = new StringReader("assign-value 1A 1 2 print-value A -1 foo q");
+    new SpreadSheetController(new SparseSpreadSheet(), input, output).executeBatch();
+
+    String out = output.toString();
+    assertTrue(out.contains("Error: Invalid row"));
+    assertTrue(out.contains("Error: Row or column cannot be negative"));
+    assertFalse(out.contains("Value: Error"));
+    assertTrue(out.contains("Undefined instruction: foo"));
+  }
+
+  @Test
+  public void testBatchReportsMalformedNumbers() {
+    Readable input = new StringReader("assign-value A x 2 assign-value A 1 y q");
+    new SpreadSheetController(new MockSpreadSheet(log), input, output).executeBatch();
+
+    assertEquals("", log.toString());
+    assertEquals(2, output.toString().split("Error: ").length - 1);
+  }
+
+  @Test
+  public void testBatchMenu() {
+    Readable input = new StringReader("menu");
+    new SpreadSheetController(new MockSpreadSheet(log), input, output).executeBatch();
+
+    assertTrue(output.toString().startsWith("Supported user instructions are:"));
+  }
+
+  @Test
+  public void testBatchHandlesOutputLargerThanBuffer() {
+    StringBuilder commands = new StringBuilder("assign-value A 1 1.5\n");
+    for (int i = 0; i < 20000; i++) {
+      commands.append("print-value A 1\n");
+    }
+    Readable input = new StringReader(commands.toString());
+    new SpreadSheetController(new SparseSpreadSheet(), input, output).executeBatch();
+
+    String line = "Value: 1.5" + System.lineSeparator();
+    assertEquals(20000 * line.length(), output.toString().length());
+  }
+
+  @Test
+  public void testBetterBatchBulkAssign() {
+    Readable input = new StringReader("bulk-assign A 1 C 3 10.5 q");
+    new BetterSpreadSheetController(new MockBetterSpreadSheet(log), input, output)
+            .executeBatch();
+
+    assertEquals("bulkSet(0, 0, 2, 2, 10.5)\n", log.toString());
+    assertEquals("Bulk assigned 10.5 to region (0,0) to (2,2)" + System.lineSeparator(),
+            output.toString());
+  }
+
+  @Test
+  public void testBetterBatchMessages() {
+    Readable input = new StringReader("assign-value A 1 42.5 bulk-assign B 1 B 3 2 "
+            + "print-value B 2 print-value 9 1 nope q");
+    new BetterSpreadSheetController(new BetterSparseSpreadSheet(), input, output)
+            .executeBatch();
+
+    String nl = System.lineSeparator();
+    assertEquals("Set cell (0,0) to 42.5" + nl
+            + "Bulk assigned 2.0 to region (1,0) to (1,2)" + nl
+            + "Value: 2.0" + nl
+            + "Error: Invalid row" + nl
+            + "Undefined instruction: nope" + nl, output.toString());
+    assertFalse(output.toString().contains("Type instruction:"));
+  }
+
+  @Test
+  public void testBatchTokensSplitAcrossReads() {
+    StringReader text = new StringReader("assign-value aB 2 15.5\n\tprint-value ABC 1 "
+            + "assign-value B 1 -1e3 quit");
+    Readable input = buffer -> {
+      // hand out at most three characters at a time
+      char[] chars = new char[Math.min(3, buffer.remaining())];
+      int count = text.read(chars);
+      if (count > 0) {
+        buffer.put(chars, 0, count);
+      }
+      return count;
+    };
+    new SpreadSheetController(new MockSpreadSheet(log), input, output).executeBatch();
+
+    assertEquals("set(27, 1, 15.5)\nget(730,0)\nset(1, 0, -1000.0)\n", log.toString());
+  }
+
+  @Test
+  public void testBatchTokensLongerThanBuffer() {
+    StringBuilder name = new StringBuilder();
+    for (int i = 0; i < 200000; i++) {
+      name.append((char) ('a' + i % 26));
+    }
+    Readable input = new StringReader("assign-value A 1 2 " + name + " print-value A 1");
+    new SpreadSheetController(new SparseSpreadSheet(), input, output).executeBatch();
+
+    assertEquals("Undefined instruction: " + name + System.lineSeparator()
+            + "Value: 2.0" + System.lineSeparator(), output.toString());
+  }
+
+  @Test
+  public void testBatchParsesNumbersLikeJava() {
+    String[] values = {"0.1", "-0.0", "+7", "1e400", "0x1p3", "12345678901234567890.5",
+        "4.9e-324", "1.7976931348623157E308", "NaN", "-Infinity", "2d"};
+    StringBuilder commands = new StringBuilder();
+    StringBuilder expected = new StringBuilder();
+    for (String value : values) {
+      commands.append("assign-value A +0001 ").append(value).append(" print-value A 1 ");
+      expected.append("Value: ").append(Double.parseDouble(value))
+              .append(System.lineSeparator());
+    }
+    Readable input = new StringReader(commands.toString());
+    new SpreadSheetController(new SparseSpreadSheet(), input, output).executeBatch();
+
+    assertEquals(expected.toString(), output.toString());
+  }
+
+  @Test
+  public void testBatchReportsNumberErrorsLikeJava() {
+    Readable input = new StringReader("print-value A 2147483648 print-value A 1x "
+            + "assign-value A 1 1.2.3 assign-value A - 1 print-value A 2147483647");
+    new SpreadSheetController(new SparseSpreadSheet(), input, output).executeBatch();
+
+    String nl = System.lineSeparator();
+    assertEquals("Error: For input string: \"2147483648\"" + nl
+            + "Error: For input string: \"1x\"" + nl
+            + "Error: multiple points" + nl
+            + "Error: For input string: \"-\"" + nl
+            + "Value: 0.0" + nl, output.toString());
+  }
+
+  @Test
+  public void testInteractiveBadArgumentSkipsWholeCommand() {
+    Readable input = new StringReader("assign-value 1A 1 2 print-value A x q");
+    new SpreadSheetController(new MockSpreadSheet(log), input, output).executeProgram();
+
+    assertTrue(output.toString().contains("Error: Invalid row"));
+    assertTrue(output.toString().contains("Error: For input string: \"x\""));
+    assertFalse(output.toString().contains("Undefined instruction"));
+    assertEquals("", log.toString());
+  }
+
+  @Test
+  public void testInteractiveStopsAtEndOfInput() {
+    Readable input = new StringReader("bulk-assign A 1 B 2 3 sum A 1 B 2");
+    new BetterSpreadSheetController(new BetterSparseSpreadSheet(), input, output)
+            .executeBetterProgram();
+
+    assertTrue(output.toString().contains("Sum: 12.0"));
+    assertTrue(output.toString().endsWith("Thank you for using this enhanced program!"));
+  }
+
+  @Test
+  public void testPromptWrittenBeforeWaitingForInput() {
+    String commands = "assign-value A 1 2\nprint-value A 1\n";
+    String[] seen = new String[1];
+    boolean[] served = new boolean[1];
+    Readable input = buffer -> {
+      if (!served[0]) {
+        served[0] = true;
+        buffer.put(commands);
+        return commands.length();
+      }
+      seen[0] = output.toString();
+      return -1;
+    };
+    new SpreadSheetController(new SparseSpreadSheet(), input, output).executeProgram();
+
+    assertTrue(seen[0].startsWith("Welcome to the spreadsheet program!"));
+    assertTrue(seen[0].endsWith("Value: 2.0" + System.lineSeparator() + "Type instruction: "));
+    assertTrue(output.toString().endsWith("Thank you for using this program!"));
+  }
+
+  @Test
+  public void testOutputWrittenInFewPieces() {
+    int[] appends = new int[1];
+    Appendable counting = new Appendable() {
+      @Override
+      public Appendable append(CharSequence csq) {
+        appends[0]++;
+        output.append(csq);
+        return this;
+      }
+
+      @Override
+      public Appendable append(CharSequence csq, int start, int end) {
+        return append(csq.subSequence(start, end));
+      }
+
+      @Override
+      public Appendable append(char c) {
+        return append(String.valueOf(c));
+      }
+    };
+    StringBuilder commands = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      commands.append("assign-value A 1 ").append(i).append(" sum A 1 A 1 ");
+    }
+    new BetterSpreadSheetController(new BetterSparseSpreadSheet(),
+            new StringReader(commands + "q"), counting).executeBetterProgram();
+
+    assertTrue(output.toString().contains("Sum: 999.0"));
+    assertEquals(2001, output.toString().split("Type instruction: ").length - 1);
+    assertTrue(appends[0] < 10);
+  }
+}
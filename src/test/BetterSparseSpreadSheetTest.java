@@ -1,8 +1,13 @@
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Random;
+
 import spreadsheet.BetterSparseSpreadSheet;
 import spreadsheet.BetterSpreadSheet;
+import spreadsheet.RegionSummary;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -168,4 +173,134 @@ public class BetterSparseSpreadSheetTest {
     assertEquals(21, sheet.getWidth());
     assertEquals(21, sheet.getHeight());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testBulkSetHugeRegion() {
+    sheet.bulkSet(0, 0, 100000, 100000, 2.5);
+
+    assertEquals(2.5, sheet.get(0, 0), 0.001);
+    assertEquals(2.5, sheet.get(100000, 100000), 0.001);
+    assertEquals(2.5, sheet.get(54321, 12345), 0.001);
+    assertTrue(sheet.isEmpty(100001, 0));
+    assertTrue(sheet.isEmpty(0, 100001));
+
+    assertEquals(100001, sheet.getWidth());
+    assertEquals(100001, sheet.getHeight());
+  }
+
+  @Test
+  public void testSetAfterLargeBulkSetOverridesRegion() {
+    sheet.bulkSet(0, 0, 999, 999, 1.0);
+    sheet.set(500, 500, 9.0);
+
+    assertEquals(9.0, sheet.get(500, 500), 0.001);
+    assertEquals(1.0, sheet.get(500, 501), 0.001);
+  }
+
+  @Test
+  public void testLargeBulkSetOverridesEarlierSets() {
+    sheet.bulkSet(0, 0, 99, 99, 1.0);
+    sheet.set(50, 50, 9.0);
+    sheet.bulkSet(40, 40, 60, 60, 2.0);
+
+    assertEquals(2.0, sheet.get(50, 50), 0.001);
+    assertEquals(1.0, sheet.get(39, 39), 0.001);
+
+    sheet.set(50, 50, 3.0);
+    assertEquals(3.0, sheet.get(50, 50), 0.001);
+  }
+
+  @Test
+  public void testOverlappingLargeRegionsLatestWins() {
+    sheet.bulkSet(0, 0, 99, 99, 1.0);
+    sheet.bulkSet(50, 50, 149, 149, 2.0);
+    sheet.bulkSet(0, 90, 199, 95, 3.0);
+
+    assertEquals(1.0, sheet.get(10, 10), 0.001);
+    assertEquals(2.0, sheet.get(60, 60), 0.001);
+    assertEquals(3.0, sheet.get(60, 92), 0.001);
+    assertEquals(3.0, sheet.get(199, 90), 0.001);
+    assertEquals(2.0, sheet.get(149, 149), 0.001);
+    assertTrue(sheet.isEmpty(10, 120));
+    assertTrue(sheet.isEmpty(199, 0));
+
+    assertEquals(150, sheet.getWidth());
+    assertEquals(200, sheet.getHeight());
+  }
+
+  @Test
+  public void testSetBeforeAnyLargeRegionIsOverridden() {
+    sheet.set(5, 5, 7.0);
+    sheet.bulkSet(0, 0, 20, 20, 0.5);
+
+    assertEquals(0.5, sheet.get(5, 5), 0.001);
+    assertFalse(sheet.isEmpty(20, 20));
+  }
+
+  @Test
+  public void testRepeatedBulkSetsReplaceEachOther() {
+    for (int i = 0; i < 20000; i++) {
+      sheet.bulkSet(0, 0, 999, 999, i);
+    }
+    sheet.bulkSet(500, 500, 1499, 1499, -1.0);
+
+    assertEquals(19999.0, sheet.get(0, 0), 0.001);
+    assertEquals(-1.0, sheet.get(999, 999), 0.001);
+    assertEquals(-1.0, sheet.get(1499, 1499), 0.001);
+    RegionSummary summary = sheet.summarize(0, 0, 1499, 1499);
+    assertEquals(1750000, summary.getCount());
+    assertEquals(19999.0 * 750000 - 1000000, summary.getSum(), 0.001);
+  }
+
+  @Test
+  public void testRandomOperationsMatchCellByCell() {
+    Random random = new Random(2);
+    SpreadSheet expected = new SparseSpreadSheet();
+    for (int i = 0; i < 400; i++) {
+      int startRow = random.nextInt(150);
+      int startCol = random.nextInt(150);
+      int endRow = startRow + random.nextInt(60);
+      int endCol = startCol + random.nextInt(60);
+      double value = random.nextInt(100);
+      switch (random.nextInt(4)) {
+        case 0:
+          sheet.set(startRow, startCol, value);
+          expected.set(startRow, startCol, value);
+          break;
+        case 1:
+          sheet.clearRange(startRow, startCol, endRow, endCol);
+          expected.clearRange(startRow, startCol, endRow, endCol);
+          break;
+        default:
+          sheet.bulkSet(startRow, startCol, endRow, endCol, value);
+          for (int row = startRow; row <= endRow; row++) {
+            for (int col = startCol; col <= endCol; col++) {
+              expected.set(row, col, value);
+            }
+          }
+          break;
+      }
+    }
+
+    long count = 0;
+    double sum = 0;
+    for (int row = 0; row < 220; row++) {
+      for (int col = 0; col < 220; col++) {
+        assertEquals(expected.isEmpty(row, col), sheet.isEmpty(row, col));
+        assertEquals(expected.get(row, col), sheet.get(row, col), 0.0);
+        if (!expected.isEmpty(row, col)) {
+          count++;
+          sum += expected.get(row, col);
+        }
+      }
+    }
+    assertEquals(expected.getWidth(), sheet.getWidth());
+    assertEquals(expected.getHeight(), sheet.getHeight());
+    RegionSummary summary = sheet.summarize(0, 0, 219, 219);
+    assertEquals(count, summary.getCount());
+    assertEquals(sum, summary.getSum(), 0.001);
+    long[] visited = new long[1];
+    sheet.forEachCell((row, col, value) -> visited[0]++);
+    assertEquals(count, visited[0]);
+  }
+}
@@ -127,4 +127,31 @@ public class BetterSpreadSheetControllerTest {
     assertEquals("get(730,0)\n", log.toString());
   }
 
+  @Test
+  public void testAggregateCommands() {
+    Readable input = new StringReader("sum A 1 B 3 count C 2 C 2 average A 1 A 1 q");
+    BetterSpreadSheetController controller = new BetterSpreadSheetController(mockSheet,
+            input, output);
+
+    controller.executeBetterProgram();
+
+    assertEquals("summarize(0, 0, 1, 2)\nsummarize(2, 1, 2, 1)\nsummarize(0, 0, 0, 0)\n",
+            log.toString());
+    assertTrue(output.toString().contains("Sum: 0.0"));
+    assertTrue(output.toString().contains("Count: 0"));
+    assertTrue(output.toString().contains("Average: NaN"));
+  }
+
+  @Test
+  public void testAggregateInvalidRegion() {
+    Readable input = new StringReader("max C 1 A 1 q");
+    BetterSpreadSheetController controller = new BetterSpreadSheetController(mockSheet,
+            input, output);
+
+    controller.executeBetterProgram();
+
+    assertEquals("", log.toString());
+    assertTrue(output.toString().contains("Error: End coordinates must be greater than or "
+            + "equal to start coordinates"));
+  }
 }
\ No newline at end of file
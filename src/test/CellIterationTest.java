@@ -0,0 +1,180 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import spreadsheet.AdaptiveSpreadSheet;
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.BetterSpreadSheet;
+import spreadsheet.Cell;
+import spreadsheet.CellOrder;
+import spreadsheet.CellSpliterator;
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.FormulaBetterSpreadSheet;
+import spreadsheet.MappedSpreadSheet;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for iterating over the non-empty cells of every kind of spreadsheet.
+ */
+public class CellIterationTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private List<SpreadSheet> models() throws IOException {
+    List<SpreadSheet> models = new ArrayList<SpreadSheet>();
+    models.add(new SparseSpreadSheet());
+    models.add(new BetterSparseSpreadSheet());
+    models.add(new TiledSpreadSheet());
+    models.add(new AdaptiveSpreadSheet());
+    models.add(new ConcurrentSpreadSheet(4));
+    models.add(new MappedSpreadSheet(folder.newFolder().toPath().resolve("sheet.map")));
+    models.add(new FormulaBetterSpreadSheet(new TiledSpreadSheet()));
+    return models;
+  }
+
+  private static void fill(SpreadSheet sheet, long seed) {
+    Random random = new Random(seed);
+    for (int i = 0; i < 2000; i++) {
+      sheet.set(random.nextInt(500), random.nextInt(300), random.nextInt(1000));
+    }
+    if (sheet instanceof BetterSpreadSheet) {
+      ((BetterSpreadSheet) sheet).bulkSet(100, 100, 199, 149, -1.0);
+      ((BetterSpreadSheet) sheet).bulkSet(150, 120, 160, 130, -2.0);
+      sheet.set(155, 125, 42.0);
+    }
+  }
+
+  /**
+   * Lists the non-empty cells by checking every cell in the given order.
+   */
+  private static List<Cell> scan(SpreadSheet sheet, CellOrder order) {
+    List<Cell> cells = new ArrayList<Cell>();
+    if (order == CellOrder.ROW_MAJOR) {
+      for (int row = 0; row < sheet.getHeight(); row++) {
+        for (int col = 0; col < sheet.getWidth(); col++) {
+          if (!sheet.isEmpty(row, col)) {
+            cells.add(new Cell(row, col, sheet.get(row, col)));
+          }
+        }
+      }
+    } else {
+      for (int col = 0; col < sheet.getWidth(); col++) {
+        for (int row = 0; row < sheet.getHeight(); row++) {
+          if (!sheet.isEmpty(row, col)) {
+            cells.add(new Cell(row, col, sheet.get(row, col)));
+          }
+        }
+      }
+    }
+    return cells;
+  }
+
+  @Test
+  public void testOrderedVisitsMatchScan() throws IOException {
+    for (SpreadSheet sheet : models()) {
+      fill(sheet, 3);
+      for (CellOrder order : CellOrder.values()) {
+        List<Cell> visited = new ArrayList<Cell>();
+        sheet.forEachCell(order, (row, col, value) -> visited.add(new Cell(row, col, value)));
+        assertEquals(sheet.getClass().getSimpleName() + " " + order, scan(sheet, order),
+                visited);
+      }
+    }
+  }
+
+  @Test
+  public void testUnorderedVisitsEveryCellOnce() throws IOException {
+    for (SpreadSheet sheet : models()) {
+      fill(sheet, 5);
+      List<Cell> visited = new ArrayList<Cell>();
+      sheet.forEachCell((row, col, value) -> visited.add(new Cell(row, col, value)));
+      visited.sort((a, b) -> (a.getRow() != b.getRow())
+              ? Integer.compare(a.getRow(), b.getRow())
+              : Integer.compare(a.getCol(), b.getCol()));
+      assertEquals(sheet.getClass().getSimpleName(), scan(sheet, CellOrder.ROW_MAJOR),
+              visited);
+    }
+  }
+
+  @Test
+  public void testParallelStream() throws IOException {
+    for (SpreadSheet sheet : models()) {
+      fill(sheet, 11);
+      List<Cell> expected = scan(sheet, CellOrder.COLUMN_MAJOR);
+      List<Cell> streamed = StreamSupport.stream(sheet.cellSpliterator(CellOrder.COLUMN_MAJOR),
+              true).collect(Collectors.toList());
+      assertEquals(expected, streamed);
+      double sum = expected.stream().mapToDouble(Cell::getValue).sum();
+      assertEquals(sum, StreamSupport.stream(sheet.cellSpliterator(CellOrder.ROW_MAJOR), true)
+              .mapToDouble(Cell::getValue).sum(), 1e-6);
+    }
+  }
+
+  @Test
+  public void testSplitting() {
+    SpreadSheet sheet = new TiledSpreadSheet();
+    for (int i = 0; i < 1000; i++) {
+      sheet.set(i % 37, i, i);
+    }
+    CellSpliterator whole = sheet.cellSpliterator(CellOrder.ROW_MAJOR);
+    assertEquals(1000, whole.estimateSize());
+    CellSpliterator prefix = whole.trySplit();
+    assertNotNull(prefix);
+    assertEquals(500, prefix.estimateSize());
+    assertEquals(500, whole.estimateSize());
+
+    // the prefix holds the first cells in row-major order
+    int[] last = {-1, -1};
+    prefix.forEachRemaining((row, col, value) -> {
+      assertTrue((row > last[0]) || ((row == last[0]) && (col > last[1])));
+      last[0] = row;
+      last[1] = col;
+    });
+    int[] first = new int[2];
+    assertTrue(whole.tryAdvance((row, col, value) -> {
+      first[0] = row;
+      first[1] = col;
+    }));
+    assertTrue((first[0] > last[0]) || ((first[0] == last[0]) && (first[1] > last[1])));
+
+    CellSpliterator single = new SparseSpreadSheet().cellSpliterator(CellOrder.ROW_MAJOR);
+    assertNull(single.trySplit());
+    assertFalse(single.tryAdvance((row, col, value) -> {
+    }));
+  }
+
+  @Test
+  public void testSnapshotAllowsChanges() {
+    SpreadSheet sheet = new SparseSpreadSheet();
+    sheet.set(0, 0, 1.0);
+    sheet.set(2, 3, 2.0);
+    // the visitor may write to the sheet while the ordered walk runs
+    sheet.forEachCell(CellOrder.ROW_MAJOR, (row, col, value) ->
+            sheet.set(row + 10, col, value * 10));
+    assertEquals(10.0, sheet.get(10, 0), 0.0);
+    assertEquals(20.0, sheet.get(12, 3), 0.0);
+    assertEquals(4, StreamSupport.stream(sheet.cellSpliterator(CellOrder.ROW_MAJOR), false)
+            .count());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullOrder() {
+    new TiledSpreadSheet().cellSpliterator(null);
+  }
+}
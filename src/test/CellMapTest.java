@@ -0,0 +1,128 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import spreadsheet.CellMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for CellMap.
+ */
+public class CellMapTest {
+
+  private CellMap map;
+
+  @Before
+  public void setUp() {
+    map = new CellMap();
+  }
+
+  @Test
+  public void testKeyPacking() {
+    long key = CellMap.key(123456, Integer.MAX_VALUE);
+    assertEquals(123456, CellMap.row(key));
+    assertEquals(Integer.MAX_VALUE, CellMap.col(key));
+    assertTrue(key >= 0);
+  }
+
+  @Test
+  public void testEmptyMap() {
+    assertEquals(0, map.size());
+    assertFalse(map.containsKey(0, 0));
+    assertEquals(-1.0, map.get(0, 0, -1.0), 0.001);
+  }
+
+  @Test
+  public void testPutReportsNewCells() {
+    assertTrue(map.put(1, 2, 3.0));
+    assertFalse(map.put(1, 2, 4.0));
+    assertEquals(4.0, map.get(1, 2, 0.0), 0.001);
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void testRowAndColumnAreNotInterchangeable() {
+    map.put(1, 2, 1.0);
+    map.put(2, 1, 2.0);
+
+    assertEquals(1.0, map.get(1, 2, 0.0), 0.001);
+    assertEquals(2.0, map.get(2, 1, 0.0), 0.001);
+    assertEquals(2, map.size());
+  }
+
+  @Test
+  public void testRemoveLeavesOtherCellsReachable() {
+    for (int i = 0; i < 100; i++) {
+      map.put(i, i, i);
+    }
+    for (int i = 0; i < 100; i += 2) {
+      assertTrue(map.remove(i, i));
+    }
+    assertFalse(map.remove(0, 0));
+
+    assertEquals(50, map.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i % 2 == 1, map.containsKey(i, i));
+    }
+  }
+
+  @Test
+  public void testReinsertAfterRemove() {
+    map.put(5, 5, 1.0);
+    map.remove(5, 5);
+    assertTrue(map.put(5, 5, 2.0));
+    assertEquals(2.0, map.get(5, 5, 0.0), 0.001);
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void testGrowsPastInitialCapacity() {
+    for (int row = 0; row < 300; row++) {
+      for (int col = 0; col < 300; col++) {
+        map.put(row, col, row * 1000.0 + col);
+      }
+    }
+
+    assertEquals(90000, map.size());
+    assertEquals(299299.0, map.get(299, 299, 0.0), 0.001);
+    assertEquals(17042.0, map.get(17, 42, 0.0), 0.001);
+    assertFalse(map.containsKey(300, 0));
+  }
+
+  @Test
+  public void testChurnDoesNotLoseCells() {
+    map.put(0, 0, 42.0);
+    for (int i = 1; i < 10000; i++) {
+      map.put(i, 7, i);
+      map.remove(i, 7);
+    }
+
+    assertEquals(1, map.size());
+    assertEquals(42.0, map.get(0, 0, 0.0), 0.001);
+  }
+
+  @Test
+  public void testClear() {
+    map.put(1, 1, 1.0);
+    map.put(2, 2, 2.0);
+    map.clear();
+
+    assertEquals(0, map.size());
+    assertFalse(map.containsKey(1, 1));
+    assertTrue(map.put(1, 1, 3.0));
+  }
+
+  @Test
+  public void testNanIsAStoredValue() {
+    map.put(3, 3, Double.NaN);
+    assertTrue(map.containsKey(3, 3));
+    assertTrue(Double.isNaN(map.get(3, 3, 0.0)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeExpectedCells() {
+    new CellMap(-1);
+  }
+}
@@ -0,0 +1,304 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import spreadsheet.AdaptiveSpreadSheet;
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.BetterSpreadSheet;
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.FormulaBetterSpreadSheet;
+import spreadsheet.LoggedSpreadSheet;
+import spreadsheet.MappedSpreadSheet;
+import spreadsheet.MockSpreadSheet;
+import spreadsheet.RegionSummary;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for clearing cells, and for the width and height shrinking as a result, in
+ * every kind of spreadsheet.
+ */
+public class ClearCellsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private List<SpreadSheet> models() throws IOException {
+    List<SpreadSheet> models = new ArrayList<SpreadSheet>();
+    models.add(new SparseSpreadSheet());
+    models.add(new BetterSparseSpreadSheet());
+    models.add(new TiledSpreadSheet());
+    models.add(new AdaptiveSpreadSheet());
+    models.add(new ConcurrentSpreadSheet(4));
+    models.add(new MappedSpreadSheet(folder.newFolder().toPath().resolve("sheet.map")));
+    models.add(new FormulaBetterSpreadSheet(new TiledSpreadSheet()));
+    return models;
+  }
+
+  private static String name(SpreadSheet sheet) {
+    return sheet.getClass().getSimpleName();
+  }
+
+  @Test
+  public void testClearShrinksBounds() throws IOException {
+    for (SpreadSheet sheet : models()) {
+      sheet.set(3, 4, 1.0);
+      sheet.set(10, 2, 2.0);
+      sheet.set(7, 9, 3.0);
+      assertEquals(name(sheet), 11, sheet.getHeight());
+      assertEquals(name(sheet), 10, sheet.getWidth());
+
+      sheet.clear(10, 2);
+      assertTrue(name(sheet), sheet.isEmpty(10, 2));
+      assertEquals(name(sheet), 0.0, sheet.get(10, 2), 0.0);
+      assertEquals(name(sheet), 8, sheet.getHeight());
+      assertEquals(name(sheet), 10, sheet.getWidth());
+
+      // clearing an empty cell changes nothing
+      sheet.clear(500, 500);
+      sheet.clear(7, 8);
+      assertEquals(name(sheet), 8, sheet.getHeight());
+
+      sheet.clear(7, 9);
+      assertEquals(name(sheet), 4, sheet.getHeight());
+      assertEquals(name(sheet), 5, sheet.getWidth());
+      assertEquals(name(sheet), 1.0, sheet.get(3, 4), 0.0);
+
+      sheet.clear(3, 4);
+      assertEquals(name(sheet), 0, sheet.getHeight());
+      assertEquals(name(sheet), 0, sheet.getWidth());
+
+      sheet.set(2, 2, 5.0);
+      assertEquals(name(sheet), 3, sheet.getHeight());
+      assertEquals(name(sheet), 3, sheet.getWidth());
+    }
+  }
+
+  @Test
+  public void testClearRangeMatchesReference() throws IOException {
+    for (SpreadSheet sheet : models()) {
+      Map<Long, Double> expected = new HashMap<Long, Double>();
+      Random random = new Random(7);
+      for (int round = 0; round < 40; round++) {
+        int startRow = random.nextInt(400);
+        int startCol = random.nextInt(300);
+        int endRow = startRow + random.nextInt(150);
+        int endCol = startCol + random.nextInt(150);
+        int action = random.nextInt(3);
+        if (action == 0) {
+          for (int i = 0; i < 200; i++) {
+            int row = random.nextInt(500);
+            int col = random.nextInt(400);
+            sheet.set(row, col, i);
+            expected.put(((long) row << 32) | col, (double) i);
+          }
+        } else if ((action == 1) && (sheet instanceof BetterSpreadSheet)) {
+          double value = random.nextInt(100);
+          ((BetterSpreadSheet) sheet).bulkSet(startRow, startCol, endRow, endCol, value);
+          for (int row = startRow; row <= endRow; row++) {
+            for (int col = startCol; col <= endCol; col++) {
+              expected.put(((long) row << 32) | col, value);
+            }
+          }
+        } else {
+          sheet.clearRange(startRow, startCol, endRow, endCol);
+          for (int row = startRow; row <= endRow; row++) {
+            for (int col = startCol; col <= endCol; col++) {
+              expected.remove(((long) row << 32) | col);
+            }
+          }
+        }
+        assertMatches(sheet, expected);
+      }
+      sheet.clearRange(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+      expected.clear();
+      assertMatches(sheet, expected);
+    }
+  }
+
+  private static void assertMatches(SpreadSheet sheet, Map<Long, Double> expected) {
+    int height = 0;
+    int width = 0;
+    double sum = 0;
+    for (Map.Entry<Long, Double> cell : expected.entrySet()) {
+      height = Math.max(height, (int) (cell.getKey() >>> 32) + 1);
+      width = Math.max(width, (int) (long) cell.getKey() + 1);
+      sum += cell.getValue();
+    }
+    assertEquals(name(sheet), height, sheet.getHeight());
+    assertEquals(name(sheet), width, sheet.getWidth());
+    int[] count = new int[1];
+    sheet.forEachCell((row, col, value) -> {
+      assertEquals(name(sheet), expected.get(((long) row << 32) | col), value, 0.0);
+      count[0]++;
+    });
+    assertEquals(name(sheet), expected.size(), count[0]);
+    for (int row = 0; row < 550; row += 3) {
+      for (int col = 0; col < 450; col += 5) {
+        Double value = expected.get(((long) row << 32) | col);
+        assertEquals(name(sheet), value == null, sheet.isEmpty(row, col));
+        assertEquals(name(sheet), value == null ? 0.0 : value, sheet.get(row, col), 0.0);
+      }
+    }
+    if (sheet instanceof BetterSpreadSheet) {
+      RegionSummary summary = ((BetterSpreadSheet) sheet).summarize(0, 0, 1000, 1000);
+      assertEquals(name(sheet), expected.size(), summary.getCount());
+      assertEquals(name(sheet), sum, summary.getSum(), 1e-6);
+    }
+  }
+
+  @Test
+  public void testClearInsideLargeBulkAssignment() {
+    BetterSparseSpreadSheet sheet = new BetterSparseSpreadSheet();
+    sheet.bulkSet(0, 0, 99999, 99999, 1.0);
+    sheet.clearRange(50000, 0, 99999, 99999);
+    assertEquals(50000, sheet.getHeight());
+    assertEquals(100000, sheet.getWidth());
+    assertTrue(sheet.isEmpty(60000, 5));
+    assertFalse(sheet.isEmpty(49999, 99999));
+
+    sheet.clearRange(0, 50000, 49999, 99999);
+    assertEquals(50000, sheet.getWidth());
+    sheet.clear(25000, 25000);
+    assertTrue(sheet.isEmpty(25000, 25000));
+    assertEquals(1.0, sheet.get(25000, 25001), 0.0);
+    RegionSummary summary = sheet.summarize(0, 0, 99999, 99999);
+    assertEquals(50000L * 50000 - 1, summary.getCount());
+
+    sheet.clearRange(0, 0, 49999, 49999);
+    assertEquals(0, sheet.getHeight());
+    assertEquals(0, sheet.getWidth());
+  }
+
+  @Test
+  public void testAdaptiveTileBecomesSparseAgain() {
+    AdaptiveSpreadSheet sheet = new AdaptiveSpreadSheet();
+    sheet.bulkSet(0, 0, 63, 63, 2.0);
+    assertTrue(sheet.isDenseAt(0, 0));
+
+    // 1024 of 4096 cells left is still above the sparse ratio of 1/8
+    sheet.clearRange(0, 0, 47, 63);
+    assertTrue(sheet.isDenseAt(0, 0));
+    sheet.clearRange(48, 0, 59, 63);
+    assertFalse(sheet.isDenseAt(0, 0));
+    assertEquals(2.0, sheet.get(63, 63), 0.0);
+    assertEquals(256, sheet.summarize(0, 0, 63, 63).getCount());
+    assertEquals(64, sheet.getHeight());
+
+    sheet.clearRange(60, 0, 63, 63);
+    assertFalse(sheet.isDenseAt(0, 0));
+    assertEquals(0, sheet.getHeight());
+  }
+
+  @Test
+  public void testClearingRecalculatesFormulas() {
+    FormulaBetterSpreadSheet sheet = new FormulaBetterSpreadSheet(new TiledSpreadSheet());
+    sheet.set(0, 0, 4.0);
+    sheet.set(1, 0, 6.0);
+    sheet.setFormula(3, 0, "SUM(A1:B1)");
+    assertEquals(10.0, sheet.get(3, 0), 0.0);
+
+    sheet.clear(1, 0);
+    assertEquals(4.0, sheet.get(3, 0), 0.0);
+
+    sheet.clearRange(3, 0, 3, 0);
+    assertNull(sheet.getFormula(3, 0));
+    assertTrue(sheet.isEmpty(3, 0));
+    sheet.set(0, 0, 1.0);
+    assertTrue(sheet.isEmpty(3, 0));
+    assertEquals(1, sheet.getHeight());
+  }
+
+  @Test
+  public void testClearsAreLoggedAndReplayed() throws IOException {
+    Path directory = folder.newFolder().toPath();
+    try (LoggedSpreadSheet sheet = new LoggedSpreadSheet(new SparseSpreadSheet(),
+            directory)) {
+      sheet.set(1, 1, 1.0);
+      sheet.set(5, 5, 2.0);
+      sheet.set(8, 2, 3.0);
+      sheet.clear(8, 2);
+      sheet.clearRange(4, 4, 9, 9);
+    }
+    try (LoggedSpreadSheet sheet = new LoggedSpreadSheet(new SparseSpreadSheet(),
+            directory)) {
+      assertEquals(1.0, sheet.get(1, 1), 0.0);
+      assertTrue(sheet.isEmpty(5, 5));
+      assertTrue(sheet.isEmpty(8, 2));
+      assertEquals(2, sheet.getHeight());
+      assertEquals(2, sheet.getWidth());
+    }
+  }
+
+  @Test
+  public void testMappedBoundsAfterReopening() throws IOException {
+    Path file = folder.newFolder().toPath().resolve("sheet.map");
+    try (MappedSpreadSheet sheet = new MappedSpreadSheet(file)) {
+      sheet.bulkSet(0, 0, 99, 99, 1.0);
+      sheet.set(300, 5, 2.0);
+    }
+    try (MappedSpreadSheet sheet = new MappedSpreadSheet(file)) {
+      assertEquals(301, sheet.getHeight());
+      sheet.clear(300, 5);
+      assertEquals(100, sheet.getHeight());
+      sheet.clearRange(50, 0, 99, 99);
+      sheet.clearRange(0, 70, 49, 99);
+      assertEquals(50, sheet.getHeight());
+      assertEquals(70, sheet.getWidth());
+    }
+    try (MappedSpreadSheet sheet = new MappedSpreadSheet(file)) {
+      assertEquals(50, sheet.getHeight());
+      assertEquals(70, sheet.getWidth());
+      assertTrue(sheet.isEmpty(60, 10));
+      assertEquals(0.0, sheet.get(60, 10), 0.0);
+    }
+  }
+
+  @Test
+  public void testInvalidClears() throws IOException {
+    for (SpreadSheet sheet : models()) {
+      try {
+        sheet.clear(-1, 0);
+        fail(name(sheet));
+      } catch (IllegalArgumentException e) {
+        assertEquals("Row or column cannot be negative", e.getMessage());
+      }
+      try {
+        sheet.clearRange(0, -1, 2, 2);
+        fail(name(sheet));
+      } catch (IllegalArgumentException e) {
+        assertEquals("Row or column cannot be negative", e.getMessage());
+      }
+      try {
+        sheet.clearRange(3, 0, 2, 2);
+        fail(name(sheet));
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage().startsWith("End coordinates"));
+      }
+    }
+  }
+
+  @Test
+  public void testMockLogsClears() {
+    StringBuilder log = new StringBuilder();
+    SpreadSheet sheet = new MockSpreadSheet(log);
+    sheet.clear(1, 2);
+    sheet.clearRange(0, 1, 2, 3);
+    assertEquals("clear(1, 2)\nclearRange(0, 1, 2, 3)\n", log.toString());
+  }
+}
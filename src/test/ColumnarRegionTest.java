@@ -0,0 +1,238 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import spreadsheet.AdaptiveSpreadSheet;
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.ColumnarRegion;
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.FormulaSpreadSheet;
+import spreadsheet.MappedSpreadSheet;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for reading regions of a spreadsheet into columns and writing them to
+ * columnar files.
+ */
+public class ColumnarRegionTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private SpreadSheet[] models() throws IOException {
+    return new SpreadSheet[]{new SparseSpreadSheet(), new BetterSparseSpreadSheet(),
+        new TiledSpreadSheet(), new AdaptiveSpreadSheet(), new ConcurrentSpreadSheet(4),
+        new FormulaSpreadSheet(new TiledSpreadSheet()),
+        new MappedSpreadSheet(folder.newFolder().toPath().resolve("sheet.map"))};
+  }
+
+  private static void assertMatches(SpreadSheet sheet, ColumnarRegion columns) {
+    for (int col = 0; col < columns.getColumnCount(); col++) {
+      DoubleBuffer values = columns.values(col);
+      LongBuffer validity = columns.validity(col);
+      assertEquals(columns.getRowCount(), values.remaining());
+      assertEquals((columns.getRowCount() + 63) / 64, validity.remaining());
+      for (int row = 0; row < columns.getRowCount(); row++) {
+        int sheetRow = columns.getStartRow() + row;
+        int sheetCol = columns.getStartCol() + col;
+        boolean valid = (validity.get(row / 64) & (1L << (row % 64))) != 0;
+        assertEquals(sheet.isEmpty(sheetRow, sheetCol), !valid);
+        assertEquals(sheet.isEmpty(sheetRow, sheetCol), columns.isEmpty(row, col));
+        assertEquals(sheet.get(sheetRow, sheetCol), values.get(row), 0.0);
+        assertEquals(sheet.get(sheetRow, sheetCol), columns.get(row, col), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testReadColumnsMatchesCells() throws IOException {
+    Random random = new Random(20);
+    for (SpreadSheet sheet : models()) {
+      for (int i = 0; i < 4000; i++) {
+        sheet.set(random.nextInt(300), random.nextInt(200), random.nextInt(1000) - 500);
+      }
+      for (int i = 0; i < 20; i++) {
+        int startRow = random.nextInt(300);
+        int startCol = random.nextInt(200);
+        ColumnarRegion columns = sheet.readColumns(startRow, startCol,
+                startRow + random.nextInt(150), startCol + random.nextInt(100));
+        assertEquals(startRow, columns.getStartRow());
+        assertEquals(startCol, columns.getStartCol());
+        assertMatches(sheet, columns);
+      }
+      assertMatches(sheet, sheet.readColumns(0, 0, 299, 199));
+    }
+  }
+
+  @Test
+  public void testReadColumnsResolvesBulkRegions() {
+    BetterSparseSpreadSheet sheet = new BetterSparseSpreadSheet();
+    sheet.set(5, 5, 1.0);
+    sheet.bulkSet(0, 0, 99, 9, 2.0);
+    sheet.set(6, 6, 3.0);
+    sheet.bulkSet(50, 5, 150, 70, 4.0);
+    sheet.set(120, 60, 5.0);
+    sheet.clearRange(60, 20, 70, 30);
+
+    ColumnarRegion columns = sheet.readColumns(0, 0, 200, 80);
+
+    assertEquals(151, columns.getRowCount());
+    assertEquals(71, columns.getColumnCount());
+    assertMatches(sheet, columns);
+    assertEquals(2.0, columns.get(5, 5), 0.0);
+    assertEquals(3.0, columns.get(6, 6), 0.0);
+    assertEquals(5.0, columns.get(120, 60), 0.0);
+    assertTrue(columns.isEmpty(65, 25));
+  }
+
+  @Test
+  public void testReadColumnsClipsToSheet() throws IOException {
+    for (SpreadSheet sheet : models()) {
+      sheet.set(10, 3, 7.0);
+      ColumnarRegion columns = sheet.readColumns(2, 1, Integer.MAX_VALUE, Integer.MAX_VALUE);
+      assertEquals(9, columns.getRowCount());
+      assertEquals(3, columns.getColumnCount());
+      assertEquals(7.0, columns.get(8, 2), 0.0);
+
+      ColumnarRegion outside = sheet.readColumns(20, 0, 30, 5);
+      assertEquals(0, outside.getRowCount());
+    }
+  }
+
+  @Test
+  public void testReadColumnsOfFullTiles() throws IOException {
+    for (SpreadSheet sheet : models()) {
+      if (sheet instanceof TiledSpreadSheet) {
+        ((TiledSpreadSheet) sheet).bulkSet(0, 0, 255, 127, 1.5);
+      } else {
+        for (int row = 0; row < 256; row++) {
+          for (int col = 0; col < 128; col++) {
+            sheet.set(row, col, 1.5);
+          }
+        }
+      }
+      ColumnarRegion columns = sheet.readColumns(3, 60, 250, 70);
+      for (int col = 0; col < columns.getColumnCount(); col++) {
+        double[] values = new double[columns.getRowCount()];
+        columns.values(col).get(values);
+        double[] expected = new double[values.length];
+        Arrays.fill(expected, 1.5);
+        assertTrue(Arrays.equals(expected, values));
+        for (int row = 0; row < columns.getRowCount(); row++) {
+          assertTrue(!columns.isEmpty(row, col));
+        }
+      }
+    }
+  }
+
+  @Test(expected = ReadOnlyBufferException.class)
+  public void testColumnsAreReadOnly() {
+    SpreadSheet sheet = new TiledSpreadSheet();
+    sheet.set(0, 0, 1.0);
+
+    sheet.readColumns(0, 0, 0, 0).values(0).put(0, 2.0);
+  }
+
+  @Test
+  public void testReadColumnsRejectsBadRegions() throws IOException {
+    int[][] regions = {{-1, 0, 1, 1}, {0, -1, 1, 1}, {2, 0, 1, 1}, {0, 2, 1, 1}};
+    for (SpreadSheet sheet : models()) {
+      for (int[] region : regions) {
+        try {
+          sheet.readColumns(region[0], region[1], region[2], region[3]);
+          fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+          // expected
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCellsOutsideRegionAreRejected() {
+    SpreadSheet sheet = new SparseSpreadSheet();
+    sheet.set(3, 3, 1.0);
+    ColumnarRegion columns = sheet.readColumns(0, 0, 3, 3);
+    int[][] cells = {{-1, 0}, {0, -1}, {4, 0}, {0, 4}};
+    for (int[] cell : cells) {
+      try {
+        columns.get(cell[0], cell[1]);
+        fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    TiledSpreadSheet sheet = new TiledSpreadSheet();
+    Random random = new Random(5);
+    for (int i = 0; i < 50000; i++) {
+      sheet.set(random.nextInt(2000), random.nextInt(100), random.nextGaussian());
+    }
+    sheet.bulkSet(100, 10, 1500, 20, -4.0);
+    ColumnarRegion columns = sheet.readColumns(7, 3, 1999, 90);
+    Path file = folder.getRoot().toPath().resolve("region.cols");
+
+    columns.write(file);
+    ColumnarRegion read = ColumnarRegion.read(file);
+
+    assertEquals(32 + 88 * (1993 / 64 + 1 + 1993) * 8, Files.size(file));
+    assertEquals(7, read.getStartRow());
+    assertEquals(3, read.getStartCol());
+    assertEquals(1993, read.getRowCount());
+    assertEquals(88, read.getColumnCount());
+    for (int col = 0; col < read.getColumnCount(); col++) {
+      assertEquals(columns.values(col), read.values(col));
+      assertEquals(columns.validity(col), read.validity(col));
+    }
+    assertMatches(sheet, read);
+  }
+
+  @Test
+  public void testWriteAndReadEmptyRegion() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("empty.cols");
+
+    new SparseSpreadSheet().readColumns(0, 0, 10, 10).write(file);
+    ColumnarRegion read = ColumnarRegion.read(file);
+
+    assertEquals(0, read.getRowCount());
+    assertEquals(0, read.getColumnCount());
+  }
+
+  @Test(expected = IOException.class)
+  public void testReadRejectsOtherFiles() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("text.cols");
+    Files.write(file, "1,2,3\n4,5,6\n and more text to fill a header".getBytes());
+
+    ColumnarRegion.read(file);
+  }
+
+  @Test(expected = IOException.class)
+  public void testReadRejectsTruncatedFile() throws IOException {
+    SpreadSheet sheet = new SparseSpreadSheet();
+    sheet.set(100, 2, 1.0);
+    Path file = folder.getRoot().toPath().resolve("truncated.cols");
+    sheet.readColumns(0, 0, 100, 2).write(file);
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - Double.BYTES));
+
+    ColumnarRegion.read(file);
+  }
+}
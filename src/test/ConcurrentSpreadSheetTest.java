@@ -0,0 +1,189 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import spreadsheet.ConcurrentSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for ConcurrentSpreadSheet, including multi-threaded stress tests.
+ */
+public class ConcurrentSpreadSheetTest {
+
+  private ConcurrentSpreadSheet sheet;
+
+  @Before
+  public void setUp() {
+    sheet = new ConcurrentSpreadSheet(8);
+  }
+
+  @Test
+  public void testSingleThreadedBehavior() {
+    assertTrue(sheet.isEmpty(0, 0));
+    sheet.set(70, 130, 4.5);
+    sheet.bulkSet(0, 0, 65, 65, 1.0);
+
+    assertEquals(4.5, sheet.get(70, 130), 0.001);
+    assertEquals(1.0, sheet.get(65, 0), 0.001);
+    assertTrue(sheet.isEmpty(66, 66));
+    assertFalse(sheet.isEmpty(0, 65));
+    assertEquals(131, sheet.getWidth());
+    assertEquals(71, sheet.getHeight());
+  }
+
+  @Test
+  public void testConcurrentWritersKeepEveryCell() throws Exception {
+    final int threads = 8;
+    final int cellsPerThread = 20000;
+    runConcurrently(threads, id -> {
+      for (int i = 0; i < cellsPerThread; i++) {
+        // interleave rows between threads so that they share tiles and stripes
+        sheet.set(i / 100 * threads + id, i % 100, id * 1000000.0 + i);
+      }
+    });
+
+    for (int id = 0; id < threads; id++) {
+      for (int i = 0; i < cellsPerThread; i++) {
+        assertEquals(id * 1000000.0 + i, sheet.get(i / 100 * threads + id, i % 100), 0.0);
+      }
+    }
+    assertEquals(cellsPerThread / 100 * threads, sheet.getHeight());
+    assertEquals(100, sheet.getWidth());
+  }
+
+  @Test
+  public void testConcurrentGrowthNeverLosesMaximum() throws Exception {
+    final int threads = 16;
+    runConcurrently(threads, id -> {
+      for (int i = id; i < 50000; i += threads) {
+        sheet.set(i, 50000 - i, 1.0);
+      }
+    });
+
+    assertEquals(50000, sheet.getHeight());
+    assertEquals(50001, sheet.getWidth());
+  }
+
+  @Test
+  public void testReadersSeeMonotonicDimensions() throws Exception {
+    final AtomicInteger violations = new AtomicInteger();
+    final int writers = 4;
+    runConcurrently(writers + 4, id -> {
+      if (id < writers) {
+        for (int i = id; i < 40000; i += writers) {
+          sheet.set(i, i % 500, i);
+        }
+      } else {
+        int lastWidth = 0;
+        int lastHeight = 0;
+        for (int i = 0; i < 40000; i++) {
+          int w = sheet.getWidth();
+          int h = sheet.getHeight();
+          if ((w < lastWidth) || (h < lastHeight)) {
+            violations.incrementAndGet();
+          }
+          lastWidth = w;
+          lastHeight = h;
+          sheet.get(i, i % 500);
+        }
+      }
+    });
+
+    assertEquals(0, violations.get());
+    assertEquals(40000, sheet.getHeight());
+    for (int i = 0; i < 40000; i += 997) {
+      assertEquals(i, sheet.get(i, i % 500), 0.0);
+    }
+  }
+
+  @Test
+  public void testConcurrentBulkSetsOnDisjointRegions() throws Exception {
+    final int threads = 6;
+    runConcurrently(threads, id -> sheet.bulkSet(id * 50, 0, id * 50 + 49, 199, id));
+
+    for (int id = 0; id < threads; id++) {
+      assertEquals(id, sheet.get(id * 50, 0), 0.0);
+      assertEquals(id, sheet.get(id * 50 + 49, 199), 0.0);
+    }
+    assertEquals(300, sheet.getHeight());
+    assertEquals(200, sheet.getWidth());
+  }
+
+  @Test
+  public void testParallelBulkSetFromSeveralThreads() throws Exception {
+    final ConcurrentSpreadSheet parallel = new ConcurrentSpreadSheet(4, 500);
+    runConcurrently(3, id -> parallel.bulkSet(id * 200, 0, id * 200 + 199, 999, id + 1));
+
+    for (int id = 0; id < 3; id++) {
+      for (int row = id * 200; row < id * 200 + 200; row += 13) {
+        for (int col = 0; col < 1000; col += 17) {
+          assertEquals(id + 1, parallel.get(row, col), 0.0);
+        }
+      }
+    }
+    assertTrue(parallel.isEmpty(600, 0));
+    assertEquals(1000, parallel.getWidth());
+    assertEquals(600, parallel.getHeight());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNonPositiveParallelThreshold() {
+    new ConcurrentSpreadSheet(4, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNonPositiveStripes() {
+    new ConcurrentSpreadSheet(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetNegativeRow() {
+    sheet.set(-1, 0, 1.0);
+  }
+
+  /**
+   * A task run by one of the threads of a stress test.
+   */
+  private interface Task {
+    void run(int id) throws Exception;
+  }
+
+  /**
+   * Runs the task on the given number of threads that all start at the same time, and
+   * rethrows the first failure of any of them.
+   */
+  private static void runConcurrently(int threads, Task task) throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Throwable> failures = new ArrayList<Throwable>();
+    List<Thread> workers = new ArrayList<Thread>();
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      Thread worker = new Thread(() -> {
+        try {
+          start.await();
+          task.run(id);
+        } catch (Throwable e) {
+          synchronized (failures) {
+            failures.add(e);
+          }
+        }
+      });
+      worker.start();
+      workers.add(worker);
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    if (!failures.isEmpty()) {
+      throw new AssertionError(failures.get(0));
+    }
+  }
+}
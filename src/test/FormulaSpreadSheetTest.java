@@ -0,0 +1,374 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.BetterSpreadSheetController;
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.FormulaBetterSpreadSheet;
+import spreadsheet.FormulaSpreadSheet;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetController;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for FormulaSpreadSheet and FormulaBetterSpreadSheet.
+ */
+public class FormulaSpreadSheetTest {
+
+  private StringBuilder writes;
+  private FormulaSpreadSheet sheet;
+
+  @Before
+  public void setUp() {
+    writes = new StringBuilder();
+    SpreadSheet values = new SparseSpreadSheet() {
+      @Override
+      public void set(int row, int col, double value) {
+        super.set(row, col, value);
+        writes.append("(").append(row).append(",").append(col).append(")");
+      }
+    };
+    sheet = new FormulaSpreadSheet(values);
+  }
+
+  @Test
+  public void testArithmetic() {
+    sheet.set(0, 0, 6.0);
+    sheet.set(0, 1, 4.0);
+    sheet.setFormula(1, 0, "=A1+A2*2-(A1-A2)/4");
+
+    assertEquals(13.5, sheet.get(1, 0), 0.001);
+    assertEquals("=A1+A2*2-(A1-A2)/4", sheet.getFormula(1, 0));
+    assertFalse(sheet.isEmpty(1, 0));
+  }
+
+  @Test
+  public void testNumbersAndUnaryMinus() {
+    sheet.setFormula(0, 0, "-2.5e1 + -(-3)");
+    assertEquals(-22.0, sheet.get(0, 0), 0.001);
+  }
+
+  @Test
+  public void testFunctionsOverRanges() {
+    sheet.set(0, 0, 1.0);
+    sheet.set(1, 0, 2.0);
+    sheet.set(2, 0, 3.0);
+    sheet.set(0, 1, 10.0);
+    sheet.setFormula(5, 0, "SUM(A1:C2)");
+    sheet.setFormula(5, 1, "product(A1:C1, 2)");
+    sheet.setFormula(5, 2, "MIN(A1:C2)+MAX(C1:A2)");
+    sheet.setFormula(5, 3, "AVERAGE(A1:C1)");
+
+    assertEquals(16.0, sheet.get(5, 0), 0.001);
+    assertEquals(12.0, sheet.get(5, 1), 0.001);
+    assertEquals(11.0, sheet.get(5, 2), 0.001);
+    assertEquals(2.0, sheet.get(5, 3), 0.001);
+  }
+
+  @Test
+  public void testChangePropagatesThroughChain() {
+    sheet.set(0, 0, 1.0);
+    sheet.setFormula(1, 0, "A1*2");
+    sheet.setFormula(2, 0, "B1+1");
+    sheet.setFormula(3, 0, "C1+B1");
+
+    sheet.set(0, 0, 5.0);
+
+    assertEquals(10.0, sheet.get(1, 0), 0.001);
+    assertEquals(11.0, sheet.get(2, 0), 0.001);
+    assertEquals(21.0, sheet.get(3, 0), 0.001);
+  }
+
+  @Test
+  public void testOnlyDependentsAreRecalculated() {
+    sheet.set(0, 0, 1.0);
+    sheet.set(0, 1, 1.0);
+    sheet.setFormula(1, 0, "A1+1");
+    sheet.setFormula(1, 1, "A2+1");
+    sheet.setFormula(2, 0, "SUM(A1:B1)");
+    sheet.setFormula(2, 1, "SUM(A2:B2)");
+    writes.setLength(0);
+
+    sheet.set(0, 0, 2.0);
+
+    assertEquals("(0,0)(1,0)(2,0)", writes.toString());
+    assertEquals(5.0, sheet.get(2, 0), 0.001);
+    assertEquals(3.0, sheet.get(2, 1), 0.001);
+  }
+
+  @Test
+  public void testEachDependentIsRecalculatedOnceAfterItsInputs() {
+    sheet.set(0, 0, 1.0);
+    sheet.setFormula(1, 0, "A1+1");
+    sheet.setFormula(2, 0, "A1+B1");
+    sheet.setFormula(3, 0, "B1+C1+A1");
+    writes.setLength(0);
+
+    sheet.set(0, 0, 2.0);
+
+    assertEquals("(0,0)(1,0)(2,0)(3,0)", writes.toString());
+    assertEquals(10.0, sheet.get(3, 0), 0.001);
+  }
+
+  @Test
+  public void testDirectCycleIsRejected() {
+    try {
+      sheet.setFormula(0, 0, "A1+1");
+      fail("A formula reading its own cell was accepted");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Circular reference"));
+    }
+    assertNull(sheet.getFormula(0, 0));
+  }
+
+  @Test
+  public void testIndirectCycleRestoresPreviousFormula() {
+    sheet.set(3, 0, 4.0);
+    sheet.setFormula(0, 0, "D1");
+    sheet.setFormula(1, 0, "A1*2");
+    sheet.setFormula(2, 0, "SUM(A1:B1)");
+    try {
+      sheet.setFormula(0, 0, "C1");
+      fail("A circular formula was accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    assertEquals("D1", sheet.getFormula(0, 0));
+    sheet.set(3, 0, 5.0);
+    assertEquals(5.0, sheet.get(0, 0), 0.001);
+    assertEquals(15.0, sheet.get(2, 0), 0.001);
+  }
+
+  @Test
+  public void testSettingNumberRemovesFormula() {
+    sheet.set(0, 0, 1.0);
+    sheet.setFormula(1, 0, "A1+1");
+    sheet.setFormula(2, 0, "B1*10");
+    sheet.set(1, 0, 7.0);
+    sheet.set(0, 0, 100.0);
+
+    assertNull(sheet.getFormula(1, 0));
+    assertEquals(7.0, sheet.get(1, 0), 0.001);
+    assertEquals(70.0, sheet.get(2, 0), 0.001);
+  }
+
+  @Test
+  public void testLongChainDoesNotOverflowStack() {
+    sheet.set(0, 0, 0.0);
+    for (int col = 1; col < 50000; col++) {
+      sheet.setFormula(0, col, "A" + col + "+1");
+    }
+    sheet.set(0, 0, 1.0);
+    assertEquals(50000.0, sheet.get(0, 49999), 0.001);
+  }
+
+  @Test
+  public void testBulkSetReplacesFormulasAndRecalculates() {
+    FormulaBetterSpreadSheet better = new FormulaBetterSpreadSheet(new BetterSparseSpreadSheet());
+    better.set(0, 0, 1.0);
+    better.setFormula(1, 1, "A1+1");
+    better.setFormula(20, 0, "SUM(A1:J10)");
+    better.bulkSet(0, 0, 9, 9, 2.0);
+
+    assertNull(better.getFormula(1, 1));
+    assertEquals(2.0, better.get(1, 1), 0.001);
+    assertEquals(200.0, better.get(20, 0), 0.001);
+  }
+
+  private static String name(int row, int col) {
+    StringBuilder letters = new StringBuilder();
+    for (int n = row + 1; n > 0; n = (n - 1) / 26) {
+      letters.insert(0, (char) ('A' + (n - 1) % 26));
+    }
+    return letters.toString() + (col + 1);
+  }
+
+  /**
+   * Builds layers of formulas where every cell reads two cells of the layer above, so
+   * changing the first cell recomputes every formula.
+   */
+  private static void buildLayers(FormulaBetterSpreadSheet target, int layers, int width) {
+    target.bulkSet(0, 0, 0, width - 1, 1.0);
+    for (int row = 1; row < layers; row++) {
+      for (int col = 0; col < width; col++) {
+        target.setFormula(row, col, name(row - 1, col) + "*0.5+"
+                + name(row - 1, (col + 1) % width) + "*0.25+" + row);
+      }
+    }
+  }
+
+  @Test
+  public void testParallelRecalculationMatchesSequential() {
+    FormulaBetterSpreadSheet sequential =
+            new FormulaBetterSpreadSheet(new BetterSparseSpreadSheet());
+    FormulaBetterSpreadSheet parallel =
+            new FormulaBetterSpreadSheet(new ConcurrentSpreadSheet(), 1);
+    buildLayers(sequential, 20, 600);
+    buildLayers(parallel, 20, 600);
+
+    sequential.set(0, 0, 7.0);
+    parallel.set(0, 0, 7.0);
+    sequential.bulkSet(0, 300, 0, 599, 3.0);
+    parallel.bulkSet(0, 300, 0, 599, 3.0);
+
+    for (int row = 0; row < 20; row++) {
+      for (int col = 0; col < 600; col++) {
+        assertEquals(sequential.get(row, col), parallel.get(row, col), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testParallelRecalculationOfWideAndDeepGraphs() {
+    FormulaBetterSpreadSheet parallel =
+            new FormulaBetterSpreadSheet(new ConcurrentSpreadSheet(), 1);
+    parallel.set(0, 0, 1.0);
+    for (int col = 1; col < 5000; col++) {
+      // a wide level reading one cell, then a long running sum over it
+      parallel.setFormula(1, col, "A1*" + col);
+      parallel.setFormula(2, col, name(1, col) + "+" + name(2, col - 1));
+    }
+    for (int row = 3; row < 3000; row++) {
+      parallel.setFormula(row, 0, name(row - 1, 0) + "+1");
+    }
+
+    parallel.set(0, 0, 2.0);
+
+    assertEquals(9998.0, parallel.get(1, 4999), 0.001);
+    assertEquals(110.0, parallel.get(2, 10), 0.001);
+    assertEquals(4999.0 * 5000.0, parallel.get(2, 4999), 0.001);
+    assertEquals(2997.0, parallel.get(2999, 0), 0.001);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidParallelThreshold() {
+    new FormulaBetterSpreadSheet(new ConcurrentSpreadSheet(), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidFormula() {
+    sheet.setFormula(0, 0, "A1+");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownFunction() {
+    sheet.setFormula(0, 0, "MEDIAN(A1:A3)");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeCell() {
+    sheet.setFormula(-1, 0, "1");
+  }
+
+  @Test
+  public void testControllerAssignsFormula() {
+    StringWriter output = new StringWriter();
+    new SpreadSheetController(new FormulaSpreadSheet(new SparseSpreadSheet()),
+            new StringReader("assign-value A 1 3 assign-formula B 1 A1*A1 "
+                    + "assign-value A 1 4 print-value B 1 assign-formula C 1 C1 q"), output)
+            .executeBatch();
+
+    assertEquals("Value: 16.0" + System.lineSeparator()
+            + "Error: Circular reference at cell (2,0)" + System.lineSeparator(),
+            output.toString());
+  }
+
+  @Test
+  public void testControllerRejectsFormulaWithoutSupport() {
+    StringWriter output = new StringWriter();
+    new SpreadSheetController(new SparseSpreadSheet(),
+            new StringReader("assign-formula A 1 1+1 q"), output).executeBatch();
+
+    assertEquals("Error: Formulas are not supported by this spreadsheet"
+            + System.lineSeparator(), output.toString());
+  }
+
+  @Test
+  public void testFunctionsWithSeveralArguments() {
+    sheet.set(0, 0, 1.0);
+    sheet.set(1, 0, 2.0);
+    sheet.set(0, 1, 10.0);
+    sheet.setFormula(5, 0, "SUM(A1:B1, 3, A2*2, B2:B2)");
+    sheet.setFormula(5, 1, "MIN(A1:B2, -1)+MAX(5, A2)");
+    sheet.setFormula(5, 2, "AVERAGE(A1:B2, 7)");
+    sheet.setFormula(5, 3, "PRODUCT(C1:C3)+MIN(C1:C3)+SUM(C1:C3)");
+
+    assertEquals(26.0, sheet.get(5, 0), 0.001);
+    assertEquals(9.0, sheet.get(5, 1), 0.001);
+    assertEquals(5.0, sheet.get(5, 2), 0.001);
+    assertEquals(0.0, sheet.get(5, 3), 0.001);
+
+    sheet.setFormula(6, 0, "AVERAGE(C1:C3)");
+    assertTrue(Double.isNaN(sheet.get(6, 0)));
+  }
+
+  @Test
+  public void testConstantPartsAndOperandOrder() {
+    sheet.set(0, 0, 8.0);
+    sheet.setFormula(1, 0, "2*3+A1");
+    sheet.setFormula(1, 1, "A1-2*3");
+    sheet.setFormula(1, 2, "100/A1/(1+1)");
+    sheet.setFormula(1, 3, "A1/2-(-A1)");
+
+    assertEquals(14.0, sheet.get(1, 0), 0.001);
+    assertEquals(2.0, sheet.get(1, 1), 0.001);
+    assertEquals(6.25, sheet.get(1, 2), 0.001);
+    assertEquals(12.0, sheet.get(1, 3), 0.001);
+
+    sheet.set(0, 0, 4.0);
+    assertEquals(10.0, sheet.get(1, 0), 0.001);
+    assertEquals(-2.0, sheet.get(1, 1), 0.001);
+    assertEquals(12.5, sheet.get(1, 2), 0.001);
+    assertEquals(6.0, sheet.get(1, 3), 0.001);
+  }
+
+  @Test
+  public void testReassigningSameFormulaRecomputes() {
+    sheet.set(0, 0, 2.0);
+    sheet.setFormula(1, 0, "A1*10");
+    sheet.setFormula(1, 0, "A1*10");
+    assertEquals(20.0, sheet.get(1, 0), 0.001);
+
+    sheet.set(0, 0, 3.0);
+    assertEquals(30.0, sheet.get(1, 0), 0.001);
+    sheet.setFormula(1, 0, "A1*100");
+    assertEquals(300.0, sheet.get(1, 0), 0.001);
+  }
+
+  @Test
+  public void testBetterControllerAssignsFormula() {
+    StringWriter output = new StringWriter();
+    new BetterSpreadSheetController(new FormulaBetterSpreadSheet(new BetterSparseSpreadSheet()),
+            new StringReader("bulk-assign A 1 B 2 3 assign-formula C 1 SUM(A1:B2)/2 "
+                    + "print-value C 1 assign-value A 1 7 print-value C 1 "
+                    + "assign-formula C 2 C2+1 q"), output)
+            .executeBatch();
+
+    assertEquals("Bulk assigned 3.0 to region (0,0) to (1,1)" + System.lineSeparator()
+            + "Value: 6.0" + System.lineSeparator()
+            + "Set cell (0,0) to 7.0" + System.lineSeparator()
+            + "Value: 8.0" + System.lineSeparator()
+            + "Error: Circular reference at cell (2,1)" + System.lineSeparator(),
+            output.toString());
+  }
+
+  @Test
+  public void testBetterControllerRejectsFormulaWithoutSupport() {
+    StringWriter output = new StringWriter();
+    new BetterSpreadSheetController(new BetterSparseSpreadSheet(),
+            new StringReader("assign-formula A 1 1+1 q"), output).executeBatch();
+
+    assertEquals("Error: Formulas are not supported by this spreadsheet"
+            + System.lineSeparator(), output.toString());
+  }
+}
@@ -0,0 +1,198 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.LoggedBetterSpreadSheet;
+import spreadsheet.LoggedSpreadSheet;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for LoggedSpreadSheet and LoggedBetterSpreadSheet.
+ */
+public class LoggedSpreadSheetTest {
+  private static final long HEADER_BYTES = 8;
+  private static final long SET_BYTES = 21;
+  private static final long BULK_SET_BYTES = 29;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path logFile(Path directory) {
+    return directory.resolve("sheet.log");
+  }
+
+  @Test
+  public void testChangesAreRecoveredAfterCrash() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    LoggedSpreadSheet sheet = new LoggedSpreadSheet(new SparseSpreadSheet(), directory, 1);
+    sheet.set(1, 2, 3.5);
+    sheet.set(40, 7, -1.0);
+    // the sheet is never closed, as if the program had died
+
+    LoggedSpreadSheet recovered = new LoggedSpreadSheet(new SparseSpreadSheet(), directory);
+    assertEquals(3.5, recovered.get(1, 2), 0.001);
+    assertEquals(-1.0, recovered.get(40, 7), 0.001);
+    assertEquals(41, recovered.getHeight());
+    recovered.close();
+  }
+
+  @Test
+  public void testBulkSetWritesOneRecord() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    LoggedBetterSpreadSheet sheet =
+            new LoggedBetterSpreadSheet(new BetterSparseSpreadSheet(), directory, 1);
+    sheet.bulkSet(0, 0, 999, 999, 2.0);
+
+    assertEquals(HEADER_BYTES + BULK_SET_BYTES, Files.size(logFile(directory)));
+    sheet.close();
+
+    LoggedBetterSpreadSheet recovered =
+            new LoggedBetterSpreadSheet(new TiledSpreadSheet(), directory);
+    assertEquals(2.0, recovered.get(999, 999), 0.001);
+    assertEquals(1000, recovered.getWidth());
+    recovered.close();
+  }
+
+  @Test
+  public void testGroupCommitDefersWrites() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    LoggedSpreadSheet sheet = new LoggedSpreadSheet(new SparseSpreadSheet(), directory, 3);
+    sheet.set(0, 0, 1.0);
+    sheet.set(0, 1, 2.0);
+    assertEquals(HEADER_BYTES, Files.size(logFile(directory)));
+
+    sheet.set(0, 2, 3.0);
+    assertEquals(HEADER_BYTES + 3 * SET_BYTES, Files.size(logFile(directory)));
+
+    sheet.set(0, 3, 4.0);
+    sheet.sync();
+    assertEquals(HEADER_BYTES + 4 * SET_BYTES, Files.size(logFile(directory)));
+    sheet.close();
+  }
+
+  @Test
+  public void testTornRecordIsIgnored() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    LoggedSpreadSheet sheet = new LoggedSpreadSheet(new SparseSpreadSheet(), directory, 1);
+    sheet.set(5, 5, 5.0);
+    sheet.close();
+    Files.write(logFile(directory), new byte[] {1, 9, 0, 0}, StandardOpenOption.APPEND);
+
+    LoggedSpreadSheet recovered = new LoggedSpreadSheet(new SparseSpreadSheet(), directory);
+    assertEquals(5.0, recovered.get(5, 5), 0.001);
+    assertEquals(HEADER_BYTES + SET_BYTES, Files.size(logFile(directory)));
+
+    recovered.set(6, 6, 6.0);
+    recovered.close();
+    LoggedSpreadSheet again = new LoggedSpreadSheet(new SparseSpreadSheet(), directory);
+    assertEquals(6.0, again.get(6, 6), 0.001);
+    again.close();
+  }
+
+  @Test
+  public void testCorruptRecordEndsReplay() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    LoggedSpreadSheet sheet = new LoggedSpreadSheet(new SparseSpreadSheet(), directory, 1);
+    sheet.set(1, 1, 1.0);
+    sheet.set(2, 2, 2.0);
+    sheet.close();
+    byte[] bytes = Files.readAllBytes(logFile(directory));
+    bytes[(int) (HEADER_BYTES + SET_BYTES + 10)] ^= 0x40;
+    Files.write(logFile(directory), bytes);
+
+    LoggedSpreadSheet recovered = new LoggedSpreadSheet(new SparseSpreadSheet(), directory);
+    assertEquals(1.0, recovered.get(1, 1), 0.001);
+    assertTrue(recovered.isEmpty(2, 2));
+    recovered.close();
+  }
+
+  @Test
+  public void testCheckpointEmptiesLog() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    LoggedBetterSpreadSheet sheet =
+            new LoggedBetterSpreadSheet(new BetterSparseSpreadSheet(), directory, 1);
+    sheet.bulkSet(0, 0, 99, 99, 1.0);
+    sheet.set(50, 50, 7.0);
+    sheet.checkpoint();
+    assertEquals(HEADER_BYTES, Files.size(logFile(directory)));
+
+    sheet.set(200, 3, 4.0);
+    sheet.close();
+
+    LoggedBetterSpreadSheet recovered =
+            new LoggedBetterSpreadSheet(new BetterSparseSpreadSheet(), directory);
+    assertEquals(1.0, recovered.get(99, 99), 0.001);
+    assertEquals(7.0, recovered.get(50, 50), 0.001);
+    assertEquals(4.0, recovered.get(200, 3), 0.001);
+    assertFalse(recovered.isEmpty(0, 0));
+    recovered.close();
+  }
+
+  @Test
+  public void testInvalidChangeIsNotLogged() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    LoggedBetterSpreadSheet sheet =
+            new LoggedBetterSpreadSheet(new BetterSparseSpreadSheet(), directory, 1);
+    try {
+      sheet.bulkSet(5, 5, 1, 1, 1.0);
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      sheet.set(-1, 0, 1.0);
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    assertEquals(HEADER_BYTES, Files.size(logFile(directory)));
+    sheet.close();
+  }
+
+  @Test
+  public void testChangeThatCannotBeLoggedIsNotMade() throws IOException {
+    LoggedBetterSpreadSheet sheet = new LoggedBetterSpreadSheet(new BetterSparseSpreadSheet(),
+            folder.getRoot().toPath(), 1);
+    sheet.set(0, 0, 1.0);
+    sheet.close();
+    try {
+      sheet.set(2, 2, 5.0);
+      fail("Expected an IllegalStateException");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      sheet.bulkSet(0, 0, 9, 9, 3.0);
+      fail("Expected an IllegalStateException");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    assertTrue(sheet.isEmpty(2, 2));
+    assertEquals(1.0, sheet.get(0, 0), 0.001);
+    assertTrue(sheet.isEmpty(9, 9));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidGroupSize() throws IOException {
+    new LoggedSpreadSheet(new SparseSpreadSheet(), folder.getRoot().toPath(), 0);
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsOtherLogFiles() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    Files.write(logFile(directory), "not a log".getBytes());
+    new LoggedSpreadSheet(new SparseSpreadSheet(), directory);
+  }
+}
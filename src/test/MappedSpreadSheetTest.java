@@ -0,0 +1,252 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import spreadsheet.BetterSpreadSheet;
+import spreadsheet.ColumnarRegion;
+import spreadsheet.MappedSpreadSheet;
+import spreadsheet.RegionSummary;
+import spreadsheet.SpreadSheetFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for MappedSpreadSheet.
+ */
+public class MappedSpreadSheetTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path file;
+  private MappedSpreadSheet sheet;
+
+  @Before
+  public void setUp() throws IOException {
+    file = folder.getRoot().toPath().resolve("sheet.map");
+    sheet = new MappedSpreadSheet(file);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    sheet.close();
+  }
+
+  @Test
+  public void testEmptySheet() {
+    assertEquals(0, sheet.getWidth());
+    assertEquals(0, sheet.getHeight());
+    assertTrue(sheet.isEmpty(0, 0));
+    assertEquals(0.0, sheet.get(1000, 1000), 0.001);
+  }
+
+  @Test
+  public void testSetAndGet() {
+    sheet.set(0, 0, 1.5);
+    sheet.set(64, 63, -4.0);
+    sheet.set(100000, 3, 0.0);
+
+    assertEquals(1.5, sheet.get(0, 0), 0.001);
+    assertEquals(-4.0, sheet.get(64, 63), 0.001);
+    assertFalse(sheet.isEmpty(100000, 3));
+    assertTrue(sheet.isEmpty(0, 1));
+    assertEquals(100001, sheet.getHeight());
+    assertEquals(64, sheet.getWidth());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeRow() {
+    sheet.get(-1, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeColumnSet() {
+    sheet.set(0, -1, 2.0);
+  }
+
+  @Test
+  public void testBulkSetAcrossTiles() {
+    sheet.set(70, 70, 9.0);
+    sheet.bulkSet(10, 20, 200, 150, 3.0);
+
+    assertEquals(3.0, sheet.get(10, 20), 0.001);
+    assertEquals(3.0, sheet.get(70, 70), 0.001);
+    assertEquals(3.0, sheet.get(200, 150), 0.001);
+    assertTrue(sheet.isEmpty(9, 20));
+    assertTrue(sheet.isEmpty(10, 151));
+    assertEquals(201, sheet.getHeight());
+    assertEquals(151, sheet.getWidth());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBulkSetInvalidRegion() {
+    sheet.bulkSet(5, 5, 4, 5, 1.0);
+  }
+
+  @Test
+  public void testContentsSurviveReopening() throws IOException {
+    sheet.set(3, 4, 2.5);
+    sheet.bulkSet(100, 100, 130, 300, 7.0);
+    sheet.close();
+
+    sheet = new MappedSpreadSheet(file);
+    assertEquals(2.5, sheet.get(3, 4), 0.001);
+    assertEquals(7.0, sheet.get(130, 300), 0.001);
+    assertTrue(sheet.isEmpty(3, 5));
+    assertEquals(131, sheet.getHeight());
+    assertEquals(301, sheet.getWidth());
+  }
+
+  @Test
+  public void testManyTilesGrowDirectory() throws IOException {
+    for (int i = 0; i < 3000; i++) {
+      sheet.set(i * 64, i % 7, i);
+    }
+    sheet.flush();
+    sheet.close();
+
+    sheet = new MappedSpreadSheet(file);
+    for (int i = 0; i < 3000; i++) {
+      assertEquals(i, sheet.get(i * 64, i % 7), 0.001);
+      assertTrue(sheet.isEmpty(i * 64 + 1, i % 7));
+    }
+  }
+
+  @Test
+  public void testClearAfterReopeningShrinksBounds() throws IOException {
+    sheet.set(2, 2, 1.0);
+    sheet.bulkSet(60, 60, 200, 70, 3.0);
+    sheet.close();
+
+    sheet = new MappedSpreadSheet(file);
+    sheet.clearRange(100, 0, 300, 300);
+    assertEquals(100, sheet.getHeight());
+    assertEquals(71, sheet.getWidth());
+    sheet.clearRange(0, 60, 99, 70);
+    assertEquals(3, sheet.getHeight());
+    assertEquals(3, sheet.getWidth());
+  }
+
+  @Test
+  public void testOpeningDoesNotReadTiles() throws IOException {
+    sheet.set(0, 0, 1.0);
+    sheet.close();
+    // mark the whole last row of the only tile, in slot 2 after the header and the
+    // directory, as occupied behind the spreadsheet's back; a slot is 64 occupancy
+    // words and 4096 values
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      ByteBuffer word = ByteBuffer.allocate(Long.BYTES).putLong(-1L);
+      word.flip();
+      channel.write(word, 2L * (64 + 4096) * Long.BYTES + 63 * Long.BYTES);
+    }
+
+    sheet = new MappedSpreadSheet(file);
+    // the bounds come from the header; counting the tile would have found 64 by 64
+    assertEquals(1, sheet.getHeight());
+    assertEquals(1, sheet.getWidth());
+    sheet.set(5, 5, 2.0);
+    sheet.clear(5, 5);
+    assertEquals(64, sheet.getHeight());
+    assertEquals(64, sheet.getWidth());
+  }
+
+  @Test
+  public void testClearAwayFromBoundsAfterReopening() throws IOException {
+    sheet.bulkSet(0, 0, 99, 99, 1.0);
+    sheet.close();
+
+    sheet = new MappedSpreadSheet(file);
+    sheet.clearRange(10, 10, 50, 50);
+    sheet.clear(3, 3);
+    assertEquals(100, sheet.getHeight());
+    assertEquals(100, sheet.getWidth());
+    assertTrue(sheet.isEmpty(30, 30));
+    sheet.clearRange(60, 0, 99, 99);
+    assertEquals(60, sheet.getHeight());
+    assertEquals(100, sheet.getWidth());
+    sheet.fillSeries(200, 0, 200, 3, 1.0, 1.0);
+    assertEquals(201, sheet.getHeight());
+    assertEquals(4.0, sheet.get(200, 3), 0.001);
+  }
+
+  @Test
+  public void testSummarizeAndReadColumns() {
+    sheet.bulkSet(10, 10, 99, 79, 2.0);
+    sheet.set(50, 50, -6.0);
+    sheet.set(5000, 5000, 100.0);
+
+    RegionSummary summary = sheet.summarize(0, 0, 6000, 6000);
+    assertEquals(90 * 70 + 1, summary.getCount());
+    assertEquals(2.0 * (90 * 70 - 1) - 6.0 + 100.0, summary.getSum(), 0.001);
+    assertEquals(-6.0, summary.getMin(), 0.001);
+    assertEquals(100.0, summary.getMax(), 0.001);
+    assertEquals(21 * 21, sheet.summarize(40, 40, 60, 60).getCount());
+    assertEquals(-6.0, sheet.summarize(40, 40, 60, 60).getMin(), 0.001);
+
+    ColumnarRegion columns = sheet.readColumns(9, 70, 200, 5000);
+    assertEquals(5001 - 70, columns.getColumnCount());
+    assertTrue(columns.isEmpty(0, 0));
+    assertEquals(2.0, columns.get(1, 0), 0.001);
+    assertEquals(2.0, columns.get(90, 9), 0.001);
+    assertTrue(columns.isEmpty(91, 9));
+    assertTrue(columns.isEmpty(1, 10));
+  }
+
+  @Test
+  public void testCopyOverlappingRegion() {
+    for (int row = 0; row < 100; row++) {
+      for (int col = 0; col < 100; col++) {
+        if ((row + col) % 3 != 0) {
+          sheet.set(row, col, row * 100 + col);
+        }
+      }
+    }
+    sheet.copyRegion(0, 0, 99, 99, 30, 45);
+
+    for (int row = 0; row < 100; row++) {
+      for (int col = 0; col < 100; col++) {
+        assertEquals((row + col) % 3 == 0, sheet.isEmpty(row + 30, col + 45));
+        assertEquals((row + col) % 3 == 0 ? 0.0 : row * 100 + col,
+                sheet.get(row + 30, col + 45), 0.001);
+      }
+    }
+    assertEquals(5.0, sheet.get(0, 5), 0.001);
+    assertEquals(130, sheet.getHeight());
+    assertEquals(145, sheet.getWidth());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testClosedSheetRejectsAccess() throws IOException {
+    sheet.close();
+    sheet.get(0, 0);
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsOtherFiles() throws IOException {
+    Path other = folder.getRoot().toPath().resolve("other.txt");
+    Files.write(other, "this is not a spreadsheet file at all".getBytes());
+    new MappedSpreadSheet(other);
+  }
+
+  @Test
+  public void testFactoryOpensMappedSheet() throws IOException {
+    sheet.set(1, 1, 6.0);
+    sheet.close();
+
+    BetterSpreadSheet opened = SpreadSheetFactory.createBetterSheet("mapped:" + file);
+    assertTrue(opened instanceof MappedSpreadSheet);
+    assertEquals(6.0, opened.get(1, 1), 0.001);
+    ((MappedSpreadSheet) opened).close();
+  }
+}
@@ -0,0 +1,157 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import spreadsheet.MockSpreadSheet;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetController;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for the pipelined batch mode of the controller.
+ */
+public class PipelinedModeTest {
+
+  private static String randomCommands(Random random, int count) {
+    String[] rows = {"A", "B", "c", "AA", "zz", "1", "a1"};
+    String[] values = {"1", "-2.5", "1e3", "x", "0.125", "NaN"};
+    StringBuilder commands = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      String row = rows[random.nextInt(rows.length)];
+      int col = random.nextInt(12) - 1;
+      switch (random.nextInt(10)) {
+        case 0:
+          commands.append("bogus").append(i % 3);
+          break;
+        case 1:
+          commands.append("assign-formula ").append(row).append(' ').append(col).append(" 1");
+          break;
+        case 2:
+        case 3:
+        case 4:
+          commands.append("print-value ").append(row).append(' ').append(col);
+          break;
+        default:
+          commands.append("assign-value ").append(row).append(' ').append(col).append(' ')
+                  .append(values[random.nextInt(values.length)]);
+          break;
+      }
+      commands.append(random.nextBoolean() ? "\n" : " ");
+    }
+    return commands.toString();
+  }
+
+  @Test
+  public void testPipelinedMatchesBatch() {
+    Random random = new Random(23);
+    for (int run = 0; run < 5; run++) {
+      String commands = randomCommands(random, 20000) + "menu print-value A 1";
+      StringWriter batchOutput = new StringWriter();
+      SpreadSheet batchSheet = new SparseSpreadSheet();
+      new SpreadSheetController(batchSheet, new StringReader(commands), batchOutput)
+              .executeBatch();
+      StringWriter pipelinedOutput = new StringWriter();
+      SpreadSheet pipelinedSheet = new SparseSpreadSheet();
+      new SpreadSheetController(pipelinedSheet, new StringReader(commands), pipelinedOutput)
+              .executePipelined();
+
+      assertEquals(batchOutput.toString(), pipelinedOutput.toString());
+      for (int row = 0; row < 30; row++) {
+        for (int col = 0; col < 12; col++) {
+          assertEquals(batchSheet.get(row, col), pipelinedSheet.get(row, col), 0.0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testPipelinedKeepsCommandOrder() {
+    StringBuilder log = new StringBuilder();
+    StringWriter output = new StringWriter();
+    new SpreadSheetController(new MockSpreadSheet(log),
+            new StringReader("assign-value aB 2 15.0 print-value ABC 1 quit assign-value A 1 1"),
+            output).executePipelined();
+
+    assertEquals("set(27, 1, 15.0)\nget(730,0)\n", log.toString());
+  }
+
+  @Test
+  public void testPipelinedReadsAfterWrites() {
+    StringBuilder commands = new StringBuilder();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 50000; i++) {
+      commands.append("assign-value B 3 ").append(i).append(" print-value B 3\n");
+      expected.append("Value: ").append((double) i).append(System.lineSeparator());
+    }
+    StringWriter output = new StringWriter();
+    new SpreadSheetController(new SparseSpreadSheet(),
+            new StringReader(commands + "assign-value A"), output).executePipelined();
+
+    assertEquals(expected.toString(), output.toString());
+  }
+
+  @Test
+  public void testPipelinedReportsOutputFailure() {
+    Appendable failing = new Appendable() {
+      @Override
+      public Appendable append(CharSequence csq) throws IOException {
+        throw new IOException("Simulated IO failure");
+      }
+
+      @Override
+      public Appendable append(CharSequence csq, int start, int end) throws IOException {
+        throw new IOException("Simulated IO failure");
+      }
+
+      @Override
+      public Appendable append(char c) throws IOException {
+        throw new IOException("Simulated IO failure");
+      }
+    };
+    StringBuilder commands = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      commands.append("print-value A 1 ");
+    }
+    try {
+      new SpreadSheetController(new SparseSpreadSheet(), new StringReader(commands.toString()),
+              failing).executePipelined();
+      fail("Expected an IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertEquals("Simulated IO failure", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testPipelinedReportsModelFailure() {
+    SpreadSheet sheet = new SparseSpreadSheet() {
+      @Override
+      public void set(int row, int col, double value) {
+        if (row == 5) {
+          throw new IllegalStateException("Model failure");
+        }
+        super.set(row, col, value);
+      }
+    };
+    StringBuilder commands = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      commands.append("assign-value A 1 2 print-value A 1 ");
+    }
+    commands.append("assign-value F 1 1");
+    StringWriter output = new StringWriter();
+    try {
+      new SpreadSheetController(sheet, new StringReader(commands.toString()), output)
+              .executePipelined();
+      fail("Expected an IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertEquals("Model failure", e.getMessage());
+    }
+    assertTrue(output.toString().startsWith("Value: 2.0"));
+  }
+}
@@ -0,0 +1,364 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import spreadsheet.AdaptiveSpreadSheet;
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.BetterSpreadSheet;
+import spreadsheet.BetterSpreadSheetController;
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.FormulaBetterSpreadSheet;
+import spreadsheet.LoggedBetterSpreadSheet;
+import spreadsheet.LoggedSpreadSheet;
+import spreadsheet.MappedSpreadSheet;
+import spreadsheet.MockBetterSpreadSheet;
+import spreadsheet.RegionSummary;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for copying, moving and filling regions of a BetterSpreadSheet.
+ */
+public class RegionCopyTest {
+  private static final int ROWS = 400;
+  private static final int COLS = 300;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private BetterSpreadSheet[] models() throws IOException {
+    return new BetterSpreadSheet[]{new BetterSparseSpreadSheet(), new TiledSpreadSheet(),
+        new AdaptiveSpreadSheet(), new ConcurrentSpreadSheet(4),
+        new FormulaBetterSpreadSheet(new TiledSpreadSheet()),
+        new MappedSpreadSheet(folder.newFolder().toPath().resolve("sheet.map"))};
+  }
+
+  /**
+   * Fills scattered cells and a few dense blocks, so tiled models hold both sparse and
+   * dense tiles.
+   */
+  private static void populate(Random random, SpreadSheet... sheets) {
+    for (int i = 0; i < 3000; i++) {
+      int row = random.nextInt(ROWS / 2);
+      int col = random.nextInt(COLS / 2);
+      double value = random.nextInt(1000) - 500;
+      for (SpreadSheet sheet : sheets) {
+        sheet.set(row, col, value);
+      }
+    }
+    for (int block = 0; block < 3; block++) {
+      int top = random.nextInt(ROWS / 2);
+      int left = random.nextInt(COLS / 2);
+      for (int row = top; row < top + 70; row++) {
+        for (int col = left; col < left + 50; col++) {
+          for (SpreadSheet sheet : sheets) {
+            sheet.set(row, col, row * 1000 + col);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies or moves a region of the reference one cell at a time, reading every source
+   * cell before writing any.
+   */
+  private static void copyCells(SpreadSheet sheet, int startRow, int startCol, int endRow,
+                                int endCol, int toRow, int toCol, boolean move) {
+    int rows = endRow - startRow + 1;
+    int cols = endCol - startCol + 1;
+    Double[][] source = new Double[rows][cols];
+    for (int row = 0; row < rows; row++) {
+      for (int col = 0; col < cols; col++) {
+        if (!sheet.isEmpty(startRow + row, startCol + col)) {
+          source[row][col] = sheet.get(startRow + row, startCol + col);
+        }
+      }
+    }
+    if (move) {
+      for (int row = 0; row < rows; row++) {
+        for (int col = 0; col < cols; col++) {
+          sheet.clear(startRow + row, startCol + col);
+        }
+      }
+    }
+    for (int row = 0; row < rows; row++) {
+      for (int col = 0; col < cols; col++) {
+        if (source[row][col] == null) {
+          sheet.clear(toRow + row, toCol + col);
+        } else {
+          sheet.set(toRow + row, toCol + col, source[row][col]);
+        }
+      }
+    }
+  }
+
+  private static void assertSameCells(SpreadSheet expected, BetterSpreadSheet actual) {
+    String name = actual.getClass().getSimpleName();
+    assertEquals(name, expected.getWidth(), actual.getWidth());
+    assertEquals(name, expected.getHeight(), actual.getHeight());
+    for (int row = 0; row < ROWS; row++) {
+      for (int col = 0; col < COLS; col++) {
+        assertEquals(name, expected.isEmpty(row, col), actual.isEmpty(row, col));
+        assertEquals(name, expected.get(row, col), actual.get(row, col), 0.0);
+      }
+    }
+    // the summaries of whole tiles are cached, so they must follow the copies too
+    RegionSummary summary = actual.summarize(0, 0, ROWS, COLS);
+    long count = 0;
+    double sum = 0;
+    for (int row = 0; row < ROWS; row++) {
+      for (int col = 0; col < COLS; col++) {
+        if (!expected.isEmpty(row, col)) {
+          count++;
+          sum += expected.get(row, col);
+        }
+      }
+    }
+    assertEquals(name, count, summary.getCount());
+    assertEquals(name, sum, summary.getSum(), 1e-6);
+  }
+
+  private void runRandomCopies(boolean move) throws IOException {
+    Random random = new Random(move ? 241 : 24);
+    for (BetterSpreadSheet sheet : models()) {
+      SpreadSheet expected = new SparseSpreadSheet();
+      populate(random, expected, sheet);
+      for (int i = 0; i < 25; i++) {
+        int startRow = random.nextInt(ROWS / 2);
+        int startCol = random.nextInt(COLS / 2);
+        int endRow = startRow + random.nextInt(150);
+        int endCol = startCol + random.nextInt(120);
+        // mostly small shifts, so the source and destination overlap
+        int toRow = Math.max(0, startRow + random.nextInt(161) - 80);
+        int toCol = Math.max(0, startCol + random.nextInt(121) - 60);
+        copyCells(expected, startRow, startCol, endRow, endCol, toRow, toCol, move);
+        if (move) {
+          sheet.moveRegion(startRow, startCol, endRow, endCol, toRow, toCol);
+        } else {
+          sheet.copyRegion(startRow, startCol, endRow, endCol, toRow, toCol);
+        }
+      }
+      assertSameCells(expected, sheet);
+    }
+  }
+
+  @Test
+  public void testCopyRegionMatchesCellByCellCopy() throws IOException {
+    runRandomCopies(false);
+  }
+
+  @Test
+  public void testMoveRegionMatchesCellByCellMove() throws IOException {
+    runRandomCopies(true);
+  }
+
+  @Test
+  public void testCopyOverlapsInEveryDirection() throws IOException {
+    int[][] shifts = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, 1}, {-1, -1}, {1, -1}, {-1, 1},
+        {65, 3}, {-3, 70}};
+    for (int[] shift : shifts) {
+      for (BetterSpreadSheet sheet : models()) {
+        SpreadSheet expected = new SparseSpreadSheet();
+        for (int row = 80; row < 220; row++) {
+          for (int col = 80; col < 220; col++) {
+            if ((row + col) % 5 != 0) {
+              expected.set(row, col, row * 1000 + col);
+              sheet.set(row, col, row * 1000 + col);
+            }
+          }
+        }
+        copyCells(expected, 80, 80, 219, 219, 80 + shift[0], 80 + shift[1], false);
+        sheet.copyRegion(80, 80, 219, 219, 80 + shift[0], 80 + shift[1]);
+        assertSameCells(expected, sheet);
+      }
+    }
+  }
+
+  @Test
+  public void testCopyBeyondBoundsEmptiesDestination() throws IOException {
+    for (BetterSpreadSheet sheet : models()) {
+      sheet.bulkSet(0, 0, 9, 9, 1.0);
+      sheet.bulkSet(100, 100, 199, 199, 2.0);
+      sheet.clearRange(100, 100, 199, 199);
+      sheet.bulkSet(20, 0, 29, 9, 3.0);
+
+      // columns 10 to 14 of the source lie beyond the last non-empty column
+      sheet.copyRegion(0, 5, 29, 14, 0, 0);
+      assertEquals(1.0, sheet.get(9, 4), 0.0);
+      assertTrue(sheet.isEmpty(9, 5));
+      assertEquals(3.0, sheet.get(29, 4), 0.0);
+      assertEquals(5, sheet.getWidth());
+
+      // rows 30 to 49 of the source lie below the last non-empty row
+      sheet.copyRegion(20, 0, 49, 14, 0, 0);
+      assertEquals(3.0, sheet.get(9, 4), 0.0);
+      assertTrue(sheet.isEmpty(10, 0));
+      assertTrue(sheet.isEmpty(29, 4));
+      assertEquals(10, sheet.getHeight());
+      assertEquals(5, sheet.getWidth());
+      assertEquals(50, sheet.summarize(0, 0, 300, 300).getCount());
+    }
+  }
+
+  @Test
+  public void testMoveLeavesSourceEmpty() throws IOException {
+    for (BetterSpreadSheet sheet : models()) {
+      sheet.bulkSet(0, 0, 63, 63, 4.0);
+      sheet.moveRegion(0, 0, 63, 63, 200, 150);
+      assertEquals(0, sheet.summarize(0, 0, 199, 299).getCount());
+      assertEquals(64 * 64, sheet.summarize(200, 150, 263, 213).getCount());
+      assertEquals(264, sheet.getHeight());
+      assertEquals(214, sheet.getWidth());
+
+      sheet.moveRegion(200, 150, 263, 213, 200, 150);
+      assertEquals(64 * 64, sheet.summarize(0, 0, 300, 300).getCount());
+    }
+  }
+
+  @Test
+  public void testFillSeries() throws IOException {
+    for (BetterSpreadSheet sheet : models()) {
+      sheet.set(3, 3, 99.0);
+      sheet.fillSeries(2, 1, 130, 70, 1.0, 0.5);
+      long index = 0;
+      for (int row = 2; row <= 130; row++) {
+        for (int col = 1; col <= 70; col++) {
+          assertEquals(1.0 + index * 0.5, sheet.get(row, col), 0.0);
+          index++;
+        }
+      }
+      assertTrue(sheet.isEmpty(1, 1));
+      assertTrue(sheet.isEmpty(2, 0));
+      assertEquals(131, sheet.getHeight());
+      assertEquals(71, sheet.getWidth());
+      RegionSummary summary = sheet.summarize(0, 0, 200, 200);
+      assertEquals(129 * 70, summary.getCount());
+      assertEquals(1.0, summary.getMin(), 0.0);
+      assertEquals(1.0 + (129 * 70 - 1) * 0.5, summary.getMax(), 0.0);
+    }
+  }
+
+  @Test
+  public void testInvalidArguments() throws IOException {
+    for (BetterSpreadSheet sheet : models()) {
+      try {
+        sheet.copyRegion(0, 0, 5, 5, -1, 0);
+        fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+        assertEquals("Row or column cannot be negative", e.getMessage());
+      }
+      try {
+        sheet.moveRegion(5, 0, 4, 5, 0, 0);
+        fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+        assertEquals("End coordinates must be greater than or equal to start coordinates",
+                e.getMessage());
+      }
+      try {
+        sheet.copyRegion(0, 0, 5, 5, Integer.MAX_VALUE - 2, 0);
+        fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+        assertEquals("Destination of the region is out of range", e.getMessage());
+      }
+      try {
+        sheet.fillSeries(0, -1, 5, 5, 1.0, 1.0);
+        fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+        assertEquals("Row or column cannot be negative", e.getMessage());
+      }
+      assertEquals(0, sheet.getWidth());
+    }
+  }
+
+  @Test
+  public void testCopyReplacesFormulas() {
+    FormulaBetterSpreadSheet sheet = new FormulaBetterSpreadSheet(new TiledSpreadSheet());
+    sheet.set(0, 0, 2.0);
+    sheet.setFormula(0, 1, "A1*10");
+    sheet.setFormula(5, 5, "SUM(A1:B1)");
+    sheet.copyRegion(0, 0, 0, 1, 5, 5);
+
+    assertNull(sheet.getFormula(5, 5));
+    assertEquals(2.0, sheet.get(5, 5), 0.0);
+    assertEquals(20.0, sheet.get(5, 6), 0.0);
+
+    sheet.moveRegion(0, 0, 0, 1, 1, 0);
+    assertNull(sheet.getFormula(0, 1));
+    assertTrue(sheet.isEmpty(0, 0));
+    assertEquals(20.0, sheet.get(1, 1), 0.0);
+  }
+
+  @Test
+  public void testLoggedRegionOperationsAreRecovered() throws IOException {
+    LoggedBetterSpreadSheet sheet = new LoggedBetterSpreadSheet(new TiledSpreadSheet(),
+            folder.getRoot().toPath(), 1);
+    sheet.fillSeries(0, 0, 9, 9, 0.0, 1.0);
+    sheet.copyRegion(0, 0, 9, 9, 5, 5);
+    sheet.moveRegion(0, 0, 4, 4, 100, 100);
+    sheet.close();
+
+    // a plain spreadsheet replays the region records one cell at a time
+    LoggedSpreadSheet plain = new LoggedSpreadSheet(new SparseSpreadSheet(),
+            folder.getRoot().toPath());
+    LoggedBetterSpreadSheet recovered = new LoggedBetterSpreadSheet(
+            new AdaptiveSpreadSheet(), folder.getRoot().toPath());
+    for (SpreadSheet copy : new SpreadSheet[]{plain, recovered}) {
+      assertTrue(copy.isEmpty(0, 0));
+      assertEquals(0.0, copy.get(100, 100), 0.0);
+      assertEquals(44.0, copy.get(104, 104), 0.0);
+      assertEquals(0.0, copy.get(5, 5), 0.0);
+      assertEquals(99.0, copy.get(14, 14), 0.0);
+      assertEquals(105, copy.getHeight());
+    }
+    plain.close();
+    recovered.close();
+  }
+
+  @Test
+  public void testControllerRegionCommands() {
+    StringBuilder log = new StringBuilder();
+    StringWriter output = new StringWriter();
+    new BetterSpreadSheetController(new MockBetterSpreadSheet(log),
+            new StringReader("copy-region A 1 B 2 D 4\nmove-region C 3 C 3 A 1\n"
+                    + "fill-series A 1 C 5 1.5 -0.5\ncopy-region A 1 B 2 D -4\n"),
+            output).executeBatch();
+
+    assertEquals("copyRegion(0, 0, 1, 1, 3, 3)\nmoveRegion(2, 2, 2, 2, 0, 0)\n"
+            + "fillSeries(0, 0, 2, 4, 1.5, -0.5)\n", log.toString());
+    String newline = System.lineSeparator();
+    assertEquals("Copied region (0,0) to (1,1) to cell (3,3)" + newline
+            + "Moved region (2,2) to (2,2) to cell (0,0)" + newline
+            + "Filled region (0,0) to (2,4) with a series from 1.5 by -0.5" + newline
+            + "Error: Row or column cannot be negative" + newline, output.toString());
+  }
+
+  @Test
+  public void testInteractiveRegionCommands() {
+    BetterSpreadSheet sheet = new TiledSpreadSheet();
+    StringWriter output = new StringWriter();
+    new BetterSpreadSheetController(sheet,
+            new StringReader("fill-series A 1 B 3 1 1 copy-region A 1 B 3 C 2 "
+                    + "move-region A 1 A 3 E 1 q"), output).executeBetterProgram();
+
+    assertTrue(output.toString().contains("Filled region (0,0) to (1,2) with a series "
+            + "from 1.0 by 1.0"));
+    assertTrue(output.toString().contains("Copied region (0,0) to (1,2) to cell (2,1)"));
+    assertTrue(output.toString().contains("Moved region (0,0) to (0,2) to cell (4,0)"));
+    assertEquals(6.0, sheet.get(3, 3), 0.0);
+    assertEquals(3.0, sheet.get(4, 2), 0.0);
+    assertTrue(sheet.isEmpty(0, 0));
+    assertEquals(4.0, sheet.get(1, 0), 0.0);
+  }
+}
@@ -0,0 +1,200 @@
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import spreadsheet.AdaptiveSpreadSheet;
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.BetterSpreadSheet;
+import spreadsheet.BetterSpreadSheetController;
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.FormulaBetterSpreadSheet;
+import spreadsheet.RegionSummary;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for the region summaries of the BetterSpreadSheet implementations.
+ */
+public class RegionSummaryTest {
+
+  private static BetterSpreadSheet[] models() {
+    return new BetterSpreadSheet[]{new BetterSparseSpreadSheet(), new TiledSpreadSheet(),
+        new AdaptiveSpreadSheet(), new ConcurrentSpreadSheet(4),
+        new FormulaBetterSpreadSheet(new TiledSpreadSheet())};
+  }
+
+  /**
+   * Summarizes a region by reading every cell, the way a caller would without summaries.
+   */
+  private static double[] scan(BetterSpreadSheet sheet, int startRow, int startCol,
+                               int endRow, int endCol) {
+    double count = 0;
+    double sum = 0;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    for (int row = startRow; row <= endRow; row++) {
+      for (int col = startCol; col <= endCol; col++) {
+        if (!sheet.isEmpty(row, col)) {
+          double value = sheet.get(row, col);
+          count++;
+          sum += value;
+          min = Math.min(min, value);
+          max = Math.max(max, value);
+        }
+      }
+    }
+    return new double[]{count, sum, min, max};
+  }
+
+  private static void assertSummary(BetterSpreadSheet sheet, int startRow, int startCol,
+                                    int endRow, int endCol) {
+    double[] expected = scan(sheet, startRow, startCol, endRow, endCol);
+    RegionSummary summary = sheet.summarize(startRow, startCol, endRow, endCol);
+    String where = sheet.getClass().getSimpleName() + " (" + startRow + "," + startCol
+            + ")-(" + endRow + "," + endCol + ")";
+    assertEquals(where, (long) expected[0], summary.getCount());
+    assertEquals(where, expected[1], summary.getSum(), 1e-6);
+    if (expected[0] > 0) {
+      assertEquals(where, expected[2], summary.getMin(), 0.0);
+      assertEquals(where, expected[3], summary.getMax(), 0.0);
+      assertEquals(where, expected[1] / expected[0], summary.getAverage(), 1e-6);
+    } else {
+      assertTrue(where, Double.isNaN(summary.getMin()));
+      assertTrue(where, Double.isNaN(summary.getMax()));
+      assertTrue(where, Double.isNaN(summary.getAverage()));
+    }
+  }
+
+  @Test
+  public void testEmptySheet() {
+    for (BetterSpreadSheet sheet : models()) {
+      RegionSummary summary = sheet.summarize(0, 0, 1000, 1000);
+      assertEquals(0, summary.getCount());
+      assertEquals(0.0, summary.getSum(), 0.0);
+      assertTrue(Double.isNaN(summary.getAverage()));
+    }
+  }
+
+  @Test
+  public void testSmallRegion() {
+    for (BetterSpreadSheet sheet : models()) {
+      sheet.set(0, 0, 4.0);
+      sheet.set(1, 1, -2.0);
+      sheet.set(2, 5, 10.0);
+      RegionSummary summary = sheet.summarize(0, 0, 1, 1);
+      assertEquals(2, summary.getCount());
+      assertEquals(2.0, summary.getSum(), 0.0);
+      assertEquals(-2.0, summary.getMin(), 0.0);
+      assertEquals(4.0, summary.getMax(), 0.0);
+      assertEquals(1.0, summary.getAverage(), 0.0);
+    }
+  }
+
+  @Test
+  public void testOverwritesAndBulkAssignments() {
+    for (BetterSpreadSheet sheet : models()) {
+      sheet.bulkSet(0, 0, 199, 199, 1.0);
+      assertSummary(sheet, 0, 0, 199, 199);
+      // lower the maximum of a tile whose summary is cached
+      sheet.set(10, 10, 50.0);
+      assertSummary(sheet, 0, 0, 63, 63);
+      sheet.set(10, 10, 0.5);
+      assertSummary(sheet, 0, 0, 63, 63);
+      assertSummary(sheet, 0, 0, 199, 199);
+      sheet.bulkSet(64, 64, 127, 127, 3.0);
+      sheet.bulkSet(60, 60, 70, 70, -1.0);
+      assertSummary(sheet, 0, 0, 199, 199);
+      assertSummary(sheet, 30, 40, 130, 150);
+    }
+  }
+
+  @Test
+  public void testRandomWritesMatchScan() {
+    Random random = new Random(7);
+    for (BetterSpreadSheet sheet : models()) {
+      for (int round = 0; round < 20; round++) {
+        for (int i = 0; i < 200; i++) {
+          sheet.set(random.nextInt(300), random.nextInt(300), random.nextInt(1000) - 500);
+        }
+        int row = random.nextInt(250);
+        int col = random.nextInt(250);
+        sheet.bulkSet(row, col, row + random.nextInt(100), col + random.nextInt(100),
+                random.nextInt(100));
+        int startRow = random.nextInt(300);
+        int startCol = random.nextInt(300);
+        assertSummary(sheet, startRow, startCol, startRow + random.nextInt(300),
+                startCol + random.nextInt(300));
+        assertSummary(sheet, 0, 0, 320, 320);
+      }
+    }
+  }
+
+  @Test
+  public void testScatteredTiles() {
+    // these models can skip the empty space between the cells
+    BetterSpreadSheet[] tiled = {new BetterSparseSpreadSheet(), new TiledSpreadSheet(),
+        new AdaptiveSpreadSheet(), new ConcurrentSpreadSheet(4)};
+    for (BetterSpreadSheet sheet : tiled) {
+      sheet.set(0, 0, 1.0);
+      sheet.set(100000, 100000, 2.0);
+      sheet.set(50000, 3, 3.0);
+      RegionSummary summary = sheet.summarize(0, 0, 200000, 200000);
+      assertEquals(3, summary.getCount());
+      assertEquals(6.0, summary.getSum(), 0.0);
+      assertEquals(1, sheet.summarize(40000, 0, 60000, 10).getCount());
+    }
+  }
+
+  @Test
+  public void testSparseSummaryOfBulkRegions() {
+    BetterSparseSpreadSheet sheet = new BetterSparseSpreadSheet();
+    sheet.set(5, 5, 100.0);
+    sheet.bulkSet(0, 0, 19999, 9999, 2.0);
+    RegionSummary summary = sheet.summarize(0, 0, 19999, 9999);
+    assertEquals(200000000L, summary.getCount());
+    assertEquals(400000000.0, summary.getSum(), 0.0);
+    assertEquals(2.0, summary.getMax(), 0.0);
+
+    // a later write and a later, overlapping assignment both show through
+    sheet.set(5, 5, 7.0);
+    sheet.bulkSet(100, 100, 199, 199, -1.0);
+    summary = sheet.summarize(0, 0, 19999, 9999);
+    assertEquals(200000000L, summary.getCount());
+    assertEquals(400000000.0 + 5.0 - 3.0 * 10000, summary.getSum(), 0.0);
+    assertEquals(-1.0, summary.getMin(), 0.0);
+    assertEquals(7.0, summary.getMax(), 0.0);
+    assertSummary(sheet, 0, 0, 255, 255);
+    assertSummary(sheet, 90, 90, 130, 300);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeRegion() {
+    new TiledSpreadSheet().summarize(-1, 0, 2, 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvertedRegion() {
+    new AdaptiveSpreadSheet().summarize(3, 0, 2, 2);
+  }
+
+  @Test
+  public void testControllerCommands() {
+    StringWriter output = new StringWriter();
+    new BetterSpreadSheetController(new TiledSpreadSheet(),
+            new StringReader("bulk-assign A 1 B 2 3 assign-value C 3 -1 sum A 1 C 3 "
+                    + "min A 1 C 3 max A 1 C 3 count A 1 C 3 average A 1 C 3 q"), output)
+            .executeBatch();
+
+    assertEquals("Bulk assigned 3.0 to region (0,0) to (1,1)" + System.lineSeparator()
+            + "Set cell (2,2) to -1.0" + System.lineSeparator()
+            + "Sum: 11.0" + System.lineSeparator()
+            + "Min: -1.0" + System.lineSeparator()
+            + "Max: 3.0" + System.lineSeparator()
+            + "Count: 5" + System.lineSeparator()
+            + "Average: 2.2" + System.lineSeparator(), output.toString());
+  }
+}
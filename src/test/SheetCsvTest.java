@@ -0,0 +1,305 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import spreadsheet.AdaptiveSpreadSheet;
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.BetterSpreadSheetController;
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.SheetCsv;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetController;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for importing and exporting spreadsheets as CSV files.
+ */
+public class SheetCsvTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static SpreadSheet[] models() {
+    return new SpreadSheet[]{new SparseSpreadSheet(), new BetterSparseSpreadSheet(),
+        new TiledSpreadSheet(), new AdaptiveSpreadSheet(), new ConcurrentSpreadSheet(4)};
+  }
+
+  private static void assertSameCells(SpreadSheet expected, SpreadSheet actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int row = 0; row < expected.getHeight(); row++) {
+      for (int col = 0; col < expected.getWidth(); col++) {
+        assertEquals(expected.isEmpty(row, col), actual.isEmpty(row, col));
+        assertEquals(expected.get(row, col), actual.get(row, col), 0.0);
+      }
+    }
+  }
+
+  private Path write(String name, String text) throws IOException {
+    Path file = folder.getRoot().toPath().resolve(name);
+    Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+    return file;
+  }
+
+  @Test
+  public void testLoadReadsFieldsAsCells() throws IOException {
+    Path file = write("cells.csv", "1,2.5,-3\n\n,,4e2\r\n \"7\" , 0.125 ,\n8");
+    SpreadSheet sheet = new SparseSpreadSheet();
+
+    assertEquals(7, SheetCsv.load(file, sheet));
+
+    assertEquals(1.0, sheet.get(0, 0), 0.0);
+    assertEquals(2.5, sheet.get(0, 1), 0.0);
+    assertEquals(-3.0, sheet.get(0, 2), 0.0);
+    assertTrue(sheet.isEmpty(1, 0));
+    assertTrue(sheet.isEmpty(2, 0));
+    assertEquals(400.0, sheet.get(2, 2), 0.0);
+    assertEquals(7.0, sheet.get(3, 0), 0.0);
+    assertEquals(0.125, sheet.get(3, 1), 0.0);
+    assertTrue(sheet.isEmpty(3, 2));
+    assertEquals(8.0, sheet.get(4, 0), 0.0);
+    assertEquals(3, sheet.getWidth());
+    assertEquals(5, sheet.getHeight());
+  }
+
+  @Test
+  public void testLoadParsesNumbersExactly() throws IOException {
+    Random random = new Random(19);
+    String[] texts = new String[2000];
+    StringBuilder csv = new StringBuilder();
+    for (int i = 0; i < texts.length; i++) {
+      switch (i % 4) {
+        case 0:
+          texts[i] = Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+          break;
+        case 1:
+          texts[i] = Long.toString(random.nextLong());
+          break;
+        case 2:
+          texts[i] = (random.nextInt(2000000) - 1000000) + "." + random.nextInt(1000000);
+          break;
+        default:
+          texts[i] = "0.000" + Math.abs(random.nextLong()) + "e" + (random.nextInt(60) - 30);
+          break;
+      }
+      csv.append(texts[i]).append((i % 10 == 9) ? "\n" : ",");
+    }
+    SpreadSheet sheet = new TiledSpreadSheet();
+    SheetCsv.load(write("numbers.csv", csv.toString()), sheet);
+
+    for (int i = 0; i < texts.length; i++) {
+      assertEquals(texts[i], Double.parseDouble(texts[i]), sheet.get(i / 10, i % 10), 0.0);
+    }
+  }
+
+  @Test
+  public void testRoundTripAllModels() throws IOException {
+    Random random = new Random(7);
+    SpreadSheet reference = new SparseSpreadSheet();
+    for (int i = 0; i < 3000; i++) {
+      double value;
+      if (i % 3 == 0) {
+        value = random.nextInt(1000) - 500;
+      } else if (i % 3 == 1) {
+        value = random.nextInt(2000000) / Math.pow(10, random.nextInt(9)) - 1000;
+      } else {
+        value = random.nextGaussian() * 1e6;
+      }
+      reference.set(random.nextInt(300), random.nextInt(150), value);
+    }
+    reference.set(299, 0, -0.0);
+    reference.set(0, 149, 1e300);
+    Path file = folder.getRoot().toPath().resolve("round.csv");
+
+    for (SpreadSheet sheet : models()) {
+      reference.forEachCell(sheet::set);
+      assertTrue(SheetCsv.save(sheet, file) > 0);
+      SpreadSheet loaded = new SparseSpreadSheet();
+      SheetCsv.load(file, loaded);
+      assertSameCells(reference, loaded);
+      for (SpreadSheet target : models()) {
+        SheetCsv.load(file, target);
+        assertSameCells(reference, target);
+      }
+    }
+  }
+
+  @Test
+  public void testRoundTripFileLargerThanOneChunk() throws IOException {
+    TiledSpreadSheet sheet = new TiledSpreadSheet();
+    double[] values = new double[200];
+    for (int row = 0; row < 3000; row++) {
+      for (int col = 0; col < values.length; col++) {
+        values[col] = row * 1000.0 + col + 0.5;
+      }
+      sheet.setRow(row, 0, values, 0, values.length);
+    }
+    Path file = folder.getRoot().toPath().resolve("large.csv");
+    assertEquals(600000, SheetCsv.save(sheet, file));
+    assertTrue(Files.size(file) > 4 << 20);
+
+    for (SpreadSheet target : models()) {
+      assertEquals(600000, SheetCsv.load(file, target));
+      assertEquals(200, target.getWidth());
+      assertEquals(3000, target.getHeight());
+      assertEquals(2999199.5, target.get(2999, 199), 0.0);
+      assertEquals(1234056.5, target.get(1234, 56), 0.0);
+    }
+  }
+
+  @Test
+  public void testLoadLongLines() throws IOException {
+    StringBuilder csv = new StringBuilder();
+    for (int col = 0; col < 200000; col++) {
+      csv.append(col).append(',');
+    }
+    csv.append("\n5\n");
+    SpreadSheet sheet = new AdaptiveSpreadSheet();
+
+    SheetCsv.load(write("wide.csv", csv.toString()), sheet);
+
+    assertEquals(200000, sheet.getWidth());
+    assertEquals(2, sheet.getHeight());
+    assertEquals(199999.0, sheet.get(0, 199999), 0.0);
+    assertEquals(5.0, sheet.get(1, 0), 0.0);
+  }
+
+  @Test
+  public void testExportWritesPopulatedCellsOnly() throws IOException {
+    SpreadSheet sheet = new SparseSpreadSheet();
+    sheet.set(0, 1, 2.0);
+    sheet.set(2, 0, -1.5);
+    sheet.set(2, 3, 1e20);
+    Path file = folder.getRoot().toPath().resolve("out.csv");
+
+    assertEquals(3, SheetCsv.save(sheet, file));
+
+    assertEquals(",2\n\n-1.5,,,1.0E20\n",
+            new String(Files.readAllBytes(file), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testExportEmptySheet() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("empty.csv");
+
+    assertEquals(0, SheetCsv.save(new TiledSpreadSheet(), file));
+    assertEquals(0, Files.size(file));
+    SpreadSheet loaded = new SparseSpreadSheet();
+    assertEquals(0, SheetCsv.load(file, loaded));
+    assertEquals(0, loaded.getHeight());
+  }
+
+  @Test
+  public void testLoadReportsLineOfBadField() throws IOException {
+    Path file = write("bad.csv", "1,2\n3,4\n5,oops\n6\n");
+    SpreadSheet sheet = new SparseSpreadSheet();
+    try {
+      SheetCsv.load(file, sheet);
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertEquals("Invalid number on line 3: oops", e.getMessage());
+    }
+    assertEquals(4.0, sheet.get(1, 1), 0.0);
+    assertTrue(sheet.isEmpty(3, 0));
+  }
+
+  @Test
+  public void testSetRowMatchesSet() {
+    Random random = new Random(3);
+    double[] values = new double[300];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random.nextInt(100);
+    }
+    SpreadSheet reference = new SparseSpreadSheet();
+    SpreadSheet[] sheets = models();
+    for (int i = 0; i < 50; i++) {
+      int row = random.nextInt(200);
+      int col = random.nextInt(200);
+      int offset = random.nextInt(values.length);
+      int length = random.nextInt(values.length - offset + 1);
+      for (int j = 0; j < length; j++) {
+        reference.set(row, col + j, values[offset + j]);
+      }
+      for (SpreadSheet sheet : sheets) {
+        sheet.setRow(row, col, values, offset, length);
+      }
+    }
+    for (SpreadSheet sheet : sheets) {
+      assertSameCells(reference, sheet);
+    }
+  }
+
+  @Test
+  public void testSetRowRejectsBadRuns() {
+    double[] values = new double[4];
+    for (SpreadSheet sheet : models()) {
+      int[][] runs = {{-1, 0, 0, 1}, {0, -1, 0, 1}, {0, 0, 3, 2}, {0, 0, -1, 1},
+          {0, Integer.MAX_VALUE, 0, 2}};
+      for (int[] run : runs) {
+        try {
+          sheet.setRow(run[0], run[1], values, run[2], run[3]);
+          fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+          // expected
+        }
+      }
+      assertEquals(0, sheet.getWidth());
+    }
+  }
+
+  @Test
+  public void testControllerImportsAndExports() throws IOException {
+    Path in = write("in.csv", "1,2\n3,4\n");
+    String out = folder.getRoot().toPath().resolve("out.csv").toString();
+    StringWriter output = new StringWriter();
+    new SpreadSheetController(new SparseSpreadSheet(),
+            new StringReader("import-csv " + in + " assign-value C 1 9 print-value B 2 export-csv "
+                    + out + " q"), output).executeBatch();
+
+    assertEquals("Imported 4 cells from " + in + System.lineSeparator()
+            + "Value: 4.0" + System.lineSeparator()
+            + "Exported 5 cells to " + out + System.lineSeparator(), output.toString());
+    assertEquals("1,2\n3,4\n9\n",
+            new String(Files.readAllBytes(Path.of(out)), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testBetterControllerImportsAndExports() throws IOException {
+    Path in = write("better.csv", "1,2\n3,4\n");
+    String out = folder.getRoot().toPath().resolve("better-out.csv").toString();
+    StringWriter output = new StringWriter();
+    new BetterSpreadSheetController(new BetterSparseSpreadSheet(),
+            new StringReader("import-csv " + in + " sum A 1 B 2 export-csv " + out + " q"),
+            output).executeBatch();
+
+    assertEquals("Imported 4 cells from " + in + System.lineSeparator()
+            + "Sum: 10.0" + System.lineSeparator()
+            + "Exported 4 cells to " + out + System.lineSeparator(), output.toString());
+  }
+
+  @Test
+  public void testControllerReportsBadFile() throws IOException {
+    Path in = write("text.csv", "hello\n");
+    StringWriter output = new StringWriter();
+    new SpreadSheetController(new SparseSpreadSheet(),
+            new StringReader("import-csv " + in + " q"), output).executeBatch();
+
+    assertEquals("Error: Invalid number on line 1: hello" + System.lineSeparator(),
+            output.toString());
+    assertFalse(output.toString().contains("Imported"));
+  }
+}
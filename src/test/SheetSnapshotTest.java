@@ -0,0 +1,206 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.BetterSpreadSheetController;
+import spreadsheet.SheetSnapshot;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetController;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for saving and loading spreadsheet snapshots.
+ */
+public class SheetSnapshotTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static void assertSameCells(SpreadSheet expected, SpreadSheet actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int row = 0; row < expected.getHeight(); row++) {
+      for (int col = 0; col < expected.getWidth(); col++) {
+        assertEquals(expected.isEmpty(row, col), actual.isEmpty(row, col));
+        assertEquals(expected.get(row, col), actual.get(row, col), 0.001);
+      }
+    }
+  }
+
+  @Test
+  public void testRoundTripSparseSheet() throws IOException {
+    SpreadSheet sheet = new SparseSpreadSheet();
+    sheet.set(0, 0, 1.5);
+    sheet.set(63, 64, -2.0);
+    sheet.set(200, 3, 0.0);
+    sheet.set(5, 130, 42.0);
+    Path file = folder.getRoot().toPath().resolve("sparse.snap");
+
+    SheetSnapshot.save(sheet, file);
+    SpreadSheet loaded = new SparseSpreadSheet();
+    SheetSnapshot.load(file, loaded);
+
+    assertSameCells(sheet, loaded);
+    assertFalse(loaded.isEmpty(200, 3));
+  }
+
+  @Test
+  public void testRoundTripTiledSheet() throws IOException {
+    TiledSpreadSheet sheet = new TiledSpreadSheet();
+    sheet.bulkSet(10, 10, 100, 90, 7.0);
+    sheet.set(150, 2, 3.25);
+    Path file = folder.getRoot().toPath().resolve("tiled.snap");
+
+    SheetSnapshot.save(sheet, file);
+    SpreadSheet loaded = new SparseSpreadSheet();
+    SheetSnapshot.load(file, loaded);
+
+    assertSameCells(sheet, loaded);
+  }
+
+  @Test
+  public void testRoundTripResolvesBulkRegions() throws IOException {
+    BetterSparseSpreadSheet sheet = new BetterSparseSpreadSheet();
+    sheet.set(3, 3, 1.0);
+    sheet.bulkSet(0, 0, 20, 20, 5.0);
+    sheet.set(4, 4, 9.0);
+    Path file = folder.getRoot().toPath().resolve("better.snap");
+
+    SheetSnapshot.save(sheet, file);
+    SpreadSheet loaded = new TiledSpreadSheet();
+    SheetSnapshot.load(file, loaded);
+
+    assertSameCells(sheet, loaded);
+    assertEquals(5.0, loaded.get(3, 3), 0.001);
+    assertEquals(9.0, loaded.get(4, 4), 0.001);
+  }
+
+  @Test
+  public void testSavesLargeBulkRegionsByTile() throws IOException {
+    BetterSparseSpreadSheet sheet = new BetterSparseSpreadSheet();
+    sheet.bulkSet(0, 0, 10239, 10239, 1.5);
+    sheet.set(70, 70, -3.0);
+    sheet.set(20000, 5, 8.0);
+    Path file = folder.getRoot().toPath().resolve("large.snap");
+
+    SheetSnapshot.save(sheet, file);
+    // the full tiles holding one value are stored by that value alone
+    assertTrue(Files.size(file) < (2L << 20));
+    BetterSparseSpreadSheet loaded = new BetterSparseSpreadSheet();
+    SheetSnapshot.load(file, loaded);
+
+    assertEquals(sheet.summarize(0, 0, 20000, 10239).getCount(),
+            loaded.summarize(0, 0, 20000, 10239).getCount());
+    assertEquals(sheet.summarize(0, 0, 20000, 10239).getSum(),
+            loaded.summarize(0, 0, 20000, 10239).getSum(), 0.001);
+    assertEquals(1.5, loaded.get(10239, 10239), 0.001);
+    assertEquals(-3.0, loaded.get(70, 70), 0.001);
+    assertEquals(8.0, loaded.get(20000, 5), 0.001);
+    assertTrue(loaded.isEmpty(10240, 10240));
+    assertEquals(sheet.getWidth(), loaded.getWidth());
+    assertEquals(sheet.getHeight(), loaded.getHeight());
+  }
+
+  @Test
+  public void testRoundTripEmptySheet() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("empty.snap");
+
+    SheetSnapshot.save(new SparseSpreadSheet(), file);
+    SpreadSheet loaded = new SparseSpreadSheet();
+    SheetSnapshot.load(file, loaded);
+
+    assertEquals(0, loaded.getWidth());
+    assertEquals(0, loaded.getHeight());
+  }
+
+  @Test
+  public void testLoadKeepsCellsMissingFromSnapshot() throws IOException {
+    SpreadSheet sheet = new SparseSpreadSheet();
+    sheet.set(1, 1, 2.0);
+    Path file = folder.getRoot().toPath().resolve("merge.snap");
+    SheetSnapshot.save(sheet, file);
+
+    SpreadSheet target = new SparseSpreadSheet();
+    target.set(1, 1, 8.0);
+    target.set(2, 2, 4.0);
+    SheetSnapshot.load(file, target);
+
+    assertEquals(2.0, target.get(1, 1), 0.001);
+    assertEquals(4.0, target.get(2, 2), 0.001);
+  }
+
+  @Test(expected = IOException.class)
+  public void testLoadRejectsOtherFiles() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("text.snap");
+    Files.write(file, "assign-value A 1 2.0 and some more text".getBytes());
+
+    SheetSnapshot.load(file, new SparseSpreadSheet());
+  }
+
+  @Test(expected = IOException.class)
+  public void testLoadRejectsTruncatedSnapshot() throws IOException {
+    SpreadSheet sheet = new SparseSpreadSheet();
+    sheet.set(1, 1, 2.0);
+    sheet.set(1, 2, 3.0);
+    Path file = folder.getRoot().toPath().resolve("truncated.snap");
+    SheetSnapshot.save(sheet, file);
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, java.util.Arrays.copyOf(bytes, bytes.length - Double.BYTES));
+
+    SheetSnapshot.load(file, new SparseSpreadSheet());
+  }
+
+  @Test
+  public void testControllerSavesAndLoads() {
+    String path = folder.getRoot().toPath().resolve("controller.snap").toString();
+    StringWriter output = new StringWriter();
+    new SpreadSheetController(new SparseSpreadSheet(),
+            new StringReader("assign-value B 3 6.5 save " + path + " q"), output)
+            .executeBatch();
+    assertEquals("Saved snapshot to " + path + System.lineSeparator(), output.toString());
+
+    output = new StringWriter();
+    new SpreadSheetController(new SparseSpreadSheet(),
+            new StringReader("load " + path + " print-value B 3 q"), output).executeBatch();
+    assertEquals("Loaded snapshot from " + path + System.lineSeparator()
+            + "Value: 6.5" + System.lineSeparator(), output.toString());
+  }
+
+  @Test
+  public void testBetterControllerSavesAndLoads() {
+    String path = folder.getRoot().toPath().resolve("better-controller.snap").toString();
+    StringWriter output = new StringWriter();
+    new BetterSpreadSheetController(new BetterSparseSpreadSheet(),
+            new StringReader("bulk-assign A 1 J 10 2.0 save " + path + " q"), output)
+            .executeBetterProgram();
+    assertTrue(output.toString().contains("Saved snapshot to " + path));
+
+    output = new StringWriter();
+    new BetterSpreadSheetController(new BetterSparseSpreadSheet(),
+            new StringReader("load " + path + " print-value J 10 q"), output).executeBatch();
+    assertEquals("Loaded snapshot from " + path + System.lineSeparator()
+            + "Value: 2.0" + System.lineSeparator(), output.toString());
+  }
+
+  @Test
+  public void testControllerReportsMissingFile() {
+    String path = folder.getRoot().toPath().resolve("missing.snap").toString();
+    StringWriter output = new StringWriter();
+    new SpreadSheetController(new SparseSpreadSheet(),
+            new StringReader("load " + path + " q"), output).executeBatch();
+
+    assertTrue(output.toString().startsWith("Error: "));
+  }
+}
@@ -0,0 +1,51 @@
+import org.junit.Test;
+
+import spreadsheet.AdaptiveSpreadSheet;
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheetFactory;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for SpreadSheetFactory.
+ */
+public class SpreadSheetFactoryTest {
+
+  @Test
+  public void testCreateSparseSheet() {
+    assertTrue(SpreadSheetFactory.createSheet("sparse") instanceof SparseSpreadSheet);
+    assertTrue(SpreadSheetFactory.createBetterSheet("sparse")
+            instanceof BetterSparseSpreadSheet);
+  }
+
+  @Test
+  public void testCreateTiledSheet() {
+    assertTrue(SpreadSheetFactory.createSheet("tiled") instanceof TiledSpreadSheet);
+    assertTrue(SpreadSheetFactory.createBetterSheet("tiled") instanceof TiledSpreadSheet);
+  }
+
+  @Test
+  public void testCreateAdaptiveSheet() {
+    assertTrue(SpreadSheetFactory.createBetterSheet("adaptive")
+            instanceof AdaptiveSpreadSheet);
+  }
+
+  @Test
+  public void testCreateConcurrentSheet() {
+    assertTrue(SpreadSheetFactory.createBetterSheet("concurrent")
+            instanceof ConcurrentSpreadSheet);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownKind() {
+    SpreadSheetFactory.createSheet("unknown");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullKind() {
+    SpreadSheetFactory.createBetterSheet(null);
+  }
+}
@@ -73,4 +73,17 @@ public class SpreadSheetProgramTest {
     assertTrue("Output should show the value was set and retrieved",
             output.contains("Value: 42.5"));
   }
+
+  @Test
+  public void testMainMethodWithTiledSheet() {
+    String input = "assign-value B 3 7.25\nprint-value B 3\nq\n";
+    inContent = new ByteArrayInputStream(input.getBytes());
+    System.setIn(inContent);
+
+    SpreadSheetProgram.main(new String[]{"tiled"});
+
+    String output = outContent.toString();
+    assertTrue("Output should show the value stored in the tiled sheet",
+            output.contains("Value: 7.25"));
+  }
 }
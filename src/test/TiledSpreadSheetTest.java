@@ -0,0 +1,176 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import spreadsheet.BetterSpreadSheet;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for TiledSpreadSheet.
+ */
+public class TiledSpreadSheetTest {
+
+  private BetterSpreadSheet sheet;
+
+  @Before
+  public void setUp() {
+    sheet = new TiledSpreadSheet();
+  }
+
+  @Test
+  public void testNewSpreadsheetDimensions() {
+    assertEquals(0, sheet.getWidth());
+    assertEquals(0, sheet.getHeight());
+    assertTrue(sheet.isEmpty(0, 0));
+    assertEquals(0.0, sheet.get(1000, 1000), 0.001);
+  }
+
+  @Test
+  public void testSetAndGet() {
+    sheet.set(3, 4, 12.5);
+
+    assertEquals(12.5, sheet.get(3, 4), 0.001);
+    assertFalse(sheet.isEmpty(3, 4));
+    assertTrue(sheet.isEmpty(4, 3));
+    assertEquals(5, sheet.getWidth());
+    assertEquals(4, sheet.getHeight());
+  }
+
+  @Test
+  public void testSetZeroIsNotEmpty() {
+    sheet.set(5, 5, 0.0);
+    assertFalse(sheet.isEmpty(5, 5));
+  }
+
+  @Test
+  public void testCellsInDifferentTiles() {
+    sheet.set(63, 63, 1.0);
+    sheet.set(64, 63, 2.0);
+    sheet.set(63, 64, 3.0);
+    sheet.set(64, 64, 4.0);
+    sheet.set(100000, 200000, 5.0);
+
+    assertEquals(1.0, sheet.get(63, 63), 0.001);
+    assertEquals(2.0, sheet.get(64, 63), 0.001);
+    assertEquals(3.0, sheet.get(63, 64), 0.001);
+    assertEquals(4.0, sheet.get(64, 64), 0.001);
+    assertEquals(5.0, sheet.get(100000, 200000), 0.001);
+    assertTrue(sheet.isEmpty(100000, 199999));
+
+    assertEquals(200001, sheet.getWidth());
+    assertEquals(100001, sheet.getHeight());
+  }
+
+  @Test
+  public void testSetDoesNotDecreaseDimensions() {
+    sheet.set(10, 10, 1.0);
+    sheet.set(2, 2, 1.0);
+
+    assertEquals(11, sheet.getWidth());
+    assertEquals(11, sheet.getHeight());
+  }
+
+  @Test
+  public void testBulkSetAcrossTileBoundaries() {
+    sheet.bulkSet(60, 60, 130, 70, 2.0);
+
+    for (int row = 60; row <= 130; row++) {
+      for (int col = 60; col <= 70; col++) {
+        assertEquals(2.0, sheet.get(row, col), 0.001);
+        assertFalse(sheet.isEmpty(row, col));
+      }
+    }
+    assertTrue(sheet.isEmpty(59, 60));
+    assertTrue(sheet.isEmpty(60, 59));
+    assertTrue(sheet.isEmpty(131, 70));
+    assertTrue(sheet.isEmpty(130, 71));
+
+    assertEquals(71, sheet.getWidth());
+    assertEquals(131, sheet.getHeight());
+  }
+
+  @Test
+  public void testBulkSetFullRowOfTile() {
+    sheet.bulkSet(0, 0, 0, 63, 1.5);
+
+    assertEquals(1.5, sheet.get(0, 0), 0.001);
+    assertEquals(1.5, sheet.get(0, 63), 0.001);
+    assertTrue(sheet.isEmpty(0, 64));
+    assertTrue(sheet.isEmpty(1, 0));
+  }
+
+  @Test
+  public void testBulkSetOverExistingValues() {
+    sheet.set(2, 2, 5.0);
+    sheet.bulkSet(1, 1, 3, 3, 7.5);
+    sheet.set(3, 3, 1.0);
+
+    assertEquals(7.5, sheet.get(2, 2), 0.001);
+    assertEquals(1.0, sheet.get(3, 3), 0.001);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGetNegativeRow() {
+    sheet.get(-1, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetNegativeCol() {
+    sheet.set(0, -1, 5.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIsEmptyNegativeCol() {
+    sheet.isEmpty(0, -1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBulkSetNegativeStartRow() {
+    sheet.bulkSet(-1, 0, 1, 1, 1.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBulkSetEndColLessThanStartCol() {
+    sheet.bulkSet(0, 5, 1, 4, 1.0);
+  }
+
+  @Test
+  public void testParallelBulkSetMatchesSequential() {
+    BetterSpreadSheet parallel = new TiledSpreadSheet(1000);
+    parallel.set(300, 300, 9.0);
+    parallel.set(1, 1, 9.0);
+    parallel.bulkSet(3, 5, 700, 333, 6.5);
+    sheet.bulkSet(3, 5, 700, 333, 6.5);
+
+    for (int row = 0; row <= 701; row += 7) {
+      for (int col = 0; col <= 334; col += 3) {
+        assertEquals(sheet.isEmpty(row, col), parallel.isEmpty(row, col));
+        assertEquals(sheet.get(row, col), parallel.get(row, col), 0.0);
+      }
+    }
+    assertEquals(6.5, parallel.get(300, 300), 0.0);
+    assertEquals(9.0, parallel.get(1, 1), 0.0);
+    assertEquals(334, parallel.getWidth());
+    assertEquals(701, parallel.getHeight());
+  }
+
+  @Test
+  public void testParallelBulkSetOnWideRegion() {
+    BetterSpreadSheet parallel = new TiledSpreadSheet(64);
+    parallel.bulkSet(10, 0, 20, 5000, 1.0);
+
+    assertEquals(1.0, parallel.get(10, 0), 0.0);
+    assertEquals(1.0, parallel.get(20, 5000), 0.0);
+    assertEquals(1.0, parallel.get(15, 2500), 0.0);
+    assertTrue(parallel.isEmpty(21, 2500));
+    assertTrue(parallel.isEmpty(15, 5001));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNonPositiveParallelThreshold() {
+    new TiledSpreadSheet(0);
+  }
+}
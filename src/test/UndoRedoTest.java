@@ -0,0 +1,285 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import spreadsheet.AdaptiveSpreadSheet;
+import spreadsheet.BetterSparseSpreadSheet;
+import spreadsheet.BetterSpreadSheet;
+import spreadsheet.BetterSpreadSheetController;
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.MappedSpreadSheet;
+import spreadsheet.MockBetterSpreadSheet;
+import spreadsheet.TiledSpreadSheet;
+import spreadsheet.UndoableSpreadSheet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for undoing and redoing changes to an UndoableSpreadSheet.
+ */
+public class UndoRedoTest {
+  private static final int ROWS = 300;
+  private static final int COLS = 200;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private BetterSpreadSheet[] models() throws IOException {
+    return new BetterSpreadSheet[]{new BetterSparseSpreadSheet(), new TiledSpreadSheet(),
+        new AdaptiveSpreadSheet(), new ConcurrentSpreadSheet(4),
+        new MappedSpreadSheet(folder.newFolder().toPath().resolve("sheet.map"))};
+  }
+
+  /**
+   * Returns the cells of the sheet, with NaN for the empty ones.
+   */
+  private static double[] cells(BetterSpreadSheet sheet) {
+    double[] cells = new double[ROWS * COLS];
+    for (int row = 0; row < ROWS; row++) {
+      for (int col = 0; col < COLS; col++) {
+        cells[row * COLS + col] = sheet.isEmpty(row, col) ? Double.NaN : sheet.get(row, col);
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * Makes one random change: mostly region operations, over regions that are empty,
+   * uniform, scattered or dense.
+   */
+  private static void change(Random random, BetterSpreadSheet sheet) {
+    int startRow = random.nextInt(ROWS / 2);
+    int startCol = random.nextInt(COLS / 2);
+    int endRow = startRow + random.nextInt(ROWS / 2);
+    int endCol = startCol + random.nextInt(COLS / 2);
+    int toRow = random.nextInt(ROWS / 2);
+    int toCol = random.nextInt(COLS / 2);
+    double value = random.nextInt(1000) - 500;
+    switch (random.nextInt(8)) {
+      case 0:
+        sheet.set(startRow, startCol, value);
+        break;
+      case 1:
+        sheet.clear(startRow, startCol);
+        break;
+      case 2:
+        sheet.bulkSet(startRow, startCol, endRow, endCol, value);
+        break;
+      case 3:
+        sheet.clearRange(startRow, startCol, endRow, endCol);
+        break;
+      case 4:
+        sheet.copyRegion(startRow, startCol, endRow, endCol, toRow, toCol);
+        break;
+      case 5:
+        sheet.moveRegion(startRow, startCol, endRow, endCol, toRow, toCol);
+        break;
+      case 6:
+        sheet.fillSeries(startRow, startCol, endRow, endCol, value, 0.5);
+        break;
+      default:
+        double[] values = new double[endCol - startCol + 1];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = random.nextInt(100);
+        }
+        sheet.setRow(startRow, startCol, values, 0, values.length);
+        break;
+    }
+  }
+
+  @Test
+  public void testUndoAndRedoEveryChange() throws IOException {
+    Random random = new Random(25);
+    for (BetterSpreadSheet model : models()) {
+      String name = model.getClass().getSimpleName();
+      UndoableSpreadSheet sheet = new UndoableSpreadSheet(model);
+      for (int i = 0; i < 2000; i++) {
+        sheet.set(random.nextInt(ROWS), random.nextInt(COLS), random.nextInt(100));
+      }
+      List<double[]> states = new ArrayList<double[]>();
+      states.add(cells(sheet));
+      int before = sheet.getUndoCount();
+      for (int i = 0; i < 30; i++) {
+        change(random, sheet);
+        states.add(cells(sheet));
+      }
+      assertEquals(name, before + 30, sheet.getUndoCount());
+
+      for (int i = states.size() - 2; i >= 0; i--) {
+        assertTrue(name, sheet.undo());
+        assertArrayEquals(name, states.get(i), cells(sheet), 0.0);
+      }
+      assertEquals(name, 30, sheet.getRedoCount());
+      for (int i = 1; i < states.size(); i++) {
+        assertTrue(name, sheet.redo());
+        assertArrayEquals(name, states.get(i), cells(sheet), 0.0);
+      }
+      assertFalse(name, sheet.redo());
+    }
+  }
+
+  @Test
+  public void testUniformRegionsAreRecordedCompactly() {
+    UndoableSpreadSheet sheet = new UndoableSpreadSheet(new TiledSpreadSheet());
+    sheet.bulkSet(0, 0, 999, 999, 4.0);
+    sheet.bulkSet(0, 0, 999, 999, 7.0);
+    sheet.clearRange(0, 0, 999, 999);
+    // an empty region and a region holding one value are described without their cells
+    assertEquals(3, sheet.getUndoCount());
+    assertTrue(sheet.getHistoryBytes() <= 3 * 64);
+
+    assertTrue(sheet.undo());
+    assertEquals(7.0, sheet.get(999, 999), 0.0);
+    assertEquals(1000000, sheet.summarize(0, 0, 999, 999).getCount());
+    assertTrue(sheet.undo());
+    assertTrue(sheet.undo());
+    assertTrue(sheet.isEmpty(500, 500));
+    assertFalse(sheet.undo());
+  }
+
+  @Test
+  public void testSparseRegionsStoreOnlyTheirCells() {
+    UndoableSpreadSheet sheet = new UndoableSpreadSheet(new BetterSparseSpreadSheet());
+    for (int i = 0; i < 100; i++) {
+      sheet.set(i * 7, i * 3, i);
+    }
+    long cellsBytes = sheet.getHistoryBytes();
+    sheet.bulkSet(0, 0, 999, 999, 1.0);
+    long regionBytes = sheet.getHistoryBytes() - cellsBytes;
+    // positions and values of the 100 cells, not a million slots
+    assertTrue(regionBytes < 4096);
+
+    assertTrue(sheet.undo());
+    assertEquals(42.0, sheet.get(42 * 7, 42 * 3), 0.0);
+    assertTrue(sheet.isEmpty(1, 1));
+    assertEquals(100, sheet.summarize(0, 0, 999, 999).getCount());
+  }
+
+  @Test
+  public void testBudgetEvictsOldestChanges() {
+    UndoableSpreadSheet sheet = new UndoableSpreadSheet(new TiledSpreadSheet(), 2000);
+    for (int i = 0; i < 50; i++) {
+      sheet.set(0, i, i);
+    }
+    assertTrue(sheet.getHistoryBytes() <= 2000);
+    int kept = sheet.getUndoCount();
+    assertTrue((kept > 0) && (kept < 50));
+
+    for (int i = 0; i < kept; i++) {
+      assertTrue(sheet.undo());
+    }
+    assertFalse(sheet.undo());
+    // the newest changes were undone and the oldest ones, which were forgotten, stay
+    assertEquals(49 - kept, sheet.get(0, 49 - kept), 0.0);
+    assertTrue(sheet.isEmpty(0, 50 - kept));
+    assertTrue(sheet.getHistoryBytes() <= 2000);
+  }
+
+  @Test
+  public void testChangeLargerThanBudgetClearsHistory() {
+    UndoableSpreadSheet sheet = new UndoableSpreadSheet(new TiledSpreadSheet(), 1000);
+    for (int i = 0; i < 80; i++) {
+      sheet.set(i / 10 * 2, i % 10 * 2, i + 0.5);
+    }
+    assertTrue(sheet.getUndoCount() > 0);
+    sheet.bulkSet(0, 0, 20, 20, 3.0);
+    // the eighty scattered cells take more than the budget, so nothing can be undone
+    assertEquals(0, sheet.getUndoCount());
+    assertEquals(0, sheet.getHistoryBytes());
+    assertFalse(sheet.undo());
+    assertEquals(3.0, sheet.get(4, 8), 0.0);
+
+    sheet.set(30, 30, 1.0);
+    assertTrue(sheet.undo());
+    assertTrue(sheet.isEmpty(30, 30));
+  }
+
+  @Test
+  public void testNewChangeClearsRedo() {
+    UndoableSpreadSheet sheet = new UndoableSpreadSheet(new AdaptiveSpreadSheet());
+    sheet.set(1, 1, 1.0);
+    sheet.set(1, 1, 2.0);
+    assertTrue(sheet.undo());
+    assertEquals(1, sheet.getRedoCount());
+    sheet.set(2, 2, 3.0);
+    assertEquals(0, sheet.getRedoCount());
+    assertFalse(sheet.redo());
+    assertEquals(1.0, sheet.get(1, 1), 0.0);
+  }
+
+  @Test
+  public void testInvalidChangesAreNotRecorded() {
+    UndoableSpreadSheet sheet = new UndoableSpreadSheet(new TiledSpreadSheet());
+    try {
+      sheet.set(-1, 0, 1.0);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Row or column cannot be negative", e.getMessage());
+    }
+    try {
+      sheet.bulkSet(5, 5, 4, 4, 1.0);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals("End coordinates must be greater than or equal to start coordinates",
+              e.getMessage());
+    }
+    try {
+      sheet.copyRegion(0, 0, 1, 1, -1, 0);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Row or column cannot be negative", e.getMessage());
+    }
+    sheet.setRow(0, 0, new double[4], 0, 0);
+    assertEquals(0, sheet.getUndoCount());
+
+    try {
+      new UndoableSpreadSheet(new TiledSpreadSheet(), 0);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Budget must be positive", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testControllerUndoCommands() {
+    UndoableSpreadSheet sheet = new UndoableSpreadSheet(new TiledSpreadSheet());
+    StringWriter output = new StringWriter();
+    new BetterSpreadSheetController(sheet,
+            new StringReader("assign-value A 1 5\nbulk-assign A 1 B 2 3\nundo\n"
+                    + "print-value A 1\nundo\nundo\nredo\nprint-value A 1\n"), output)
+            .executeBatch();
+
+    String newline = System.lineSeparator();
+    assertEquals("Set cell (0,0) to 5.0" + newline
+            + "Bulk assigned 3.0 to region (0,0) to (1,1)" + newline
+            + "Undid the last change" + newline
+            + "Value: 5.0" + newline
+            + "Undid the last change" + newline
+            + "Nothing to undo" + newline
+            + "Redid the last undone change" + newline
+            + "Value: 5.0" + newline, output.toString());
+  }
+
+  @Test
+  public void testUndoCommandsNeedAHistory() {
+    StringBuilder log = new StringBuilder();
+    StringWriter output = new StringWriter();
+    new BetterSpreadSheetController(new MockBetterSpreadSheet(log),
+            new StringReader("undo redo q"), output).executeBetterProgram();
+
+    assertTrue(output.toString().contains("Error: Undo is not supported by this spreadsheet"));
+    assertTrue(output.toString().contains("undo (undo the last change)"));
+    assertEquals("", log.toString());
+  }
+}